@@ -2,6 +2,9 @@ package com.geardao.phoneapp.config;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * Properties specific to Phoneapp.
  * <p>
@@ -11,4 +14,916 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 @ConfigurationProperties(prefix = "application", ignoreUnknownFields = false)
 public class ApplicationProperties {
 
+    private final SearchIndexing searchIndexing = new SearchIndexing();
+
+    private final Reindex reindex = new Reindex();
+
+    private final TokenCache tokenCache = new TokenCache();
+
+    private final AuditEvents auditEvents = new AuditEvents();
+
+    private final Cache cache = new Cache();
+
+    private final CacheInvalidation cacheInvalidation = new CacheInvalidation();
+
+    private final BulkImport bulkImport = new BulkImport();
+
+    private final MultiGet multiGet = new MultiGet();
+
+    private final SearchFacets searchFacets = new SearchFacets();
+
+    private final SearchMappings searchMappings = new SearchMappings();
+
+    private final Suggest suggest = new Suggest();
+
+    private final ChangeStream changeStream = new ChangeStream();
+
+    private final CatalogEvents catalogEvents = new CatalogEvents();
+
+    private final PriceFeed priceFeed = new PriceFeed();
+
+    private final Sync sync = new Sync();
+
+    private final BrandStats brandStats = new BrandStats();
+
+    private final PriceIndex priceIndex = new PriceIndex();
+
+    private final SearchResults searchResults = new SearchResults();
+
+    public SearchIndexing getSearchIndexing() {
+        return searchIndexing;
+    }
+
+    public Reindex getReindex() {
+        return reindex;
+    }
+
+    public TokenCache getTokenCache() {
+        return tokenCache;
+    }
+
+    public AuditEvents getAuditEvents() {
+        return auditEvents;
+    }
+
+    public Cache getCache() {
+        return cache;
+    }
+
+    public CacheInvalidation getCacheInvalidation() {
+        return cacheInvalidation;
+    }
+
+    public BulkImport getBulkImport() {
+        return bulkImport;
+    }
+
+    public MultiGet getMultiGet() {
+        return multiGet;
+    }
+
+    public SearchFacets getSearchFacets() {
+        return searchFacets;
+    }
+
+    public SearchMappings getSearchMappings() {
+        return searchMappings;
+    }
+
+    public Suggest getSuggest() {
+        return suggest;
+    }
+
+    public ChangeStream getChangeStream() {
+        return changeStream;
+    }
+
+    public CatalogEvents getCatalogEvents() {
+        return catalogEvents;
+    }
+
+    public PriceFeed getPriceFeed() {
+        return priceFeed;
+    }
+
+    public Sync getSync() {
+        return sync;
+    }
+
+    public BrandStats getBrandStats() {
+        return brandStats;
+    }
+
+    public PriceIndex getPriceIndex() {
+        return priceIndex;
+    }
+
+    public SearchResults getSearchResults() {
+        return searchResults;
+    }
+
+    public static class SearchIndexing {
+
+        /**
+         * When false, documents are written to Elasticsearch on the calling thread.
+         */
+        private boolean async = true;
+
+        private int queueCapacity = 10000;
+
+        private int batchSize = 500;
+
+        private long flushIntervalMs = 1000;
+
+        private int maxAttempts = 5;
+
+        private long initialBackoffMs = 500;
+
+        private long maxBackoffMs = 30000;
+
+        public boolean isAsync() {
+            return async;
+        }
+
+        public void setAsync(boolean async) {
+            this.async = async;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public long getFlushIntervalMs() {
+            return flushIntervalMs;
+        }
+
+        public void setFlushIntervalMs(long flushIntervalMs) {
+            this.flushIntervalMs = flushIntervalMs;
+        }
+
+        public int getMaxAttempts() {
+            return maxAttempts;
+        }
+
+        public void setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+        }
+
+        public long getInitialBackoffMs() {
+            return initialBackoffMs;
+        }
+
+        public void setInitialBackoffMs(long initialBackoffMs) {
+            this.initialBackoffMs = initialBackoffMs;
+        }
+
+        public long getMaxBackoffMs() {
+            return maxBackoffMs;
+        }
+
+        public void setMaxBackoffMs(long maxBackoffMs) {
+            this.maxBackoffMs = maxBackoffMs;
+        }
+    }
+
+    public static class Reindex {
+
+        /**
+         * Number of worker threads, and of partitions each collection is split into.
+         */
+        private int parallelism = 4;
+
+        private int batchSize = 1000;
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public void setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+    }
+
+    public static class TokenCache {
+
+        /**
+         * Maximum number of verified JWT tokens kept in memory, 0 disables the cache.
+         */
+        private int maxEntries = 10000;
+
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+    }
+
+    public static class AuditEvents {
+
+        public enum OverflowPolicy {
+            /**
+             * The calling thread waits for room in the buffer.
+             */
+            BLOCK,
+            /**
+             * The oldest buffered event is discarded.
+             */
+            DROP_OLDEST,
+            /**
+             * The event is appended to the spill file, and written to the database once the buffer is empty again.
+             */
+            SPILL
+        }
+
+        /**
+         * When false, audit events are written to the database on the calling thread.
+         */
+        private boolean async = true;
+
+        private int bufferCapacity = 10000;
+
+        private int batchSize = 500;
+
+        private long flushIntervalMs = 1000;
+
+        private OverflowPolicy overflowPolicy = OverflowPolicy.SPILL;
+
+        private String spillFile = System.getProperty("java.io.tmpdir") + "/phoneapp-audit-events.spill";
+
+        public boolean isAsync() {
+            return async;
+        }
+
+        public void setAsync(boolean async) {
+            this.async = async;
+        }
+
+        public int getBufferCapacity() {
+            return bufferCapacity;
+        }
+
+        public void setBufferCapacity(int bufferCapacity) {
+            this.bufferCapacity = bufferCapacity;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public long getFlushIntervalMs() {
+            return flushIntervalMs;
+        }
+
+        public void setFlushIntervalMs(long flushIntervalMs) {
+            this.flushIntervalMs = flushIntervalMs;
+        }
+
+        public OverflowPolicy getOverflowPolicy() {
+            return overflowPolicy;
+        }
+
+        public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = overflowPolicy;
+        }
+
+        public String getSpillFile() {
+            return spillFile;
+        }
+
+        public void setSpillFile(String spillFile) {
+            this.spillFile = spillFile;
+        }
+    }
+
+    public static class Cache {
+
+        /**
+         * Directory of the caches that have a disk tier.
+         */
+        private String persistenceDirectory = System.getProperty("java.io.tmpdir") + "/phoneapp-ehcache";
+
+        /**
+         * The caches of the application, by name.
+         */
+        private final Map<String, Region> caches = new LinkedHashMap<>();
+
+        public String getPersistenceDirectory() {
+            return persistenceDirectory;
+        }
+
+        public void setPersistenceDirectory(String persistenceDirectory) {
+            this.persistenceDirectory = persistenceDirectory;
+        }
+
+        public Map<String, Region> getCaches() {
+            return caches;
+        }
+
+        /**
+         * The sizing and expiry of a cache. Unset values default to the jhipster.cache.ehcache ones.
+         */
+        public static class Region {
+
+            private Long heapEntries;
+
+            /**
+             * Size of the heap tier in memory, 0 to size it by entries. Sizing by memory walks the object graph of
+             * each entry, so it is meant for caches of small values whose count says little about their size.
+             */
+            private long heapMb;
+
+            /**
+             * Size of the off-heap tier, 0 for none.
+             */
+            private long offHeapMb;
+
+            /**
+             * Size of the persistent disk tier, 0 for none. It must be larger than the off-heap tier.
+             */
+            private long diskMb;
+
+            private Long timeToLiveSeconds;
+
+            /**
+             * When set, entries expire after being idle for this long, instead of after the time to live.
+             */
+            private Long timeToIdleSeconds;
+
+            /**
+             * When true, values are copied in and out of the heap tier, so that callers never share an instance.
+             */
+            private boolean storeByValue;
+
+            public Long getHeapEntries() {
+                return heapEntries;
+            }
+
+            public void setHeapEntries(Long heapEntries) {
+                this.heapEntries = heapEntries;
+            }
+
+            public long getHeapMb() {
+                return heapMb;
+            }
+
+            public void setHeapMb(long heapMb) {
+                this.heapMb = heapMb;
+            }
+
+            public long getOffHeapMb() {
+                return offHeapMb;
+            }
+
+            public void setOffHeapMb(long offHeapMb) {
+                this.offHeapMb = offHeapMb;
+            }
+
+            public long getDiskMb() {
+                return diskMb;
+            }
+
+            public void setDiskMb(long diskMb) {
+                this.diskMb = diskMb;
+            }
+
+            public Long getTimeToLiveSeconds() {
+                return timeToLiveSeconds;
+            }
+
+            public void setTimeToLiveSeconds(Long timeToLiveSeconds) {
+                this.timeToLiveSeconds = timeToLiveSeconds;
+            }
+
+            public Long getTimeToIdleSeconds() {
+                return timeToIdleSeconds;
+            }
+
+            public void setTimeToIdleSeconds(Long timeToIdleSeconds) {
+                this.timeToIdleSeconds = timeToIdleSeconds;
+            }
+
+            public boolean isStoreByValue() {
+                return storeByValue;
+            }
+
+            public void setStoreByValue(boolean storeByValue) {
+                this.storeByValue = storeByValue;
+            }
+        }
+    }
+
+    public static class CacheInvalidation {
+
+        /**
+         * When false, evictions are only applied to the local caches.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Evictions made within this window are sent to the other nodes in a single message.
+         */
+        private long windowMs = 100;
+
+        /**
+         * Number of pending keys that triggers a message before the end of the window.
+         */
+        private int maxKeys = 1000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getWindowMs() {
+            return windowMs;
+        }
+
+        public void setWindowMs(long windowMs) {
+            this.windowMs = windowMs;
+        }
+
+        public int getMaxKeys() {
+            return maxKeys;
+        }
+
+        public void setMaxKeys(int maxKeys) {
+            this.maxKeys = maxKeys;
+        }
+    }
+
+    public static class BulkImport {
+
+        /**
+         * Rows written to the database and to Elasticsearch in each bulk request.
+         */
+        private int chunkSize = 1000;
+
+        public int getChunkSize() {
+            return chunkSize;
+        }
+
+        public void setChunkSize(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+    }
+
+    public static class MultiGet {
+
+        /**
+         * Largest number of ids accepted in a single request.
+         */
+        private int maxIds = 1000;
+
+        public int getMaxIds() {
+            return maxIds;
+        }
+
+        public void setMaxIds(int maxIds) {
+            this.maxIds = maxIds;
+        }
+    }
+
+    public static class SearchFacets {
+
+        /**
+         * Largest number of brands in the brand facet, the most frequent first.
+         */
+        private int brandCount = 20;
+
+        /**
+         * Width of the buckets of the price facet.
+         */
+        private double priceInterval = 100;
+
+        /**
+         * When true, the facets of a search are kept in the phoneFacets cache, and the next searches with the same
+         * criteria only fetch the results.
+         */
+        private boolean cacheEnabled = true;
+
+        public int getBrandCount() {
+            return brandCount;
+        }
+
+        public void setBrandCount(int brandCount) {
+            this.brandCount = brandCount;
+        }
+
+        public double getPriceInterval() {
+            return priceInterval;
+        }
+
+        public void setPriceInterval(double priceInterval) {
+            this.priceInterval = priceInterval;
+        }
+
+        public boolean isCacheEnabled() {
+            return cacheEnabled;
+        }
+
+        public void setCacheEnabled(boolean cacheEnabled) {
+            this.cacheEnabled = cacheEnabled;
+        }
+    }
+
+    public static class SearchMappings {
+
+        public enum MismatchPolicy {
+            /**
+             * Stop the application.
+             */
+            FAIL,
+            /**
+             * Rebuild the index with the managed mapping in the background, while the current index keeps serving.
+             */
+            REINDEX
+        }
+
+        /**
+         * What to do at startup when an existing index does not have the managed mapping of its documents.
+         */
+        private MismatchPolicy onMismatch = MismatchPolicy.FAIL;
+
+        public MismatchPolicy getOnMismatch() {
+            return onMismatch;
+        }
+
+        public void setOnMismatch(MismatchPolicy onMismatch) {
+            this.onMismatch = onMismatch;
+        }
+    }
+
+    public static class Suggest {
+
+        /**
+         * Largest number of suggestions returned at once.
+         */
+        private int maxSize = 20;
+
+        /**
+         * Delay between a write and the rebuild of the prefix index, so that bursts of writes are applied at once.
+         */
+        private long rebuildDelayMs = 200;
+
+        /**
+         * Interval between two full reloads of the prefix index from MongoDB, which also picks up the writes made
+         * by the other nodes.
+         */
+        private long reloadIntervalMs = 600000;
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public long getRebuildDelayMs() {
+            return rebuildDelayMs;
+        }
+
+        public void setRebuildDelayMs(long rebuildDelayMs) {
+            this.rebuildDelayMs = rebuildDelayMs;
+        }
+
+        public long getReloadIntervalMs() {
+            return reloadIntervalMs;
+        }
+
+        public void setReloadIntervalMs(long reloadIntervalMs) {
+            this.reloadIntervalMs = reloadIntervalMs;
+        }
+    }
+
+    public static class ChangeStream {
+
+        /**
+         * When true and MongoDB is a replica set, Elasticsearch and the caches follow the change streams of the
+         * synchronized collections, instead of being written by the services.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Largest number of changes applied at once.
+         */
+        private int batchSize = 500;
+
+        /**
+         * How long MongoDB waits for new changes before returning an empty batch.
+         */
+        private long maxAwaitMs = 1000;
+
+        /**
+         * Duration of the lease a node holds on the change stream of a collection; only the holder follows it,
+         * and another node takes over when the lease is not renewed.
+         */
+        private long leaseMs = 30000;
+
+        /**
+         * Delay before reopening a change stream after an error, or before trying again to get its lease.
+         */
+        private long retryDelayMs = 5000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public long getMaxAwaitMs() {
+            return maxAwaitMs;
+        }
+
+        public void setMaxAwaitMs(long maxAwaitMs) {
+            this.maxAwaitMs = maxAwaitMs;
+        }
+
+        public long getLeaseMs() {
+            return leaseMs;
+        }
+
+        public void setLeaseMs(long leaseMs) {
+            this.leaseMs = leaseMs;
+        }
+
+        public long getRetryDelayMs() {
+            return retryDelayMs;
+        }
+
+        public void setRetryDelayMs(long retryDelayMs) {
+            this.retryDelayMs = retryDelayMs;
+        }
+    }
+
+    public static class CatalogEvents {
+
+        /**
+         * When true, the phone and brand changes are recorded in the outbox and published to Kafka.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Largest number of events read from the outbox and published in one round.
+         */
+        private int batchSize = 500;
+
+        /**
+         * Delay between two rounds when the outbox is empty.
+         */
+        private long pollIntervalMs = 1000;
+
+        /**
+         * Number of concurrent sends; the events of an entity are always sent in order by the same lane.
+         */
+        private int lanes = 8;
+
+        /**
+         * Duration of the lease of the node relaying the events; another node takes over when it is not renewed.
+         */
+        private long leaseMs = 30000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public long getPollIntervalMs() {
+            return pollIntervalMs;
+        }
+
+        public void setPollIntervalMs(long pollIntervalMs) {
+            this.pollIntervalMs = pollIntervalMs;
+        }
+
+        public int getLanes() {
+            return lanes;
+        }
+
+        public void setLanes(int lanes) {
+            this.lanes = lanes;
+        }
+
+        public long getLeaseMs() {
+            return leaseMs;
+        }
+
+        public void setLeaseMs(long leaseMs) {
+            this.leaseMs = leaseMs;
+        }
+    }
+
+    public static class PriceFeed {
+
+        /**
+         * How long the price updates are collected before being written; the updates of a phone within a window
+         * are coalesced into the last one.
+         */
+        private long windowMs = 500;
+
+        /**
+         * Largest number of phones written at once; receiving stops until the collected updates are written.
+         */
+        private int batchSize = 5000;
+
+        /**
+         * Delay before writing a batch again after MongoDB failed to write it.
+         */
+        private long retryDelayMs = 1000;
+
+        public long getWindowMs() {
+            return windowMs;
+        }
+
+        public void setWindowMs(long windowMs) {
+            this.windowMs = windowMs;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public long getRetryDelayMs() {
+            return retryDelayMs;
+        }
+
+        public void setRetryDelayMs(long retryDelayMs) {
+            this.retryDelayMs = retryDelayMs;
+        }
+    }
+
+    public static class Sync {
+
+        /**
+         * Largest number of changes returned at once; the client asks again with the returned token for the rest.
+         */
+        private int maxChanges = 10000;
+
+        /**
+         * Time since a sequence number was handed out after which the changes up to it are returned, so that a
+         * write stamped with an earlier number but still in progress is not skipped by the returned token. It must
+         * exceed the time between handing out a number and the end of the write it stamps.
+         */
+        private long settleMs = 2000;
+
+        /**
+         * How long the deletions are kept; an older token gets the whole catalog again.
+         */
+        private int tombstoneRetentionDays = 30;
+
+        public int getMaxChanges() {
+            return maxChanges;
+        }
+
+        public void setMaxChanges(int maxChanges) {
+            this.maxChanges = maxChanges;
+        }
+
+        public long getSettleMs() {
+            return settleMs;
+        }
+
+        public void setSettleMs(long settleMs) {
+            this.settleMs = settleMs;
+        }
+
+        public int getTombstoneRetentionDays() {
+            return tombstoneRetentionDays;
+        }
+
+        public void setTombstoneRetentionDays(int tombstoneRetentionDays) {
+            this.tombstoneRetentionDays = tombstoneRetentionDays;
+        }
+    }
+
+    public static class BrandStats {
+
+        /**
+         * How often each node reloads the statistics it serves from MongoDB.
+         */
+        private long refreshIntervalMs = 5000;
+
+        /**
+         * How often the statistics are recomputed from all the phones, by a single node, to repair the drift left
+         * by concurrent writes and by the writes made outside of the services.
+         */
+        private long repairIntervalMs = 3600000;
+
+        public long getRefreshIntervalMs() {
+            return refreshIntervalMs;
+        }
+
+        public void setRefreshIntervalMs(long refreshIntervalMs) {
+            this.refreshIntervalMs = refreshIntervalMs;
+        }
+
+        public long getRepairIntervalMs() {
+            return repairIntervalMs;
+        }
+
+        public void setRepairIntervalMs(long repairIntervalMs) {
+            this.repairIntervalMs = repairIntervalMs;
+        }
+    }
+
+    public static class PriceIndex {
+
+        /**
+         * Interval between two full reloads of the price index from MongoDB, which repair the writes of the other
+         * nodes whose evictions were lost.
+         */
+        private long reloadIntervalMs = 600000;
+
+        /**
+         * How long a request waits for the first load of the price index before failing, in milliseconds.
+         */
+        private long loadTimeoutMs = 10000;
+
+        public long getReloadIntervalMs() {
+            return reloadIntervalMs;
+        }
+
+        public void setReloadIntervalMs(long reloadIntervalMs) {
+            this.reloadIntervalMs = reloadIntervalMs;
+        }
+
+        public long getLoadTimeoutMs() {
+            return loadTimeoutMs;
+        }
+
+        public void setLoadTimeoutMs(long loadTimeoutMs) {
+            this.loadTimeoutMs = loadTimeoutMs;
+        }
+    }
+
+    public static class SearchResults {
+
+        /**
+         * Time after a phone or brand write during which the search results are not cached, as the write may not
+         * be searchable yet: it must exceed the indexing flush interval plus the refresh interval of the indexes.
+         */
+        private long settleMs = 6000;
+
+        public long getSettleMs() {
+            return settleMs;
+        }
+
+        public void setSettleMs(long settleMs) {
+            this.settleMs = settleMs;
+        }
+    }
 }
@@ -1,39 +1,105 @@
 package com.geardao.phoneapp.config;
 
+import java.io.File;
 import java.time.Duration;
 
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+
 import org.ehcache.config.builders.*;
+import org.ehcache.config.units.EntryUnit;
+import org.ehcache.config.units.MemoryUnit;
+import org.ehcache.core.config.DefaultConfiguration;
+import org.ehcache.impl.config.persistence.DefaultPersistenceConfiguration;
 import org.ehcache.jsr107.Eh107Configuration;
+import org.ehcache.jsr107.EhcacheCachingProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import io.github.jhipster.config.JHipsterProperties;
 
-import org.springframework.boot.autoconfigure.cache.JCacheManagerCustomizer;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.context.annotation.*;
 
+/**
+ * Ehcache configuration.
+ * <p>
+ * Each cache is sized from its {@code application.cache.caches} entry, and may have an off-heap and a persistent
+ * disk tier in addition to the heap one. A cache that is used by the application but not declared there fails the
+ * startup.
+ */
 @Configuration
 @EnableCaching
 public class CacheConfiguration {
 
-    private final javax.cache.configuration.Configuration<Object, Object> jcacheConfiguration;
+    private final Logger log = LoggerFactory.getLogger(CacheConfiguration.class);
+
+    private final JHipsterProperties.Cache.Ehcache defaults;
 
-    public CacheConfiguration(JHipsterProperties jHipsterProperties) {
-        JHipsterProperties.Cache.Ehcache ehcache =
-            jHipsterProperties.getCache().getEhcache();
+    private final ApplicationProperties.Cache cacheProperties;
 
-        jcacheConfiguration = Eh107Configuration.fromEhcacheCacheConfiguration(
-            CacheConfigurationBuilder.newCacheConfigurationBuilder(Object.class, Object.class,
-                ResourcePoolsBuilder.heap(ehcache.getMaxEntries()))
-                .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofSeconds(ehcache.getTimeToLiveSeconds())))
-                .build());
+    public CacheConfiguration(JHipsterProperties jHipsterProperties, ApplicationProperties applicationProperties) {
+        this.defaults = jHipsterProperties.getCache().getEhcache();
+        this.cacheProperties = applicationProperties.getCache();
     }
 
+    /**
+     * The JCache manager used by Spring Boot, built here rather than customized because the disk tier is a
+     * service of the manager itself.
+     */
     @Bean
-    public JCacheManagerCustomizer cacheManagerCustomizer() {
-        return cm -> {
-            cm.createCache(com.geardao.phoneapp.repository.UserRepository.USERS_BY_LOGIN_CACHE, jcacheConfiguration);
-            cm.createCache(com.geardao.phoneapp.repository.UserRepository.USERS_BY_EMAIL_CACHE, jcacheConfiguration);
-            // jhipster-needle-ehcache-add-entry
-        };
+    @ConditionalOnProperty(prefix = "spring.cache", name = "type", havingValue = "jcache", matchIfMissing = true)
+    public CacheManager jCacheCacheManager() {
+        EhcacheCachingProvider provider =
+            (EhcacheCachingProvider) Caching.getCachingProvider(EhcacheCachingProvider.class.getName());
+        DefaultConfiguration configuration = new DefaultConfiguration(provider.getDefaultClassLoader(),
+            new DefaultPersistenceConfiguration(new File(cacheProperties.getPersistenceDirectory())));
+        CacheManager cm = provider.getCacheManager(provider.getDefaultURI(), configuration);
+        createCache(cm, com.geardao.phoneapp.repository.UserRepository.USERS_BY_LOGIN_CACHE);
+        createCache(cm, com.geardao.phoneapp.repository.UserRepository.USERS_BY_EMAIL_CACHE);
+        createCache(cm, com.geardao.phoneapp.service.PhoneService.PHONES_BY_ID_CACHE);
+        createCache(cm, com.geardao.phoneapp.service.BrandService.BRANDS_BY_ID_CACHE);
+        createCache(cm, com.geardao.phoneapp.service.PhoneService.PHONE_FACETS_CACHE);
+        createCache(cm, com.geardao.phoneapp.service.SearchResultCache.SEARCH_RESULTS_CACHE);
+        // jhipster-needle-ehcache-add-entry
+        return cm;
+    }
+
+    private void createCache(CacheManager cm, String cacheName) {
+        ApplicationProperties.Cache.Region region = cacheProperties.getCaches().get(cacheName);
+        if (region == null) {
+            throw new IllegalStateException("The " + cacheName + " cache is not declared in application.cache.caches");
+        }
+        cm.createCache(cacheName, Eh107Configuration.fromEhcacheCacheConfiguration(buildCacheConfiguration(region)));
+        cm.enableStatistics(cacheName, true);
+        log.debug("Created the {} cache", cacheName);
+    }
+
+    private CacheConfigurationBuilder<Object, Object> buildCacheConfiguration(ApplicationProperties.Cache.Region region) {
+        ResourcePoolsBuilder resourcePools = ResourcePoolsBuilder.newResourcePoolsBuilder();
+        if (region.getHeapMb() > 0) {
+            resourcePools = resourcePools.heap(region.getHeapMb(), MemoryUnit.MB);
+        } else {
+            long heapEntries = region.getHeapEntries() != null ? region.getHeapEntries() : defaults.getMaxEntries();
+            resourcePools = resourcePools.heap(heapEntries, EntryUnit.ENTRIES);
+        }
+        if (region.getOffHeapMb() > 0) {
+            resourcePools = resourcePools.offheap(region.getOffHeapMb(), MemoryUnit.MB);
+        }
+        if (region.getDiskMb() > 0) {
+            resourcePools = resourcePools.disk(region.getDiskMb(), MemoryUnit.MB, true);
+        }
+        CacheConfigurationBuilder<Object, Object> builder =
+            CacheConfigurationBuilder.newCacheConfigurationBuilder(Object.class, Object.class, resourcePools);
+        if (region.isStoreByValue()) {
+            builder = builder.withValueSerializingCopier();
+        }
+        if (region.getTimeToIdleSeconds() != null) {
+            return builder.withExpiry(ExpiryPolicyBuilder.timeToIdleExpiration(Duration.ofSeconds(region.getTimeToIdleSeconds())));
+        }
+        long timeToLiveSeconds = region.getTimeToLiveSeconds() != null
+            ? region.getTimeToLiveSeconds() : defaults.getTimeToLiveSeconds();
+        return builder.withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofSeconds(timeToLiveSeconds)));
     }
 }
@@ -0,0 +1,24 @@
+package com.geardao.phoneapp.config;
+
+import org.springframework.cloud.stream.annotation.Input;
+import org.springframework.cloud.stream.annotation.Output;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.SubscribableChannel;
+
+/**
+ * Channels used to broadcast cache evictions to all the application nodes.
+ * <p>
+ * The input binding has no consumer group, so that every node receives every message.
+ */
+public interface CacheInvalidationChannels {
+
+    String OUTPUT = "cacheInvalidationOutput";
+
+    String INPUT = "cacheInvalidationInput";
+
+    @Output(OUTPUT)
+    MessageChannel output();
+
+    @Input(INPUT)
+    SubscribableChannel input();
+}
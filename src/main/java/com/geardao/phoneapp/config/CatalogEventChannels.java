@@ -0,0 +1,18 @@
+package com.geardao.phoneapp.config;
+
+import org.springframework.cloud.stream.annotation.Output;
+import org.springframework.messaging.MessageChannel;
+
+/**
+ * Channel publishing the changes of the phones and brands to the other systems.
+ * <p>
+ * Each message is keyed by the id of the changed entity, so that the changes of an entity stay in order in a
+ * single partition.
+ */
+public interface CatalogEventChannels {
+
+    String OUTPUT = "catalogEventsOutput";
+
+    @Output(OUTPUT)
+    MessageChannel output();
+}
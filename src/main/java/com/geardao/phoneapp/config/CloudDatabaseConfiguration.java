@@ -3,6 +3,7 @@ package com.geardao.phoneapp.config;
 import com.github.mongobee.Mongobee;
 
 import io.github.jhipster.config.JHipsterConstants;
+import com.geardao.phoneapp.domain.util.DecimalConverters.*;
 import io.github.jhipster.domain.util.JSR310DateConverters.*;
 
 import org.slf4j.Logger;
@@ -51,6 +52,8 @@ public class CloudDatabaseConfiguration extends AbstractCloudConfig {
         List<Converter<?, ?>> converterList = new ArrayList<>();
         converterList.add(DateToZonedDateTimeConverter.INSTANCE);
         converterList.add(ZonedDateTimeToDateConverter.INSTANCE);
+        converterList.add(BigDecimalToDecimal128Converter.INSTANCE);
+        converterList.add(Decimal128ToBigDecimalConverter.INSTANCE);
         return new MongoCustomConversions(converterList);
     }
 
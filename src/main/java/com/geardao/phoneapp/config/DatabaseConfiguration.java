@@ -1,5 +1,7 @@
 package com.geardao.phoneapp.config;
 
+import com.geardao.phoneapp.domain.util.DecimalConverters.BigDecimalToDecimal128Converter;
+import com.geardao.phoneapp.domain.util.DecimalConverters.Decimal128ToBigDecimalConverter;
 import io.github.jhipster.config.JHipsterConstants;
 import com.github.mongobee.Mongobee;
 import com.mongodb.MongoClient;
@@ -53,6 +55,8 @@ public class DatabaseConfiguration {
         List<Converter<?, ?>> converters = new ArrayList<>();
         converters.add(DateToZonedDateTimeConverter.INSTANCE);
         converters.add(ZonedDateTimeToDateConverter.INSTANCE);
+        converters.add(BigDecimalToDecimal128Converter.INSTANCE);
+        converters.add(Decimal128ToBigDecimalConverter.INSTANCE);
         return new MongoCustomConversions(converters);
     }
 
@@ -1,12 +1,19 @@
 package com.geardao.phoneapp.config;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
 import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
 
+import org.bson.types.Decimal128;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.zalando.problem.ProblemModule;
 import org.zalando.problem.validation.ConstraintViolationProblemModule;
 
+import java.io.IOException;
+
 @Configuration
 public class JacksonConfiguration {
 
@@ -34,4 +41,19 @@ public class JacksonConfiguration {
         return new ConstraintViolationProblemModule();
     }
 
+    /*
+     * Module serializing the Decimal128 values read from MongoDB into untyped fields, such as the changes of the
+     * catalog events, as the BigDecimal numbers they were written from.
+     */
+    @Bean
+    SimpleModule decimal128Module() {
+        return new SimpleModule("Decimal128Module").addSerializer(new StdSerializer<Decimal128>(Decimal128.class) {
+
+            @Override
+            public void serialize(Decimal128 value, JsonGenerator generator, SerializerProvider provider) throws IOException {
+                generator.writeNumber(value.bigDecimalValue());
+            }
+        });
+    }
+
 }
@@ -18,7 +18,8 @@ import org.springframework.messaging.support.GenericMessage;
  * See http://docs.spring.io/spring-cloud-stream/docs/current/reference/htmlsingle/
  * for the official Spring Cloud Stream documentation.
  */
-@EnableBinding(value = { Source.class })
+@EnableBinding(value = { Source.class, CacheInvalidationChannels.class, CatalogEventChannels.class,
+    PriceFeedChannels.class })
 public class MessagingConfiguration {
 
     /**
@@ -0,0 +1,18 @@
+package com.geardao.phoneapp.config;
+
+import org.springframework.cloud.stream.annotation.Input;
+import org.springframework.messaging.SubscribableChannel;
+
+/**
+ * Channel receiving the price updates pushed by the suppliers.
+ * <p>
+ * The input binding belongs to a consumer group, so that each update is applied by a single node, and commits
+ * its offsets only once the updates are written to MongoDB.
+ */
+public interface PriceFeedChannels {
+
+    String INPUT = "priceFeedInput";
+
+    @Input(INPUT)
+    SubscribableChannel input();
+}
@@ -0,0 +1,27 @@
+package com.geardao.phoneapp.config.dbmigrations;
+
+import com.geardao.phoneapp.domain.Brand;
+import com.geardao.phoneapp.domain.Phone;
+import com.geardao.phoneapp.repository.VersionedRepository;
+
+import com.github.mongobee.changeset.ChangeLog;
+import com.github.mongobee.changeset.ChangeSet;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+/**
+ * Gives a version to the phones and brands written before they had one.
+ */
+@ChangeLog(order = "002")
+public class CatalogVersionMigration {
+
+    @ChangeSet(order = "01", author = "phoneapp", id = "01-addCatalogVersions")
+    public void addVersions(MongoTemplate mongoTemplate) {
+        Query unversioned = Query.query(Criteria.where(VersionedRepository.VERSION_FIELD).exists(false));
+        Update update = Update.update(VersionedRepository.VERSION_FIELD, 0L);
+        mongoTemplate.updateMulti(unversioned, update, Phone.class);
+        mongoTemplate.updateMulti(unversioned, update, Brand.class);
+    }
+}
@@ -0,0 +1,95 @@
+package com.geardao.phoneapp.config.dbmigrations;
+
+import com.geardao.phoneapp.domain.Phone;
+
+import com.github.mongobee.changeset.ChangeLog;
+import com.github.mongobee.changeset.ChangeSet;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.types.Decimal128;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts the prices of the phones from strings to Decimal128, as written by the DecimalConverters, so that
+ * MongoDB compares and sorts them as numbers. The values are not changed, so the versions and the sync stamps
+ * of the phones are left as they are.
+ */
+@ChangeLog(order = "005")
+public class DecimalPriceMigration {
+
+    private static final int BATCH_SIZE = 1000;
+
+    private static final String PRICE_FIELD = "price";
+
+    /**
+     * The number of phones whose prices cannot be converted listed by the error.
+     */
+    private static final int MAX_REPORTED_IDS = 20;
+
+    private final Logger log = LoggerFactory.getLogger(DecimalPriceMigration.class);
+
+    /**
+     * Convert the prices, failing once the others are converted if some cannot be: the changeset then runs again
+     * at the next startup, after they are fixed, so that no price is left as a string.
+     */
+    @ChangeSet(order = "01", author = "phoneapp", id = "01-convertPricesToDecimal128")
+    public void convertPrices(MongoTemplate mongoTemplate) {
+        MongoCollection<Document> collection = mongoTemplate.getCollection(mongoTemplate.getCollectionName(Phone.class));
+        List<WriteModel<Document>> models = new ArrayList<>(BATCH_SIZE);
+        List<Object> invalidIds = new ArrayList<>();
+        for (Document document : collection.find(Filters.type(PRICE_FIELD, BsonType.STRING))
+                .projection(Projections.include(PRICE_FIELD)).batchSize(BATCH_SIZE)) {
+            String price = document.getString(PRICE_FIELD);
+            Decimal128 decimal;
+            try {
+                decimal = new Decimal128(new BigDecimal(price));
+            } catch (NumberFormatException e) {
+                log.warn("Could not convert the price {} of the phone {}: {}", price, document.get("_id"), e.getMessage());
+                invalidIds.add(document.get("_id"));
+                continue;
+            }
+            // only if it was not written since it was read
+            models.add(new UpdateOneModel<>(Filters.and(Filters.eq("_id", document.get("_id")), Filters.eq(PRICE_FIELD, price)),
+                Updates.set(PRICE_FIELD, decimal)));
+            if (models.size() == BATCH_SIZE) {
+                collection.bulkWrite(models);
+                models.clear();
+            }
+        }
+        if (!models.isEmpty()) {
+            collection.bulkWrite(models);
+        }
+        if (!invalidIds.isEmpty()) {
+            throw new IllegalStateException("Could not convert the prices of " + invalidIds.size() + " phones to Decimal128, "
+                + "fix or remove them and restart: " + invalidIds.subList(0, Math.min(invalidIds.size(), MAX_REPORTED_IDS)));
+        }
+    }
+
+    @ChangeSet(order = "02", author = "phoneapp", id = "02-dropBrandIndex")
+    public void dropBrandIndex(MongoTemplate mongoTemplate) {
+        // replaced by the brand_price index
+        if (mongoTemplate.indexOps(Phone.class).getIndexInfo().stream().anyMatch(index -> "brand".equals(index.getName()))) {
+            mongoTemplate.indexOps(Phone.class).dropIndex("brand");
+        }
+    }
+
+    @ChangeSet(order = "03", author = "phoneapp", id = "03-dropPriceIndex")
+    public void dropPriceIndex(MongoTemplate mongoTemplate) {
+        // replaced by the price_id index
+        if (mongoTemplate.indexOps(Phone.class).getIndexInfo().stream().anyMatch(index -> "price".equals(index.getName()))) {
+            mongoTemplate.indexOps(Phone.class).dropIndex("price");
+        }
+    }
+}
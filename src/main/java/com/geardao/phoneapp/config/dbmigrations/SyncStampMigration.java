@@ -0,0 +1,103 @@
+package com.geardao.phoneapp.config.dbmigrations;
+
+import com.geardao.phoneapp.domain.Brand;
+import com.geardao.phoneapp.domain.CatalogEvent;
+import com.geardao.phoneapp.domain.Phone;
+import com.geardao.phoneapp.domain.Tombstone;
+import com.geardao.phoneapp.repository.SequenceRepository;
+import com.geardao.phoneapp.repository.VersionedRepository;
+
+import com.github.mongobee.changeset.ChangeLog;
+import com.github.mongobee.changeset.ChangeSet;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Stamps the phones and brands written before the delta sync with a time and a sequence number, so that a first
+ * sync returns them, and moves the catalog events over to the sequence.
+ */
+@ChangeLog(order = "004")
+public class SyncStampMigration {
+
+    private static final int BATCH_SIZE = 1000;
+
+    @ChangeSet(order = "01", author = "phoneapp", id = "01-addSyncStamps")
+    public void addStamps(MongoTemplate mongoTemplate) {
+        SequenceRepository sequenceRepository = new SequenceRepository(mongoTemplate);
+        stamp(mongoTemplate.getCollection(mongoTemplate.getCollectionName(Phone.class)), sequenceRepository);
+        stamp(mongoTemplate.getCollection(mongoTemplate.getCollectionName(Brand.class)), sequenceRepository);
+    }
+
+    @ChangeSet(order = "02", author = "phoneapp", id = "02-dropLastModifiedDateSequenceIndexes")
+    public void dropLastModifiedDateSequenceIndexes(MongoTemplate mongoTemplate) {
+        // replaced by the sequence indexes, the delta sync no longer ordering the changes by time
+        for (Class<?> type : new Class<?>[] {Phone.class, Brand.class, Tombstone.class}) {
+            if (mongoTemplate.indexOps(type).getIndexInfo().stream()
+                    .anyMatch(index -> "last_modified_date_sequence".equals(index.getName()))) {
+                mongoTemplate.indexOps(type).dropIndex("last_modified_date_sequence");
+            }
+        }
+    }
+
+    @ChangeSet(order = "03", author = "phoneapp", id = "03-dropCatalogEventCreatedDateIndex")
+    public void dropCatalogEventCreatedDateIndex(MongoTemplate mongoTemplate) {
+        // replaced by the sequence_id index, the relay no longer ordering the events by time
+        if (mongoTemplate.indexOps(CatalogEvent.class).getIndexInfo().stream()
+                .anyMatch(index -> "created_date_id".equals(index.getName()))) {
+            mongoTemplate.indexOps(CatalogEvent.class).dropIndex("created_date_id");
+        }
+    }
+
+    @ChangeSet(order = "04", author = "phoneapp", id = "04-advanceCatalogSequencePastEventVersions")
+    public void advanceCatalogSequencePastEventVersions(MongoTemplate mongoTemplate) {
+        // the catalog events now take their versions from the catalog sequence: it must go on from the last version
+        // published, which the relay kept in its lease, or the consumers would drop the next events as stale
+        Document lease = mongoTemplate.findById("catalog-events", Document.class, "jhi_catalog_event_relay");
+        if (lease == null || !(lease.get(VersionedRepository.SEQUENCE_FIELD) instanceof Number)) {
+            return;
+        }
+        SequenceRepository sequenceRepository = new SequenceRepository(mongoTemplate);
+        long published = ((Number) lease.get(VersionedRepository.SEQUENCE_FIELD)).longValue();
+        long current = sequenceRepository.current(VersionedRepository.SEQUENCE_NAME);
+        if (published > current) {
+            sequenceRepository.reserve(VersionedRepository.SEQUENCE_NAME, Math.toIntExact(published - current));
+        }
+    }
+
+    private void stamp(MongoCollection<Document> collection, SequenceRepository sequenceRepository) {
+        Date now = new Date();
+        List<Object> ids = new ArrayList<>(BATCH_SIZE);
+        for (Document document : collection.find(Filters.exists(VersionedRepository.SEQUENCE_FIELD, false))
+                .projection(Projections.include("_id")).batchSize(BATCH_SIZE)) {
+            ids.add(document.get("_id"));
+            if (ids.size() == BATCH_SIZE) {
+                write(collection, ids, now, sequenceRepository);
+                ids.clear();
+            }
+        }
+        if (!ids.isEmpty()) {
+            write(collection, ids, now, sequenceRepository);
+        }
+    }
+
+    private void write(MongoCollection<Document> collection, List<Object> ids, Date now, SequenceRepository sequenceRepository) {
+        long sequence = sequenceRepository.reserve(VersionedRepository.SEQUENCE_NAME, ids.size());
+        List<WriteModel<Document>> models = new ArrayList<>(ids.size());
+        for (Object id : ids) {
+            models.add(new UpdateOneModel<>(Filters.eq("_id", id), Updates.combine(
+                Updates.set(VersionedRepository.LAST_MODIFIED_DATE_FIELD, now),
+                Updates.set(VersionedRepository.SEQUENCE_FIELD, sequence++))));
+        }
+        collection.bulkWrite(models);
+    }
+}
@@ -0,0 +1,24 @@
+package com.geardao.phoneapp.config.dbmigrations;
+
+import com.geardao.phoneapp.domain.User;
+import com.geardao.phoneapp.repository.VersionedRepository;
+
+import com.github.mongobee.changeset.ChangeLog;
+import com.github.mongobee.changeset.ChangeSet;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+/**
+ * Gives a version to the users written before they had one.
+ */
+@ChangeLog(order = "003")
+public class UserVersionMigration {
+
+    @ChangeSet(order = "01", author = "phoneapp", id = "01-addUserVersions")
+    public void addVersions(MongoTemplate mongoTemplate) {
+        Query unversioned = Query.query(Criteria.where(VersionedRepository.VERSION_FIELD).exists(false));
+        mongoTemplate.updateMulti(unversioned, Update.update(VersionedRepository.VERSION_FIELD, 0L), User.class);
+    }
+}
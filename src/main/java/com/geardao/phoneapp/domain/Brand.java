@@ -1,17 +1,28 @@
 package com.geardao.phoneapp.domain;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Field;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.io.Serializable;
+import java.time.Instant;
 import java.util.Objects;
 
 /**
  * A Brand.
  */
 @Document(collection = "brand")
-@org.springframework.data.elasticsearch.annotations.Document(indexName = "brand")
+@CompoundIndexes({
+    // the delta sync, see SyncService
+    @CompoundIndex(name = "sequence", def = "{'sequence': 1}"),
+    // the keyset pages sorted by name, see CursorPaginationRepository
+    @CompoundIndex(name = "name_id", def = "{'name': 1, '_id': 1}")
+})
+@org.springframework.data.elasticsearch.annotations.Document(indexName = "brand", refreshInterval = "5s", createIndex = false)
+@org.springframework.data.elasticsearch.annotations.Mapping(mappingPath = "/config/elasticsearch/brand-mapping.json")
 public class Brand implements Serializable {
 
     private static final long serialVersionUID = 1L;
@@ -25,6 +36,23 @@ public class Brand implements Serializable {
     @Field("country")
     private String country;
 
+    /**
+     * Incremented by every write, for optimistic concurrency, see VersionedRepository.
+     */
+    @Field("version")
+    private Long version;
+
+    /**
+     * The time and the sequence number of the last write, in which order the delta sync returns the changes.
+     */
+    @Field("last_modified_date")
+    @JsonIgnore
+    private Instant lastModifiedDate;
+
+    @Field("sequence")
+    @JsonIgnore
+    private Long sequence;
+
     // jhipster-needle-entity-add-field - JHipster will add fields here, do not remove
     public String getId() {
         return id;
@@ -59,6 +87,30 @@ public class Brand implements Serializable {
     public void setCountry(String country) {
         this.country = country;
     }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    public Instant getLastModifiedDate() {
+        return lastModifiedDate;
+    }
+
+    public void setLastModifiedDate(Instant lastModifiedDate) {
+        this.lastModifiedDate = lastModifiedDate;
+    }
+
+    public Long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(Long sequence) {
+        this.sequence = sequence;
+    }
     // jhipster-needle-entity-add-getters-setters - JHipster will add getters and setters here, do not remove
 
     @Override
@@ -0,0 +1,161 @@
+package com.geardao.phoneapp.domain;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A change of a phone or a brand waiting in the outbox to be published.
+ */
+@Document(collection = "jhi_catalog_event_outbox")
+@CompoundIndex(name = "sequence_id", def = "{'sequence': 1, '_id': 1}")
+public class CatalogEvent implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Type {
+        CREATE, UPDATE, DELETE
+    }
+
+    @Id
+    private String id;
+
+    @Field("type")
+    private Type type;
+
+    @Field("entity_type")
+    private String entityType;
+
+    @Field("entity_id")
+    private String entityId;
+
+    /**
+     * The new values of the changed fields, all of them for a creation, none for a deletion.
+     */
+    @Field("changes")
+    private Map<String, Object> changes = new LinkedHashMap<>();
+
+    /**
+     * The number of the catalog sequence stamped on the write of the entity, see VersionedRepository, which orders
+     * the events as the writes.
+     */
+    @Field("sequence")
+    private Long sequence;
+
+    /**
+     * The position of the event in the published stream: its sequence number, set just before it is published.
+     */
+    @Field("version")
+    private Long version;
+
+    @Field("created_date")
+    private Instant createdDate = Instant.now();
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public CatalogEvent type(Type type) {
+        this.type = type;
+        return this;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public String getEntityType() {
+        return entityType;
+    }
+
+    public CatalogEvent entityType(String entityType) {
+        this.entityType = entityType;
+        return this;
+    }
+
+    public void setEntityType(String entityType) {
+        this.entityType = entityType;
+    }
+
+    public String getEntityId() {
+        return entityId;
+    }
+
+    public CatalogEvent entityId(String entityId) {
+        this.entityId = entityId;
+        return this;
+    }
+
+    public void setEntityId(String entityId) {
+        this.entityId = entityId;
+    }
+
+    public Map<String, Object> getChanges() {
+        return changes;
+    }
+
+    public CatalogEvent changes(Map<String, Object> changes) {
+        this.changes = changes;
+        return this;
+    }
+
+    public void setChanges(Map<String, Object> changes) {
+        this.changes = changes;
+    }
+
+    public Long getSequence() {
+        return sequence;
+    }
+
+    public CatalogEvent sequence(Long sequence) {
+        this.sequence = sequence;
+        return this;
+    }
+
+    public void setSequence(Long sequence) {
+        this.sequence = sequence;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    public Instant getCreatedDate() {
+        return createdDate;
+    }
+
+    public void setCreatedDate(Instant createdDate) {
+        this.createdDate = createdDate;
+    }
+
+    @Override
+    public String toString() {
+        return "CatalogEvent{" +
+            "id='" + id + "'" +
+            ", type=" + type +
+            ", entityType='" + entityType + "'" +
+            ", entityId='" + entityId + "'" +
+            ", changes=" + changes.keySet() +
+            ", sequence=" + sequence +
+            ", version=" + version +
+            "}";
+    }
+}
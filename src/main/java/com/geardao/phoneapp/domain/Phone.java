@@ -1,10 +1,14 @@
 package com.geardao.phoneapp.domain;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Field;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.io.Serializable;
+import java.time.Instant;
 import java.math.BigDecimal;
 import java.util.Objects;
 
@@ -12,7 +16,18 @@ import java.util.Objects;
  * A Phone.
  */
 @Document(collection = "phone")
-@org.springframework.data.elasticsearch.annotations.Document(indexName = "phone")
+@CompoundIndexes({
+    // the delta sync, see SyncService
+    @CompoundIndex(name = "sequence", def = "{'sequence': 1}"),
+    // the phones of a brand, and their lowest and highest prices, see BrandStatsService
+    @CompoundIndex(name = "brand_price", def = "{'brand': 1, 'price': 1}"),
+    // the keyset pages sorted by a property, see CursorPaginationRepository; price_id also serves the price ranges
+    @CompoundIndex(name = "name_id", def = "{'name': 1, '_id': 1}"),
+    @CompoundIndex(name = "brand_id", def = "{'brand': 1, '_id': 1}"),
+    @CompoundIndex(name = "price_id", def = "{'price': 1, '_id': 1}")
+})
+@org.springframework.data.elasticsearch.annotations.Document(indexName = "phone", refreshInterval = "5s", createIndex = false)
+@org.springframework.data.elasticsearch.annotations.Mapping(mappingPath = "/config/elasticsearch/phone-mapping.json")
 public class Phone implements Serializable {
 
     private static final long serialVersionUID = 1L;
@@ -26,9 +41,29 @@ public class Phone implements Serializable {
     @Field("brand")
     private String brand;
 
+    /**
+     * Stored as Decimal128, see DecimalConverters, and indexed for the price ranges and sorts by price_id.
+     */
     @Field("price")
     private BigDecimal price;
 
+    /**
+     * Incremented by every write, for optimistic concurrency, see VersionedRepository.
+     */
+    @Field("version")
+    private Long version;
+
+    /**
+     * The time and the sequence number of the last write, in which order the delta sync returns the changes.
+     */
+    @Field("last_modified_date")
+    @JsonIgnore
+    private Instant lastModifiedDate;
+
+    @Field("sequence")
+    @JsonIgnore
+    private Long sequence;
+
     // jhipster-needle-entity-add-field - JHipster will add fields here, do not remove
     public String getId() {
         return id;
@@ -76,6 +111,30 @@ public class Phone implements Serializable {
     public void setPrice(BigDecimal price) {
         this.price = price;
     }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    public Instant getLastModifiedDate() {
+        return lastModifiedDate;
+    }
+
+    public void setLastModifiedDate(Instant lastModifiedDate) {
+        this.lastModifiedDate = lastModifiedDate;
+    }
+
+    public Long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(Long sequence) {
+        this.sequence = sequence;
+    }
     // jhipster-needle-entity-add-getters-setters - JHipster will add getters and setters here, do not remove
 
     @Override
@@ -0,0 +1,107 @@
+package com.geardao.phoneapp.domain;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+import java.io.Serializable;
+import java.time.Instant;
+
+/**
+ * The deletion of a phone or a brand, kept for the delta sync.
+ */
+@Document(collection = "jhi_tombstone")
+@CompoundIndex(name = "sequence", def = "{'sequence': 1}")
+public class Tombstone implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    private String id;
+
+    /**
+     * The collection of the deleted entity.
+     */
+    @Field("entity_type")
+    private String entityType;
+
+    @Field("entity_id")
+    private String entityId;
+
+    @Field("last_modified_date")
+    private Instant lastModifiedDate;
+
+    @Field("sequence")
+    private Long sequence;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getEntityType() {
+        return entityType;
+    }
+
+    public Tombstone entityType(String entityType) {
+        this.entityType = entityType;
+        return this;
+    }
+
+    public void setEntityType(String entityType) {
+        this.entityType = entityType;
+    }
+
+    public String getEntityId() {
+        return entityId;
+    }
+
+    public Tombstone entityId(String entityId) {
+        this.entityId = entityId;
+        return this;
+    }
+
+    public void setEntityId(String entityId) {
+        this.entityId = entityId;
+    }
+
+    public Instant getLastModifiedDate() {
+        return lastModifiedDate;
+    }
+
+    public Tombstone lastModifiedDate(Instant lastModifiedDate) {
+        this.lastModifiedDate = lastModifiedDate;
+        return this;
+    }
+
+    public void setLastModifiedDate(Instant lastModifiedDate) {
+        this.lastModifiedDate = lastModifiedDate;
+    }
+
+    public Long getSequence() {
+        return sequence;
+    }
+
+    public Tombstone sequence(Long sequence) {
+        this.sequence = sequence;
+        return this;
+    }
+
+    public void setSequence(Long sequence) {
+        this.sequence = sequence;
+    }
+
+    @Override
+    public String toString() {
+        return "Tombstone{" +
+            "entityType='" + entityType + "'" +
+            ", entityId='" + entityId + "'" +
+            ", lastModifiedDate=" + lastModifiedDate +
+            ", sequence=" + sequence +
+            "}";
+    }
+}
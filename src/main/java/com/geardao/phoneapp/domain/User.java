@@ -6,6 +6,8 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.apache.commons.lang3.StringUtils;
 import javax.validation.constraints.Email;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Field;
 
@@ -24,7 +26,14 @@ import java.time.Instant;
  */
 
 @org.springframework.data.mongodb.core.mapping.Document(collection = "jhi_user")
-@org.springframework.data.elasticsearch.annotations.Document(indexName = "user")
+@CompoundIndexes({
+    // the keyset pages sorted by a property, see CursorPaginationRepository
+    @CompoundIndex(name = "login_id", def = "{'login': 1, '_id': 1}"),
+    @CompoundIndex(name = "email_id", def = "{'email': 1, '_id': 1}"),
+    @CompoundIndex(name = "created_date_id", def = "{'created_date': 1, '_id': 1}")
+})
+@org.springframework.data.elasticsearch.annotations.Document(indexName = "user", createIndex = false)
+@org.springframework.data.elasticsearch.annotations.Mapping(mappingPath = "/config/elasticsearch/user-mapping.json")
 public class User extends AbstractAuditingEntity implements Serializable {
 
     private static final long serialVersionUID = 1L;
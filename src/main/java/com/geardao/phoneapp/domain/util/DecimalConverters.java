@@ -0,0 +1,56 @@
+package com.geardao.phoneapp.domain.util;
+
+import org.bson.types.Decimal128;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.data.convert.ReadingConverter;
+import org.springframework.data.convert.WritingConverter;
+
+import java.math.BigDecimal;
+
+/**
+ * Converters storing the BigDecimal fields as Decimal128, instead of the strings Spring Data writes by default.
+ * <p>
+ * Decimal128 values are exact, like the strings, but MongoDB compares and sorts them as numbers, so the range
+ * queries and the sorts on them are correct and can use an index. The strings written before are still read.
+ */
+public final class DecimalConverters {
+
+    private DecimalConverters() {
+    }
+
+    /**
+     * @param value a decimal value
+     * @return whether the value can be stored as a Decimal128, exactly
+     */
+    public static boolean isStorable(BigDecimal value) {
+        try {
+            new Decimal128(value);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    @WritingConverter
+    public enum BigDecimalToDecimal128Converter implements Converter<BigDecimal, Decimal128> {
+        INSTANCE;
+
+        /**
+         * @throws NumberFormatException if the value has more than 34 digits, or a too large exponent
+         */
+        @Override
+        public Decimal128 convert(BigDecimal source) {
+            return source == null ? null : new Decimal128(source);
+        }
+    }
+
+    @ReadingConverter
+    public enum Decimal128ToBigDecimalConverter implements Converter<Decimal128, BigDecimal> {
+        INSTANCE;
+
+        @Override
+        public BigDecimal convert(Decimal128 source) {
+            return source == null ? null : source.bigDecimalValue();
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package com.geardao.phoneapp.repository;
+
+import com.geardao.phoneapp.config.ApplicationProperties;
+import com.geardao.phoneapp.domain.PersistentAuditEvent;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Writes the audit events to the database in batches.
+ * <p>
+ * Events are buffered in a bounded lock-free queue, and a background thread inserts them with unordered bulk
+ * writes when a batch is full or when the flush interval has elapsed. Batches that could not be written are
+ * kept in the buffer and retried on the next flush.
+ * <p>
+ * When the buffer is full, the configured {@link ApplicationProperties.AuditEvents.OverflowPolicy} applies.
+ * Spilled events are written to the database once the buffer has been emptied.
+ */
+@Repository
+public class AuditEventWriter {
+
+    private static final String METRIC_PREFIX = "audit.events";
+
+    private final Logger log = LoggerFactory.getLogger(AuditEventWriter.class);
+
+    private final ApplicationProperties.AuditEvents properties;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final PersistenceAuditEventRepository persistenceAuditEventRepository;
+
+    private final ObjectMapper objectMapper;
+
+    private final ConcurrentLinkedDeque<PersistentAuditEvent> buffer = new ConcurrentLinkedDeque<>();
+
+    /**
+     * One permit per free slot: permits are only given back once an event has been written, so events being
+     * flushed still count against the capacity.
+     */
+    private final Semaphore permits;
+
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private final Object flushLock = new Object();
+
+    private final Object spillLock = new Object();
+
+    private final Path spillFile;
+
+    private final Timer flushTimer;
+
+    private final Meter writtenMeter;
+
+    private final Meter failuresMeter;
+
+    private final Meter droppedMeter;
+
+    private final Meter spilledMeter;
+
+    private ScheduledExecutorService executor;
+
+    public AuditEventWriter(ApplicationProperties applicationProperties, MetricRegistry metricRegistry,
+            MongoTemplate mongoTemplate, PersistenceAuditEventRepository persistenceAuditEventRepository,
+            ObjectMapper objectMapper) {
+
+        this.properties = applicationProperties.getAuditEvents();
+        this.mongoTemplate = mongoTemplate;
+        this.persistenceAuditEventRepository = persistenceAuditEventRepository;
+        this.objectMapper = objectMapper;
+        this.permits = new Semaphore(properties.getBufferCapacity());
+        this.spillFile = Paths.get(properties.getSpillFile());
+
+        metricRegistry.register(MetricRegistry.name(METRIC_PREFIX, "buffer-depth"), (Gauge<Integer>) this::getPendingCount);
+        this.flushTimer = metricRegistry.timer(MetricRegistry.name(METRIC_PREFIX, "flush"));
+        this.writtenMeter = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "written"));
+        this.failuresMeter = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "failures"));
+        this.droppedMeter = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "dropped"));
+        this.spilledMeter = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "spilled"));
+    }
+
+    @PostConstruct
+    public void start() {
+        if (properties.isAsync()) {
+            log.debug("Starting asynchronous audit event writes");
+            executor = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("phoneapp-audit-writer-"));
+            executor.scheduleWithFixedDelay(this::flush, properties.getFlushIntervalMs(),
+                properties.getFlushIntervalMs(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(properties.getFlushIntervalMs() * 2, TimeUnit.MILLISECONDS);
+        }
+        flush();
+    }
+
+    /**
+     * Write an audit event.
+     *
+     * @param event the event to write
+     */
+    public void write(PersistentAuditEvent event) {
+        if (!properties.isAsync()) {
+            persistenceAuditEventRepository.save(event);
+            writtenMeter.mark();
+            return;
+        }
+        if (!permits.tryAcquire() && !handleOverflow(event)) {
+            return;
+        }
+        buffer.offerLast(event);
+        if (executor != null && getPendingCount() >= properties.getBatchSize() && flushRequested.compareAndSet(false, true)) {
+            executor.execute(this::flush);
+        }
+    }
+
+    /**
+     * @return true if the event should be added to the buffer, with a permit now held for it
+     */
+    private boolean handleOverflow(PersistentAuditEvent event) {
+        switch (properties.getOverflowPolicy()) {
+            case BLOCK:
+                try {
+                    permits.acquire();
+                    return true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    droppedMeter.mark();
+                    return false;
+                }
+            case DROP_OLDEST:
+                return dropOldest();
+            default:
+                spill(Collections.singletonList(event));
+                return false;
+        }
+    }
+
+    /**
+     * Make room for a new event by discarding the oldest buffered one, whose permit is handed over to the new event.
+     * When the buffer is empty, all the events are being flushed: the new event waits for the flush to release
+     * their permits, or to give them back to the buffer if it fails.
+     *
+     * @return true if a permit is now held for the new event
+     */
+    private boolean dropOldest() {
+        try {
+            while (true) {
+                if (buffer.pollFirst() != null) {
+                    droppedMeter.mark();
+                    return true;
+                }
+                if (permits.tryAcquire(properties.getFlushIntervalMs(), TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            droppedMeter.mark();
+            return false;
+        }
+    }
+
+    /**
+     * @return the number of events that have not been written yet, spilled events excluded
+     */
+    public int getPendingCount() {
+        return properties.getBufferCapacity() - permits.availablePermits();
+    }
+
+    /**
+     * Write all the buffered events, then the spilled ones.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            flushRequested.set(false);
+            List<PersistentAuditEvent> batch;
+            while (!(batch = drain()).isEmpty()) {
+                if (!insert(batch)) {
+                    if (properties.getOverflowPolicy() == ApplicationProperties.AuditEvents.OverflowPolicy.SPILL) {
+                        spill(batch);
+                        permits.release(batch.size());
+                    } else {
+                        for (int i = batch.size() - 1; i >= 0; i--) {
+                            buffer.offerFirst(batch.get(i));
+                        }
+                    }
+                    return;
+                }
+                permits.release(batch.size());
+            }
+            replaySpilledEvents();
+        }
+    }
+
+    private List<PersistentAuditEvent> drain() {
+        List<PersistentAuditEvent> batch = new ArrayList<>();
+        PersistentAuditEvent event;
+        while (batch.size() < properties.getBatchSize() && (event = buffer.pollFirst()) != null) {
+            batch.add(event);
+        }
+        return batch;
+    }
+
+    /**
+     * @return false if the batch should be written again later
+     */
+    private boolean insert(List<PersistentAuditEvent> batch) {
+        try (Timer.Context ignored = flushTimer.time()) {
+            mongoTemplate.bulkOps(BulkMode.UNORDERED, PersistentAuditEvent.class).insert(batch).execute();
+            writtenMeter.mark(batch.size());
+            return true;
+        } catch (BulkOperationException e) {
+            // the other events of the batch have been written, and writing the rejected ones again would not help
+            log.warn("Could not write {} of {} audit events: {}", e.getErrors().size(), batch.size(), e.getMessage());
+            writtenMeter.mark(batch.size() - e.getErrors().size());
+            failuresMeter.mark(e.getErrors().size());
+            return true;
+        } catch (RuntimeException e) {
+            log.warn("Could not write {} audit events, they will be retried: {}", batch.size(), e.getMessage());
+            failuresMeter.mark(batch.size());
+            return false;
+        }
+    }
+
+    private void spill(List<PersistentAuditEvent> events) {
+        synchronized (spillLock) {
+            try (BufferedWriter writer = Files.newBufferedWriter(spillFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                for (PersistentAuditEvent event : events) {
+                    writer.write(objectMapper.writeValueAsString(event));
+                    writer.newLine();
+                }
+                spilledMeter.mark(events.size());
+            } catch (IOException e) {
+                log.error("Could not spill {} audit events to {}", events.size(), spillFile, e);
+                droppedMeter.mark(events.size());
+            }
+        }
+    }
+
+    /**
+     * Write the spilled events. The spill file is moved aside first, so that events spilled meanwhile go to a new
+     * file. The events are read and written one batch at a time, so that a large file is not held in memory; once
+     * a batch could not be written, it and the rest of the file are appended to the spill file as they are.
+     */
+    private void replaySpilledEvents() {
+        Path replayFile = spillFile.resolveSibling(spillFile.getFileName() + ".replay");
+        try {
+            synchronized (spillLock) {
+                if (!Files.exists(replayFile)) {
+                    if (!Files.exists(spillFile)) {
+                        return;
+                    }
+                    Files.move(spillFile, replayFile, StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+        } catch (IOException e) {
+            log.error("Could not move the spilled audit events from {}", spillFile, e);
+            return;
+        }
+        log.info("Writing the spilled audit events of {}", replayFile);
+        try (BufferedReader reader = Files.newBufferedReader(replayFile, StandardCharsets.UTF_8)) {
+            List<String> lines = new ArrayList<>(properties.getBatchSize());
+            String line;
+            do {
+                line = reader.readLine();
+                if (line != null) {
+                    lines.add(line);
+                }
+                if (lines.size() == properties.getBatchSize() || (line == null && !lines.isEmpty())) {
+                    List<PersistentAuditEvent> batch = parse(lines);
+                    if (!batch.isEmpty() && !insert(batch)) {
+                        respill(lines, reader);
+                        break;
+                    }
+                    lines.clear();
+                }
+            } while (line != null);
+        } catch (IOException e) {
+            // the file is kept, and replayed again by the next flush
+            log.error("Could not read the spilled audit events from {}", replayFile, e);
+            return;
+        }
+        try {
+            Files.delete(replayFile);
+        } catch (IOException e) {
+            log.error("Could not delete {}, its audit events may be written twice", replayFile, e);
+        }
+    }
+
+    private List<PersistentAuditEvent> parse(List<String> lines) {
+        List<PersistentAuditEvent> events = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            try {
+                events.add(objectMapper.readValue(line, PersistentAuditEvent.class));
+            } catch (IOException e) {
+                log.warn("Discarding unreadable spilled audit event: {}", line);
+                droppedMeter.mark();
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Append spilled events that could not be written back to the spill file, without parsing them again.
+     *
+     * @param lines the events read but not written
+     * @param reader the events not read yet
+     */
+    private void respill(List<String> lines, BufferedReader reader) throws IOException {
+        synchronized (spillLock) {
+            try (BufferedWriter writer = Files.newBufferedWriter(spillFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                for (String line : lines) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+            }
+        }
+    }
+}
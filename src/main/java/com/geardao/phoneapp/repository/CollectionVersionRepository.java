@@ -0,0 +1,56 @@
+package com.geardao.phoneapp.repository;
+
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Change counters of whole collections, from which the entity tags of their listings are computed.
+ * <p>
+ * Writers increment the counter of a collection after writing to it, and readers read the counter before
+ * reading the collection: a listing is then never tagged with a counter newer than its content, at worst with
+ * an older one, which only costs a client a useless refresh.
+ */
+@Repository
+public class CollectionVersionRepository {
+
+    private static final String COLLECTION_NAME = "jhi_collection_version";
+
+    private static final String COUNTER_FIELD = "counter";
+
+    private final MongoTemplate mongoTemplate;
+
+    public CollectionVersionRepository(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Record a change of a collection.
+     *
+     * @param entityClass the entity class of the changed collection
+     */
+    public void increment(Class<?> entityClass) {
+        mongoTemplate.upsert(query(entityClass), new Update().inc(COUNTER_FIELD, 1L), COLLECTION_NAME);
+    }
+
+    /**
+     * Get the number of changes of a collection.
+     *
+     * @param entityClass the entity class of the collection
+     * @return the counter of the collection, 0 if it never changed
+     */
+    public long get(Class<?> entityClass) {
+        Document counter = mongoTemplate.findOne(query(entityClass), Document.class, COLLECTION_NAME);
+        if (counter == null) {
+            return 0L;
+        }
+        return ((Number) counter.get(COUNTER_FIELD)).longValue();
+    }
+
+    private Query query(Class<?> entityClass) {
+        return Query.query(Criteria.where("_id").is(mongoTemplate.getCollectionName(entityClass)));
+    }
+}
@@ -0,0 +1,90 @@
+package com.geardao.phoneapp.repository;
+
+import org.bson.Document;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Objects;
+
+/**
+ * Position of the last document of a page, used for keyset pagination.
+ * <p>
+ * It holds the id of the document and, when the page is sorted by another property, the stored value of
+ * that property, so that the next page can be found with an index range seek instead of skipping documents.
+ * Search results sorted by relevance have no sort property, but keep the score of the document as value.
+ * Its string form is opaque to clients.
+ */
+public final class Cursor {
+
+    private static final String PROPERTY_KEY = "p";
+
+    private static final String VALUE_KEY = "v";
+
+    private static final String ID_KEY = "id";
+
+    private final String property;
+
+    private final Object value;
+
+    private final String id;
+
+    public Cursor(String property, Object value, String id) {
+        this.property = property;
+        this.value = value;
+        this.id = Objects.requireNonNull(id);
+    }
+
+    /**
+     * @return the sort property, or null if the page is only sorted by id
+     */
+    public String getProperty() {
+        return property;
+    }
+
+    /**
+     * @return the value of the sort property, as stored in MongoDB, or the relevance score of the document
+     */
+    public Object getValue() {
+        return value;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String encode() {
+        Document document = new Document(ID_KEY, id);
+        if (property != null) {
+            document.append(PROPERTY_KEY, property);
+        }
+        if (property != null || value != null) {
+            document.append(VALUE_KEY, value);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(document.toJson().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decode a cursor previously returned by {@link #encode()}.
+     *
+     * @param token the encoded cursor
+     * @return the cursor
+     * @throws IllegalArgumentException if the token is not a valid cursor
+     */
+    public static Cursor decode(String token) {
+        try {
+            Document document = Document.parse(new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8));
+            return new Cursor(document.getString(PROPERTY_KEY), document.get(VALUE_KEY), document.getString(ID_KEY));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + token, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Cursor{" +
+            "property='" + property + "'" +
+            ", value=" + value +
+            ", id='" + id + "'" +
+            "}";
+    }
+}
@@ -0,0 +1,42 @@
+package com.geardao.phoneapp.repository;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * A page of a keyset paginated query, with the cursor of the next page if there is one.
+ *
+ * @param <T> the type of the page content
+ */
+public final class CursorPage<T> {
+
+    private final List<T> content;
+
+    private final Cursor next;
+
+    public CursorPage(List<T> content, Cursor next) {
+        this.content = Collections.unmodifiableList(content);
+        this.next = next;
+    }
+
+    public List<T> getContent() {
+        return content;
+    }
+
+    /**
+     * @return the cursor of the next page, or null if this is the last page
+     */
+    public Cursor getNext() {
+        return next;
+    }
+
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    public <U> CursorPage<U> map(Function<? super T, ? extends U> converter) {
+        return new CursorPage<>(content.stream().map(converter).collect(Collectors.toList()), next);
+    }
+}
@@ -0,0 +1,130 @@
+package com.geardao.phoneapp.repository;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mapping.PersistentPropertyAccessor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Keyset pagination over MongoDB collections.
+ * <p>
+ * Each page is read with a range query starting right after the {@link Cursor} of the previous page,
+ * sorted by the requested property and then by id, so that deep pages cost the same as the first one.
+ * No count query is issued: one extra document is read to know whether there is a next page.
+ */
+@Repository
+public class CursorPaginationRepository {
+
+    private final MongoTemplate mongoTemplate;
+
+    public CursorPaginationRepository(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Find a page of documents.
+     *
+     * @param type the entity type
+     * @param filter an optional criteria the documents must match
+     * @param after the cursor of the previous page, or null for the first page
+     * @param pageable the page size, and a sort on at most one property, which should be indexed together with
+     * the id, as {property: 1, _id: 1}, so that the pages are read from the index rather than sorted in memory
+     * @param <T> the entity type
+     * @return the page of entities
+     * @throws IllegalArgumentException if the page is sorted on several properties or on an unknown one
+     */
+    public <T> CursorPage<T> findAll(Class<T> type, Criteria filter, Cursor after, Pageable pageable) {
+        MongoConverter converter = mongoTemplate.getConverter();
+        MongoPersistentEntity<?> entity = converter.getMappingContext().getRequiredPersistentEntity(type);
+        String idProperty = entity.getRequiredIdProperty().getName();
+        Sort.Order order = getSortOrder(pageable, idProperty);
+        if (order != null && entity.getPersistentProperty(order.getProperty()) == null) {
+            throw new IllegalArgumentException("Unknown sort property: " + order.getProperty());
+        }
+        Sort.Direction direction = order == null ? Sort.Direction.ASC : order.getDirection();
+
+        List<Criteria> criteria = new ArrayList<>();
+        if (filter != null) {
+            criteria.add(filter);
+        }
+        if (after != null) {
+            criteria.add(seek(order, after, idProperty, direction));
+        }
+        Query query = new Query();
+        if (criteria.size() == 1) {
+            query.addCriteria(criteria.get(0));
+        } else if (criteria.size() > 1) {
+            query.addCriteria(new Criteria().andOperator(criteria.toArray(new Criteria[0])));
+        }
+        List<Sort.Order> orders = new ArrayList<>();
+        if (order != null) {
+            orders.add(order);
+        }
+        orders.add(new Sort.Order(direction, idProperty));
+        query.with(Sort.by(orders)).limit(pageable.getPageSize() + 1);
+
+        List<T> content = mongoTemplate.find(query, type);
+        if (content.size() <= pageable.getPageSize()) {
+            return new CursorPage<>(content, null);
+        }
+        content = new ArrayList<>(content.subList(0, pageable.getPageSize()));
+        T last = content.get(content.size() - 1);
+        PersistentPropertyAccessor accessor = entity.getPropertyAccessor(last);
+        String lastId = String.valueOf(accessor.getProperty(entity.getRequiredIdProperty()));
+        if (order == null) {
+            return new CursorPage<>(content, new Cursor(null, null, lastId));
+        }
+        MongoPersistentProperty property = entity.getRequiredPersistentProperty(order.getProperty());
+        Object value = converter.convertToMongoType(accessor.getProperty(property));
+        return new CursorPage<>(content, new Cursor(order.getProperty(), value, lastId));
+    }
+
+    /**
+     * @return the sort order on a property other than the id, or null if the page is only sorted by id
+     */
+    private Sort.Order getSortOrder(Pageable pageable, String idProperty) {
+        Iterator<Sort.Order> orders = pageable.getSort().iterator();
+        if (!orders.hasNext()) {
+            return null;
+        }
+        Sort.Order order = orders.next();
+        if (orders.hasNext()) {
+            throw new IllegalArgumentException("Keyset pagination supports sorting on a single property");
+        }
+        return idProperty.equals(order.getProperty()) ? null : order;
+    }
+
+    /**
+     * Documents located after the cursor, in the sort order. MongoDB sorts missing and null values first,
+     * so they come before any value in ascending order and after any value in descending order.
+     */
+    private Criteria seek(Sort.Order order, Cursor after, String idProperty, Sort.Direction direction) {
+        Criteria idAfter = direction.isAscending() ?
+            Criteria.where(idProperty).gt(after.getId()) :
+            Criteria.where(idProperty).lt(after.getId());
+        if (order == null) {
+            return idAfter;
+        }
+        String property = order.getProperty();
+        Object value = after.getValue();
+        Criteria sameValue = new Criteria().andOperator(Criteria.where(property).is(value), idAfter);
+        if (value == null) {
+            return direction.isAscending() ?
+                new Criteria().orOperator(sameValue, Criteria.where(property).ne(null)) :
+                sameValue;
+        }
+        return direction.isAscending() ?
+            new Criteria().orOperator(Criteria.where(property).gt(value), sameValue) :
+            new Criteria().orOperator(Criteria.where(property).lt(value), sameValue, Criteria.where(property).is(null));
+    }
+}
@@ -0,0 +1,79 @@
+package com.geardao.phoneapp.repository;
+
+import org.bson.Document;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+import java.util.Date;
+
+/**
+ * Leases on background tasks that must run on a single node at a time, such as following a change stream.
+ * <p>
+ * A lease is a document holding its owner and its expiry date, next to the state of the task, which its owner
+ * stores when it renews the lease. A node takes over the task when the lease of its owner has expired.
+ */
+@Repository
+public class LeaseRepository {
+
+    private final MongoTemplate mongoTemplate;
+
+    public LeaseRepository(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Acquire or extend a lease.
+     *
+     * @param collectionName the collection of the leases
+     * @param name the name of the lease
+     * @param owner the node requesting the lease
+     * @param durationMs the duration of the lease
+     * @return the lease, with the state of its task, or null if another node holds it
+     */
+    public Document acquire(String collectionName, String name, String owner, long durationMs) {
+        Query query = Query.query(Criteria.where("_id").is(name)
+            .orOperator(Criteria.where("owner").is(owner), Criteria.where("leaseUntil").lt(new Date())));
+        Update update = Update.update("owner", owner)
+            .set("leaseUntil", new Date(System.currentTimeMillis() + durationMs));
+        try {
+            return mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true).upsert(true),
+                Document.class, collectionName);
+        } catch (DuplicateKeyException e) {
+            // the lease exists, and another node holds it
+            return null;
+        }
+    }
+
+    /**
+     * Extend a lease held by a node, and update the state of its task.
+     *
+     * @param collectionName the collection of the leases
+     * @param name the name of the lease
+     * @param owner the node holding the lease
+     * @param durationMs the new duration of the lease
+     * @param state the update of the state, or null to only extend the lease
+     * @return false if the node no longer holds the lease
+     */
+    public boolean renew(String collectionName, String name, String owner, long durationMs, Update state) {
+        Update update = state != null ? state : new Update();
+        update.set("leaseUntil", new Date(System.currentTimeMillis() + durationMs));
+        return mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(name).and("owner").is(owner)),
+            update, collectionName).getMatchedCount() > 0;
+    }
+
+    /**
+     * Let the leases of a node expire right away, so that other nodes can take over.
+     *
+     * @param collectionName the collection of the leases
+     * @param owner the node holding the leases
+     */
+    public void releaseAll(String collectionName, String owner) {
+        mongoTemplate.updateMulti(Query.query(Criteria.where("owner").is(owner)),
+            Update.update("leaseUntil", new Date()), collectionName);
+    }
+}
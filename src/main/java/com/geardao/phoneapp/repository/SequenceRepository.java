@@ -0,0 +1,61 @@
+package com.geardao.phoneapp.repository;
+
+import org.bson.Document;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Named sequences of numbers shared by all the nodes, each number being handed out once.
+ */
+@Repository
+public class SequenceRepository {
+
+    private static final String COLLECTION_NAME = "jhi_sequence";
+
+    private static final String VALUE_FIELD = "value";
+
+    private final MongoTemplate mongoTemplate;
+
+    public SequenceRepository(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Get the next number of a sequence.
+     *
+     * @param name the name of the sequence
+     * @return the number, starting from 1
+     */
+    public long next(String name) {
+        return reserve(name, 1);
+    }
+
+    /**
+     * Get the last number handed out by a sequence, without changing it.
+     *
+     * @param name the name of the sequence
+     * @return the number, or 0 if none was handed out
+     */
+    public long current(String name) {
+        Document sequence = mongoTemplate.findOne(Query.query(Criteria.where("_id").is(name)), Document.class, COLLECTION_NAME);
+        return sequence == null ? 0 : ((Number) sequence.get(VALUE_FIELD)).longValue();
+    }
+
+    /**
+     * Reserve consecutive numbers of a sequence, with a single write.
+     *
+     * @param name the name of the sequence
+     * @param count how many numbers to reserve, at least 1
+     * @return the first reserved number, the others following it
+     */
+    public long reserve(String name, int count) {
+        Document sequence = mongoTemplate.findAndModify(Query.query(Criteria.where("_id").is(name)),
+            new Update().inc(VALUE_FIELD, (long) count), FindAndModifyOptions.options().returnNew(true).upsert(true),
+            Document.class, COLLECTION_NAME);
+        return ((Number) sequence.get(VALUE_FIELD)).longValue() - count + 1;
+    }
+}
@@ -15,7 +15,7 @@ import java.time.Instant;
  * Spring Data MongoDB repository for the User entity.
  */
 @Repository
-public interface UserRepository extends MongoRepository<User, String> {
+public interface UserRepository extends MongoRepository<User, String>, UserRepositoryCustom {
 
     String USERS_BY_LOGIN_CACHE = "usersByLogin";
 
@@ -34,4 +34,7 @@ public interface UserRepository extends MongoRepository<User, String> {
     Optional<User> findOneByLogin(String login);
 
     Page<User> findAllByLoginNot(Pageable pageable, String login);
+
+    @Override
+    <S extends User> S save(S user);
 }
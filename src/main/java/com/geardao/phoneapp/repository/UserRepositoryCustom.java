@@ -0,0 +1,24 @@
+package com.geardao.phoneapp.repository;
+
+import com.geardao.phoneapp.domain.User;
+
+import org.springframework.dao.OptimisticLockingFailureException;
+
+/**
+ * The save of the {@link UserRepository}, used instead of the one of Spring Data.
+ */
+public interface UserRepositoryCustom {
+
+    /**
+     * Save a user and increment its version.
+     * <p>
+     * A user without a version is inserted with the version 0. Otherwise the document is only replaced if it
+     * still has the version of the user, so two concurrent saves of the same user cannot write the same version.
+     *
+     * @param user the user, whose version is incremented
+     * @param <S> the user type
+     * @return the saved user
+     * @throws OptimisticLockingFailureException if the user was saved by someone else since it was read
+     */
+    <S extends User> S save(S user);
+}
@@ -0,0 +1,57 @@
+package com.geardao.phoneapp.repository;
+
+import com.geardao.phoneapp.domain.User;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.data.mongodb.core.mapping.event.BeforeConvertEvent;
+import org.springframework.data.mongodb.core.mapping.event.BeforeSaveEvent;
+
+/**
+ * Implementation of the {@link UserRepositoryCustom}.
+ * <p>
+ * The version is a plain field rather than a Spring Data {@code @Version} property, for the reason given by
+ * {@link VersionedRepository}. The replacement publishes the same mapping events as {@link MongoTemplate#save},
+ * so the auditing fields are still set.
+ */
+public class UserRepositoryCustomImpl implements UserRepositoryCustom {
+
+    private final MongoTemplate mongoTemplate;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    public UserRepositoryCustomImpl(MongoTemplate mongoTemplate, ApplicationEventPublisher eventPublisher) {
+        this.mongoTemplate = mongoTemplate;
+        this.eventPublisher = eventPublisher;
+    }
+
+    @Override
+    public <S extends User> S save(S user) {
+        Long version = user.getVersion();
+        if (version == null) {
+            user.setVersion(0L);
+            mongoTemplate.insert(user);
+            return user;
+        }
+        String collectionName = mongoTemplate.getCollectionName(User.class);
+        eventPublisher.publishEvent(new BeforeConvertEvent<>(user, collectionName));
+        user.setVersion(version + 1);
+        Document document = new Document();
+        mongoTemplate.getConverter().write(user, document);
+        eventPublisher.publishEvent(new BeforeSaveEvent<>(user, document, collectionName));
+        UpdateResult result = mongoTemplate.getCollection(collectionName).replaceOne(
+            Filters.and(Filters.eq("_id", document.get("_id")), Filters.eq(VersionedRepository.VERSION_FIELD, version)),
+            document);
+        if (result.getMatchedCount() == 0) {
+            user.setVersion(version);
+            throw new OptimisticLockingFailureException("The user " + user.getId() + " is no longer at version " + version);
+        }
+        eventPublisher.publishEvent(new AfterSaveEvent<>(user, document, collectionName));
+        return user;
+    }
+}
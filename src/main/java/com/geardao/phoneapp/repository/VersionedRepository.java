@@ -0,0 +1,258 @@
+package com.geardao.phoneapp.repository;
+
+import com.geardao.phoneapp.domain.Tombstone;
+
+import org.bson.Document;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes of the entities with a {@value #VERSION_FIELD} field, incremented by every write.
+ * <p>
+ * Each write is a single {@code findAndModify}, setting and unsetting fields in place instead of replacing the
+ * document, and conditional on the version of the document when the caller expects one. It returns the document
+ * as it was before the write, to which the update is applied to get the written entity, so the callers get both
+ * states from a single round trip.
+ * <p>
+ * Every write also stamps the document with its time and a number of the {@value #SEQUENCE_NAME} sequence, in
+ * the {@value #LAST_MODIFIED_DATE_FIELD} and {@value #SEQUENCE_FIELD} fields, and a deletion leaves a
+ * {@link Tombstone} stamped the same way: the delta sync returns the changes in the order of their numbers.
+ * <p>
+ * The version is a plain field rather than a Spring Data {@code @Version} property: Spring Data Elasticsearch
+ * would also use such a property as the external version of the indexed documents, which rejects indexing the
+ * same version twice, as the change streams and the indexing retries do.
+ */
+@Repository
+public class VersionedRepository {
+
+    public static final String VERSION_FIELD = "version";
+
+    public static final String LAST_MODIFIED_DATE_FIELD = "last_modified_date";
+
+    public static final String SEQUENCE_FIELD = "sequence";
+
+    public static final String SEQUENCE_NAME = "catalog";
+
+    /**
+     * The fields maintained by the writes themselves rather than copied from the entities.
+     */
+    private static final List<String> STAMP_FIELDS = Arrays.asList(VERSION_FIELD, LAST_MODIFIED_DATE_FIELD, SEQUENCE_FIELD);
+
+    private final MongoTemplate mongoTemplate;
+
+    private final SequenceRepository sequenceRepository;
+
+    public VersionedRepository(MongoTemplate mongoTemplate, SequenceRepository sequenceRepository) {
+        this.mongoTemplate = mongoTemplate;
+        this.sequenceRepository = sequenceRepository;
+    }
+
+    /**
+     * Replace the fields of an entity, creating it if it does not exist and no version is expected.
+     *
+     * @param entity the entity, with its id
+     * @param expectedVersion the version the entity must have, or null to overwrite any version
+     * @param <T> the entity type
+     * @return the entity before and after the write
+     * @throws OptimisticLockingFailureException if the entity does not have the expected version
+     */
+    public <T> WriteResult<T> replace(T entity, Long expectedVersion) {
+        WriteResult<T> result = write(entity, replacement(entity), expectedVersion, expectedVersion == null);
+        if (result == null) {
+            throw new OptimisticLockingFailureException("The " + entity.getClass().getSimpleName() + " does not exist");
+        }
+        return result;
+    }
+
+    /**
+     * Update some of the fields of an entity.
+     *
+     * @param entity the entity, with its id and the new values of the updated properties
+     * @param properties the names of the updated properties; those with a null value are removed
+     * @param expectedVersion the version the entity must have, or null to update any version
+     * @param <T> the entity type
+     * @return the entity before and after the update, or null if there is no entity with this id
+     * @throws OptimisticLockingFailureException if the entity does not have the expected version
+     */
+    public <T> WriteResult<T> patch(T entity, Collection<String> properties, Long expectedVersion) {
+        MongoPersistentEntity<?> persistentEntity = getPersistentEntity(entity.getClass());
+        Document document = new Document();
+        mongoTemplate.getConverter().write(entity, document);
+        Update update = new Update();
+        for (String name : properties) {
+            MongoPersistentProperty property = persistentEntity.getRequiredPersistentProperty(name);
+            set(update, property.getFieldName(), document);
+        }
+        return write(entity, update, expectedVersion, false);
+    }
+
+    /**
+     * Delete an entity, leaving a tombstone if it existed.
+     *
+     * @param type the entity type
+     * @param id the id of the entity
+     * @param <T> the entity type
+     * @return the deleted entity, stamped with the sequence number of its tombstone, or null if there was no
+     * entity with this id
+     */
+    public <T> T delete(Class<T> type, String id) {
+        T deleted = mongoTemplate.findAndRemove(Query.query(Criteria.where("_id").is(id)), type);
+        if (deleted != null) {
+            long sequence = nextSequence();
+            mongoTemplate.insert(new Tombstone()
+                .entityType(mongoTemplate.getCollectionName(type))
+                .entityId(id)
+                .lastModifiedDate(Instant.now())
+                .sequence(sequence));
+            MongoPersistentEntity<?> persistentEntity = getPersistentEntity(type);
+            MongoPersistentProperty property = persistentEntity.getPersistentProperty(SEQUENCE_FIELD);
+            if (property != null) {
+                persistentEntity.getPropertyAccessor(deleted).setProperty(property, sequence);
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * @return a number of the {@value #SEQUENCE_NAME} sequence, to stamp a write
+     */
+    public long nextSequence() {
+        return sequenceRepository.next(SEQUENCE_NAME);
+    }
+
+    /**
+     * Reserve numbers of the {@value #SEQUENCE_NAME} sequence, to stamp the writes of a bulk write.
+     *
+     * @param count the number of writes
+     * @return the first reserved number, the others following it
+     */
+    public long reserveSequences(int count) {
+        return sequenceRepository.reserve(SEQUENCE_NAME, count);
+    }
+
+    /**
+     * Stamp an update with the current time and a sequence number.
+     *
+     * @param update the update
+     * @param sequence the sequence number of the write
+     * @return the update
+     */
+    public Update stamp(Update update, long sequence) {
+        return update.set(LAST_MODIFIED_DATE_FIELD, new Date()).set(SEQUENCE_FIELD, sequence);
+    }
+
+    /**
+     * Stamp a document about to be inserted with the current time and a sequence number.
+     *
+     * @param document the document
+     * @param sequence the sequence number of the write
+     */
+    public void stamp(Document document, long sequence) {
+        document.put(LAST_MODIFIED_DATE_FIELD, new Date());
+        document.put(SEQUENCE_FIELD, sequence);
+    }
+
+    /**
+     * Build the update setting all the fields of an entity, removing its null fields and incrementing its
+     * version, as used by {@link #replace(Object, Long)}; meant for the bulk writes, which must also
+     * {@link #stamp(Update, long) stamp} it.
+     *
+     * @param entity the entity
+     * @return the update
+     */
+    public Update replacement(Object entity) {
+        MongoPersistentEntity<?> persistentEntity = getPersistentEntity(entity.getClass());
+        Document document = new Document();
+        mongoTemplate.getConverter().write(entity, document);
+        Update update = new Update();
+        for (MongoPersistentProperty property : persistentEntity) {
+            if (!property.isIdProperty() && !STAMP_FIELDS.contains(property.getFieldName())) {
+                set(update, property.getFieldName(), document);
+            }
+        }
+        return update.inc(VERSION_FIELD, 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> WriteResult<T> write(T entity, Update update, Long expectedVersion, boolean upsert) {
+        Class<T> type = (Class<T>) entity.getClass();
+        MongoPersistentEntity<?> persistentEntity = getPersistentEntity(type);
+        Object id = persistentEntity.getIdentifierAccessor(entity).getRequiredIdentifier();
+        Criteria criteria = Criteria.where("_id").is(id);
+        if (expectedVersion != null) {
+            criteria.and(VERSION_FIELD).is(expectedVersion);
+        }
+        if (!update.modifies(VERSION_FIELD)) {
+            update.inc(VERSION_FIELD, 1);
+        }
+        stamp(update, nextSequence());
+        T before = mongoTemplate.findAndModify(Query.query(criteria), update,
+            FindAndModifyOptions.options().returnNew(false).upsert(upsert), type);
+        if (before == null && !upsert) {
+            if (expectedVersion != null && mongoTemplate.exists(Query.query(Criteria.where("_id").is(id)), type)) {
+                throw new OptimisticLockingFailureException("The " + type.getSimpleName() + " " + id +
+                    " is no longer at version " + expectedVersion);
+            }
+            return null;
+        }
+        return new WriteResult<>(before, applyUpdate(type, before == null ? entity : before, before == null, update));
+    }
+
+    /**
+     * Apply an update to an entity in memory, as MongoDB applied it to the document.
+     *
+     * @param entity the entity before the update
+     * @param created true if the update created the document, in which case only the id of the entity is kept
+     */
+    private <T> T applyUpdate(Class<T> type, T entity, boolean created, Update update) {
+        Document document = new Document();
+        mongoTemplate.getConverter().write(entity, document);
+        if (created) {
+            document = new Document("_id", document.get("_id"));
+        }
+        Document updateObject = update.getUpdateObject();
+        Document set = updateObject.get("$set", Document.class);
+        if (set != null) {
+            document.putAll(set);
+        }
+        Document unset = updateObject.get("$unset", Document.class);
+        if (unset != null) {
+            unset.keySet().forEach(document::remove);
+        }
+        Document inc = updateObject.get("$inc", Document.class);
+        if (inc != null) {
+            for (Map.Entry<String, Object> field : inc.entrySet()) {
+                Number value = (Number) document.get(field.getKey());
+                document.put(field.getKey(), (value == null ? 0 : value.longValue()) + ((Number) field.getValue()).longValue());
+            }
+        }
+        return mongoTemplate.getConverter().read(type, document);
+    }
+
+    private void set(Update update, String fieldName, Document document) {
+        Object value = document.get(fieldName);
+        if (value == null) {
+            update.unset(fieldName);
+        } else {
+            update.set(fieldName, value);
+        }
+    }
+
+    private MongoPersistentEntity<?> getPersistentEntity(Class<?> type) {
+        return mongoTemplate.getConverter().getMappingContext().getRequiredPersistentEntity(type);
+    }
+}
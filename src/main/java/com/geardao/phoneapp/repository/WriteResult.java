@@ -0,0 +1,32 @@
+package com.geardao.phoneapp.repository;
+
+/**
+ * The state of an entity before and after a write of {@link VersionedRepository}.
+ *
+ * @param <T> the entity type
+ */
+public final class WriteResult<T> {
+
+    private final T before;
+
+    private final T after;
+
+    public WriteResult(T before, T after) {
+        this.before = before;
+        this.after = after;
+    }
+
+    /**
+     * @return the entity as it was before the write, or null if the write created it
+     */
+    public T getBefore() {
+        return before;
+    }
+
+    /**
+     * @return the entity as it was written
+     */
+    public T getAfter() {
+        return after;
+    }
+}
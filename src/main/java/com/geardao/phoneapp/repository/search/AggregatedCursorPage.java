@@ -0,0 +1,33 @@
+package com.geardao.phoneapp.repository.search;
+
+import com.geardao.phoneapp.repository.CursorPage;
+
+import org.elasticsearch.search.aggregations.Aggregations;
+
+/**
+ * A page of a keyset paginated search, with the aggregations computed by the same request.
+ *
+ * @param <T> the type of the page content
+ */
+public final class AggregatedCursorPage<T> {
+
+    private final CursorPage<T> page;
+
+    private final Aggregations aggregations;
+
+    public AggregatedCursorPage(CursorPage<T> page, Aggregations aggregations) {
+        this.page = page;
+        this.aggregations = aggregations;
+    }
+
+    public CursorPage<T> getPage() {
+        return page;
+    }
+
+    /**
+     * @return the aggregations, or null if none were requested
+     */
+    public Aggregations getAggregations() {
+        return aggregations;
+    }
+}
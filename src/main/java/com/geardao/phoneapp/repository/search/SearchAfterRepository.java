@@ -0,0 +1,161 @@
+package com.geardao.phoneapp.repository.search;
+
+import com.geardao.phoneapp.repository.Cursor;
+import com.geardao.phoneapp.repository.CursorPage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.mapping.ElasticsearchPersistentEntity;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Keyset pagination over Elasticsearch indexes, with {@code search_after}.
+ * <p>
+ * Each page is sorted by the requested property, or by relevance when there is none, and then by document id.
+ * The next page starts right after the sort values of the last hit, so deep pages cost the same as the first
+ * one, unlike {@code from}/{@code size} paging. No total count is returned. The cursor of a page sorted by
+ * relevance holds the score of its last hit.
+ */
+@Repository
+public class SearchAfterRepository {
+
+    private static final String UID_FIELD = "_uid";
+
+    private final ObjectProvider<ElasticsearchOperations> elasticsearchOperations;
+
+    private final ObjectMapper objectMapper;
+
+    public SearchAfterRepository(ObjectProvider<ElasticsearchOperations> elasticsearchOperations, ObjectMapper objectMapper) {
+        this.elasticsearchOperations = elasticsearchOperations;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Find a page of documents.
+     *
+     * @param type the document type
+     * @param query the query the documents must match
+     * @param after the cursor of the previous page, or null for the first page
+     * @param pageable the page size, and a sort on at most one property; the documents are sorted by relevance
+     * when there is none
+     * @param <T> the document type
+     * @return the page of documents
+     */
+    public <T> CursorPage<T> search(Class<T> type, QueryBuilder query, Cursor after, Pageable pageable) {
+        return search(type, query, null, Collections.emptyList(), after, pageable).getPage();
+    }
+
+    /**
+     * Find a page of documents, and compute aggregations in the same request.
+     * <p>
+     * The aggregations are computed on all the documents matching the query, before the post filter.
+     *
+     * @param type the document type
+     * @param query the query the documents must match
+     * @param postFilter an optional filter the documents of the page must match in addition to the query
+     * @param aggregations the aggregations to compute
+     * @param after the cursor of the previous page, or null for the first page
+     * @param pageable the page size, and a sort on at most one property; the documents are sorted by relevance
+     * when there is none
+     * @param <T> the document type
+     * @return the page of documents, with the aggregations
+     */
+    public <T> AggregatedCursorPage<T> search(Class<T> type, QueryBuilder query, QueryBuilder postFilter,
+            Collection<AggregationBuilder> aggregations, Cursor after, Pageable pageable) {
+
+        ElasticsearchOperations operations = elasticsearchOperations.getIfAvailable();
+        if (operations == null) {
+            throw new IllegalStateException("Elasticsearch is not configured");
+        }
+        ElasticsearchPersistentEntity<?> entity = operations.getPersistentEntityFor(type);
+        // _id has no doc values in this version of Elasticsearch, _uid ("type#id") is the sortable tie-breaker
+        String uidPrefix = entity.getIndexType() + "#";
+        String idProperty = entity.getIdProperty().getFieldName();
+        Sort.Order order = getSortOrder(pageable);
+
+        SearchRequestBuilder request = operations.getClient().prepareSearch(entity.getIndexName())
+            .setTypes(entity.getIndexType())
+            .setQuery(query)
+            .setSize(pageable.getPageSize() + 1);
+        if (postFilter != null) {
+            request.setPostFilter(postFilter);
+        }
+        aggregations.forEach(request::addAggregation);
+        String sortProperty = null;
+        if (order == null) {
+            request.addSort(SortBuilders.scoreSort())
+                .addSort(SortBuilders.fieldSort(UID_FIELD).order(SortOrder.ASC));
+        } else if (idProperty.equals(order.getProperty())) {
+            request.addSort(SortBuilders.fieldSort(UID_FIELD).order(toSortOrder(order)));
+        } else {
+            sortProperty = order.getProperty();
+            request.addSort(SortBuilders.fieldSort(sortProperty).order(toSortOrder(order)))
+                .addSort(SortBuilders.fieldSort(UID_FIELD).order(toSortOrder(order)));
+        }
+        if (after != null) {
+            request.searchAfter(order != null && sortProperty == null
+                ? new Object[] { uidPrefix + after.getId() }
+                : new Object[] { after.getValue(), uidPrefix + after.getId() });
+        }
+
+        SearchResponse response = request.get();
+        SearchHit[] hits = response.getHits().getHits();
+        int size = Math.min(hits.length, pageable.getPageSize());
+        List<T> content = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            content.add(toDocument(hits[i], type));
+        }
+        Cursor next = null;
+        if (hits.length > pageable.getPageSize()) {
+            SearchHit last = hits[size - 1];
+            Object value = order != null && sortProperty == null ? null : last.getSortValues()[0];
+            next = new Cursor(sortProperty, value, last.getId());
+        }
+        return new AggregatedCursorPage<>(new CursorPage<>(content, next), response.getAggregations());
+    }
+
+    private <T> T toDocument(SearchHit hit, Class<T> type) {
+        try {
+            return objectMapper.readValue(hit.getSourceAsString(), type);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read the document " + hit.getId(), e);
+        }
+    }
+
+    /**
+     * @return the requested sort order, or null if the page is sorted by relevance
+     */
+    private Sort.Order getSortOrder(Pageable pageable) {
+        Iterator<Sort.Order> orders = pageable.getSort().iterator();
+        if (!orders.hasNext()) {
+            return null;
+        }
+        Sort.Order order = orders.next();
+        if (orders.hasNext()) {
+            throw new IllegalArgumentException("Keyset pagination supports sorting on a single property");
+        }
+        return order;
+    }
+
+    private SortOrder toSortOrder(Sort.Order order) {
+        return order.isAscending() ? SortOrder.ASC : SortOrder.DESC;
+    }
+}
@@ -1,9 +1,15 @@
 package com.geardao.phoneapp.security.jwt;
 
+import com.geardao.phoneapp.config.ApplicationProperties;
+
 import io.github.jhipster.config.JHipsterProperties;
 
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collectors;
 import javax.annotation.PostConstruct;
 
@@ -15,6 +21,7 @@ import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.User;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
 
 import io.jsonwebtoken.*;
 
@@ -33,10 +40,31 @@ public class TokenProvider {
 
     private long tokenValidityInMillisecondsForRememberMe;
 
+    /**
+     * Authorities are shared by every token, so a single instance of each is kept.
+     */
+    private static final ConcurrentMap<String, GrantedAuthority> AUTHORITIES = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
     private final JHipsterProperties jHipsterProperties;
 
-    public TokenProvider(JHipsterProperties jHipsterProperties) {
+    private final int maxCachedTokens;
+
+    /**
+     * Already verified tokens, by digest of the token.
+     */
+    private final ConcurrentMap<String, VerifiedToken> verifiedTokens = new ConcurrentHashMap<>();
+
+    public TokenProvider(JHipsterProperties jHipsterProperties, ApplicationProperties applicationProperties) {
         this.jHipsterProperties = jHipsterProperties;
+        this.maxCachedTokens = applicationProperties.getTokenCache().getMaxEntries();
     }
 
     @PostConstruct
@@ -72,26 +100,69 @@ public class TokenProvider {
             .compact();
     }
 
+    /**
+     * Verify a token, and get the authentication it holds.
+     * <p>
+     * The signature of a token is only checked the first time it is seen: its subject and authorities are then
+     * served from memory until the token expires. A new authentication is built on every call, as the callers may
+     * modify it, for instance by setting its details.
+     *
+     * @param token the JWT token
+     * @return the authentication, or an empty Optional if the token is not valid
+     */
+    public Optional<Authentication> getValidAuthentication(String token) {
+        if (!StringUtils.hasText(token)) {
+            return Optional.empty();
+        }
+        String digest = digest(token);
+        VerifiedToken verifiedToken = verifiedTokens.get(digest);
+        if (verifiedToken != null) {
+            if (verifiedToken.expiration > System.currentTimeMillis()) {
+                return Optional.of(toAuthentication(token, verifiedToken.subject, verifiedToken.authorities));
+            }
+            verifiedTokens.remove(digest, verifiedToken);
+        }
+        Claims claims = parseClaims(token);
+        if (claims == null) {
+            return Optional.empty();
+        }
+        List<GrantedAuthority> authorities = getAuthorities(claims);
+        if (maxCachedTokens > 0 && claims.getExpiration() != null) {
+            if (verifiedTokens.size() >= maxCachedTokens) {
+                evictTokens();
+            }
+            verifiedTokens.put(digest, new VerifiedToken(claims.getSubject(), authorities, claims.getExpiration().getTime()));
+        }
+        return Optional.of(toAuthentication(token, claims.getSubject(), authorities));
+    }
+
     public Authentication getAuthentication(String token) {
         Claims claims = Jwts.parser()
             .setSigningKey(secretKey)
             .parseClaimsJws(token)
             .getBody();
+        return toAuthentication(token, claims.getSubject(), getAuthorities(claims));
+    }
 
-        Collection<? extends GrantedAuthority> authorities =
-            Arrays.stream(claims.get(AUTHORITIES_KEY).toString().split(","))
-                .map(SimpleGrantedAuthority::new)
-                .collect(Collectors.toList());
+    public boolean validateToken(String authToken) {
+        return parseClaims(authToken) != null;
+    }
 
-        User principal = new User(claims.getSubject(), "", authorities);
+    private List<GrantedAuthority> getAuthorities(Claims claims) {
+        return Collections.unmodifiableList(Arrays.stream(claims.get(AUTHORITIES_KEY).toString().split(","))
+            .map(authority -> AUTHORITIES.computeIfAbsent(authority, SimpleGrantedAuthority::new))
+            .collect(Collectors.toList()));
+    }
+
+    private Authentication toAuthentication(String token, String subject, List<GrantedAuthority> authorities) {
+        User principal = new User(subject, "", authorities);
 
         return new UsernamePasswordAuthenticationToken(principal, token, authorities);
     }
 
-    public boolean validateToken(String authToken) {
+    private Claims parseClaims(String authToken) {
         try {
-            Jwts.parser().setSigningKey(secretKey).parseClaimsJws(authToken);
-            return true;
+            return Jwts.parser().setSigningKey(secretKey).parseClaimsJws(authToken).getBody();
         } catch (SignatureException e) {
             log.info("Invalid JWT signature.");
             log.trace("Invalid JWT signature trace: {}", e);
@@ -108,6 +179,42 @@ public class TokenProvider {
             log.info("JWT token compact of handler are invalid.");
             log.trace("JWT token compact of handler are invalid trace: {}", e);
         }
-        return false;
+        return null;
+    }
+
+    /**
+     * Make room in the cache: expired tokens are removed first, then arbitrary ones until a tenth of the cache is
+     * free, so that the cost of an eviction is spread over many requests.
+     */
+    private void evictTokens() {
+        long now = System.currentTimeMillis();
+        verifiedTokens.values().removeIf(verifiedToken -> verifiedToken.expiration <= now);
+        Iterator<VerifiedToken> iterator = verifiedTokens.values().iterator();
+        int target = maxCachedTokens - Math.max(1, maxCachedTokens / 10);
+        while (verifiedTokens.size() > target && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private static String digest(String token) {
+        MessageDigest digest = DIGEST.get();
+        digest.reset();
+        return Base64.getEncoder().encodeToString(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static final class VerifiedToken {
+
+        private final String subject;
+
+        private final List<GrantedAuthority> authorities;
+
+        private final long expiration;
+
+        private VerifiedToken(String subject, List<GrantedAuthority> authorities, long expiration) {
+            this.subject = subject;
+            this.authorities = authorities;
+            this.expiration = expiration;
+        }
     }
 }
@@ -1,11 +1,19 @@
 package com.geardao.phoneapp.service;
 
+import com.geardao.phoneapp.domain.Brand;
+import com.geardao.phoneapp.repository.Cursor;
+import com.geardao.phoneapp.repository.CursorPage;
 import com.geardao.phoneapp.service.dto.BrandDTO;
+import com.geardao.phoneapp.service.dto.MultiGetResultDTO;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 /**
  * Service Interface for managing Brand.
@@ -13,13 +21,44 @@ import java.util.Optional;
 public interface BrandService {
 
     /**
-     * Save a brand.
+     * The cache of the BrandDTOs returned by {@link #findOne}, by id.
+     */
+    String BRANDS_BY_ID_CACHE = "brandsById";
+
+    /**
+     * The properties {@link #findAllAfter} can sort by, besides the id: each has a {property, id} index on Brand.
+     */
+    Set<String> CURSOR_SORT_PROPERTIES = Collections.singleton("name");
+
+    /**
+     * Save a brand. An existing brand is updated in place, and only if it still has the version of the DTO, when
+     * the DTO has one.
      *
      * @param brandDTO the entity to save
      * @return the persisted entity
+     * @throws org.springframework.dao.OptimisticLockingFailureException if the brand has been written since its version
      */
     BrandDTO save(BrandDTO brandDTO);
 
+    /**
+     * Update some fields of a brand.
+     *
+     * @param id the id of the entity
+     * @param patch the JSON Merge Patch of the entity: each field replaces the field of the entity, a null field removes it
+     * @param expectedVersion the version the entity must have, or null to update any version
+     * @return the updated entity, or empty if there is no entity with this id
+     * @throws org.springframework.dao.OptimisticLockingFailureException if the brand does not have the expected version
+     */
+    Optional<BrandDTO> patch(String id, Map<String, Object> patch, Long expectedVersion);
+
+    /**
+     * Propagate written brands to the caches and the search index, see {@link PhoneService#afterWrite}.
+     *
+     * @param brands the brands as they were written
+     * @param fields the written fields of each brand, by id, or null if the brands were written whole
+     */
+    void afterWrite(List<Brand> brands, Map<String, Map<String, Object>> fields);
+
     /**
      * Get all the brands.
      *
@@ -28,6 +67,23 @@ public interface BrandService {
      */
     Page<BrandDTO> findAll(Pageable pageable);
 
+    /**
+     * Get the change counter of the brands, incremented after every write: a listing read after this counter
+     * holds at least the changes it counts.
+     *
+     * @return the change counter
+     */
+    long getChangeCounter();
+
+    /**
+     * Get a page of brands located after a cursor, without counting them.
+     *
+     * @param after the cursor of the previous page, or null for the first page
+     * @param pageable the page size and sort
+     * @return the list of entities
+     */
+    CursorPage<BrandDTO> findAllAfter(Cursor after, Pageable pageable);
+
 
     /**
      * Get the "id" brand.
@@ -38,7 +94,15 @@ public interface BrandService {
     Optional<BrandDTO> findOne(String id);
 
     /**
-     * Delete the "id" brand.
+     * Get the brands with the given ids, in a single query.
+     *
+     * @param ids the ids of the entities
+     * @return the entities found, in the order of the ids, and the ids not found
+     */
+    MultiGetResultDTO<BrandDTO> findAllById(List<String> ids);
+
+    /**
+     * Delete the "id" brand. Nothing is done, nor published, if there is no brand with this id.
      *
      * @param id the id of the entity
      */
@@ -0,0 +1,484 @@
+package com.geardao.phoneapp.service;
+
+import com.geardao.phoneapp.config.ApplicationProperties;
+import com.geardao.phoneapp.domain.Phone;
+import com.geardao.phoneapp.repository.LeaseRepository;
+import com.geardao.phoneapp.service.dto.BrandStatsDTO;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.UpdateOptions;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.Decimal128;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Service maintaining the phone count and the prices of each brand in the {@value #COLLECTION_NAME} collection.
+ * <p>
+ * Every save and deletion of a phone updates the statistics of its brand with a single atomic update: counts and
+ * sums with {@code $inc}, bounds with {@code $min} and {@code $max}. Removing the price at a bound cannot be
+ * undone this way, so the bounds of that brand are then recomputed from its phones. Prices are kept as Decimal128
+ * so that the sums stay exact.
+ * <p>
+ * The updates of concurrent writes to the same phone can interleave, and the writes made outside of the services
+ * are not seen: a single node recomputes all the statistics from the phones periodically, while it holds a lease.
+ * Every update also increments the generation of the statistics of the brand, and the recomputed statistics only
+ * replace those whose generation did not change since before the phones were read, so an update made meanwhile is
+ * never overwritten; those brands are recomputed again on their own. Each node serves the statistics from memory,
+ * reloading them periodically, so a read costs nothing whatever the number of phones.
+ */
+@Service
+public class BrandStatsService {
+
+    public static final String COLLECTION_NAME = "brand_stats";
+
+    private static final String COUNT_FIELD = "count";
+
+    private static final String PRICE_COUNT_FIELD = "price_count";
+
+    private static final String PRICE_SUM_FIELD = "price_sum";
+
+    private static final String MIN_PRICE_FIELD = "min_price";
+
+    private static final String MAX_PRICE_FIELD = "max_price";
+
+    private static final String GENERATION_FIELD = "generation";
+
+    /**
+     * How many times the statistics of a brand updated while recomputed are recomputed again.
+     */
+    private static final int MAX_REPAIR_ATTEMPTS = 3;
+
+    private static final String LEASE_COLLECTION = "jhi_brand_stats_repair";
+
+    private static final String LEASE_NAME = "brand-stats";
+
+    private static final int AVERAGE_SCALE = 2;
+
+    private static final String METRIC_PREFIX = "brand-stats";
+
+    private final Logger log = LoggerFactory.getLogger(BrandStatsService.class);
+
+    private final ApplicationProperties.BrandStats properties;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final LeaseRepository leaseRepository;
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final AtomicBoolean repairRequested = new AtomicBoolean();
+
+    private final Timer repairTimer;
+
+    private volatile List<BrandStatsDTO> snapshot = Collections.emptyList();
+
+    private ScheduledExecutorService executor;
+
+    public BrandStatsService(ApplicationProperties applicationProperties, MongoTemplate mongoTemplate,
+            LeaseRepository leaseRepository, MetricRegistry metricRegistry) {
+        this.properties = applicationProperties.getBrandStats();
+        this.mongoTemplate = mongoTemplate;
+        this.leaseRepository = leaseRepository;
+        this.repairTimer = metricRegistry.timer(MetricRegistry.name(METRIC_PREFIX, "repair"));
+    }
+
+    @PostConstruct
+    public void start() {
+        executor = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("phoneapp-brand-stats-"));
+        // the first node to start builds the statistics, as the lease does not exist yet
+        executor.scheduleWithFixedDelay(this::repairIfLeader, 0, properties.getRepairIntervalMs(), TimeUnit.MILLISECONDS);
+        executor.scheduleWithFixedDelay(this::refreshQuietly, 0, properties.getRefreshIntervalMs(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Get the statistics of all the brands, as last loaded by this node.
+     *
+     * @return the statistics of the brands with at least one phone, by brand name
+     */
+    public List<BrandStatsDTO> findAll() {
+        return snapshot;
+    }
+
+    /**
+     * Update the statistics after a phone was saved or deleted.
+     *
+     * @param before the phone before the write, or null if it was created
+     * @param after the phone after the write, or null if it was deleted
+     */
+    public void onChange(Phone before, Phone after) {
+        String beforeBrand = before == null ? null : before.getBrand();
+        String afterBrand = after == null ? null : after.getBrand();
+        BigDecimal beforePrice = before == null ? null : before.getPrice();
+        BigDecimal afterPrice = after == null ? null : after.getPrice();
+        if (before != null && after != null && Objects.equals(beforeBrand, afterBrand)) {
+            if (beforePrice == null ? afterPrice != null : afterPrice == null || beforePrice.compareTo(afterPrice) != 0) {
+                changePrice(afterBrand, beforePrice, afterPrice);
+            }
+            return;
+        }
+        if (before != null) {
+            remove(beforeBrand, beforePrice);
+        }
+        if (after != null) {
+            add(afterBrand, afterPrice);
+        }
+    }
+
+    /**
+     * Recompute the statistics of all the brands in the background, after writes that could not be applied one by
+     * one, such as a bulk import.
+     */
+    public void requestRepair() {
+        if (executor != null && repairRequested.compareAndSet(false, true)) {
+            executor.execute(() -> {
+                repairRequested.set(false);
+                repairQuietly();
+            });
+        }
+    }
+
+    /**
+     * Recompute the statistics of all the brands from the phones, and reload them.
+     */
+    public void repair() {
+        try (Timer.Context ignored = repairTimer.time()) {
+            // read before the phones, so that any update not seen by the phones read changes them
+            Map<String, Long> generations = readGenerations(new Document());
+            Map<String, Accumulator> accumulators = accumulate(new Query());
+            Set<String> brands = new HashSet<>(generations.keySet());
+            brands.addAll(accumulators.keySet());
+            Set<String> changed = write(brands, generations, accumulators);
+            for (int attempt = 1; !changed.isEmpty() && attempt < MAX_REPAIR_ATTEMPTS; attempt++) {
+                generations = readGenerations(Filters.in("_id", changed));
+                accumulators = accumulate(Query.query(Criteria.where("brand").in(changed)));
+                changed = write(changed, generations, accumulators);
+            }
+            if (!changed.isEmpty()) {
+                log.warn("The statistics of {} brands kept being updated while recomputed, they are left to the next repair",
+                    changed.size());
+            }
+            log.debug("Recomputed the statistics of {} brands", brands.size() - changed.size());
+        }
+        refresh();
+    }
+
+    /**
+     * @return the generation of the statistics of each brand matching a filter, 0 when they have none
+     */
+    private Map<String, Long> readGenerations(Bson filter) {
+        Map<String, Long> generations = new HashMap<>();
+        for (Document document : collection().find(filter).projection(Projections.include(GENERATION_FIELD))) {
+            generations.put(document.getString("_id"), longValue(document, GENERATION_FIELD));
+        }
+        return generations;
+    }
+
+    /**
+     * @return the statistics of the brands of the phones matching a query
+     */
+    private Map<String, Accumulator> accumulate(Query query) {
+        Map<String, Accumulator> accumulators = new HashMap<>();
+        query.fields().include("brand").include("price");
+        try (CloseableIterator<Phone> phones = mongoTemplate.stream(query.noCursorTimeout(), Phone.class)) {
+            while (phones.hasNext()) {
+                Phone phone = phones.next();
+                if (phone.getBrand() != null) {
+                    accumulators.computeIfAbsent(phone.getBrand(), brand -> new Accumulator()).add(phone.getPrice());
+                }
+            }
+        }
+        return accumulators;
+    }
+
+    /**
+     * Replace the statistics of some brands with the recomputed ones, and delete those of the brands without phones,
+     * unless they were updated since their generation was read.
+     *
+     * @return the brands whose statistics were updated meanwhile, and were left as they are
+     */
+    private Set<String> write(Set<String> brands, Map<String, Long> generations, Map<String, Accumulator> accumulators) {
+        MongoCollection<Document> collection = collection();
+        Set<String> changed = new HashSet<>();
+        for (String brand : brands) {
+            Long generation = generations.get(brand);
+            Accumulator accumulator = accumulators.get(brand);
+            if (accumulator == null) {
+                if (generation != null && collection.deleteOne(unchanged(brand, generation)).getDeletedCount() == 0) {
+                    changed.add(brand);
+                }
+                continue;
+            }
+            Document document = accumulator.toDocument(brand)
+                .append(GENERATION_FIELD, generation == null ? 0L : generation + 1);
+            try {
+                if (generation == null) {
+                    // only created if no update created them meanwhile, which fails on the duplicate id
+                    collection.replaceOne(Filters.and(Filters.eq("_id", brand), Filters.exists(GENERATION_FIELD, false)),
+                        document, new UpdateOptions().upsert(true));
+                } else if (collection.replaceOne(unchanged(brand, generation), document).getMatchedCount() == 0) {
+                    changed.add(brand);
+                }
+            } catch (MongoWriteException e) {
+                if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                    throw e;
+                }
+                changed.add(brand);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return the filter of the statistics of a brand still at a generation; those written before the generations
+     * have none, which counts as 0
+     */
+    private Bson unchanged(String brand, long generation) {
+        Bson generationFilter = generation == 0
+            ? Filters.or(Filters.exists(GENERATION_FIELD, false), Filters.eq(GENERATION_FIELD, 0L))
+            : Filters.eq(GENERATION_FIELD, generation);
+        return Filters.and(Filters.eq("_id", brand), generationFilter);
+    }
+
+    /**
+     * Reload the statistics served by this node.
+     */
+    public void refresh() {
+        List<BrandStatsDTO> stats = new ArrayList<>();
+        for (Document document : collection().find().sort(Sorts.ascending("_id"))) {
+            stats.add(toDto(document));
+        }
+        snapshot = Collections.unmodifiableList(stats);
+    }
+
+    private void add(String brand, BigDecimal price) {
+        if (brand == null) {
+            return;
+        }
+        List<Bson> updates = new ArrayList<>();
+        updates.add(Updates.inc(GENERATION_FIELD, 1L));
+        updates.add(Updates.inc(COUNT_FIELD, 1L));
+        if (price != null) {
+            Decimal128 value = new Decimal128(price);
+            updates.add(Updates.inc(PRICE_COUNT_FIELD, 1L));
+            updates.add(incPriceSum(price));
+            updates.add(Updates.min(MIN_PRICE_FIELD, value));
+            updates.add(Updates.max(MAX_PRICE_FIELD, value));
+        }
+        collection().updateOne(Filters.eq("_id", brand), Updates.combine(updates), new UpdateOptions().upsert(true));
+    }
+
+    private void remove(String brand, BigDecimal price) {
+        if (brand == null) {
+            return;
+        }
+        List<Bson> updates = new ArrayList<>();
+        updates.add(Updates.inc(GENERATION_FIELD, 1L));
+        updates.add(Updates.inc(COUNT_FIELD, -1L));
+        if (price != null) {
+            updates.add(Updates.inc(PRICE_COUNT_FIELD, -1L));
+            updates.add(incPriceSum(price.negate()));
+        }
+        Document stats = collection().findOneAndUpdate(Filters.eq("_id", brand), Updates.combine(updates),
+            new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER));
+        if (stats == null) {
+            return;
+        }
+        if (longValue(stats, COUNT_FIELD) <= 0) {
+            collection().deleteOne(Filters.and(Filters.eq("_id", brand), Filters.lte(COUNT_FIELD, 0L)));
+        } else if (price != null && isBound(stats, price)) {
+            recomputeBounds(brand);
+        }
+    }
+
+    private void changePrice(String brand, BigDecimal before, BigDecimal after) {
+        if (brand == null) {
+            return;
+        }
+        List<Bson> updates = new ArrayList<>();
+        updates.add(Updates.inc(GENERATION_FIELD, 1L));
+        long priceCount = (after == null ? 0 : 1) - (before == null ? 0 : 1);
+        if (priceCount != 0) {
+            updates.add(Updates.inc(PRICE_COUNT_FIELD, priceCount));
+        }
+        BigDecimal difference = (after == null ? BigDecimal.ZERO : after).subtract(before == null ? BigDecimal.ZERO : before);
+        updates.add(incPriceSum(difference));
+        if (after != null) {
+            Decimal128 value = new Decimal128(after);
+            updates.add(Updates.min(MIN_PRICE_FIELD, value));
+            updates.add(Updates.max(MAX_PRICE_FIELD, value));
+        }
+        Document stats = collection().findOneAndUpdate(Filters.eq("_id", brand), Updates.combine(updates),
+            new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER));
+        if (stats == null) {
+            // the statistics of the brand are missing: only a repair can rebuild them
+            requestRepair();
+        } else if (before != null && isBound(stats, before)) {
+            recomputeBounds(brand);
+        }
+    }
+
+    private Bson incPriceSum(BigDecimal amount) {
+        // Updates.inc only takes the Number types, which Decimal128 is not
+        return new Document("$inc", new Document(PRICE_SUM_FIELD, new Decimal128(amount)));
+    }
+
+    private boolean isBound(Document stats, BigDecimal price) {
+        return equal(stats.get(MIN_PRICE_FIELD, Decimal128.class), price) || equal(stats.get(MAX_PRICE_FIELD, Decimal128.class), price);
+    }
+
+    private boolean equal(Decimal128 value, BigDecimal price) {
+        return value != null && value.bigDecimalValue().compareTo(price) == 0;
+    }
+
+    private void recomputeBounds(String brand) {
+        BigDecimal min = boundPrice(brand, Sort.Direction.ASC);
+        BigDecimal max = min == null ? null : boundPrice(brand, Sort.Direction.DESC);
+        Bson update = min == null
+            ? Updates.combine(Updates.unset(MIN_PRICE_FIELD), Updates.unset(MAX_PRICE_FIELD), Updates.inc(GENERATION_FIELD, 1L))
+            : Updates.combine(Updates.set(MIN_PRICE_FIELD, new Decimal128(min)), Updates.set(MAX_PRICE_FIELD, new Decimal128(max)),
+                Updates.inc(GENERATION_FIELD, 1L));
+        collection().updateOne(Filters.eq("_id", brand), update);
+    }
+
+    /**
+     * @return the lowest or highest price of the phones of a brand, read from the brand_price index of the phones
+     */
+    private BigDecimal boundPrice(String brand, Sort.Direction direction) {
+        // the prices still stored as strings sort after all the numbers, they are left to the repair
+        Query query = Query.query(Criteria.where("brand").is(brand).and("price").type(BsonType.DECIMAL128.getValue()))
+            .with(Sort.by(direction, "price"))
+            .limit(1);
+        query.fields().include("price");
+        Phone phone = mongoTemplate.findOne(query, Phone.class);
+        return phone == null ? null : phone.getPrice();
+    }
+
+    private BrandStatsDTO toDto(Document document) {
+        long priceCount = longValue(document, PRICE_COUNT_FIELD);
+        Decimal128 priceSum = document.get(PRICE_SUM_FIELD, Decimal128.class);
+        BigDecimal average = priceCount <= 0 || priceSum == null ? null
+            : priceSum.bigDecimalValue().divide(BigDecimal.valueOf(priceCount), AVERAGE_SCALE, RoundingMode.HALF_EVEN);
+        return new BrandStatsDTO(document.getString("_id"), longValue(document, COUNT_FIELD),
+            decimal(document.get(MIN_PRICE_FIELD, Decimal128.class)), decimal(document.get(MAX_PRICE_FIELD, Decimal128.class)),
+            average);
+    }
+
+    private long longValue(Document document, String field) {
+        Number value = document.get(field, Number.class);
+        return value == null ? 0 : value.longValue();
+    }
+
+    private BigDecimal decimal(Decimal128 value) {
+        return value == null ? null : value.bigDecimalValue();
+    }
+
+    private MongoCollection<Document> collection() {
+        return mongoTemplate.getCollection(COLLECTION_NAME);
+    }
+
+    private void repairIfLeader() {
+        try {
+            if (leaseRepository.acquire(LEASE_COLLECTION, LEASE_NAME, nodeId, properties.getRepairIntervalMs()) != null) {
+                repair();
+            }
+        } catch (Exception e) {
+            log.error("Could not recompute the brand statistics: {}", e.getMessage());
+        }
+    }
+
+    private void repairQuietly() {
+        try {
+            repair();
+        } catch (Exception e) {
+            log.error("Could not recompute the brand statistics: {}", e.getMessage());
+        }
+    }
+
+    private void refreshQuietly() {
+        try {
+            refresh();
+        } catch (Exception e) {
+            log.error("Could not load the brand statistics: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * The statistics of a brand, while they are recomputed.
+     */
+    private static final class Accumulator {
+
+        private long count;
+
+        private long priceCount;
+
+        private BigDecimal priceSum = BigDecimal.ZERO;
+
+        private BigDecimal min;
+
+        private BigDecimal max;
+
+        private void add(BigDecimal price) {
+            count++;
+            if (price != null) {
+                priceCount++;
+                priceSum = priceSum.add(price);
+                min = min == null || price.compareTo(min) < 0 ? price : min;
+                max = max == null || price.compareTo(max) > 0 ? price : max;
+            }
+        }
+
+        private Document toDocument(String brand) {
+            Document document = new Document("_id", brand)
+                .append(COUNT_FIELD, count)
+                .append(PRICE_COUNT_FIELD, priceCount)
+                .append(PRICE_SUM_FIELD, new Decimal128(priceSum));
+            if (min != null) {
+                document.append(MIN_PRICE_FIELD, new Decimal128(min)).append(MAX_PRICE_FIELD, new Decimal128(max));
+            }
+            return document;
+        }
+    }
+}
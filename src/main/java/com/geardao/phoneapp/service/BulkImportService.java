@@ -0,0 +1,415 @@
+package com.geardao.phoneapp.service;
+
+import com.geardao.phoneapp.config.ApplicationProperties;
+import com.geardao.phoneapp.domain.Brand;
+import com.geardao.phoneapp.domain.Phone;
+import com.geardao.phoneapp.repository.VersionedRepository;
+import com.geardao.phoneapp.service.dto.BrandDTO;
+import com.geardao.phoneapp.service.dto.BulkImportResultDTO;
+import com.geardao.phoneapp.service.dto.PhoneDTO;
+import com.geardao.phoneapp.service.mapper.BrandMapper;
+import com.geardao.phoneapp.service.mapper.PhoneMapper;
+import com.geardao.phoneapp.service.util.CsvRecordReader;
+import com.geardao.phoneapp.service.util.RowFormat;
+import com.geardao.phoneapp.web.rest.errors.BadRequestAlertException;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Service for importing phones and brands in bulk.
+ * <p>
+ * The input is read one row at a time, and the rows are written in chunks, with an unordered bulk write to the
+ * database; the written entities are then propagated by the afterWrite hook of their service, as a save would,
+ * which sends bulk requests to Elasticsearch. A row with an id replaces the document with that id, or
+ * creates it. The outcome of each row is written to the report as soon as its chunk has been written.
+ */
+@Service
+public class BulkImportService {
+
+    private final Logger log = LoggerFactory.getLogger(BulkImportService.class);
+
+    private final ApplicationProperties.BulkImport properties;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final ObjectMapper objectMapper;
+
+    private final ObjectWriter resultWriter;
+
+    private final Validator validator;
+
+    private final CatalogEventService catalogEventService;
+
+    private final VersionedRepository versionedRepository;
+
+    private final BrandStatsService brandStatsService;
+
+    private final ImportTarget<PhoneDTO, Phone> phones;
+
+    private final ImportTarget<BrandDTO, Brand> brands;
+
+    public BulkImportService(ApplicationProperties applicationProperties, MongoTemplate mongoTemplate, ObjectMapper objectMapper,
+            Validator validator, PhoneMapper phoneMapper, BrandMapper brandMapper, PhoneService phoneService,
+            BrandService brandService, CatalogEventService catalogEventService, VersionedRepository versionedRepository,
+            BrandStatsService brandStatsService) {
+
+        this.properties = applicationProperties.getBulkImport();
+        this.mongoTemplate = mongoTemplate;
+        this.objectMapper = objectMapper;
+        this.resultWriter = objectMapper.writerFor(BulkImportResultDTO.class);
+        this.validator = validator;
+        this.catalogEventService = catalogEventService;
+        this.versionedRepository = versionedRepository;
+        this.brandStatsService = brandStatsService;
+        this.phones = new ImportTarget<>("phone", PhoneDTO.class, Phone.class, phoneMapper::toEntity, Phone::getId,
+            Phone::setId, written -> phoneService.afterWrite(written, null));
+        this.brands = new ImportTarget<>("brand", BrandDTO.class, Brand.class, brandMapper::toEntity, Brand::getId,
+            Brand::setId, written -> brandService.afterWrite(written, null));
+    }
+
+    /**
+     * Import phones.
+     *
+     * @param input the rows to import
+     * @param format the format of the rows
+     * @param report where the outcome of each row is written, as newline-delimited JSON
+     * @throws IOException if the input could not be read or the report could not be written
+     */
+    public void importPhones(InputStream input, RowFormat format, OutputStream report) throws IOException {
+        importRows(phones, input, format, report);
+    }
+
+    /**
+     * Import brands.
+     *
+     * @param input the rows to import
+     * @param format the format of the rows
+     * @param report where the outcome of each row is written, as newline-delimited JSON
+     * @throws IOException if the input could not be read or the report could not be written
+     */
+    public void importBrands(InputStream input, RowFormat format, OutputStream report) throws IOException {
+        importRows(brands, input, format, report);
+    }
+
+    private <D, E> void importRows(ImportTarget<D, E> target, InputStream input, RowFormat format, OutputStream report)
+        throws IOException {
+
+        log.debug("Request to import {} rows of {}", format, target.entityName);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        RowReader<D> rows = format == RowFormat.CSV ? csvRows(target, reader) : ndjsonRows(target, reader);
+        List<PendingRow<E>> chunk = new ArrayList<>(properties.getChunkSize());
+        long count = 0;
+        ParsedRow<D> row;
+        while ((row = rows.next()) != null) {
+            chunk.add(toPendingRow(target, row));
+            if (chunk.size() >= properties.getChunkSize()) {
+                writeChunk(target, chunk, report);
+                count += chunk.size();
+                chunk.clear();
+            }
+        }
+        writeChunk(target, chunk, report);
+        count += chunk.size();
+        report.flush();
+        if (target.entityType == Phone.class) {
+            // the previous brand and price of the updated phones are not read, the statistics are recomputed instead
+            brandStatsService.requestRepair();
+        }
+        log.debug("Imported {} rows of {}", count, target.entityName);
+    }
+
+    private <D, E> PendingRow<E> toPendingRow(ImportTarget<D, E> target, ParsedRow<D> row) {
+        PendingRow<E> pendingRow = new PendingRow<>(row.number);
+        if (row.error != null) {
+            pendingRow.error = row.error;
+            return pendingRow;
+        }
+        Set<ConstraintViolation<D>> violations = validator.validate(row.value);
+        if (!violations.isEmpty()) {
+            pendingRow.error = violations.stream()
+                .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                .collect(Collectors.joining(", "));
+        }
+        pendingRow.entity = target.toEntity.apply(row.value);
+        pendingRow.id = target.idGetter.apply(pendingRow.entity);
+        return pendingRow;
+    }
+
+    private <E> void writeChunk(ImportTarget<?, E> target, List<PendingRow<E>> chunk, OutputStream report) throws IOException {
+        List<PendingRow<E>> written = new ArrayList<>();
+        List<WriteModel<Document>> models = new ArrayList<>();
+        int valid = (int) chunk.stream().filter(row -> row.error == null).count();
+        long sequence = valid == 0 ? 0 : versionedRepository.reserveSequences(valid);
+        for (PendingRow<E> row : chunk) {
+            if (row.error != null) {
+                continue;
+            }
+            Document document = new Document();
+            if (row.id == null) {
+                target.idSetter.accept(row.entity, new ObjectId().toHexString());
+                row.created = true;
+                mongoTemplate.getConverter().write(row.entity, document);
+                document.put(VersionedRepository.VERSION_FIELD, 0L);
+                row.sequence = sequence++;
+                versionedRepository.stamp(document, row.sequence);
+                models.add(new InsertOneModel<>(document));
+            } else {
+                mongoTemplate.getConverter().write(row.entity, document);
+                row.sequence = sequence++;
+                // replaced in place, so that the version goes on
+                models.add(new UpdateOneModel<>(Filters.eq("_id", document.get("_id")),
+                    versionedRepository.stamp(versionedRepository.replacement(row.entity), row.sequence).getUpdateObject(),
+                    new UpdateOptions().upsert(true)));
+            }
+            written.add(row);
+        }
+        if (!models.isEmpty()) {
+            write(target, models, written);
+        }
+        for (PendingRow<E> row : chunk) {
+            BulkImportResultDTO result = row.error == null
+                ? BulkImportResultDTO.success(row.number, target.idGetter.apply(row.entity), row.created)
+                : BulkImportResultDTO.failure(row.number, row.id, row.error);
+            report.write(resultWriter.writeValueAsBytes(result));
+            report.write('\n');
+        }
+        report.flush();
+    }
+
+    private <E> void write(ImportTarget<?, E> target, List<WriteModel<Document>> models, List<PendingRow<E>> written) {
+        try {
+            BulkWriteResult result = mongoTemplate.getCollection(mongoTemplate.getCollectionName(target.entityType))
+                .bulkWrite(models, new BulkWriteOptions().ordered(false));
+            markUpserts(result, written);
+        } catch (MongoBulkWriteException e) {
+            markUpserts(e.getWriteResult(), written);
+            for (BulkWriteError error : e.getWriteErrors()) {
+                written.get(error.getIndex()).error = error.getMessage();
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not write {} rows of {}: {}", written.size(), target.entityName, e.getMessage());
+            written.forEach(row -> row.error = "Could not write the row: " + e.getMessage());
+        }
+        List<PendingRow<E>> stored = written.stream()
+            .filter(row -> row.error == null)
+            .collect(Collectors.toList());
+        List<E> entities = stored.stream()
+            .map(row -> row.entity)
+            .collect(Collectors.toList());
+        recordEvents(target, stored);
+        try {
+            target.afterWrite.accept(entities);
+        } catch (RuntimeException e) {
+            // the rows are stored: they will be searchable after the next reindex
+            log.error("Could not index {} imported {} documents: {}", entities.size(), target.entityName, e.getMessage());
+        }
+    }
+
+    private <E> void recordEvents(ImportTarget<?, E> target, List<PendingRow<E>> stored) {
+        Map<String, E> entitiesById = new LinkedHashMap<>();
+        Set<String> createdIds = new HashSet<>();
+        Map<String, Long> sequences = new HashMap<>();
+        for (PendingRow<E> row : stored) {
+            String id = target.idGetter.apply(row.entity);
+            entitiesById.put(id, row.entity);
+            sequences.put(id, row.sequence);
+            if (row.created) {
+                createdIds.add(id);
+            }
+        }
+        try {
+            catalogEventService.recordImport(target.entityName, entitiesById, createdIds, sequences);
+        } catch (RuntimeException e) {
+            log.error("Could not record the events of {} imported {} documents: {}", stored.size(), target.entityName, e.getMessage());
+        }
+    }
+
+    private <E> void markUpserts(BulkWriteResult result, List<PendingRow<E>> written) {
+        for (BulkWriteUpsert upsert : result.getUpserts()) {
+            written.get(upsert.getIndex()).created = true;
+        }
+    }
+
+    private <D> RowReader<D> ndjsonRows(ImportTarget<D, ?> target, BufferedReader reader) {
+        long[] lineNumber = {0};
+        return () -> {
+            String line;
+            do {
+                line = reader.readLine();
+                lineNumber[0]++;
+            } while (line != null && line.trim().isEmpty());
+            if (line == null) {
+                return null;
+            }
+            try {
+                D value = objectMapper.readValue(line, target.dtoType);
+                return value == null ? ParsedRow.error(lineNumber[0], "Not an object") : ParsedRow.of(lineNumber[0], value);
+            } catch (JsonProcessingException e) {
+                return ParsedRow.error(lineNumber[0], "Invalid JSON: " + e.getOriginalMessage());
+            }
+        };
+    }
+
+    private <D> RowReader<D> csvRows(ImportTarget<D, ?> target, BufferedReader reader) throws IOException {
+        CsvRecordReader records = new CsvRecordReader(reader);
+        List<String> header = records.readRecord();
+        if (header == null) {
+            return () -> null;
+        }
+        JavaType dtoType = objectMapper.constructType(target.dtoType);
+        Set<String> properties = objectMapper.getDeserializationConfig().introspect(dtoType).findProperties().stream()
+            .map(BeanPropertyDefinition::getName)
+            .collect(Collectors.toSet());
+        List<String> columns = header.stream().map(String::trim).collect(Collectors.toList());
+        for (String column : columns) {
+            if (!properties.contains(column)) {
+                throw new BadRequestAlertException("Unknown CSV column " + column, target.entityName, "unknowncolumn");
+            }
+        }
+        long[] rowNumber = {0};
+        return () -> {
+            List<String> fields = records.readRecord();
+            if (fields == null) {
+                return null;
+            }
+            rowNumber[0]++;
+            if (fields.size() != columns.size()) {
+                return ParsedRow.error(rowNumber[0], "Expected " + columns.size() + " fields, found " + fields.size());
+            }
+            Map<String, String> values = new HashMap<>();
+            for (int i = 0; i < columns.size(); i++) {
+                String value = fields.get(i);
+                values.put(columns.get(i), value.isEmpty() ? null : value);
+            }
+            try {
+                return ParsedRow.of(rowNumber[0], objectMapper.convertValue(values, dtoType));
+            } catch (IllegalArgumentException e) {
+                String message = e.getCause() instanceof JsonProcessingException
+                    ? ((JsonProcessingException) e.getCause()).getOriginalMessage() : e.getMessage();
+                return ParsedRow.error(rowNumber[0], "Invalid row: " + message);
+            }
+        };
+    }
+
+    private static final class ImportTarget<D, E> {
+
+        private final String entityName;
+
+        private final Class<D> dtoType;
+
+        private final Class<E> entityType;
+
+        private final Function<D, E> toEntity;
+
+        private final Function<E, String> idGetter;
+
+        private final BiConsumer<E, String> idSetter;
+
+        /**
+         * The hook of the entity service that propagates the written entities, see {@link PhoneService#afterWrite}.
+         */
+        private final Consumer<List<E>> afterWrite;
+
+        private ImportTarget(String entityName, Class<D> dtoType, Class<E> entityType, Function<D, E> toEntity,
+                Function<E, String> idGetter, BiConsumer<E, String> idSetter, Consumer<List<E>> afterWrite) {
+            this.entityName = entityName;
+            this.dtoType = dtoType;
+            this.entityType = entityType;
+            this.toEntity = toEntity;
+            this.idGetter = idGetter;
+            this.idSetter = idSetter;
+            this.afterWrite = afterWrite;
+        }
+    }
+
+    @FunctionalInterface
+    private interface RowReader<D> {
+
+        /**
+         * @return the next row, or null at the end of the input
+         */
+        ParsedRow<D> next() throws IOException;
+    }
+
+    private static final class ParsedRow<D> {
+
+        private final long number;
+
+        private final D value;
+
+        private final String error;
+
+        private ParsedRow(long number, D value, String error) {
+            this.number = number;
+            this.value = value;
+            this.error = error;
+        }
+
+        private static <D> ParsedRow<D> of(long number, D value) {
+            return new ParsedRow<>(number, value, null);
+        }
+
+        private static <D> ParsedRow<D> error(long number, String error) {
+            return new ParsedRow<>(number, null, error);
+        }
+    }
+
+    private static final class PendingRow<E> {
+
+        private final long number;
+
+        private E entity;
+
+        /**
+         * The id given in the row, if any.
+         */
+        private String id;
+
+        private boolean created;
+
+        /**
+         * The sequence number stamped on the write of the row.
+         */
+        private long sequence;
+
+        private String error;
+
+        private PendingRow(long number) {
+            this.number = number;
+        }
+    }
+}
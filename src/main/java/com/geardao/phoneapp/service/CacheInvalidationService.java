@@ -0,0 +1,190 @@
+package com.geardao.phoneapp.service;
+
+import com.geardao.phoneapp.config.ApplicationProperties;
+import com.geardao.phoneapp.config.CacheInvalidationChannels;
+import com.geardao.phoneapp.service.dto.CacheInvalidationDTO;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cloud.stream.annotation.StreamListener;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Service for evicting cache entries on all the application nodes.
+ * <p>
+ * Entries are evicted from the local caches right away. The evicted keys are then collected for a short window,
+ * without duplicates, and sent to the other nodes in a single message, which each node applies to its own caches,
+ * and passes to the listeners of the cache, see {@link #addListener(String, Consumer)}.
+ */
+@Service
+public class CacheInvalidationService {
+
+    private static final String METRIC_PREFIX = "cache.invalidation";
+
+    private final Logger log = LoggerFactory.getLogger(CacheInvalidationService.class);
+
+    private final ApplicationProperties.CacheInvalidation properties;
+
+    private final CacheManager cacheManager;
+
+    private final CacheInvalidationChannels channels;
+
+    /**
+     * Identifies the messages sent by this node, whose evictions have already been applied.
+     */
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final Object lock = new Object();
+
+    private final Meter sentMeter;
+
+    private final Meter receivedMeter;
+
+    private final Meter failuresMeter;
+
+    private final Map<String, List<Consumer<Set<String>>>> listeners = new ConcurrentHashMap<>();
+
+    // guarded by lock
+    private Map<String, Set<String>> pendingKeys = new HashMap<>();
+
+    // guarded by lock
+    private int pendingCount;
+
+    private ScheduledExecutorService executor;
+
+    public CacheInvalidationService(ApplicationProperties applicationProperties, MetricRegistry metricRegistry,
+            CacheManager cacheManager, CacheInvalidationChannels channels) {
+
+        this.properties = applicationProperties.getCacheInvalidation();
+        this.cacheManager = cacheManager;
+        this.channels = channels;
+        this.sentMeter = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "sent"));
+        this.receivedMeter = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "received"));
+        this.failuresMeter = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "failures"));
+    }
+
+    @PostConstruct
+    public void start() {
+        if (properties.isEnabled()) {
+            executor = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("phoneapp-cache-invalidation-"));
+            executor.scheduleWithFixedDelay(this::flush, properties.getWindowMs(), properties.getWindowMs(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(properties.getWindowMs() * 2, TimeUnit.MILLISECONDS);
+        }
+        flush();
+    }
+
+    /**
+     * Evict an entry from a cache, on this node and on the other ones.
+     *
+     * @param cacheName the name of the cache
+     * @param key the key of the entry, ignored if null
+     */
+    public void evict(String cacheName, String key) {
+        if (key == null) {
+            return;
+        }
+        evictLocally(cacheName, key);
+        if (!properties.isEnabled()) {
+            return;
+        }
+        boolean full;
+        synchronized (lock) {
+            if (pendingKeys.computeIfAbsent(cacheName, name -> new HashSet<>()).add(key)) {
+                pendingCount++;
+            }
+            full = pendingCount >= properties.getMaxKeys();
+        }
+        if (full && executor != null) {
+            executor.execute(this::flush);
+        }
+    }
+
+    /**
+     * Listen to the entries of a cache evicted by the other nodes, to keep state derived from the same entities
+     * up to date. The listener is called on the thread receiving the messages, it should not block.
+     *
+     * @param cacheName the name of the cache
+     * @param listener called with the evicted keys
+     */
+    public void addListener(String cacheName, Consumer<Set<String>> listener) {
+        listeners.computeIfAbsent(cacheName, name -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    /**
+     * Send the pending evictions to the other nodes.
+     */
+    public void flush() {
+        Map<String, Set<String>> keys;
+        synchronized (lock) {
+            if (pendingKeys.isEmpty()) {
+                return;
+            }
+            keys = pendingKeys;
+            pendingKeys = new HashMap<>();
+            pendingCount = 0;
+        }
+        try {
+            channels.output().send(MessageBuilder.withPayload(new CacheInvalidationDTO(nodeId, keys)).build());
+            sentMeter.mark();
+        } catch (RuntimeException e) {
+            // the other nodes will serve the stale entries until they expire
+            log.warn("Could not send the cache evictions {} to the other nodes: {}", keys, e.getMessage());
+            failuresMeter.mark();
+        }
+    }
+
+    @StreamListener(CacheInvalidationChannels.INPUT)
+    public void onInvalidation(CacheInvalidationDTO invalidation) {
+        if (nodeId.equals(invalidation.getOrigin())) {
+            return;
+        }
+        log.debug("Evicting cache entries of another node: {}", invalidation);
+        receivedMeter.mark();
+        invalidation.getKeys().forEach((cacheName, keys) -> {
+            keys.forEach(key -> evictLocally(cacheName, key));
+            for (Consumer<Set<String>> listener : listeners.getOrDefault(cacheName, Collections.emptyList())) {
+                try {
+                    listener.accept(keys);
+                } catch (RuntimeException e) {
+                    log.warn("Could not notify the evictions of {} from {}: {}", keys, cacheName, e.getMessage());
+                }
+            }
+        });
+    }
+
+    private void evictLocally(String cacheName, String key) {
+        Cache cache = cacheManager.getCache(cacheName);
+        if (cache != null) {
+            cache.evict(key);
+        }
+    }
+}
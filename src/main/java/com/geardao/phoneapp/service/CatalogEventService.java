@@ -0,0 +1,377 @@
+package com.geardao.phoneapp.service;
+
+import com.geardao.phoneapp.config.ApplicationProperties;
+import com.geardao.phoneapp.config.CatalogEventChannels;
+import com.geardao.phoneapp.domain.CatalogEvent;
+import com.geardao.phoneapp.repository.LeaseRepository;
+import com.geardao.phoneapp.repository.VersionedRepository;
+import com.geardao.phoneapp.service.dto.CatalogEventDTO;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Service publishing the changes of the phones and brands to Kafka, through a transactional outbox.
+ * <p>
+ * The services record each change in the {@code jhi_catalog_event_outbox} collection right after writing the
+ * entity, with the number of the {@value VersionedRepository#SEQUENCE_NAME} sequence stamped on the write, and a
+ * relay publishes the recorded events on {@link CatalogEventChannels#OUTPUT}, keyed by the id of the entity so
+ * that its events stay in order in one partition. The events are relayed in the order of their numbers, which is
+ * the order of the writes whatever the clocks of the nodes, and only up to the last number settled for the delta
+ * sync, see {@link SyncService#settledSequence()}, so that an event recorded late is not overtaken by a later one.
+ * The version of an event is its number. An event is removed from the outbox once Kafka has acknowledged it, so an
+ * event is published at least once, even when a node or the broker fails; consumers drop duplicates by their
+ * version. A single node relays the events, the one holding the relay lease.
+ * <p>
+ * The events of a round are sent in {@code application.catalog-events.lanes} concurrent lanes, an entity always
+ * using the same lane, so that the producer can batch and compress the sends waiting for acknowledgment.
+ */
+@Service
+public class CatalogEventService {
+
+    public static final String PHONE = "phone";
+
+    public static final String BRAND = "brand";
+
+    private static final String LEASE_COLLECTION = "jhi_catalog_event_relay";
+
+    private static final String LEASE_NAME = "catalog-events";
+
+    private static final String METRIC_PREFIX = "catalog.events";
+
+    private static final TypeReference<LinkedHashMap<String, Object>> FIELDS_TYPE = new TypeReference<LinkedHashMap<String, Object>>() {
+    };
+
+    private final Logger log = LoggerFactory.getLogger(CatalogEventService.class);
+
+    private final ApplicationProperties.CatalogEvents properties;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final LeaseRepository leaseRepository;
+
+    private final CatalogEventChannels channels;
+
+    private final ObjectMapper objectMapper;
+
+    private final SyncService syncService;
+
+    private final VersionedRepository versionedRepository;
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final AtomicBoolean relayRequested = new AtomicBoolean();
+
+    private final Meter recorded;
+
+    private final Meter published;
+
+    private final Meter failures;
+
+    private final Timer relayTimer;
+
+    private ScheduledExecutorService executor;
+
+    private ExecutorService lanes;
+
+    public CatalogEventService(ApplicationProperties applicationProperties, MongoTemplate mongoTemplate,
+            LeaseRepository leaseRepository, CatalogEventChannels channels, ObjectMapper objectMapper,
+            SyncService syncService, VersionedRepository versionedRepository, MetricRegistry metricRegistry) {
+
+        this.properties = applicationProperties.getCatalogEvents();
+        this.mongoTemplate = mongoTemplate;
+        this.leaseRepository = leaseRepository;
+        this.channels = channels;
+        this.objectMapper = objectMapper;
+        this.syncService = syncService;
+        this.versionedRepository = versionedRepository;
+        this.recorded = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "recorded"));
+        this.published = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "published"));
+        this.failures = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "failures"));
+        this.relayTimer = metricRegistry.timer(MetricRegistry.name(METRIC_PREFIX, "relay"));
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        lanes = Executors.newFixedThreadPool(properties.getLanes(), new CustomizableThreadFactory("phoneapp-catalog-events-lane-"));
+        executor = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("phoneapp-catalog-events-"));
+        executor.scheduleWithFixedDelay(this::relayQuietly, 0, properties.getPollIntervalMs(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdownNow();
+        lanes.shutdownNow();
+        try {
+            leaseRepository.releaseAll(LEASE_COLLECTION, nodeId);
+        } catch (Exception e) {
+            log.warn("Could not release the catalog event relay: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Record the change of a saved phone or brand.
+     *
+     * @param entityType {@link #PHONE} or {@link #BRAND}
+     * @param id the id of the entity
+     * @param sequence the sequence number stamped on the save
+     * @param before the entity before it was saved, or null if it was created
+     * @param after the saved entity
+     */
+    public void recordSave(String entityType, String id, long sequence, Object before, Object after) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        Map<String, Object> changes = fields(after);
+        CatalogEvent.Type type = CatalogEvent.Type.CREATE;
+        if (before != null) {
+            Map<String, Object> previous = fields(before);
+            // a field left out of the JSON of the saved entity was cleared
+            previous.keySet().forEach(field -> changes.putIfAbsent(field, null));
+            changes.entrySet().removeIf(field -> Objects.equals(field.getValue(), previous.get(field.getKey())));
+            if (changes.isEmpty()) {
+                return;
+            }
+            type = CatalogEvent.Type.UPDATE;
+        }
+        insert(Collections.singletonList(new CatalogEvent().type(type).entityType(entityType).entityId(id).sequence(sequence)
+            .changes(changes)));
+    }
+
+    /**
+     * Record the deletion of a phone or a brand.
+     *
+     * @param entityType {@link #PHONE} or {@link #BRAND}
+     * @param id the id of the deleted entity
+     * @param sequence the sequence number stamped on the tombstone of the entity
+     */
+    public void recordDelete(String entityType, String id, long sequence) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        insert(Collections.singletonList(new CatalogEvent().type(CatalogEvent.Type.DELETE).entityType(entityType).entityId(id)
+            .sequence(sequence)));
+    }
+
+    /**
+     * Record the changes of imported phones or brands, with all their fields.
+     *
+     * @param entityType {@link #PHONE} or {@link #BRAND}
+     * @param entities the saved entities, by id
+     * @param createdIds the ids of the entities that did not exist before the import
+     * @param sequences the sequence number stamped on the write of each entity, by id
+     */
+    public void recordImport(String entityType, Map<String, ?> entities, Set<String> createdIds, Map<String, Long> sequences) {
+        if (!properties.isEnabled() || entities.isEmpty()) {
+            return;
+        }
+        List<CatalogEvent> events = new ArrayList<>(entities.size());
+        entities.forEach((id, entity) -> events.add(new CatalogEvent()
+            .type(createdIds.contains(id) ? CatalogEvent.Type.CREATE : CatalogEvent.Type.UPDATE)
+            .entityType(entityType)
+            .entityId(id)
+            .sequence(sequences.get(id))
+            .changes(fields(entity))));
+        insert(events);
+    }
+
+    /**
+     * Record partial updates of phones or brands.
+     *
+     * @param entityType {@link #PHONE} or {@link #BRAND}
+     * @param changesById the new values of the changed fields, by entity id
+     * @param sequences the sequence number stamped on the update of each entity, by id
+     */
+    public void recordUpdates(String entityType, Map<String, ? extends Map<String, ?>> changesById, Map<String, Long> sequences) {
+        if (!properties.isEnabled() || changesById.isEmpty()) {
+            return;
+        }
+        List<CatalogEvent> events = new ArrayList<>(changesById.size());
+        changesById.forEach((id, changes) -> events.add(new CatalogEvent()
+            .type(CatalogEvent.Type.UPDATE)
+            .entityType(entityType)
+            .entityId(id)
+            .sequence(sequences.get(id))
+            .changes(objectMapper.convertValue(changes, FIELDS_TYPE))));
+        insert(events);
+    }
+
+    /**
+     * Publish the recorded events whose sequence numbers are settled, until there are no more or a send fails.
+     * Does nothing when another node holds the relay lease.
+     *
+     * @return the number of published events
+     */
+    public synchronized int relay() {
+        relayRequested.set(false);
+        if (leaseRepository.acquire(LEASE_COLLECTION, LEASE_NAME, nodeId, properties.getLeaseMs()) == null) {
+            return 0;
+        }
+        long until;
+        try {
+            sequenceUnstampedEvents();
+            until = syncService.settledSequence();
+        } catch (InterruptedIOException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+        int count = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            Query query = Query.query(Criteria.where(VersionedRepository.SEQUENCE_FIELD).lte(until))
+                .with(new Sort(Sort.Direction.ASC, VersionedRepository.SEQUENCE_FIELD, "_id"))
+                .limit(properties.getBatchSize());
+            List<CatalogEvent> events = mongoTemplate.find(query, CatalogEvent.class);
+            if (events.isEmpty()) {
+                break;
+            }
+            if (!leaseRepository.renew(LEASE_COLLECTION, LEASE_NAME, nodeId, properties.getLeaseMs(), null)) {
+                log.info("Lost the catalog event relay lease");
+                break;
+            }
+            try (Timer.Context ignored = relayTimer.time()) {
+                events.forEach(event -> event.setVersion(event.getSequence()));
+                List<String> sentIds = publish(events);
+                if (!sentIds.isEmpty()) {
+                    mongoTemplate.remove(Query.query(Criteria.where("_id").in(sentIds)), CatalogEvent.class);
+                }
+                count += sentIds.size();
+                if (sentIds.size() < events.size()) {
+                    // the failed events are published again by the next round, before any later event
+                    break;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Number the events recorded without a sequence number by a previous version of the application, in the
+     * order they were recorded in; they are then relayed as the others once their numbers are settled.
+     */
+    private void sequenceUnstampedEvents() {
+        Query query = Query.query(Criteria.where(VersionedRepository.SEQUENCE_FIELD).exists(false))
+            .with(new Sort(Sort.Direction.ASC, "created_date", "_id"))
+            .limit(properties.getBatchSize());
+        List<CatalogEvent> events;
+        while (!(events = mongoTemplate.find(query, CatalogEvent.class)).isEmpty()) {
+            long sequence = versionedRepository.reserveSequences(events.size());
+            BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, CatalogEvent.class);
+            for (CatalogEvent event : events) {
+                operations.updateOne(Query.query(Criteria.where("_id").is(event.getId())),
+                    Update.update(VersionedRepository.SEQUENCE_FIELD, sequence++));
+            }
+            operations.execute();
+        }
+    }
+
+    /**
+     * Send events in concurrent lanes; each lane stops at its first failure, so that the events of an entity
+     * are never published out of order.
+     *
+     * @return the ids of the sent events
+     */
+    private List<String> publish(List<CatalogEvent> events) {
+        Map<Integer, List<CatalogEvent>> eventsByLane = new HashMap<>();
+        for (CatalogEvent event : events) {
+            eventsByLane.computeIfAbsent(Math.floorMod(event.getEntityId().hashCode(), properties.getLanes()),
+                lane -> new ArrayList<>()).add(event);
+        }
+        List<Future<List<String>>> results = new ArrayList<>(eventsByLane.size());
+        eventsByLane.values().forEach(laneEvents -> results.add(lanes.submit(() -> send(laneEvents))));
+        List<String> sentIds = new ArrayList<>(events.size());
+        for (Future<List<String>> result : results) {
+            try {
+                sentIds.addAll(result.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                log.error("Could not publish catalog events: {}", e.getCause().getMessage());
+            }
+        }
+        return sentIds;
+    }
+
+    private List<String> send(List<CatalogEvent> events) {
+        List<String> sentIds = new ArrayList<>(events.size());
+        for (CatalogEvent event : events) {
+            try {
+                boolean sent = channels.output().send(MessageBuilder.withPayload(new CatalogEventDTO(event))
+                    .setHeader(KafkaHeaders.MESSAGE_KEY, event.getEntityId().getBytes(StandardCharsets.UTF_8))
+                    .build());
+                if (!sent) {
+                    throw new IllegalStateException("the message was not sent");
+                }
+            } catch (Exception e) {
+                failures.mark();
+                log.warn("Could not publish {}: {}", event, e.getMessage());
+                break;
+            }
+            published.mark();
+            sentIds.add(event.getId());
+        }
+        return sentIds;
+    }
+
+    private void insert(List<CatalogEvent> events) {
+        mongoTemplate.insert(events, CatalogEvent.class);
+        recorded.mark(events.size());
+        if (executor != null && relayRequested.compareAndSet(false, true)) {
+            executor.execute(this::relayQuietly);
+        }
+    }
+
+    /**
+     * @return the fields of an entity, as they are serialized to JSON, without its id and its version
+     */
+    private Map<String, Object> fields(Object entity) {
+        Map<String, Object> fields = objectMapper.convertValue(entity, FIELDS_TYPE);
+        fields.remove("id");
+        fields.remove(VersionedRepository.VERSION_FIELD);
+        return fields;
+    }
+
+    private void relayQuietly() {
+        try {
+            int count = relay();
+            if (count > 0) {
+                log.debug("Published {} catalog events", count);
+            }
+        } catch (Exception e) {
+            log.error("Could not relay the catalog events: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package com.geardao.phoneapp.service;
+
+import com.geardao.phoneapp.config.ApplicationProperties;
+import com.geardao.phoneapp.domain.Brand;
+import com.geardao.phoneapp.domain.Phone;
+import com.geardao.phoneapp.domain.User;
+import com.geardao.phoneapp.repository.CollectionVersionRepository;
+import com.geardao.phoneapp.repository.LeaseRepository;
+import com.geardao.phoneapp.repository.UserRepository;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.mongodb.MongoException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Service applying the MongoDB change streams of the phone, brand and user collections to Elasticsearch and to the
+ * caches, and to the change counters of the collections.
+ * <p>
+ * Every write reaches the index this way, including those made outside of the services, such as migrations and
+ * fixes from the shell, and a failed indexing is retried from the stream instead of being lost. The changes are
+ * read in batches, coalesced by document, and written to Elasticsearch from the stream thread; only once they are
+ * acknowledged is the resume token of the last change stored in the {@value #STATE_COLLECTION} collection, so a
+ * restart or a failed write continues where the stream was left. When the token is too
+ * old to resume from, the index is rebuilt by {@link ReindexService}.
+ * <p>
+ * A single node follows the stream of each collection, while it holds a lease stored next to the token. Change
+ * streams need a replica set or a sharded cluster: on a standalone server, the services keep writing to
+ * Elasticsearch themselves.
+ */
+@Service
+public class ChangeStreamService {
+
+    static final String STATE_COLLECTION = "jhi_change_stream";
+
+    private static final String METRIC_PREFIX = "change-stream";
+
+    /**
+     * The error codes of a change stream that cannot be resumed from its token.
+     */
+    private static final Set<Integer> NON_RESUMABLE_CODES = new HashSet<>(Arrays.asList(280, 40585));
+
+    private final Logger log = LoggerFactory.getLogger(ChangeStreamService.class);
+
+    private final ApplicationProperties.ChangeStream properties;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final SearchIndexingService searchIndexingService;
+
+    private final ReindexService reindexService;
+
+    private final LeaseRepository leaseRepository;
+
+    private final List<SyncTarget<?>> targets = new ArrayList<>();
+
+    /**
+     * Identifies the leases held by this node.
+     */
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final Meter changesMeter;
+
+    private final Meter failuresMeter;
+
+    private final Timer batchTimer;
+
+    private volatile boolean running;
+
+    private ExecutorService executor;
+
+    public ChangeStreamService(ApplicationProperties applicationProperties, MongoTemplate mongoTemplate,
+            SearchIndexingService searchIndexingService, ReindexService reindexService, LeaseRepository leaseRepository,
+            CacheInvalidationService cacheInvalidationService, SuggestService suggestService,
+            SearchResultCache searchResultCache, CollectionVersionRepository collectionVersionRepository,
+            PriceIndexService priceIndexService, MetricRegistry metricRegistry) {
+
+        this.properties = applicationProperties.getChangeStream();
+        this.mongoTemplate = mongoTemplate;
+        this.searchIndexingService = searchIndexingService;
+        this.reindexService = reindexService;
+        this.leaseRepository = leaseRepository;
+        this.changesMeter = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "changes"));
+        this.failuresMeter = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "failures"));
+        this.batchTimer = metricRegistry.timer(MetricRegistry.name(METRIC_PREFIX, "batches"));
+
+        register(Phone.class, (id, phone) -> {
+            cacheInvalidationService.evict(PhoneService.PHONES_BY_ID_CACHE, id);
+            if (phone != null) {
+                priceIndexService.put(phone);
+                suggestService.put(phone);
+            } else {
+                priceIndexService.remove(id);
+                suggestService.remove(Phone.class, id);
+            }
+        }, () -> {
+            collectionVersionRepository.increment(Phone.class);
+            searchResultCache.invalidate();
+        });
+        register(Brand.class, (id, brand) -> {
+            cacheInvalidationService.evict(BrandService.BRANDS_BY_ID_CACHE, id);
+            if (brand != null) {
+                suggestService.put(brand);
+            } else {
+                suggestService.remove(Brand.class, id);
+            }
+        }, () -> {
+            collectionVersionRepository.increment(Brand.class);
+            searchResultCache.invalidate();
+        });
+        // a deleted user is evicted by UserService, the change only holds its id
+        register(User.class, (id, user) -> {
+            if (user != null) {
+                cacheInvalidationService.evict(UserRepository.USERS_BY_LOGIN_CACHE, user.getLogin());
+                cacheInvalidationService.evict(UserRepository.USERS_BY_EMAIL_CACHE, user.getEmail());
+            }
+        }, () -> { });
+    }
+
+    private <T> void register(Class<T> type, BiConsumer<String, T> onChange, Runnable afterBatch) {
+        targets.add(new SyncTarget<>(type, mongoTemplate.getCollectionName(type), onChange, afterBatch));
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        if (!supportsChangeStreams()) {
+            log.warn("MongoDB is not a replica set, the services write to Elasticsearch without following the change streams");
+            return;
+        }
+        log.debug("Following the change streams of {}", targets);
+        searchIndexingService.setFollowingChangeStreams(true);
+        running = true;
+        executor = Executors.newFixedThreadPool(targets.size(), new CustomizableThreadFactory("phoneapp-change-stream-"));
+        targets.forEach(target -> executor.execute(() -> follow(target)));
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (executor == null) {
+            return;
+        }
+        running = false;
+        executor.shutdown();
+        executor.awaitTermination(properties.getMaxAwaitMs() * 2, TimeUnit.MILLISECONDS);
+        // let another node take over right away
+        leaseRepository.releaseAll(STATE_COLLECTION, nodeId);
+    }
+
+    private boolean supportsChangeStreams() {
+        Document isMaster = mongoTemplate.getDb().runCommand(new Document("isMaster", 1));
+        return isMaster.containsKey("setName") || "isdbgrid".equals(isMaster.getString("msg"));
+    }
+
+    private <T> void follow(SyncTarget<T> target) {
+        while (running) {
+            try {
+                Document state = leaseRepository.acquire(STATE_COLLECTION, target.collectionName, nodeId, properties.getLeaseMs());
+                if (state == null) {
+                    sleep(properties.getRetryDelayMs());
+                    continue;
+                }
+                Document token = state.get("resumeToken", Document.class);
+                follow(target, token == null ? null : BsonDocument.parse(token.toJson()));
+            } catch (MongoException e) {
+                failuresMeter.mark();
+                if (NON_RESUMABLE_CODES.contains(e.getCode())) {
+                    log.warn("The change stream of {} cannot be resumed, rebuilding the index: {}", target.collectionName, e.getMessage());
+                    restart(target);
+                } else {
+                    log.warn("The change stream of {} failed, reopening it: {}", target.collectionName, e.getMessage());
+                    sleep(properties.getRetryDelayMs());
+                }
+            } catch (Exception e) {
+                failuresMeter.mark();
+                log.error("Could not apply the change stream of {}", target.collectionName, e);
+                sleep(properties.getRetryDelayMs());
+            }
+        }
+    }
+
+    /**
+     * Follow a change stream as long as the lease is held.
+     */
+    private <T> void follow(SyncTarget<T> target, BsonDocument resumeToken) {
+        ChangeStreamIterable<Document> stream = mongoTemplate.getCollection(target.collectionName).watch()
+            .fullDocument(FullDocument.UPDATE_LOOKUP)
+            .batchSize(properties.getBatchSize())
+            .maxAwaitTime(properties.getMaxAwaitMs(), TimeUnit.MILLISECONDS);
+        if (resumeToken != null) {
+            stream = stream.resumeAfter(resumeToken);
+        }
+        long renewAt = System.currentTimeMillis() + properties.getLeaseMs() / 3;
+        try (MongoCursor<ChangeStreamDocument<Document>> cursor = stream.iterator()) {
+            while (running) {
+                List<ChangeStreamDocument<Document>> batch = new ArrayList<>();
+                ChangeStreamDocument<Document> change;
+                while (batch.size() < properties.getBatchSize() && (change = cursor.tryNext()) != null) {
+                    batch.add(change);
+                }
+                if (!batch.isEmpty()) {
+                    boolean invalidated = apply(target, batch);
+                    BsonDocument lastToken = batch.get(batch.size() - 1).getResumeToken();
+                    if (invalidated) {
+                        restart(target);
+                        return;
+                    }
+                    if (!renewLease(target, lastToken)) {
+                        return;
+                    }
+                    renewAt = System.currentTimeMillis() + properties.getLeaseMs() / 3;
+                } else if (System.currentTimeMillis() >= renewAt) {
+                    if (!renewLease(target, null)) {
+                        return;
+                    }
+                    renewAt = System.currentTimeMillis() + properties.getLeaseMs() / 3;
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply a batch of changes, keeping only the last state of each document.
+     *
+     * @return true if the stream has been invalidated, because the collection was dropped or renamed
+     */
+    private <T> boolean apply(SyncTarget<T> target, List<ChangeStreamDocument<Document>> batch) {
+        try (Timer.Context ignored = batchTimer.time()) {
+            changesMeter.mark(batch.size());
+            boolean invalidated = false;
+            // a null document means the document is deleted
+            Map<String, Document> latest = new LinkedHashMap<>();
+            for (ChangeStreamDocument<Document> change : batch) {
+                OperationType operationType = change.getOperationType();
+                if (operationType == OperationType.INVALIDATE) {
+                    invalidated = true;
+                } else if (operationType == OperationType.DELETE) {
+                    latest.put(toId(change.getDocumentKey().get("_id")), null);
+                } else {
+                    // the full document of an update is looked up when the change is read, it is null if deleted since
+                    latest.put(toId(change.getDocumentKey().get("_id")), change.getFullDocument());
+                }
+            }
+            Map<String, T> saved = new LinkedHashMap<>();
+            List<String> deletedIds = new ArrayList<>();
+            latest.forEach((id, document) -> {
+                if (document == null) {
+                    deletedIds.add(id);
+                } else {
+                    saved.put(id, mongoTemplate.getConverter().read(target.type, document));
+                }
+            });
+            // written before the resume token is stored: on a failure, the stream is reopened from the previous token
+            searchIndexingService.writeAll(target.type, new ArrayList<>(saved.values()), deletedIds);
+            deletedIds.forEach(id -> target.onChange.accept(id, null));
+            saved.forEach(target.onChange);
+            if (!latest.isEmpty()) {
+                target.afterBatch.run();
+            }
+            log.debug("Applied {} changes of {}", batch.size(), target.collectionName);
+            return invalidated;
+        }
+    }
+
+    /**
+     * Forget the resume token of a stream, and rebuild the index from the collection; the stream is reopened from
+     * the current changes.
+     */
+    private void restart(SyncTarget<?> target) {
+        leaseRepository.renew(STATE_COLLECTION, target.collectionName, nodeId, properties.getLeaseMs(),
+            new Update().unset("resumeToken"));
+        String indexName = target.type.getAnnotation(org.springframework.data.elasticsearch.annotations.Document.class).indexName();
+        try {
+            reindexService.start(Collections.singletonList(indexName));
+        } catch (RuntimeException e) {
+            log.warn("Could not rebuild the {} index after its change stream was lost: {}", indexName, e.getMessage());
+        }
+    }
+
+    /**
+     * Extend the lease, and store the resume token if there is a new one.
+     *
+     * @return false if the lease has been lost
+     */
+    private boolean renewLease(SyncTarget<?> target, BsonDocument resumeToken) {
+        Update state = resumeToken == null ? null : Update.update("resumeToken", Document.parse(resumeToken.toJson()));
+        boolean held = leaseRepository.renew(STATE_COLLECTION, target.collectionName, nodeId, properties.getLeaseMs(), state);
+        if (!held) {
+            log.info("Lost the lease on the change stream of {}", target.collectionName);
+        }
+        return held;
+    }
+
+    private static String toId(BsonValue id) {
+        if (id.isObjectId()) {
+            return id.asObjectId().getValue().toHexString();
+        }
+        return id.isString() ? id.asString().getValue() : id.toString();
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    private static final class SyncTarget<T> {
+
+        private final Class<T> type;
+
+        private final String collectionName;
+
+        /**
+         * Called with the id and the new state of each changed document, null if it is deleted.
+         */
+        private final BiConsumer<String, T> onChange;
+
+        /**
+         * Called once after each batch of changes.
+         */
+        private final Runnable afterBatch;
+
+        private SyncTarget(Class<T> type, String collectionName, BiConsumer<String, T> onChange, Runnable afterBatch) {
+            this.type = type;
+            this.collectionName = collectionName;
+            this.onChange = onChange;
+            this.afterBatch = afterBatch;
+        }
+
+        @Override
+        public String toString() {
+            return collectionName;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.geardao.phoneapp.service;
+
+import com.geardao.phoneapp.domain.Brand;
+import com.geardao.phoneapp.domain.Phone;
+import com.geardao.phoneapp.service.dto.BrandDTO;
+import com.geardao.phoneapp.service.dto.PhoneDTO;
+import com.geardao.phoneapp.service.mapper.BrandMapper;
+import com.geardao.phoneapp.service.mapper.PhoneMapper;
+import com.geardao.phoneapp.service.util.CsvRecordWriter;
+import com.geardao.phoneapp.service.util.RowFormat;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Service for exporting the whole catalog.
+ * <p>
+ * Documents are read from a database cursor in id order and written to the output one at a time, so the memory
+ * used does not depend on the size of the collection.
+ * <p>
+ * The export is not a point-in-time snapshot: each document is read as it is when the cursor reaches it, so the
+ * documents updated or deleted while the export runs may be exported either before or after the change. The
+ * documents created meanwhile can be left out with a creation-time cut-off, which relies on the ObjectIds
+ * generated from the creation time; documents with other ids are always exported.
+ */
+@Service
+public class ExportService {
+
+    /**
+     * The BSON type of ObjectIds.
+     */
+    private static final int OBJECT_ID_TYPE = 7;
+
+    private final Logger log = LoggerFactory.getLogger(ExportService.class);
+
+    private final MongoTemplate mongoTemplate;
+
+    private final ObjectMapper objectMapper;
+
+    private final PhoneMapper phoneMapper;
+
+    private final BrandMapper brandMapper;
+
+    public ExportService(MongoTemplate mongoTemplate, ObjectMapper objectMapper, PhoneMapper phoneMapper, BrandMapper brandMapper) {
+        this.mongoTemplate = mongoTemplate;
+        this.objectMapper = objectMapper;
+        this.phoneMapper = phoneMapper;
+        this.brandMapper = brandMapper;
+    }
+
+    /**
+     * Export all the phones.
+     *
+     * @param format the format of the rows
+     * @param createdBefore if not null, the phones whose ObjectId was generated after this time, to the second,
+     * are left out; the other phones are exported as they are when read, whenever they were last updated
+     * @param output where the rows are written
+     * @throws IOException if the rows could not be written
+     */
+    public void exportPhones(RowFormat format, Instant createdBefore, OutputStream output) throws IOException {
+        export(Phone.class, PhoneDTO.class, phoneMapper::toDto, format, createdBefore, output);
+    }
+
+    /**
+     * Export all the brands.
+     *
+     * @param format the format of the rows
+     * @param createdBefore if not null, the brands whose ObjectId was generated after this time, to the second,
+     * are left out; the other brands are exported as they are when read, whenever they were last updated
+     * @param output where the rows are written
+     * @throws IOException if the rows could not be written
+     */
+    public void exportBrands(RowFormat format, Instant createdBefore, OutputStream output) throws IOException {
+        export(Brand.class, BrandDTO.class, brandMapper::toDto, format, createdBefore, output);
+    }
+
+    private <E, D> void export(Class<E> entityType, Class<D> dtoType, Function<E, D> toDto, RowFormat format,
+            Instant createdBefore, OutputStream output) throws IOException {
+
+        log.debug("Request to export {} as {}, created before {}", entityType.getSimpleName(), format, createdBefore);
+        // walking the _id index returns each document exactly once, even if it is updated meanwhile
+        Query query = new Query().with(Sort.by(Sort.Direction.ASC, "id")).noCursorTimeout();
+        if (createdBefore != null) {
+            // ObjectIds start with their creation time in seconds, so the documents created after the cut-off sort after this one
+            ObjectId after = new ObjectId(String.format("%08x0000000000000000", createdBefore.getEpochSecond() + 1));
+            query.addCriteria(new Criteria().orOperator(
+                Criteria.where("id").lt(after),
+                Criteria.where("id").not().type(OBJECT_ID_TYPE)));
+        }
+        long count;
+        try (CloseableIterator<E> entities = mongoTemplate.stream(query, entityType)) {
+            if (format == RowFormat.CSV) {
+                count = writeCsv(entities, dtoType, toDto, output);
+            } else {
+                count = writeNdjson(entities, dtoType, toDto, output);
+            }
+        }
+        log.debug("Exported {} {}", count, entityType.getSimpleName());
+    }
+
+    private <E, D> long writeNdjson(CloseableIterator<E> entities, Class<D> dtoType, Function<E, D> toDto,
+            OutputStream output) throws IOException {
+
+        ObjectWriter writer = objectMapper.writerFor(dtoType).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        long count = 0;
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(output)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+            while (entities.hasNext()) {
+                writer.writeValue(generator, toDto.apply(entities.next()));
+                generator.writeRaw('\n');
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private <E, D> long writeCsv(CloseableIterator<E> entities, Class<D> dtoType, Function<E, D> toDto,
+            OutputStream output) throws IOException {
+
+        List<String> columns = objectMapper.getSerializationConfig().introspect(objectMapper.constructType(dtoType))
+            .findProperties().stream()
+            .map(BeanPropertyDefinition::getName)
+            .collect(Collectors.toList());
+        CsvRecordWriter writer = new CsvRecordWriter(new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8)));
+        writer.writeRecord(columns);
+        long count = 0;
+        List<String> fields = new ArrayList<>(columns.size());
+        while (entities.hasNext()) {
+            JsonNode row = objectMapper.valueToTree(toDto.apply(entities.next()));
+            fields.clear();
+            for (String column : columns) {
+                JsonNode value = row.get(column);
+                fields.add(value == null || value.isNull() ? null : value.isValueNode() ? value.asText() : value.toString());
+            }
+            writer.writeRecord(fields);
+            count++;
+        }
+        writer.flush();
+        return count;
+    }
+}
@@ -1,11 +1,25 @@
 package com.geardao.phoneapp.service;
 
+import com.geardao.phoneapp.domain.Phone;
+import com.geardao.phoneapp.repository.Cursor;
+import com.geardao.phoneapp.repository.CursorPage;
+import com.geardao.phoneapp.service.dto.FacetedPageDTO;
 import com.geardao.phoneapp.service.dto.PhoneDTO;
+import com.geardao.phoneapp.service.dto.PhoneSearchCriteria;
+import com.geardao.phoneapp.service.dto.MultiGetResultDTO;
+import com.geardao.phoneapp.service.dto.PriceStatsDTO;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 /**
  * Service Interface for managing Phone.
@@ -13,13 +27,58 @@ import java.util.Optional;
 public interface PhoneService {
 
     /**
-     * Save a phone.
+     * The cache of the PhoneDTOs returned by {@link #findOne}, by id.
+     */
+    String PHONES_BY_ID_CACHE = "phonesById";
+
+    /**
+     * The cache of the facets returned by {@link #searchWithFacets}, by normalized search criteria.
+     */
+    String PHONE_FACETS_CACHE = "phoneFacets";
+
+    /**
+     * The properties {@link #findAllAfter} can sort by, besides the id: each has a {property, id} index on Phone.
+     */
+    Set<String> CURSOR_SORT_PROPERTIES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList("name", "brand", "price")));
+
+    /**
+     * The properties the searches can sort by, besides the relevance: the ones with doc values in the phone mapping.
+     */
+    Set<String> SEARCH_SORT_PROPERTIES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList("brand", "price")));
+
+    /**
+     * Save a phone. An existing phone is updated in place, and only if it still has the version of the DTO, when
+     * the DTO has one.
      *
      * @param phoneDTO the entity to save
      * @return the persisted entity
+     * @throws org.springframework.dao.OptimisticLockingFailureException if the phone has been written since its version
      */
     PhoneDTO save(PhoneDTO phoneDTO);
 
+    /**
+     * Update some fields of a phone.
+     *
+     * @param id the id of the entity
+     * @param patch the JSON Merge Patch of the entity: each field replaces the field of the entity, a null field removes it
+     * @param expectedVersion the version the entity must have, or null to update any version
+     * @return the updated entity, or empty if there is no entity with this id
+     * @throws com.geardao.phoneapp.web.rest.errors.BadRequestAlertException if the patch is not valid
+     * @throws org.springframework.dao.OptimisticLockingFailureException if the phone does not have the expected version
+     */
+    Optional<PhoneDTO> patch(String id, Map<String, Object> patch, Long expectedVersion);
+
+    /**
+     * Propagate written phones to the caches, the in-memory indexes and the search index. Every write of phones
+     * ends with this, whether it goes through {@link #save} and {@link #patch} or is made in bulk by another
+     * service; the catalog events and the brand statistics are left to the caller, which knows what was changed.
+     *
+     * @param phones the phones as they were written
+     * @param fields the written fields of each phone, by id, so that only these fields are updated in the search
+     * index, or null if the phones were written whole
+     */
+    void afterWrite(List<Phone> phones, Map<String, Map<String, Object>> fields);
+
     /**
      * Get all the phones.
      *
@@ -28,6 +87,23 @@ public interface PhoneService {
      */
     Page<PhoneDTO> findAll(Pageable pageable);
 
+    /**
+     * Get the change counter of the phones, incremented after every write: a listing read after this counter
+     * holds at least the changes it counts.
+     *
+     * @return the change counter
+     */
+    long getChangeCounter();
+
+    /**
+     * Get a page of phones located after a cursor, without counting them.
+     *
+     * @param after the cursor of the previous page, or null for the first page
+     * @param pageable the page size and sort
+     * @return the list of entities
+     */
+    CursorPage<PhoneDTO> findAllAfter(Cursor after, Pageable pageable);
+
 
     /**
      * Get the "id" phone.
@@ -38,7 +114,40 @@ public interface PhoneService {
     Optional<PhoneDTO> findOne(String id);
 
     /**
-     * Delete the "id" phone.
+     * Get the phones with the given ids, in a single query.
+     *
+     * @param ids the ids of the entities
+     * @return the entities found, in the order of the ids, and the ids not found
+     */
+    MultiGetResultDTO<PhoneDTO> findAllById(List<String> ids);
+
+    /**
+     * Get a page of the phones with a price in a range, sorted by price.
+     * <p>
+     * A phone deleted by another node whose eviction was not received yet is left out of the page, which is then
+     * shorter than requested, and of the total.
+     *
+     * @param minPrice the lowest price, or null for no lower bound
+     * @param maxPrice the highest price, or null for no upper bound
+     * @param pageable the pagination information, with no sort or a sort on the price
+     * @return the list of entities
+     * @throws PriceIndexUnavailableException if the prices are not loaded yet
+     */
+    Page<PhoneDTO> findAllByPriceRange(BigDecimal minPrice, BigDecimal maxPrice, Pageable pageable);
+
+    /**
+     * Get the number of phones with a price in a range, and percentiles of their prices.
+     *
+     * @param minPrice the lowest price, or null for no lower bound
+     * @param maxPrice the highest price, or null for no upper bound
+     * @param percentages the percentages of the percentiles, from 0 to 100
+     * @return the statistics
+     * @throws PriceIndexUnavailableException if the prices are not loaded yet
+     */
+    PriceStatsDTO getPriceStats(BigDecimal minPrice, BigDecimal maxPrice, List<Double> percentages);
+
+    /**
+     * Delete the "id" phone. Nothing is done, nor published, if there is no phone with this id.
      *
      * @param id the id of the entity
      */
@@ -53,4 +162,27 @@ public interface PhoneService {
      * @return the list of entities
      */
     Page<PhoneDTO> search(String query, Pageable pageable);
+
+    /**
+     * Search for the phones matching structured criteria, a page at a time.
+     *
+     * @param criteria the criteria of the search
+     * @param after the cursor of the previous page, or null for the first page
+     * @param pageable the page size, and a sort on at most one property; the phones are sorted by relevance
+     * when there is none
+     * @return the list of entities
+     */
+    CursorPage<PhoneDTO> search(PhoneSearchCriteria criteria, Cursor after, Pageable pageable);
+
+    /**
+     * Search for the phones matching structured criteria, a page at a time, with the brand and price facets
+     * of all the matching phones.
+     *
+     * @param criteria the criteria of the search
+     * @param after the cursor of the previous page, or null for the first page
+     * @param pageable the page size, and a sort on at most one property; the phones are sorted by relevance
+     * when there is none
+     * @return the list of entities, with the facets
+     */
+    FacetedPageDTO<PhoneDTO> searchWithFacets(PhoneSearchCriteria criteria, Cursor after, Pageable pageable);
 }
@@ -0,0 +1,398 @@
+package com.geardao.phoneapp.service;
+
+import com.geardao.phoneapp.config.ApplicationProperties;
+import com.geardao.phoneapp.config.PriceFeedChannels;
+import com.geardao.phoneapp.domain.Phone;
+import com.geardao.phoneapp.domain.util.DecimalConverters;
+import com.geardao.phoneapp.repository.VersionedRepository;
+import com.geardao.phoneapp.service.dto.PriceUpdateDTO;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.WriteConcern;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.stream.annotation.StreamListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Service applying the price updates pushed by the suppliers on {@link PriceFeedChannels#INPUT}.
+ * <p>
+ * The updates are collected for {@code application.price-feed.window-ms}, keeping only the last update of each
+ * phone, and the phones whose price changed are then written at once, as {@code $set} updates in an unordered
+ * bulk write, sent to the search index as partial updates of the price and published as catalog events. Each
+ * update is conditional on the version of the phone it was compared with; the phones written in the meantime are
+ * read and updated again. The offsets of the received messages are acknowledged only once the bulk write is
+ * acknowledged by a majority of the replica set: if a node stops before, the group receives the updates again,
+ * and applying them twice is harmless.
+ * <p>
+ * The time between the production of an update and its reception is reported by {@code price-feed.lag-ms}, the
+ * number of phones per write by {@code price-feed.batch-size}, and the duration of a write by
+ * {@code price-feed.apply}.
+ */
+@Service
+public class PriceFeedService {
+
+    private static final String METRIC_PREFIX = "price-feed";
+
+    private static final String PRICE_FIELD = "price";
+
+    /**
+     * The number of times the updates of the phones written meanwhile are applied before giving up.
+     */
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final Logger log = LoggerFactory.getLogger(PriceFeedService.class);
+
+    private final ApplicationProperties.PriceFeed properties;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final QueryMapper queryMapper;
+
+    private final PhoneService phoneService;
+
+    private final CatalogEventService catalogEventService;
+
+    private final VersionedRepository versionedRepository;
+
+    private final BrandStatsService brandStatsService;
+
+    private final Object lock = new Object();
+
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    // guarded by lock, the last update of each phone
+    private Map<String, PriceUpdateDTO> pending = new LinkedHashMap<>();
+
+    // guarded by lock, the messages of the pending updates, in the order they were received
+    private List<Acknowledgment> pendingAcknowledgments = new ArrayList<>();
+
+    private volatile long retryAt;
+
+    private final Meter received;
+
+    private final Meter superseded;
+
+    private final Meter rejected;
+
+    private final Meter unknown;
+
+    private final Meter written;
+
+    private final Histogram lag;
+
+    private final Histogram batchSize;
+
+    private final Timer applyTimer;
+
+    private ScheduledExecutorService executor;
+
+    public PriceFeedService(ApplicationProperties applicationProperties, MongoTemplate mongoTemplate,
+            PhoneService phoneService, CatalogEventService catalogEventService, VersionedRepository versionedRepository,
+            BrandStatsService brandStatsService, MetricRegistry metricRegistry) {
+
+        this.properties = applicationProperties.getPriceFeed();
+        this.mongoTemplate = mongoTemplate;
+        this.queryMapper = new QueryMapper(mongoTemplate.getConverter());
+        this.phoneService = phoneService;
+        this.catalogEventService = catalogEventService;
+        this.versionedRepository = versionedRepository;
+        this.brandStatsService = brandStatsService;
+        this.received = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "received"));
+        this.superseded = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "superseded"));
+        this.rejected = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "rejected"));
+        this.unknown = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "unknown"));
+        this.written = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "written"));
+        this.lag = metricRegistry.histogram(MetricRegistry.name(METRIC_PREFIX, "lag-ms"));
+        this.batchSize = metricRegistry.histogram(MetricRegistry.name(METRIC_PREFIX, "batch-size"));
+        this.applyTimer = metricRegistry.timer(MetricRegistry.name(METRIC_PREFIX, "apply"));
+        metricRegistry.register(MetricRegistry.name(METRIC_PREFIX, "pending"), (Gauge<Integer>) () -> {
+            synchronized (lock) {
+                return pending.size();
+            }
+        });
+    }
+
+    @PostConstruct
+    public void start() {
+        executor = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("phoneapp-price-feed-"));
+        executor.scheduleWithFixedDelay(this::flushQuietly, properties.getWindowMs(), properties.getWindowMs(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        // the pending updates are not acknowledged, the group will receive them again
+        executor.shutdownNow();
+    }
+
+    /**
+     * Collect a price update, waiting while a full batch is pending.
+     *
+     * @param message the update, with the acknowledgment of its offset
+     * @throws InterruptedException if the application stops while waiting
+     */
+    @StreamListener(PriceFeedChannels.INPUT)
+    public void onPriceUpdate(Message<PriceUpdateDTO> message) throws InterruptedException {
+        PriceUpdateDTO update = message.getPayload();
+        Acknowledgment acknowledgment = message.getHeaders().get(KafkaHeaders.ACKNOWLEDGMENT, Acknowledgment.class);
+        Long timestamp = message.getHeaders().get(KafkaHeaders.RECEIVED_TIMESTAMP, Long.class);
+        if (timestamp != null) {
+            lag.update(Math.max(0, System.currentTimeMillis() - timestamp));
+        }
+        received.mark();
+        boolean full;
+        synchronized (lock) {
+            while (pending.size() >= properties.getBatchSize()) {
+                lock.wait();
+            }
+            if (StringUtils.isEmpty(update.getPhoneId()) || update.getPrice() == null || update.getPrice().signum() < 0
+                    || !DecimalConverters.isStorable(update.getPrice())) {
+                log.warn("Ignoring the invalid price update {}", update);
+                rejected.mark();
+            } else {
+                offer(pending, update);
+            }
+            if (acknowledgment != null) {
+                pendingAcknowledgments.add(acknowledgment);
+            }
+            full = pending.size() >= properties.getBatchSize();
+        }
+        if (full && executor != null && flushRequested.compareAndSet(false, true)) {
+            executor.execute(this::flushQuietly);
+        }
+    }
+
+    /**
+     * Write the pending updates, then acknowledge their messages. When the write fails, the updates stay
+     * pending, behind any update received since.
+     */
+    public synchronized void flush() {
+        flushRequested.set(false);
+        Map<String, PriceUpdateDTO> updates;
+        List<Acknowledgment> acknowledgments;
+        synchronized (lock) {
+            if (pendingAcknowledgments.isEmpty() && pending.isEmpty()) {
+                return;
+            }
+            updates = pending;
+            acknowledgments = pendingAcknowledgments;
+            pending = new LinkedHashMap<>();
+            pendingAcknowledgments = new ArrayList<>();
+            lock.notifyAll();
+        }
+        try {
+            apply(updates);
+        } catch (RuntimeException e) {
+            synchronized (lock) {
+                pending.values().forEach(update -> offer(updates, update));
+                acknowledgments.addAll(pendingAcknowledgments);
+                pending = updates;
+                pendingAcknowledgments = acknowledgments;
+            }
+            throw e;
+        }
+        acknowledgments.forEach(Acknowledgment::acknowledge);
+    }
+
+    private void apply(Map<String, PriceUpdateDTO> updates) {
+        if (updates.isEmpty()) {
+            return;
+        }
+        try (Timer.Context ignored = applyTimer.time()) {
+            List<Phone> saved = new ArrayList<>();
+            Map<String, PriceUpdateDTO> remaining = applyOnce(updates, saved, true);
+            for (int attempt = 2; !remaining.isEmpty() && attempt <= MAX_ATTEMPTS; attempt++) {
+                remaining = applyOnce(remaining, saved, false);
+            }
+            if (!remaining.isEmpty()) {
+                log.warn("Could not apply the price updates of {} phones, which kept being written meanwhile", remaining.size());
+                rejected.mark(remaining.size());
+            }
+            written.mark(saved.size());
+            afterWrite(saved);
+        }
+    }
+
+    /**
+     * Write the prices that changed, each conditional on the version of the phone it was compared with.
+     *
+     * @param updates the last update of each phone
+     * @param saved where the written phones are added
+     * @param first true for the first attempt, false for the retries of the phones written meanwhile
+     * @return the updates of the phones that were written meanwhile, to apply again
+     */
+    private Map<String, PriceUpdateDTO> applyOnce(Map<String, PriceUpdateDTO> updates, List<Phone> saved, boolean first) {
+        List<Phone> phones = mongoTemplate.find(Query.query(Criteria.where("_id").in(updates.keySet())), Phone.class);
+        if (first) {
+            unknown.mark(updates.size() - phones.size());
+        }
+        List<Phone> changed = new ArrayList<>(phones.size());
+        for (Phone phone : phones) {
+            PriceUpdateDTO update = updates.get(phone.getId());
+            if (phone.getPrice() == null || phone.getPrice().compareTo(update.getPrice()) != 0) {
+                changed.add(phone);
+            }
+        }
+        if (first) {
+            batchSize.update(changed.size());
+        }
+        if (changed.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        long firstSequence = versionedRepository.reserveSequences(changed.size());
+        long sequence = firstSequence;
+        List<WriteModel<Document>> models = new ArrayList<>(changed.size());
+        for (Phone phone : changed) {
+            Update update = Update.update(PRICE_FIELD, mongoTemplate.getConverter().convertToMongoType(updates.get(phone.getId()).getPrice()))
+                .inc(VersionedRepository.VERSION_FIELD, 1);
+            // only if it was not written since it was read, so that the statistics get the right previous price
+            models.add(new UpdateOneModel<>(Filters.and(Filters.eq("_id", queryMapper.convertId(phone.getId())),
+                    Filters.eq(VersionedRepository.VERSION_FIELD, phone.getVersion())),
+                versionedRepository.stamp(update, sequence++).getUpdateObject()));
+        }
+        Set<Integer> failedIndexes = new HashSet<>();
+        int matched = write(models, failedIndexes);
+        Set<String> missed = matched < models.size() - failedIndexes.size()
+            ? findMissed(changed, failedIndexes, firstSequence) : Collections.emptySet();
+        Map<String, PriceUpdateDTO> retries = new LinkedHashMap<>();
+        for (int i = 0; i < changed.size(); i++) {
+            Phone phone = changed.get(i);
+            if (missed.contains(phone.getId())) {
+                retries.put(phone.getId(), updates.get(phone.getId()));
+            } else if (!failedIndexes.contains(i)) {
+                Phone before = new Phone().brand(phone.getBrand()).price(phone.getPrice());
+                phone.setPrice(updates.get(phone.getId()).getPrice());
+                brandStatsService.onChange(before, phone);
+                phone.setVersion(phone.getVersion() == null ? 1 : phone.getVersion() + 1);
+                phone.setSequence(firstSequence + i);
+                saved.add(phone);
+            }
+        }
+        return retries;
+    }
+
+    /**
+     * Find the phones whose update did not match, because they were written since they were read: unlike the
+     * others, they are not stamped with the sequence number of their update.
+     */
+    private Set<String> findMissed(List<Phone> changed, Set<Integer> failedIndexes, long firstSequence) {
+        Set<String> missed = new HashSet<>();
+        for (int i = 0; i < changed.size(); i++) {
+            if (!failedIndexes.contains(i)) {
+                missed.add(changed.get(i).getId());
+            }
+        }
+        Query query = Query.query(Criteria.where("_id").in(missed)
+            .and(VersionedRepository.SEQUENCE_FIELD).gte(firstSequence).lt(firstSequence + changed.size()));
+        query.fields().include("_id");
+        mongoTemplate.find(query, Phone.class).forEach(phone -> missed.remove(phone.getId()));
+        return missed;
+    }
+
+    /**
+     * @param failedIndexes where the indexes of the updates that MongoDB rejected are added
+     * @return the number of updates that matched their phone
+     */
+    private int write(List<WriteModel<Document>> models, Set<Integer> failedIndexes) {
+        try {
+            return mongoTemplate.getCollection(mongoTemplate.getCollectionName(Phone.class))
+                .withWriteConcern(WriteConcern.MAJORITY)
+                .bulkWrite(models, new BulkWriteOptions().ordered(false))
+                .getMatchedCount();
+        } catch (MongoBulkWriteException e) {
+            if (e.getWriteConcernError() != null) {
+                // the updates may not be durable: they are written again
+                throw e;
+            }
+            for (BulkWriteError error : e.getWriteErrors()) {
+                log.warn("Could not write a price update: {}", error.getMessage());
+                failedIndexes.add(error.getIndex());
+            }
+            rejected.mark(e.getWriteErrors().size());
+            return e.getWriteResult().getMatchedCount();
+        }
+    }
+
+    private void afterWrite(List<Phone> phones) {
+        if (phones.isEmpty()) {
+            return;
+        }
+        Map<String, Map<String, Object>> changes = new LinkedHashMap<>();
+        Map<String, Map<String, Object>> indexedFields = new LinkedHashMap<>();
+        Map<String, Long> sequences = new HashMap<>();
+        for (Phone phone : phones) {
+            changes.put(phone.getId(), Collections.singletonMap(PRICE_FIELD, phone.getPrice()));
+            sequences.put(phone.getId(), phone.getSequence());
+            // as a patch of the price is serialized to JSON
+            indexedFields.put(phone.getId(), Collections.singletonMap(PRICE_FIELD, phone.getPrice().doubleValue()));
+        }
+        try {
+            // only the price is sent to the search index
+            phoneService.afterWrite(phones, indexedFields);
+        } catch (RuntimeException e) {
+            // the prices are stored: they will be searchable after the next reindex
+            log.error("Could not index {} phones with a new price: {}", phones.size(), e.getMessage());
+        }
+        try {
+            catalogEventService.recordUpdates(CatalogEventService.PHONE, changes, sequences);
+        } catch (RuntimeException e) {
+            log.error("Could not record the events of {} phones with a new price: {}", phones.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * Keep an update unless an update of the same phone with a later timestamp is already there.
+     */
+    private void offer(Map<String, PriceUpdateDTO> updates, PriceUpdateDTO update) {
+        PriceUpdateDTO current = updates.get(update.getPhoneId());
+        if (current != null) {
+            superseded.mark();
+            if (current.getTimestamp() != null && update.getTimestamp() != null
+                    && update.getTimestamp().isBefore(current.getTimestamp())) {
+                return;
+            }
+        }
+        updates.put(update.getPhoneId(), update);
+    }
+
+    private void flushQuietly() {
+        if (System.currentTimeMillis() < retryAt) {
+            return;
+        }
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Could not write the price updates, retrying in {} ms: {}", properties.getRetryDelayMs(), e.getMessage());
+            retryAt = System.currentTimeMillis() + properties.getRetryDelayMs();
+        }
+    }
+}
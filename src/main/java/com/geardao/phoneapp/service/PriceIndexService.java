@@ -0,0 +1,366 @@
+package com.geardao.phoneapp.service;
+
+import com.geardao.phoneapp.config.ApplicationProperties;
+import com.geardao.phoneapp.domain.Phone;
+import com.geardao.phoneapp.repository.VersionedRepository;
+import com.geardao.phoneapp.service.util.SortedPriceIndex;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service keeping the phones sorted by price in memory, to count, page and get percentiles of price ranges
+ * without going to MongoDB.
+ * <p>
+ * The prices are indexed in minor units, rounded to the cent, in a {@link SortedPriceIndex} which is replaced
+ * on every write, so readers get a consistent snapshot without locking. The prices are loaded from MongoDB at
+ * startup, and the requests wait for that first load. The writes of this node are then applied through
+ * {@link #put(Phone)}, {@link #putAll(Collection)} and {@link #remove(String)}, and those of the other nodes are
+ * read back from MongoDB when they evict the phones from their caches, see {@link CacheInvalidationService}. The
+ * prices are also reloaded periodically, to repair the evictions that were lost. Phones without a price are not
+ * indexed.
+ * <p>
+ * The version of each phone is kept next to its price, so that a write applied after a newer one of the same phone,
+ * as concurrent saves can be, is ignored; a deleted phone is kept as a newer version than any write until the
+ * next reload.
+ */
+@Service
+public class PriceIndexService {
+
+    /**
+     * The number of decimal digits of the minor units.
+     */
+    public static final int MINOR_UNIT_DIGITS = 2;
+
+    private static final String METRIC_PREFIX = "priceIndex";
+
+    /**
+     * The delay before loading the prices again when the first load fails.
+     */
+    private static final long FIRST_LOAD_RETRY_MS = 5000;
+
+    /**
+     * The version of a deleted phone, newer than any of its writes.
+     */
+    private static final long DELETED = Long.MAX_VALUE;
+
+    private final Logger log = LoggerFactory.getLogger(PriceIndexService.class);
+
+    private final ApplicationProperties.PriceIndex properties;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final CacheInvalidationService cacheInvalidationService;
+
+    private final Timer reloadTimer;
+
+    private final CountDownLatch loaded = new CountDownLatch(1);
+
+    private final Object lock = new Object();
+
+    // guarded by lock, the price and version of each phone, including those without a price and the deleted ones
+    private Map<String, Entry> entries = new HashMap<>();
+
+    // guarded by lock, the entries written while a reload is running, or null when none is
+    private Map<String, Entry> writtenEntries;
+
+    private volatile SortedPriceIndex index = SortedPriceIndex.empty();
+
+    private ScheduledExecutorService executor;
+
+    public PriceIndexService(ApplicationProperties applicationProperties, MongoTemplate mongoTemplate,
+            CacheInvalidationService cacheInvalidationService, MetricRegistry metricRegistry) {
+        this.properties = applicationProperties.getPriceIndex();
+        this.mongoTemplate = mongoTemplate;
+        this.cacheInvalidationService = cacheInvalidationService;
+        this.reloadTimer = metricRegistry.timer(MetricRegistry.name(METRIC_PREFIX, "reload"));
+        metricRegistry.register(MetricRegistry.name(METRIC_PREFIX, "entries"), (Gauge<Integer>) () -> index.size());
+    }
+
+    @PostConstruct
+    public void start() {
+        executor = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("phoneapp-price-index-"));
+        cacheInvalidationService.addListener(PhoneService.PHONES_BY_ID_CACHE,
+            ids -> executor.execute(() -> refreshQuietly(ids)));
+        executor.execute(this::loadFirst);
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Get the current index, waiting for the first load of the prices if it is still running.
+     *
+     * @return the current index, which is not modified by later writes
+     * @throws PriceIndexUnavailableException if the prices are still not loaded after the load timeout
+     */
+    public SortedPriceIndex snapshot() {
+        try {
+            if (!loaded.await(properties.getLoadTimeoutMs(), TimeUnit.MILLISECONDS)) {
+                throw new PriceIndexUnavailableException("The prices of the phones are not loaded yet");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PriceIndexUnavailableException("Interrupted while waiting for the prices of the phones");
+        }
+        return index;
+    }
+
+    /**
+     * Convert a price to minor units, rounded half to even.
+     *
+     * @param price the price
+     * @return the price in minor units
+     */
+    public static long toMinorUnits(BigDecimal price) {
+        return toMinorUnits(price, RoundingMode.HALF_EVEN);
+    }
+
+    /**
+     * Convert the lowest price of a range to minor units, rounded up.
+     *
+     * @param price the lowest price, or null for no lower bound
+     * @return the lowest price in minor units
+     */
+    public static long lowerBound(BigDecimal price) {
+        return price == null ? Long.MIN_VALUE : toMinorUnits(price, RoundingMode.CEILING);
+    }
+
+    /**
+     * Convert the highest price of a range to minor units, rounded down.
+     *
+     * @param price the highest price, or null for no upper bound
+     * @return the highest price in minor units
+     */
+    public static long upperBound(BigDecimal price) {
+        return price == null ? Long.MAX_VALUE : toMinorUnits(price, RoundingMode.FLOOR);
+    }
+
+    /**
+     * Convert a price in minor units back to a price.
+     *
+     * @param minorUnits the price in minor units
+     * @return the price
+     */
+    public static BigDecimal fromMinorUnits(long minorUnits) {
+        return BigDecimal.valueOf(minorUnits, MINOR_UNIT_DIGITS);
+    }
+
+    private static long toMinorUnits(BigDecimal price, RoundingMode roundingMode) {
+        BigDecimal minorUnits = price.movePointRight(MINOR_UNIT_DIGITS).setScale(0, roundingMode);
+        try {
+            return minorUnits.longValueExact();
+        } catch (ArithmeticException e) {
+            return minorUnits.signum() > 0 ? Long.MAX_VALUE : Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Add or update the price of a phone.
+     *
+     * @param phone the saved phone
+     */
+    public void put(Phone phone) {
+        putAll(Collections.singletonList(phone));
+    }
+
+    /**
+     * Add or update the prices of several phones at once. A phone older than the one already indexed is ignored,
+     * and a phone without a version, as the bulk import writes them, is read back from MongoDB.
+     *
+     * @param phones the saved phones
+     */
+    public void putAll(Collection<Phone> phones) {
+        Map<String, Entry> changes = new HashMap<>();
+        List<String> unknown = new ArrayList<>();
+        for (Phone phone : phones) {
+            if (phone.getVersion() == null) {
+                unknown.add(phone.getId());
+            } else {
+                changes.put(phone.getId(), Entry.of(phone));
+            }
+        }
+        apply(changes);
+        refresh(unknown);
+    }
+
+    /**
+     * Remove a phone.
+     *
+     * @param id the id of the deleted phone
+     */
+    public void remove(String id) {
+        apply(Collections.singletonMap(id, new Entry(null, DELETED)));
+    }
+
+    /**
+     * Read phones back from MongoDB, after they were written by another node; the phones that are not found
+     * are removed.
+     *
+     * @param ids the ids of the phones
+     */
+    public void refresh(Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        Query query = new Query(Criteria.where("id").in(ids));
+        query.fields().include("price").include(VersionedRepository.VERSION_FIELD);
+        Map<String, Entry> changes = new HashMap<>();
+        for (Phone phone : mongoTemplate.find(query, Phone.class)) {
+            changes.put(phone.getId(), Entry.of(phone));
+        }
+        for (String id : ids) {
+            changes.putIfAbsent(id, new Entry(null, DELETED));
+        }
+        apply(changes);
+    }
+
+    private void apply(Map<String, Entry> changes) {
+        synchronized (lock) {
+            index = apply(index, entries, changes, writtenEntries);
+        }
+    }
+
+    /**
+     * Apply changes to the entries, and to their index. A change is ignored unless it is newer than the entry.
+     *
+     * @param index the index of the prices
+     * @param entries the entries, modified in place
+     * @param changes the new entry of each changed phone
+     * @param accepted where to also put the changes that were not ignored, or null
+     * @return the new index
+     */
+    private static SortedPriceIndex apply(SortedPriceIndex index, Map<String, Entry> entries, Map<String, Entry> changes,
+            Map<String, Entry> accepted) {
+        Map<String, Long> removed = new HashMap<>();
+        Map<String, Long> added = new HashMap<>();
+        changes.forEach((id, entry) -> {
+            Entry previous = entries.get(id);
+            if (previous != null && previous.version >= entry.version) {
+                return;
+            }
+            entries.put(id, entry);
+            if (accepted != null) {
+                accepted.put(id, entry);
+            }
+            if (previous != null && previous.price != null) {
+                removed.put(id, previous.price);
+            }
+            if (entry.price != null) {
+                added.put(id, entry.price);
+            }
+        });
+        return index.apply(removed, added);
+    }
+
+    /**
+     * Load all the prices from MongoDB, and rebuild the index. The writes applied while the prices are read
+     * are applied again on the new index, as they may not be part of what was read.
+     */
+    public synchronized void reload() {
+        synchronized (lock) {
+            writtenEntries = new HashMap<>();
+        }
+        try (Timer.Context ignored = reloadTimer.time()) {
+            Map<String, Entry> loadedEntries = new HashMap<>();
+            Map<String, Long> prices = new HashMap<>();
+            Query query = new Query();
+            query.fields().include("price").include(VersionedRepository.VERSION_FIELD);
+            try (CloseableIterator<Phone> iterator = mongoTemplate.stream(query, Phone.class)) {
+                iterator.forEachRemaining(phone -> {
+                    Entry entry = Entry.of(phone);
+                    loadedEntries.put(phone.getId(), entry);
+                    if (entry.price != null) {
+                        prices.put(phone.getId(), entry.price);
+                    }
+                });
+            }
+            // sorted outside of the lock, so that the writes are not blocked
+            SortedPriceIndex reloaded = SortedPriceIndex.of(prices);
+            synchronized (lock) {
+                index = apply(reloaded, loadedEntries, writtenEntries, null);
+                entries = loadedEntries;
+            }
+            loaded.countDown();
+            log.debug("Loaded the prices of {} phones", prices.size());
+        } finally {
+            synchronized (lock) {
+                writtenEntries = null;
+            }
+        }
+    }
+
+    private void loadFirst() {
+        if (reloadQuietly()) {
+            executor.scheduleWithFixedDelay(this::reloadQuietly, properties.getReloadIntervalMs(),
+                properties.getReloadIntervalMs(), TimeUnit.MILLISECONDS);
+        } else {
+            executor.schedule(this::loadFirst, FIRST_LOAD_RETRY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private boolean reloadQuietly() {
+        try {
+            reload();
+            return true;
+        } catch (Exception e) {
+            log.error("Could not load the prices of the phones: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private void refreshQuietly(Collection<String> ids) {
+        try {
+            refresh(ids);
+        } catch (Exception e) {
+            // repaired by the next reload
+            log.warn("Could not read back the prices of the phones {}: {}", ids, e.getMessage());
+        }
+    }
+
+    /**
+     * The price of a phone, in minor units, and its version.
+     */
+    private static final class Entry {
+
+        private final Long price;
+
+        private final long version;
+
+        private Entry(Long price, long version) {
+            this.price = price;
+            this.version = version;
+        }
+
+        private static Entry of(Phone phone) {
+            return new Entry(phone.getPrice() == null ? null : toMinorUnits(phone.getPrice()),
+                phone.getVersion() == null ? 0 : phone.getVersion());
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.geardao.phoneapp.service;
+
+/**
+ * Thrown when the price index is not loaded yet, see {@link PriceIndexService#snapshot}.
+ */
+public class PriceIndexUnavailableException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public PriceIndexUnavailableException(String message) {
+        super(message);
+    }
+}
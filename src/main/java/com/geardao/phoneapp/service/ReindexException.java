@@ -0,0 +1,26 @@
+package com.geardao.phoneapp.service;
+
+/**
+ * Thrown when a rebuild of the Elasticsearch indexes cannot be started, see {@link ReindexService#start}.
+ */
+public class ReindexException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Reason {
+        ELASTICSEARCH_DISABLED,
+        UNKNOWN_INDEX,
+        ALREADY_RUNNING
+    }
+
+    private final Reason reason;
+
+    public ReindexException(Reason reason, String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+}
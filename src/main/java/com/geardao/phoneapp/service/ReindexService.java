@@ -0,0 +1,289 @@
+package com.geardao.phoneapp.service;
+
+import com.geardao.phoneapp.config.ApplicationProperties;
+import com.geardao.phoneapp.domain.Brand;
+import com.geardao.phoneapp.domain.Phone;
+import com.geardao.phoneapp.domain.User;
+import com.geardao.phoneapp.service.dto.ReindexStatusDTO;
+
+import org.bson.Document;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.mapping.ElasticsearchPersistentEntity;
+import org.springframework.data.elasticsearch.core.query.IndexQuery;
+import org.springframework.data.elasticsearch.core.query.IndexQueryBuilder;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Service for rebuilding the Elasticsearch indexes from MongoDB.
+ * <p>
+ * Each index is rebuilt into a new versioned index: the collection is split into {@code _id} ranges that are
+ * streamed by several worker threads and written with bulk requests. Searches keep being served by the alias
+ * of the previous index until the new one is complete, then the alias is swapped atomically. Documents written
+ * while the index was rebuilt are re-read from MongoDB once the alias has been swapped.
+ */
+@Service
+public class ReindexService {
+
+    private static final DateTimeFormatter VERSION_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+    private final Logger log = LoggerFactory.getLogger(ReindexService.class);
+
+    private final ApplicationProperties.Reindex properties;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final ObjectProvider<ElasticsearchOperations> elasticsearchOperations;
+
+    private final SearchIndexingService searchIndexingService;
+
+    private final Map<String, Class<?>> documentTypes = new LinkedHashMap<>();
+
+    private final Map<String, ReindexStatusDTO> statuses = new LinkedHashMap<>();
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    public ReindexService(ApplicationProperties applicationProperties, MongoTemplate mongoTemplate,
+            ObjectProvider<ElasticsearchOperations> elasticsearchOperations, SearchIndexingService searchIndexingService) {
+
+        this.properties = applicationProperties.getReindex();
+        this.mongoTemplate = mongoTemplate;
+        this.elasticsearchOperations = elasticsearchOperations;
+        this.searchIndexingService = searchIndexingService;
+        documentTypes.put("phone", Phone.class);
+        documentTypes.put("brand", Brand.class);
+        documentTypes.put("user", User.class);
+    }
+
+    /**
+     * Start rebuilding indexes in the background.
+     *
+     * @param indexes the names of the indexes to rebuild, or an empty collection to rebuild all of them
+     * @return the status of each index to rebuild
+     * @throws ReindexException if Elasticsearch is not configured, if an index is unknown, or if a rebuild is
+     * already running
+     */
+    public List<ReindexStatusDTO> start(Collection<String> indexes) {
+        ElasticsearchOperations operations = elasticsearchOperations.getIfAvailable();
+        if (operations == null) {
+            throw new ReindexException(ReindexException.Reason.ELASTICSEARCH_DISABLED, "Elasticsearch is not configured");
+        }
+        Map<String, Class<?>> types = new LinkedHashMap<>();
+        for (String index : indexes.isEmpty() ? documentTypes.keySet() : indexes) {
+            if (!documentTypes.containsKey(index)) {
+                throw new ReindexException(ReindexException.Reason.UNKNOWN_INDEX, "Unknown index " + index);
+            }
+            types.put(index, documentTypes.get(index));
+        }
+        if (!running.compareAndSet(false, true)) {
+            throw new ReindexException(ReindexException.Reason.ALREADY_RUNNING, "A reindex is already running");
+        }
+        List<ReindexStatusDTO> started = new ArrayList<>();
+        synchronized (statuses) {
+            statuses.clear();
+            types.keySet().forEach(index -> {
+                ReindexStatusDTO status = new ReindexStatusDTO(index);
+                statuses.put(index, status);
+                started.add(status);
+            });
+        }
+        Thread thread = new CustomizableThreadFactory("phoneapp-reindex-").newThread(() -> run(operations, types));
+        thread.start();
+        return started;
+    }
+
+    /**
+     * @return the status of each index of the current or last rebuild
+     */
+    public List<ReindexStatusDTO> getStatuses() {
+        synchronized (statuses) {
+            return new ArrayList<>(statuses.values());
+        }
+    }
+
+    private void run(ElasticsearchOperations operations, Map<String, Class<?>> types) {
+        ExecutorService workers = Executors.newFixedThreadPool(properties.getParallelism(),
+            new CustomizableThreadFactory("phoneapp-reindex-worker-"));
+        try {
+            for (Map.Entry<String, Class<?>> type : types.entrySet()) {
+                ReindexStatusDTO status = statuses.get(type.getKey());
+                try {
+                    reindex(operations, workers, type.getValue(), status);
+                    status.complete();
+                    log.info("Rebuilt index {}: {} documents in {}, {} documents/s", status.getIndex(),
+                        status.getIndexed(), status.getTargetIndex(), Math.round(status.getDocumentsPerSecond()));
+                } catch (Exception e) {
+                    log.error("Could not rebuild index {}", status.getIndex(), e);
+                    status.fail(e.getMessage());
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+            running.set(false);
+        }
+    }
+
+    private <T> void reindex(ElasticsearchOperations operations, ExecutorService workers, Class<T> type,
+            ReindexStatusDTO status) throws Exception {
+
+        ElasticsearchPersistentEntity<?> entity = operations.getPersistentEntityFor(type);
+        String alias = entity.getIndexName();
+        String targetIndex = alias + "_" + VERSION_FORMAT.format(ZonedDateTime.now(ZoneOffset.UTC));
+        Client client = operations.getClient();
+        status.start(targetIndex, mongoTemplate.count(new Query(), type));
+        log.info("Rebuilding index {} into {} from {} documents", alias, targetIndex, status.getTotal());
+
+        Set<String> writtenIds;
+        searchIndexingService.startTracking(type);
+        try {
+            createIndex(operations, entity, type, targetIndex);
+            List<Future<?>> partitions = new ArrayList<>();
+            for (Criteria partition : partition(type, status.getTotal())) {
+                partitions.add(workers.submit(() -> {
+                    copy(operations, entity, type, partition, targetIndex, status);
+                    return null;
+                }));
+            }
+            for (Future<?> partition : partitions) {
+                partition.get();
+            }
+            client.admin().indices().prepareUpdateSettings(targetIndex)
+                .setSettings(Settings.builder().put("index.refresh_interval", entity.getRefreshInterval()))
+                .get();
+            operations.refresh(targetIndex);
+            swapAlias(operations, alias, targetIndex);
+        } catch (Exception e) {
+            if (operations.indexExists(targetIndex)) {
+                operations.deleteIndex(targetIndex);
+            }
+            throw e;
+        } finally {
+            writtenIds = searchIndexingService.stopTracking(type);
+        }
+        log.debug("Re-reading {} documents written to {} during the rebuild", writtenIds.size(), alias);
+        for (String id : writtenIds) {
+            T document = mongoTemplate.findById(id, type);
+            if (document == null) {
+                searchIndexingService.delete(type, id);
+            } else {
+                searchIndexingService.index(document);
+            }
+        }
+    }
+
+    /**
+     * Create the new index with the managed mapping of its type, and with refreshes disabled while it is built.
+     */
+    private void createIndex(ElasticsearchOperations operations, ElasticsearchPersistentEntity<?> entity, Class<?> type,
+            String targetIndex) {
+
+        operations.getClient().admin().indices().prepareCreate(targetIndex)
+            .setSettings(Settings.builder()
+                .put("index.number_of_shards", entity.getShards())
+                .put("index.number_of_replicas", entity.getReplicas())
+                .put("index.refresh_interval", "-1"))
+            .addMapping(entity.getIndexType(), SearchMappingService.getMapping(type), XContentType.JSON)
+            .get();
+    }
+
+    /**
+     * Split a collection into {@code _id} ranges of about the same size. The bounds are found by skipping
+     * over the {@code _id} index, which does not read the documents themselves.
+     *
+     * @return the criteria of each range, or a single null criteria if the collection is not split
+     */
+    private List<Criteria> partition(Class<?> type, long total) {
+        int count = (int) Math.max(1, Math.min(properties.getParallelism(), total / properties.getBatchSize()));
+        List<Object> bounds = new ArrayList<>();
+        for (int i = 1; i < count; i++) {
+            Query query = new Query().with(Sort.by("_id")).skip(total * i / count).limit(1);
+            query.fields().include("_id");
+            Document bound = mongoTemplate.findOne(query, Document.class, mongoTemplate.getCollectionName(type));
+            if (bound != null && (bounds.isEmpty() || !bounds.get(bounds.size() - 1).equals(bound.get("_id")))) {
+                bounds.add(bound.get("_id"));
+            }
+        }
+        if (bounds.isEmpty()) {
+            return Collections.singletonList(null);
+        }
+        List<Criteria> partitions = new ArrayList<>();
+        for (int i = 0; i <= bounds.size(); i++) {
+            Criteria partition = Criteria.where("_id");
+            if (i > 0) {
+                partition.gte(bounds.get(i - 1));
+            }
+            if (i < bounds.size()) {
+                partition.lt(bounds.get(i));
+            }
+            partitions.add(partition);
+        }
+        return partitions;
+    }
+
+    private <T> void copy(ElasticsearchOperations operations, ElasticsearchPersistentEntity<?> entity, Class<T> type,
+            Criteria partition, String targetIndex, ReindexStatusDTO status) {
+
+        List<IndexQuery> batch = new ArrayList<>(properties.getBatchSize());
+        try (CloseableIterator<T> documents = mongoTemplate.stream(partition == null ? new Query() : new Query(partition), type)) {
+            while (documents.hasNext() && !Thread.currentThread().isInterrupted()) {
+                T document = documents.next();
+                batch.add(new IndexQueryBuilder()
+                    .withIndexName(targetIndex)
+                    .withType(entity.getIndexType())
+                    .withId(String.valueOf(entity.getIdentifierAccessor(document).getIdentifier()))
+                    .withObject(document)
+                    .build());
+                if (batch.size() >= properties.getBatchSize()) {
+                    operations.bulkIndex(batch);
+                    status.addIndexed(batch.size());
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            operations.bulkIndex(batch);
+            status.addIndexed(batch.size());
+        }
+    }
+
+    /**
+     * Point the alias to the new index and remove the previous indexes in a single request, then delete them.
+     * The first rebuild replaces the index that was created with the alias name.
+     */
+    private void swapAlias(ElasticsearchOperations operations, String alias, String targetIndex) {
+        Client client = operations.getClient();
+        List<String> previousIndexes = new ArrayList<>();
+        client.admin().indices().prepareGetAliases(alias).get().getAliases().keysIt().forEachRemaining(previousIndexes::add);
+        IndicesAliasesRequestBuilder request = client.admin().indices().prepareAliases();
+        if (previousIndexes.isEmpty() && operations.indexExists(alias)) {
+            request.removeIndex(alias);
+        }
+        previousIndexes.forEach(index -> request.removeAlias(index, alias));
+        request.addAlias(targetIndex, alias).get();
+        log.debug("Alias {} now points to {}", alias, targetIndex);
+        if (!previousIndexes.isEmpty()) {
+            client.admin().indices().prepareDelete(previousIndexes.toArray(new String[0])).get();
+        }
+    }
+}
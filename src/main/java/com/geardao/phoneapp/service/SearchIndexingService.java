@@ -0,0 +1,642 @@
+package com.geardao.phoneapp.service;
+
+import com.geardao.phoneapp.config.ApplicationProperties;
+import com.geardao.phoneapp.domain.Brand;
+import com.geardao.phoneapp.domain.Phone;
+import com.geardao.phoneapp.domain.User;
+import com.geardao.phoneapp.repository.search.BrandSearchRepository;
+import com.geardao.phoneapp.repository.search.PhoneSearchRepository;
+import com.geardao.phoneapp.repository.search.UserSearchRepository;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Client;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.elasticsearch.ElasticsearchException;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.mapping.ElasticsearchPersistentEntity;
+import org.springframework.data.elasticsearch.repository.ElasticsearchRepository;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Service for writing documents to Elasticsearch.
+ * <p>
+ * Index, partial update and delete operations are queued and coalesced by document id, so only the latest state
+ * of a document is sent. A background thread flushes them as bulk requests when a batch is full or when the
+ * flush interval has elapsed, and retries failed batches with an exponential backoff.
+ * <p>
+ * When the queue is full, the operation is written on the calling thread instead.
+ * <p>
+ * Each operation is numbered when it is queued or written, and the latest number of each document is kept
+ * until that operation is written. A failed operation is only queued again when it is still the latest of its
+ * document, so it never overwrites a newer state written in the meantime.
+ * <p>
+ * The services report their writes with {@link #afterSave(Object)}, {@link #afterUpdate(Object, Map)} and
+ * {@link #afterDelete(Class, String)}. These
+ * are ignored when the index follows the MongoDB change streams, see {@link ChangeStreamService}.
+ */
+@Service
+public class SearchIndexingService {
+
+    private static final String METRIC_PREFIX = "search.indexing";
+
+    private final Logger log = LoggerFactory.getLogger(SearchIndexingService.class);
+
+    private final ApplicationProperties.SearchIndexing properties;
+
+    private final ObjectProvider<ElasticsearchOperations> elasticsearchOperations;
+
+    private final Map<Class<?>, IndexTarget<?>> targets = new LinkedHashMap<>();
+
+    private final Map<Class<?>, Set<String>> trackedIds = new ConcurrentHashMap<>();
+
+    private final Object lock = new Object();
+
+    private final Object flushLock = new Object();
+
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final Timer flushTimer;
+
+    private final Meter operationsMeter;
+
+    private final Meter failuresMeter;
+
+    private final Meter droppedMeter;
+
+    // guarded by lock
+    private int pendingCount;
+
+    // guarded by flushLock
+    private int consecutiveFailures;
+
+    private volatile long nextAttemptAt;
+
+    private volatile boolean followingChangeStreams;
+
+    private ScheduledExecutorService executor;
+
+    public SearchIndexingService(ApplicationProperties applicationProperties, MetricRegistry metricRegistry,
+            ObjectProvider<ElasticsearchOperations> elasticsearchOperations, PhoneSearchRepository phoneSearchRepository,
+            BrandSearchRepository brandSearchRepository, UserSearchRepository userSearchRepository) {
+
+        this.properties = applicationProperties.getSearchIndexing();
+        this.elasticsearchOperations = elasticsearchOperations;
+        register(Phone.class, phoneSearchRepository, Phone::getId);
+        register(Brand.class, brandSearchRepository, Brand::getId);
+        register(User.class, userSearchRepository, User::getId);
+
+        metricRegistry.register(MetricRegistry.name(METRIC_PREFIX, "queue-depth"), (Gauge<Integer>) this::getPendingCount);
+        this.flushTimer = metricRegistry.timer(MetricRegistry.name(METRIC_PREFIX, "flush"));
+        this.operationsMeter = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "operations"));
+        this.failuresMeter = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "failures"));
+        this.droppedMeter = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "dropped"));
+    }
+
+    private <T> void register(Class<T> type, ElasticsearchRepository<T, String> repository, Function<T, String> idFunction) {
+        targets.put(type, new IndexTarget<>(type, repository, idFunction));
+    }
+
+    @PostConstruct
+    public void start() {
+        if (properties.isAsync()) {
+            log.debug("Starting asynchronous search indexing");
+            executor = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("phoneapp-search-indexer-"));
+            executor.scheduleWithFixedDelay(this::flushIfDue, properties.getFlushIntervalMs(),
+                properties.getFlushIntervalMs(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(properties.getFlushIntervalMs() * 2, TimeUnit.MILLISECONDS);
+        }
+        flush();
+    }
+
+    /**
+     * Set whether the index follows the MongoDB change streams, in which case the writes reported by the services
+     * are not indexed again.
+     *
+     * @param followingChangeStreams true if the change streams are followed
+     */
+    public void setFollowingChangeStreams(boolean followingChangeStreams) {
+        this.followingChangeStreams = followingChangeStreams;
+    }
+
+    /**
+     * Index a document that has just been saved to MongoDB, unless the change streams are followed.
+     *
+     * @param document the saved document
+     * @param <T> the document type, which must be one of the indexed entities
+     */
+    public <T> void afterSave(T document) {
+        if (!followingChangeStreams) {
+            index(document);
+        }
+    }
+
+    /**
+     * Index documents that have just been saved to MongoDB in bulk, unless the change streams are followed.
+     *
+     * @param type the document type, which must be one of the indexed entities
+     * @param documents the saved documents
+     * @param <T> the document type
+     */
+    public <T> void afterSaveAll(Class<T> type, List<T> documents) {
+        if (!followingChangeStreams) {
+            indexAll(type, documents);
+        }
+    }
+
+    /**
+     * Update some fields of a document that has just been updated in MongoDB, unless the change streams are
+     * followed.
+     *
+     * @param document the updated document
+     * @param fields the new values of the updated fields, as they are serialized to JSON
+     * @param <T> the document type, which must be one of the indexed entities
+     */
+    public <T> void afterUpdate(T document, Map<String, Object> fields) {
+        if (!followingChangeStreams) {
+            update(document, fields);
+        }
+    }
+
+    /**
+     * Remove a document that has just been deleted from MongoDB, unless the change streams are followed.
+     *
+     * @param type the document type, which must be one of the indexed entities
+     * @param id the id of the deleted document
+     */
+    public void afterDelete(Class<?> type, String id) {
+        if (!followingChangeStreams) {
+            delete(type, id);
+        }
+    }
+
+    /**
+     * Index or re-index a document.
+     *
+     * @param document the document to index
+     * @param <T> the document type, which must be one of the indexed entities
+     */
+    @SuppressWarnings("unchecked")
+    public <T> void index(T document) {
+        IndexTarget<T> target = getTarget((Class<T>) document.getClass());
+        enqueue(target, target.idFunction.apply(document), document, null);
+    }
+
+    /**
+     * Update some fields of an indexed document. Only these fields are sent, unless the document is not indexed
+     * yet or an index operation is already pending for it.
+     *
+     * @param document the document, with all its fields
+     * @param fields the new values of the updated fields, as they are serialized to JSON
+     * @param <T> the document type, which must be one of the indexed entities
+     */
+    @SuppressWarnings("unchecked")
+    public <T> void update(T document, Map<String, Object> fields) {
+        IndexTarget<T> target = getTarget((Class<T>) document.getClass());
+        enqueue(target, target.idFunction.apply(document), document, fields);
+    }
+
+    /**
+     * Remove a document from the index.
+     *
+     * @param type the document type, which must be one of the indexed entities
+     * @param id the id of the document to remove
+     */
+    public void delete(Class<?> type, String id) {
+        enqueue(getTarget(type), id, null, null);
+    }
+
+    /**
+     * Index documents right away, in bulk requests sent from the calling thread. This is meant for bulk writes,
+     * which would overflow the queue; documents that could not be written are queued for another attempt.
+     *
+     * @param type the document type, which must be one of the indexed entities
+     * @param documents the documents to index
+     * @param <T> the document type
+     */
+    public <T> void indexAll(Class<T> type, List<T> documents) {
+        IndexTarget<T> target = getTarget(type);
+        operationsMeter.mark(documents.size());
+        Set<String> tracked = trackedIds.get(type);
+        List<Operation<T>> operations = new ArrayList<>(documents.size());
+        synchronized (lock) {
+            for (T document : documents) {
+                operations.add(supersede(target, target.idFunction.apply(document), document, tracked));
+            }
+        }
+        for (int from = 0; from < operations.size(); from += properties.getBatchSize()) {
+            List<Operation<T>> batch = operations.subList(from, Math.min(operations.size(), from + properties.getBatchSize()));
+            try {
+                target.repository.saveAll(batch.stream().map(operation -> operation.document).collect(Collectors.toList()));
+                written(target, batch);
+            } catch (RuntimeException e) {
+                if (!properties.isAsync()) {
+                    throw e;
+                }
+                log.warn("Could not write {} {} documents to Elasticsearch: {}", batch.size(), type.getSimpleName(), e.getMessage());
+                failuresMeter.mark();
+                requeue(target, batch);
+            }
+        }
+    }
+
+    /**
+     * Index and remove documents right away, in bulk requests sent from the calling thread, and throw if any of
+     * them could not be written. Unlike {@link #indexAll(Class, List)}, nothing is queued for another attempt: this
+     * is meant for callers that retry the whole batch themselves, and so must know once it has been written.
+     *
+     * @param type the document type, which must be one of the indexed entities
+     * @param documents the documents to index
+     * @param deletedIds the ids of the documents to remove
+     * @param <T> the document type
+     * @throws RuntimeException if some of the documents could not be written
+     */
+    public <T> void writeAll(Class<T> type, List<T> documents, Collection<String> deletedIds) {
+        IndexTarget<T> target = getTarget(type);
+        operationsMeter.mark(documents.size() + deletedIds.size());
+        Set<String> tracked = trackedIds.get(type);
+        List<Operation<T>> operations = new ArrayList<>(documents.size() + deletedIds.size());
+        synchronized (lock) {
+            for (T document : documents) {
+                operations.add(supersede(target, target.idFunction.apply(document), document, tracked));
+            }
+            for (String id : deletedIds) {
+                operations.add(supersede(target, id, null, tracked));
+            }
+        }
+        try {
+            for (int from = 0; from < operations.size(); from += properties.getBatchSize()) {
+                writeBatch(target, operations.subList(from, Math.min(operations.size(), from + properties.getBatchSize())));
+            }
+        } catch (RuntimeException e) {
+            failuresMeter.mark();
+            throw e;
+        } finally {
+            // the caller writes the documents again if they failed
+            written(target, operations);
+        }
+    }
+
+    /**
+     * Write all the pending operations to Elasticsearch.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            Timer.Context context = flushTimer.time();
+            try {
+                boolean failed = false;
+                for (IndexTarget<?> target : targets.values()) {
+                    failed |= !flush(target);
+                }
+                if (failed) {
+                    consecutiveFailures++;
+                    long backoff = Math.min(properties.getMaxBackoffMs(),
+                        properties.getInitialBackoffMs() << Math.min(consecutiveFailures - 1, 20));
+                    nextAttemptAt = System.currentTimeMillis() + backoff;
+                } else {
+                    consecutiveFailures = 0;
+                    nextAttemptAt = 0;
+                }
+            } finally {
+                context.stop();
+            }
+        }
+    }
+
+    /**
+     * Start recording the ids of the documents of a type that are written, until {@link #stopTracking(Class)}
+     * is called. This is used to catch up with the writes that happen while an index is rebuilt.
+     *
+     * @param type the document type
+     */
+    public void startTracking(Class<?> type) {
+        trackedIds.put(getTarget(type).type, ConcurrentHashMap.newKeySet());
+    }
+
+    /**
+     * @param type the document type
+     * @return the ids of the documents written since {@link #startTracking(Class)} was called
+     */
+    public Set<String> stopTracking(Class<?> type) {
+        Set<String> ids = trackedIds.remove(type);
+        return ids == null ? Collections.emptySet() : ids;
+    }
+
+    public int getPendingCount() {
+        synchronized (lock) {
+            return pendingCount;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> IndexTarget<T> getTarget(Class<T> type) {
+        IndexTarget<T> target = (IndexTarget<T>) targets.get(type);
+        if (target == null) {
+            throw new IllegalArgumentException("No search index is configured for " + type.getName());
+        }
+        return target;
+    }
+
+    private <T> void enqueue(IndexTarget<T> target, String id, T document, Map<String, Object> fields) {
+        operationsMeter.mark();
+        Set<String> tracked = trackedIds.get(target.type);
+        if (tracked != null) {
+            tracked.add(id);
+        }
+        Operation<T> operation = new Operation<>(id, document, fields, sequence.incrementAndGet());
+        if (!properties.isAsync()) {
+            write(target, operation);
+            return;
+        }
+        boolean full;
+        synchronized (lock) {
+            Operation<T> pending = target.pending.get(id);
+            full = pending == null && pendingCount >= properties.getQueueCapacity();
+            if (!full) {
+                if (pending == null) {
+                    pendingCount++;
+                } else if (fields != null) {
+                    operation = pending.fields == null
+                        // the pending operation indexes or deletes the whole document
+                        ? new Operation<>(id, document, null, operation.sequence)
+                        : new Operation<>(id, document, merge(pending.fields, fields), operation.sequence);
+                }
+                target.pending.put(id, operation);
+            }
+            track(target, operation);
+        }
+        if (full) {
+            log.debug("Search indexing queue is full, writing {} {} on the calling thread", target.type.getSimpleName(), id);
+            try {
+                synchronized (flushLock) {
+                    write(target, operation);
+                }
+            } finally {
+                written(target, Collections.singletonList(operation));
+            }
+        } else if (getPendingCount() >= properties.getBatchSize() && flushRequested.compareAndSet(false, true)) {
+            executor.execute(() -> {
+                flushRequested.set(false);
+                flushIfDue();
+            });
+        }
+    }
+
+    private void flushIfDue() {
+        if (System.currentTimeMillis() < nextAttemptAt) {
+            return;
+        }
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Unexpected error while flushing the search indexing queue", e);
+        }
+    }
+
+    /**
+     * @return false if some operations could not be written and have been queued again
+     */
+    private <T> boolean flush(IndexTarget<T> target) {
+        List<Operation<T>> operations;
+        synchronized (lock) {
+            if (target.pending.isEmpty()) {
+                return true;
+            }
+            operations = new ArrayList<>(target.pending.values());
+            target.pending.clear();
+            pendingCount -= operations.size();
+        }
+        boolean success = true;
+        for (int from = 0; from < operations.size(); from += properties.getBatchSize()) {
+            List<Operation<T>> batch = operations.subList(from, Math.min(operations.size(), from + properties.getBatchSize()));
+            try {
+                writeBatch(target, batch);
+                written(target, batch);
+            } catch (Exception e) {
+                log.warn("Could not write {} {} documents to Elasticsearch: {}", batch.size(), target.type.getSimpleName(), e.getMessage());
+                failuresMeter.mark();
+                requeue(target, batch);
+                success = false;
+            }
+        }
+        return success;
+    }
+
+    /**
+     * Number an operation written from the calling thread, which supersedes the pending operation of its document,
+     * as that one holds an older state; must be called with the lock held.
+     */
+    private <T> Operation<T> supersede(IndexTarget<T> target, String id, T document, Set<String> tracked) {
+        Operation<T> operation = new Operation<>(id, document, null, sequence.incrementAndGet());
+        if (tracked != null) {
+            tracked.add(id);
+        }
+        if (target.pending.remove(id) != null) {
+            pendingCount--;
+        }
+        track(target, operation);
+        return operation;
+    }
+
+    /**
+     * Record that an operation is the latest of its document; must be called with the lock held.
+     */
+    private <T> void track(IndexTarget<T> target, Operation<T> operation) {
+        // synchronous writes are never queued again
+        if (properties.isAsync()) {
+            target.latestSequences.put(operation.id, operation.sequence);
+        }
+    }
+
+    /**
+     * Forget the operations that have been written, unless newer ones have been queued since.
+     */
+    private <T> void written(IndexTarget<T> target, List<Operation<T>> operations) {
+        synchronized (lock) {
+            for (Operation<T> operation : operations) {
+                target.latestSequences.remove(operation.id, operation.sequence);
+            }
+        }
+    }
+
+    private <T> void requeue(IndexTarget<T> target, List<Operation<T>> batch) {
+        synchronized (lock) {
+            for (Operation<T> operation : batch) {
+                Long latestSequence = target.latestSequences.get(operation.id);
+                if (latestSequence == null || latestSequence != operation.sequence) {
+                    // a newer operation on the same document has been queued or written since, and supersedes
+                    // this one; if it is a partial update, it no longer applies on top of what this one wrote
+                    Operation<T> pending = target.pending.get(operation.id);
+                    if (pending != null && pending.fields != null) {
+                        target.pending.put(operation.id, new Operation<>(pending.id, pending.document, null, pending.sequence));
+                    }
+                } else if (++operation.attempts >= properties.getMaxAttempts()) {
+                    log.error("Giving up on indexing {} {} after {} attempts", target.type.getSimpleName(), operation.id, operation.attempts);
+                    droppedMeter.mark();
+                    target.latestSequences.remove(operation.id);
+                } else {
+                    target.pending.put(operation.id, operation);
+                    pendingCount++;
+                }
+            }
+        }
+    }
+
+    private <T> void write(IndexTarget<T> target, Operation<T> operation) {
+        if (operation.document == null) {
+            target.repository.deleteById(operation.id);
+        } else if (operation.fields != null) {
+            updateAll(target, Collections.singletonList(operation));
+        } else {
+            target.repository.save(operation.document);
+        }
+    }
+
+    private <T> void writeBatch(IndexTarget<T> target, List<Operation<T>> batch) {
+        List<T> documents = new ArrayList<>();
+        List<Operation<T>> updates = new ArrayList<>();
+        List<String> deletedIds = new ArrayList<>();
+        for (Operation<T> operation : batch) {
+            if (operation.document == null) {
+                deletedIds.add(operation.id);
+            } else if (operation.fields != null) {
+                updates.add(operation);
+            } else {
+                documents.add(operation.document);
+            }
+        }
+        if (!documents.isEmpty()) {
+            target.repository.saveAll(documents);
+        }
+        if (!updates.isEmpty()) {
+            updateAll(target, updates);
+        }
+        if (!deletedIds.isEmpty()) {
+            deleteAll(target, deletedIds);
+        }
+    }
+
+    /**
+     * Send partial updates in a bulk request; the documents that are not indexed yet are indexed whole.
+     */
+    private <T> void updateAll(IndexTarget<T> target, List<Operation<T>> updates) {
+        ElasticsearchOperations operations = elasticsearchOperations.getIfAvailable();
+        if (operations == null) {
+            target.repository.saveAll(updates.stream().map(update -> update.document).collect(Collectors.toList()));
+            return;
+        }
+        ElasticsearchPersistentEntity<?> entity = operations.getPersistentEntityFor(target.type);
+        Client client = operations.getClient();
+        BulkRequestBuilder bulkRequest = client.prepareBulk();
+        for (Operation<T> update : updates) {
+            bulkRequest.add(client.prepareUpdate(entity.getIndexName(), entity.getIndexType(), update.id).setDoc(update.fields));
+        }
+        BulkResponse response = bulkRequest.get();
+        if (response.hasFailures()) {
+            List<T> missing = new ArrayList<>();
+            for (BulkItemResponse item : response.getItems()) {
+                if (item.isFailed()) {
+                    missing.add(updates.get(item.getItemId()).document);
+                }
+            }
+            target.repository.saveAll(missing);
+        }
+    }
+
+    private static Map<String, Object> merge(Map<String, Object> pending, Map<String, Object> fields) {
+        Map<String, Object> merged = new LinkedHashMap<>(pending);
+        merged.putAll(fields);
+        return merged;
+    }
+
+    private <T> void deleteAll(IndexTarget<T> target, List<String> ids) {
+        ElasticsearchOperations operations = elasticsearchOperations.getIfAvailable();
+        if (operations == null) {
+            ids.forEach(target.repository::deleteById);
+            return;
+        }
+        ElasticsearchPersistentEntity<?> entity = operations.getPersistentEntityFor(target.type);
+        Client client = operations.getClient();
+        BulkRequestBuilder bulkRequest = client.prepareBulk();
+        for (String id : ids) {
+            bulkRequest.add(client.prepareDelete(entity.getIndexName(), entity.getIndexType(), id));
+        }
+        BulkResponse response = bulkRequest.get();
+        if (response.hasFailures()) {
+            throw new ElasticsearchException(response.buildFailureMessage());
+        }
+    }
+
+    private static final class IndexTarget<T> {
+
+        private final Class<T> type;
+
+        private final ElasticsearchRepository<T, String> repository;
+
+        private final Function<T, String> idFunction;
+
+        private final Map<String, Operation<T>> pending = new LinkedHashMap<>();
+
+        // guarded by lock, the sequence number of the latest operation of each document not written yet
+        private final Map<String, Long> latestSequences = new HashMap<>();
+
+        private IndexTarget(Class<T> type, ElasticsearchRepository<T, String> repository, Function<T, String> idFunction) {
+            this.type = type;
+            this.repository = repository;
+            this.idFunction = idFunction;
+        }
+    }
+
+    /**
+     * A pending write; a null document means the document is to be deleted, and non-null fields that only these
+     * fields of the document are to be updated.
+     */
+    private static final class Operation<T> {
+
+        private final String id;
+
+        private final T document;
+
+        private final Map<String, Object> fields;
+
+        private final long sequence;
+
+        private int attempts;
+
+        private Operation(String id, T document, Map<String, Object> fields, long sequence) {
+            this.id = id;
+            this.document = document;
+            this.fields = fields;
+            this.sequence = sequence;
+        }
+    }
+}
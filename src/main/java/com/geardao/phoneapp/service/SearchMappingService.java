@@ -0,0 +1,172 @@
+package com.geardao.phoneapp.service;
+
+import com.geardao.phoneapp.config.ApplicationProperties;
+import com.geardao.phoneapp.domain.Brand;
+import com.geardao.phoneapp.domain.Phone;
+import com.geardao.phoneapp.domain.User;
+
+import com.carrotsearch.hppc.cursors.ObjectCursor;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.common.collect.ImmutableOpenMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.elasticsearch.annotations.Mapping;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.mapping.ElasticsearchPersistentEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StreamUtils;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Service for the Elasticsearch mappings, which are managed by the application instead of being inferred by
+ * Elasticsearch from the first documents.
+ * <p>
+ * The mapping of each document type is a file named by its {@link Mapping} annotation. At startup, missing
+ * indexes are created with their mapping, and existing ones are checked against it: a field with another type
+ * cannot be changed in place, so a mismatch either stops the application or rebuilds the index, depending on
+ * {@code application.search-mappings.on-mismatch}.
+ */
+@Service
+public class SearchMappingService {
+
+    private static final List<Class<?>> DOCUMENT_TYPES = Arrays.asList(Phone.class, Brand.class, User.class);
+
+    private final Logger log = LoggerFactory.getLogger(SearchMappingService.class);
+
+    private final ApplicationProperties.SearchMappings properties;
+
+    private final ObjectProvider<ElasticsearchOperations> elasticsearchOperations;
+
+    private final ObjectMapper objectMapper;
+
+    private final ReindexService reindexService;
+
+    public SearchMappingService(ApplicationProperties applicationProperties,
+            ObjectProvider<ElasticsearchOperations> elasticsearchOperations, ObjectMapper objectMapper,
+            ReindexService reindexService) {
+
+        this.properties = applicationProperties.getSearchMappings();
+        this.elasticsearchOperations = elasticsearchOperations;
+        this.objectMapper = objectMapper;
+        this.reindexService = reindexService;
+    }
+
+    /**
+     * Create the missing indexes, and check the mappings of the existing ones.
+     *
+     * @throws IllegalStateException if an index has another mapping and the mismatch policy is to fail
+     */
+    @PostConstruct
+    public void verifyMappings() {
+        ElasticsearchOperations operations = elasticsearchOperations.getIfAvailable();
+        if (operations == null) {
+            return;
+        }
+        List<String> mismatchedIndexes = new ArrayList<>();
+        for (Class<?> type : DOCUMENT_TYPES) {
+            ElasticsearchPersistentEntity<?> entity = operations.getPersistentEntityFor(type);
+            if (!operations.indexExists(entity.getIndexName())) {
+                log.info("Creating the {} index", entity.getIndexName());
+                operations.createIndex(type);
+                operations.putMapping(type);
+            } else if (!hasManagedMapping(operations, entity, type)) {
+                mismatchedIndexes.add(entity.getIndexName());
+            }
+        }
+        if (mismatchedIndexes.isEmpty()) {
+            return;
+        }
+        if (properties.getOnMismatch() == ApplicationProperties.SearchMappings.MismatchPolicy.FAIL) {
+            throw new IllegalStateException("The " + mismatchedIndexes + " indexes do not have the mappings of config/elasticsearch: " +
+                "rebuild them with POST /management/reindex, or set application.search-mappings.on-mismatch to reindex");
+        }
+        log.warn("The {} indexes do not have the mappings of config/elasticsearch, rebuilding them", mismatchedIndexes);
+        reindexService.start(mismatchedIndexes);
+    }
+
+    /**
+     * Get the managed mapping of a document type.
+     *
+     * @param type the document type
+     * @return the mapping, as JSON
+     * @throws IllegalArgumentException if the type has no managed mapping
+     */
+    public static String getMapping(Class<?> type) {
+        Mapping mapping = type.getAnnotation(Mapping.class);
+        if (mapping == null) {
+            throw new IllegalArgumentException(type.getSimpleName() + " has no @Mapping");
+        }
+        try (InputStream input = new ClassPathResource(mapping.mappingPath()).getInputStream()) {
+            return StreamUtils.copyToString(input, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read the mapping " + mapping.mappingPath(), e);
+        }
+    }
+
+    private boolean hasManagedMapping(ElasticsearchOperations operations, ElasticsearchPersistentEntity<?> entity, Class<?> type) {
+        Map<String, Object> expected;
+        try {
+            expected = objectMapper.readValue(getMapping(type), new TypeReference<Map<String, Object>>() { });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not parse the mapping of " + type.getSimpleName(), e);
+        }
+        // the index name may be an alias to the index built by the last reindex
+        ImmutableOpenMap<String, ImmutableOpenMap<String, MappingMetaData>> mappings = operations.getClient().admin().indices()
+            .prepareGetMappings(entity.getIndexName()).setTypes(entity.getIndexType()).get().getMappings();
+        boolean matches = true;
+        for (ObjectCursor<ImmutableOpenMap<String, MappingMetaData>> indexMappings : mappings.values()) {
+            MappingMetaData mapping = indexMappings.value.get(entity.getIndexType());
+            if (mapping == null || !contains(mapping.getSourceAsMap(), expected)) {
+                matches = false;
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Whether a mapping returned by Elasticsearch holds all the settings of a managed mapping. Elasticsearch adds
+     * the defaults, and may return booleans and numbers as strings or with another type.
+     */
+    static boolean contains(Object actual, Object expected) {
+        if (expected instanceof Map) {
+            if (!(actual instanceof Map)) {
+                return false;
+            }
+            Map<?, ?> actualMap = (Map<?, ?>) actual;
+            return ((Map<?, ?>) expected).entrySet().stream()
+                .allMatch(entry -> contains(actualMap.get(entry.getKey()), entry.getValue()));
+        }
+        if (expected instanceof List) {
+            if (!(actual instanceof List) || ((List<?>) actual).size() != ((List<?>) expected).size()) {
+                return false;
+            }
+            for (int i = 0; i < ((List<?>) expected).size(); i++) {
+                if (!contains(((List<?>) actual).get(i), ((List<?>) expected).get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (expected instanceof Number && actual != null) {
+            try {
+                return ((Number) expected).doubleValue() == Double.parseDouble(actual.toString());
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        return actual != null && String.valueOf(expected).equals(String.valueOf(actual));
+    }
+}
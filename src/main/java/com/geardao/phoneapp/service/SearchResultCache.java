@@ -0,0 +1,175 @@
+package com.geardao.phoneapp.service;
+
+import com.geardao.phoneapp.config.ApplicationProperties;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Service caching the results of the phone and brand full-text searches.
+ * <p>
+ * Only the ids and the total of each page are cached, under a key made of the normalized query, the page and
+ * the catalog version; the entities themselves are read through their own caches. Any phone or brand write
+ * moves the catalog to a new version, on this node and, through {@link CacheInvalidationService}, on the other
+ * ones, so the entries of the previous versions are never read again and age out of the cache.
+ * <p>
+ * Elasticsearch only makes a write searchable once it is indexed and the index refreshed, so the pages are not
+ * cached while the catalog version is younger than {@code application.search-results.settle-ms}: a page searched
+ * before the write is visible would otherwise be served without it until it expires. The hits and misses are
+ * reported under {@code search.result-cache}; the JCache statistics of the {@value #SEARCH_RESULTS_CACHE} cache
+ * also count the lookups of the catalog version.
+ */
+@Service
+public class SearchResultCache {
+
+    public static final String SEARCH_RESULTS_CACHE = "searchResults";
+
+    /**
+     * The key of the current catalog version in the cache; evicting it starts a new version.
+     */
+    private static final String VERSION_KEY = "version";
+
+    private static final String METRIC_PREFIX = "search.result-cache";
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final Logger log = LoggerFactory.getLogger(SearchResultCache.class);
+
+    private final Cache cache;
+
+    private final CacheInvalidationService cacheInvalidationService;
+
+    private final long settleMs;
+
+    private final AtomicLong versions = new AtomicLong();
+
+    private final Meter hits;
+
+    private final Meter misses;
+
+    public SearchResultCache(ApplicationProperties applicationProperties, CacheManager cacheManager,
+            CacheInvalidationService cacheInvalidationService, MetricRegistry metricRegistry) {
+
+        this.cache = cacheManager.getCache(SEARCH_RESULTS_CACHE);
+        if (cache == null) {
+            throw new IllegalStateException("The " + SEARCH_RESULTS_CACHE + " cache does not exist");
+        }
+        this.cacheInvalidationService = cacheInvalidationService;
+        this.settleMs = applicationProperties.getSearchResults().getSettleMs();
+        this.hits = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "hits"));
+        this.misses = metricRegistry.meter(MetricRegistry.name(METRIC_PREFIX, "misses"));
+        metricRegistry.register(MetricRegistry.name(METRIC_PREFIX, "hit-rate"), new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(hits.getFiveMinuteRate(), hits.getFiveMinuteRate() + misses.getFiveMinuteRate());
+            }
+        });
+    }
+
+    /**
+     * Get a page of search results, from the cache or from the search.
+     *
+     * @param entityName the name of the searched entity
+     * @param query the query of the search
+     * @param pageable the pagination information
+     * @param search runs the search
+     * @param idOf the id of a result
+     * @param loader loads the results with some ids, in the order of the ids, leaving out those that no longer exist
+     * @param <D> the type of the results
+     * @return the page of results
+     */
+    public <D> Page<D> search(String entityName, String query, Pageable pageable, Supplier<Page<D>> search,
+            Function<D, String> idOf, Function<List<String>, List<D>> loader) {
+
+        CatalogVersion version = version();
+        String key = key(entityName, query, pageable, version);
+        Cache.ValueWrapper cached = cache.get(key);
+        if (cached != null) {
+            hits.mark();
+            ResultIds resultIds = (ResultIds) cached.get();
+            return new PageImpl<>(loader.apply(resultIds.ids), pageable, resultIds.total);
+        }
+        misses.mark();
+        Page<D> page = search.get();
+        List<String> ids = new ArrayList<>(page.getNumberOfElements());
+        page.forEach(result -> ids.add(idOf.apply(result)));
+        if (System.currentTimeMillis() - version.startMillis >= settleMs) {
+            cache.put(key, new ResultIds(ids, page.getTotalElements()));
+        }
+        return page;
+    }
+
+    /**
+     * Move the catalog to a new version, after a phone or a brand has been written.
+     */
+    public void invalidate() {
+        cacheInvalidationService.evict(SEARCH_RESULTS_CACHE, VERSION_KEY);
+    }
+
+    private CatalogVersion version() {
+        return cache.get(VERSION_KEY, () -> {
+            long next = versions.incrementAndGet();
+            log.debug("Starting catalog version {}", next);
+            return new CatalogVersion(next, System.currentTimeMillis());
+        });
+    }
+
+    private static String key(String entityName, String query, Pageable pageable, CatalogVersion version) {
+        // the case matters to the query string syntax, only the spacing is normalized
+        String normalizedQuery = WHITESPACE.matcher(query.trim()).replaceAll(" ");
+        return entityName + '|' + version.number + '|' + pageable.getPageNumber() + '|' + pageable.getPageSize() + '|' +
+            pageable.getSort() + '|' + normalizedQuery;
+    }
+
+    /**
+     * A catalog version, started by the first search after a write.
+     */
+    private static final class CatalogVersion implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long number;
+
+        private final long startMillis;
+
+        private CatalogVersion(long number, long startMillis) {
+            this.number = number;
+            this.startMillis = startMillis;
+        }
+    }
+
+    /**
+     * The ids of a page of results, and the total number of results.
+     */
+    private static final class ResultIds implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> ids;
+
+        private final long total;
+
+        private ResultIds(List<String> ids, long total) {
+            this.ids = Collections.unmodifiableList(ids);
+            this.total = total;
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package com.geardao.phoneapp.service;
+
+import com.geardao.phoneapp.config.ApplicationProperties;
+import com.geardao.phoneapp.domain.Brand;
+import com.geardao.phoneapp.domain.Phone;
+import com.geardao.phoneapp.service.dto.SuggestionDTO;
+import com.geardao.phoneapp.service.util.PrefixIndex;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Service for the typeahead suggestions of phone and brand names.
+ * <p>
+ * Suggestions are served from an in-memory {@link PrefixIndex}, without going to Elasticsearch. Brands are
+ * weighted by their number of phones, and are suggested before the phones. The names are loaded from MongoDB at
+ * startup and then reloaded periodically; in between, the writes of this node are applied through
+ * {@link #put(Object)} and {@link #remove(Class, String)}, those of the other nodes are read back from MongoDB
+ * when their cache evictions are received, and the index is rebuilt shortly after them.
+ */
+@Service
+public class SuggestService {
+
+    private static final String METRIC_PREFIX = "suggest";
+
+    private final Logger log = LoggerFactory.getLogger(SuggestService.class);
+
+    private final ApplicationProperties.Suggest properties;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final CacheInvalidationService cacheInvalidationService;
+
+    private final Timer rebuildTimer;
+
+    private final Object lock = new Object();
+
+    private final Object rebuildLock = new Object();
+
+    private final AtomicBoolean rebuildScheduled = new AtomicBoolean();
+
+    // guarded by lock
+    private Map<String, Phone> phones = new HashMap<>();
+
+    // guarded by lock
+    private Map<String, Brand> brands = new HashMap<>();
+
+    // guarded by lock, the ids written while a reload is running, null otherwise
+    private Set<String> writtenPhoneIds;
+
+    // guarded by lock
+    private Set<String> writtenBrandIds;
+
+    private volatile PrefixIndex<SuggestionDTO> index = PrefixIndex.empty();
+
+    private ScheduledExecutorService executor;
+
+    public SuggestService(ApplicationProperties applicationProperties, MongoTemplate mongoTemplate,
+            CacheInvalidationService cacheInvalidationService, MetricRegistry metricRegistry) {
+        this.properties = applicationProperties.getSuggest();
+        this.mongoTemplate = mongoTemplate;
+        this.cacheInvalidationService = cacheInvalidationService;
+        this.rebuildTimer = metricRegistry.timer(MetricRegistry.name(METRIC_PREFIX, "rebuild"));
+        metricRegistry.register(MetricRegistry.name(METRIC_PREFIX, "entries"), (Gauge<Integer>) () -> index.size());
+    }
+
+    @PostConstruct
+    public void start() {
+        executor = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("phoneapp-suggest-"));
+        cacheInvalidationService.addListener(PhoneService.PHONES_BY_ID_CACHE,
+            ids -> executor.execute(() -> refreshQuietly(Phone.class, ids)));
+        cacheInvalidationService.addListener(BrandService.BRANDS_BY_ID_CACHE,
+            ids -> executor.execute(() -> refreshQuietly(Brand.class, ids)));
+        executor.scheduleWithFixedDelay(this::reloadQuietly, 0, properties.getReloadIntervalMs(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Suggest the phones and brands with a word of their name starting with a prefix.
+     *
+     * @param prefix the prefix, case, accents and punctuation are ignored
+     * @param size the largest number of suggestions, capped by {@code application.suggest.max-size}
+     * @return the suggestions, the brands with the most phones first
+     */
+    public List<SuggestionDTO> suggest(String prefix, int size) {
+        return index.top(prefix, Math.min(size, properties.getMaxSize()));
+    }
+
+    /**
+     * Add or update the name of a phone or a brand; other entities are ignored.
+     *
+     * @param entity the saved entity
+     */
+    public void put(Object entity) {
+        synchronized (lock) {
+            if (entity instanceof Phone) {
+                Phone phone = (Phone) entity;
+                Phone names = new Phone().name(phone.getName()).brand(phone.getBrand());
+                names.setId(phone.getId());
+                phones.put(phone.getId(), names);
+                if (writtenPhoneIds != null) {
+                    writtenPhoneIds.add(phone.getId());
+                }
+            } else if (entity instanceof Brand) {
+                Brand brand = (Brand) entity;
+                Brand names = new Brand().name(brand.getName());
+                names.setId(brand.getId());
+                brands.put(brand.getId(), names);
+                if (writtenBrandIds != null) {
+                    writtenBrandIds.add(brand.getId());
+                }
+            } else {
+                return;
+            }
+        }
+        scheduleRebuild();
+    }
+
+    /**
+     * Add or update the names of several phones or brands.
+     *
+     * @param entities the saved entities
+     */
+    public void putAll(Collection<?> entities) {
+        entities.forEach(this::put);
+    }
+
+    /**
+     * Remove a phone or a brand; other entities are ignored.
+     *
+     * @param type the entity type
+     * @param id the id of the deleted entity
+     */
+    public void remove(Class<?> type, String id) {
+        synchronized (lock) {
+            if (Phone.class.equals(type)) {
+                phones.remove(id);
+                if (writtenPhoneIds != null) {
+                    writtenPhoneIds.add(id);
+                }
+            } else if (Brand.class.equals(type)) {
+                brands.remove(id);
+                if (writtenBrandIds != null) {
+                    writtenBrandIds.add(id);
+                }
+            } else {
+                return;
+            }
+        }
+        scheduleRebuild();
+    }
+
+    /**
+     * Read phones or brands back from MongoDB, after they were written by another node; those that are not found
+     * are removed.
+     *
+     * @param type the entity type, {@link Phone} or {@link Brand}
+     * @param ids the ids of the entities
+     */
+    public void refresh(Class<?> type, Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        Query query = new Query(Criteria.where("id").in(ids));
+        query.fields().include("name");
+        if (Phone.class.equals(type)) {
+            query.fields().include("brand");
+        }
+        Set<String> missing = new HashSet<>(ids);
+        for (Object entity : mongoTemplate.find(query, type)) {
+            put(entity);
+            missing.remove(entity instanceof Phone ? ((Phone) entity).getId() : ((Brand) entity).getId());
+        }
+        missing.forEach(id -> remove(type, id));
+    }
+
+    /**
+     * Load all the names from MongoDB, and rebuild the index. The writes applied while the names are read
+     * are kept, as they may not be part of what was read.
+     */
+    public synchronized void reload() {
+        synchronized (lock) {
+            writtenPhoneIds = new HashSet<>();
+            writtenBrandIds = new HashSet<>();
+        }
+        Map<String, Phone> loadedPhones = new HashMap<>();
+        Map<String, Brand> loadedBrands = new HashMap<>();
+        boolean loaded = false;
+        try {
+            Query phoneQuery = new Query();
+            phoneQuery.fields().include("name").include("brand");
+            try (CloseableIterator<Phone> iterator = mongoTemplate.stream(phoneQuery, Phone.class)) {
+                iterator.forEachRemaining(phone -> loadedPhones.put(phone.getId(), phone));
+            }
+            Query brandQuery = new Query();
+            brandQuery.fields().include("name");
+            try (CloseableIterator<Brand> iterator = mongoTemplate.stream(brandQuery, Brand.class)) {
+                iterator.forEachRemaining(brand -> loadedBrands.put(brand.getId(), brand));
+            }
+            loaded = true;
+        } finally {
+            synchronized (lock) {
+                if (loaded) {
+                    writtenPhoneIds.forEach(id -> keepCurrent(phones, loadedPhones, id));
+                    writtenBrandIds.forEach(id -> keepCurrent(brands, loadedBrands, id));
+                    phones = loadedPhones;
+                    brands = loadedBrands;
+                }
+                writtenPhoneIds = null;
+                writtenBrandIds = null;
+            }
+        }
+        log.debug("Loaded the names of {} phones and {} brands", loadedPhones.size(), loadedBrands.size());
+        rebuild();
+    }
+
+    /**
+     * Rebuild the index from the current names.
+     */
+    public void rebuild() {
+        rebuildScheduled.set(false);
+        synchronized (rebuildLock) {
+            try (Timer.Context ignored = rebuildTimer.time()) {
+                List<Phone> currentPhones;
+                List<Brand> currentBrands;
+                synchronized (lock) {
+                    currentPhones = new ArrayList<>(phones.values());
+                    currentBrands = new ArrayList<>(brands.values());
+                }
+                Map<String, Long> phoneCounts = new HashMap<>();
+                for (Phone phone : currentPhones) {
+                    if (phone.getBrand() != null) {
+                        phoneCounts.merge(PrefixIndex.normalize(phone.getBrand()), 1L, Long::sum);
+                    }
+                }
+                PrefixIndex.Builder<SuggestionDTO> builder = new PrefixIndex.Builder<>();
+                for (Brand brand : currentBrands) {
+                    long phoneCount = brand.getName() == null ? 0 : phoneCounts.getOrDefault(PrefixIndex.normalize(brand.getName()), 0L);
+                    builder.add(brand.getName(), new SuggestionDTO(SuggestionDTO.BRAND, brand.getId(), brand.getName()), phoneCount + 1);
+                }
+                for (Phone phone : currentPhones) {
+                    builder.add(phone.getName(), new SuggestionDTO(SuggestionDTO.PHONE, phone.getId(), phone.getName()), 0);
+                }
+                index = builder.build();
+            }
+        }
+    }
+
+    private <T> void keepCurrent(Map<String, T> current, Map<String, T> loaded, String id) {
+        T entity = current.get(id);
+        if (entity == null) {
+            loaded.remove(id);
+        } else {
+            loaded.put(id, entity);
+        }
+    }
+
+    private void scheduleRebuild() {
+        if (executor != null && rebuildScheduled.compareAndSet(false, true)) {
+            executor.schedule(this::rebuild, properties.getRebuildDelayMs(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void refreshQuietly(Class<?> type, Collection<String> ids) {
+        try {
+            refresh(type, ids);
+        } catch (Exception e) {
+            // repaired by the next reload
+            log.warn("Could not read back the names of the {} {}: {}", type.getSimpleName(), ids, e.getMessage());
+        }
+    }
+
+    private void reloadQuietly() {
+        try {
+            reload();
+        } catch (Exception e) {
+            log.error("Could not load the names of the phones and brands: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,398 @@
+package com.geardao.phoneapp.service;
+
+import com.geardao.phoneapp.config.ApplicationProperties;
+import com.geardao.phoneapp.domain.Brand;
+import com.geardao.phoneapp.domain.Phone;
+import com.geardao.phoneapp.domain.Tombstone;
+import com.geardao.phoneapp.repository.SequenceRepository;
+import com.geardao.phoneapp.repository.VersionedRepository;
+import com.geardao.phoneapp.service.mapper.BrandMapper;
+import com.geardao.phoneapp.service.mapper.PhoneMapper;
+import com.geardao.phoneapp.web.rest.errors.BadRequestAlertException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Service returning the changes of the phones and brands since a token, for the clients keeping a copy of the
+ * catalog.
+ * <p>
+ * The changes are the documents and the {@link Tombstone tombstones} stamped by {@link VersionedRepository} with
+ * a number of the {@value VersionedRepository#SEQUENCE_NAME} sequence above the one of the token. This sequence is
+ * handed out by the database to all the nodes, so the order of the changes does not depend on their clocks. They
+ * are read from three cursors on the index of the sequence numbers, merged in their order and written as they are
+ * read, so the memory used does not depend on their number. The returned token is the number of the last change
+ * written or, when all of them were, the number up to which they were read.
+ * <p>
+ * A number is handed out before the write it stamps, so a change may still be in progress when a later one is
+ * already visible. The changes are therefore only read up to the last number handed out at least settle-ms ago,
+ * which each node samples every {@value #SAMPLE_DELAY_MS} ms and ages with its own monotonic clock.
+ * <p>
+ * A client without a token, or whose token is older than the tombstones, gets the whole catalog and must replace
+ * its copy, which the response tells with its "reset" member.
+ */
+@Service
+public class SyncService {
+
+    private static final String ENTITY_NAME = "sync";
+
+    /**
+     * How often the {@value VersionedRepository#SEQUENCE_NAME} sequence is sampled.
+     */
+    static final long SAMPLE_DELAY_MS = 200;
+
+    private static final String SEQUENCE_PROPERTY = "sequence";
+
+    private static final Pattern LEGACY_TOKEN = Pattern.compile("\\d+\\.\\d+");
+
+    private final Logger log = LoggerFactory.getLogger(SyncService.class);
+
+    private final ApplicationProperties.Sync properties;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final SequenceRepository sequenceRepository;
+
+    private final ObjectMapper objectMapper;
+
+    private final PhoneMapper phoneMapper;
+
+    private final BrandMapper brandMapper;
+
+    /**
+     * The samples of the sequence, oldest first: only the newest settled one and the younger ones are kept.
+     */
+    private final Deque<Sample> samples = new ArrayDeque<>();
+
+    public SyncService(ApplicationProperties applicationProperties, MongoTemplate mongoTemplate,
+            SequenceRepository sequenceRepository, ObjectMapper objectMapper, PhoneMapper phoneMapper, BrandMapper brandMapper) {
+        this.properties = applicationProperties.getSync();
+        this.mongoTemplate = mongoTemplate;
+        this.sequenceRepository = sequenceRepository;
+        this.objectMapper = objectMapper;
+        this.phoneMapper = phoneMapper;
+        this.brandMapper = brandMapper;
+    }
+
+    /**
+     * Expire the tombstones after their retention.
+     */
+    @PostConstruct
+    public void createTombstoneExpiry() {
+        try {
+            mongoTemplate.indexOps(Tombstone.class).ensureIndex(new Index()
+                .on(VersionedRepository.LAST_MODIFIED_DATE_FIELD, Sort.Direction.ASC)
+                .named("expiry")
+                .expire(properties.getTombstoneRetentionDays(), TimeUnit.DAYS));
+        } catch (DataAccessException e) {
+            // the index exists with another retention, which MongoDB does not change in place
+            log.warn("Could not create the expiry index of the tombstones, drop it to change their retention: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Sample the last number handed out by the sequence, for the changes to return.
+     */
+    @Scheduled(fixedDelay = SAMPLE_DELAY_MS)
+    public void sampleSequence() {
+        if (properties.getSettleMs() > 0) {
+            addSample(sequenceRepository.current(VersionedRepository.SEQUENCE_NAME));
+        }
+    }
+
+    /**
+     * Read a token returned by {@link #sync}.
+     *
+     * @param token the token, or null or empty for a first sync
+     * @return the position of the token, or null for a first sync
+     * @throws BadRequestAlertException if the token is invalid
+     */
+    public Position parseToken(String token) {
+        if (token == null || token.isEmpty() || LEGACY_TOKEN.matcher(token).matches()) {
+            // the tokens ordered by time, returned before the sequence, start again from the whole catalog
+            return null;
+        }
+        int separator = token.indexOf('-');
+        try {
+            if (separator > 0) {
+                return new Position(Long.parseLong(token.substring(0, separator)),
+                    Instant.ofEpochMilli(Long.parseLong(token.substring(separator + 1))));
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new BadRequestAlertException("Invalid sync token " + token, ENTITY_NAME, "invalidtoken");
+    }
+
+    /**
+     * Write the changes since a position, as a JSON object with the members "reset", "changes", "token" and "more".
+     * <p>
+     * Each change has the "type" of the entity, "phone" or "brand", and its "id", with either the entity in "data"
+     * or "deleted": true. When "more" is true, the client asks again with the token for the next changes.
+     *
+     * @param since the position of the last sync, or null for a first sync
+     * @param output where the changes are written
+     * @throws IOException if the changes could not be written
+     */
+    public void sync(Position since, OutputStream output) throws IOException {
+        Instant now = Instant.now();
+        long until = settledSequence();
+        boolean reset = since == null
+            || since.date.isBefore(now.minus(properties.getTombstoneRetentionDays(), ChronoUnit.DAYS));
+        Position from = reset ? null : since;
+        log.debug("Request to sync the catalog from {} until {}", from, until);
+
+        List<Source<?>> sources = new ArrayList<>();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(output)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            sources.add(new Source<>(stream(Phone.class, from, until), Phone::getSequence,
+                phone -> writeChange(generator, CatalogEventService.PHONE, phone.getId(), phoneMapper.toDto(phone))));
+            sources.add(new Source<>(stream(Brand.class, from, until), Brand::getSequence,
+                brand -> writeChange(generator, CatalogEventService.BRAND, brand.getId(), brandMapper.toDto(brand))));
+            if (!reset) {
+                sources.add(new Source<>(stream(Tombstone.class, from, until), Tombstone::getSequence,
+                    tombstone -> writeChange(generator, tombstone.getEntityType(), tombstone.getEntityId(), null)));
+            }
+
+            generator.writeStartObject();
+            generator.writeBooleanField("reset", reset);
+            generator.writeArrayFieldStart("changes");
+            long last = 0;
+            int count = 0;
+            Source<?> next;
+            while (count < properties.getMaxChanges() && (next = first(sources)) != null) {
+                last = next.write();
+                count++;
+            }
+            boolean more = first(sources) != null;
+            generator.writeEndArray();
+
+            // the date of the sync, not of the documents: the pages of a reset would otherwise take the dates of
+            // documents unchanged for longer than the tombstones are kept, and start again forever
+            Instant settledDate = now.minusMillis(properties.getSettleMs());
+            Position token = !more ? new Position(until, settledDate) : new Position(last, reset ? settledDate : since.date);
+            if (from != null && token.compareTo(from) < 0) {
+                // the sample of this node is older than the one of the node which returned the token
+                token = from;
+            }
+            generator.writeStringField("token", token.toString());
+            generator.writeBooleanField("more", more);
+            generator.writeEndObject();
+            log.debug("Returned {} changes of the catalog, until {}", count, token);
+        } finally {
+            sources.forEach(source -> source.changes.close());
+        }
+    }
+
+    /**
+     * Waits for settle-ms on the first call on this node, for a sample of the sequence to settle.
+     *
+     * @return the last number handed out by the {@value VersionedRepository#SEQUENCE_NAME} sequence at least
+     * settle-ms ago; every write stamped with a number up to it is then done
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    public long settledSequence() throws InterruptedIOException {
+        if (properties.getSettleMs() <= 0) {
+            return sequenceRepository.current(VersionedRepository.SEQUENCE_NAME);
+        }
+        Long settled = settledSample();
+        if (settled == null) {
+            // this node has just started: sample now and wait for the sample to settle
+            addSample(sequenceRepository.current(VersionedRepository.SEQUENCE_NAME));
+            try {
+                Thread.sleep(properties.getSettleMs());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the changes to settle");
+            }
+            settled = settledSample();
+        }
+        return settled;
+    }
+
+    private void addSample(long sequence) {
+        // taken after the read, so the sample is at most as old as the number it holds
+        Sample sample = new Sample(System.nanoTime(), sequence);
+        synchronized (samples) {
+            samples.addLast(sample);
+            Sample settled = settledSample(sample.nanos);
+            while (settled != null && samples.peekFirst() != settled) {
+                samples.removeFirst();
+            }
+        }
+    }
+
+    private Long settledSample() {
+        synchronized (samples) {
+            Sample settled = settledSample(System.nanoTime());
+            return settled == null ? null : settled.sequence;
+        }
+    }
+
+    /**
+     * @return the newest sample taken at least settle-ms before a time, or null if there is none
+     */
+    private Sample settledSample(long nanos) {
+        long settleNanos = TimeUnit.MILLISECONDS.toNanos(properties.getSettleMs());
+        Sample settled = null;
+        for (Sample sample : samples) {
+            if (nanos - sample.nanos < settleNanos) {
+                break;
+            }
+            settled = sample;
+        }
+        return settled;
+    }
+
+    private <T> CloseableIterator<T> stream(Class<T> type, Position from, long until) {
+        Criteria criteria = Criteria.where(SEQUENCE_PROPERTY).lte(until);
+        if (from != null) {
+            criteria.gt(from.sequence);
+        }
+        Query query = Query.query(criteria)
+            .with(Sort.by(Sort.Direction.ASC, SEQUENCE_PROPERTY))
+            // one more than can be written, to tell whether there are more
+            .limit(properties.getMaxChanges() + 1);
+        return mongoTemplate.stream(query, type);
+    }
+
+    private void writeChange(JsonGenerator generator, String type, String id, Object data) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("type", type);
+        generator.writeStringField("id", id);
+        if (data == null) {
+            generator.writeBooleanField("deleted", true);
+        } else {
+            generator.writeObjectField("data", data);
+        }
+        generator.writeEndObject();
+    }
+
+    private Source<?> first(List<Source<?>> sources) {
+        Source<?> first = null;
+        for (Source<?> source : sources) {
+            if (source.sequence != null && (first == null || source.sequence.compareTo(first.sequence) < 0)) {
+                first = source;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * The position of a sync: the sequence number of the last change returned, and a time before which the later
+     * changes were not stamped, to tell whether their tombstones may have expired. Positions are ordered by their
+     * number only.
+     */
+    public static final class Position implements Comparable<Position> {
+
+        private final long sequence;
+
+        private final Instant date;
+
+        private Position(long sequence, Instant date) {
+            this.sequence = sequence;
+            this.date = date;
+        }
+
+        @Override
+        public int compareTo(Position other) {
+            return Long.compare(sequence, other.sequence);
+        }
+
+        @Override
+        public String toString() {
+            return sequence + "-" + date.toEpochMilli();
+        }
+    }
+
+    /**
+     * The last number handed out by the sequence, and the value of {@link System#nanoTime()} when it was read.
+     */
+    private static final class Sample {
+
+        private final long nanos;
+
+        private final long sequence;
+
+        private Sample(long nanos, long sequence) {
+            this.nanos = nanos;
+            this.sequence = sequence;
+        }
+    }
+
+    @FunctionalInterface
+    private interface ChangeWriter<T> {
+
+        void write(T change) throws IOException;
+    }
+
+    /**
+     * The changes of a collection, with the sequence number of the next one.
+     */
+    private static final class Source<T> {
+
+        private final CloseableIterator<T> changes;
+
+        private final Function<T, Long> sequenceOf;
+
+        private final ChangeWriter<T> writer;
+
+        private T current;
+
+        private Long sequence;
+
+        private Source(CloseableIterator<T> changes, Function<T, Long> sequenceOf, ChangeWriter<T> writer) {
+            this.changes = changes;
+            this.sequenceOf = sequenceOf;
+            this.writer = writer;
+            advance();
+        }
+
+        /**
+         * Write the next change.
+         *
+         * @return the sequence number of the written change
+         */
+        private long write() throws IOException {
+            long written = sequence;
+            writer.write(current);
+            advance();
+            return written;
+        }
+
+        private void advance() {
+            if (changes.hasNext()) {
+                current = changes.next();
+                sequence = sequenceOf.apply(current);
+            } else {
+                current = null;
+                sequence = null;
+            }
+        }
+    }
+}
@@ -4,8 +4,10 @@ import com.geardao.phoneapp.domain.Authority;
 import com.geardao.phoneapp.domain.User;
 import com.geardao.phoneapp.repository.AuthorityRepository;
 import com.geardao.phoneapp.config.Constants;
+import com.geardao.phoneapp.repository.Cursor;
+import com.geardao.phoneapp.repository.CursorPage;
+import com.geardao.phoneapp.repository.CursorPaginationRepository;
 import com.geardao.phoneapp.repository.UserRepository;
-import com.geardao.phoneapp.repository.search.UserSearchRepository;
 import com.geardao.phoneapp.security.AuthoritiesConstants;
 import com.geardao.phoneapp.security.SecurityUtils;
 import com.geardao.phoneapp.service.util.RandomUtil;
@@ -13,9 +15,9 @@ import com.geardao.phoneapp.service.dto.UserDTO;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.cache.CacheManager;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import com.geardao.phoneapp.web.rest.errors.InvalidPasswordException;
@@ -32,24 +34,33 @@ import java.util.stream.Collectors;
 @Service
 public class UserService {
 
+    /**
+     * The properties {@link #getAllManagedUsersAfter} can sort by, besides the id: each has a {property, id} index
+     * on User.
+     */
+    public static final Set<String> CURSOR_SORT_PROPERTIES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList("login", "email", "createdDate")));
+
     private final Logger log = LoggerFactory.getLogger(UserService.class);
 
     private final UserRepository userRepository;
 
     private final PasswordEncoder passwordEncoder;
 
-    private final UserSearchRepository userSearchRepository;
+    private final SearchIndexingService searchIndexingService;
 
     private final AuthorityRepository authorityRepository;
 
-    private final CacheManager cacheManager;
+    private final CacheInvalidationService cacheInvalidationService;
+
+    private final CursorPaginationRepository cursorPaginationRepository;
 
-    public UserService(UserRepository userRepository, PasswordEncoder passwordEncoder, UserSearchRepository userSearchRepository, AuthorityRepository authorityRepository, CacheManager cacheManager) {
+    public UserService(UserRepository userRepository, PasswordEncoder passwordEncoder, SearchIndexingService searchIndexingService, AuthorityRepository authorityRepository, CacheInvalidationService cacheInvalidationService, CursorPaginationRepository cursorPaginationRepository) {
         this.userRepository = userRepository;
         this.passwordEncoder = passwordEncoder;
-        this.userSearchRepository = userSearchRepository;
+        this.searchIndexingService = searchIndexingService;
         this.authorityRepository = authorityRepository;
-        this.cacheManager = cacheManager;
+        this.cacheInvalidationService = cacheInvalidationService;
+        this.cursorPaginationRepository = cursorPaginationRepository;
     }
 
     public Optional<User> activateRegistration(String key) {
@@ -60,7 +71,7 @@ public class UserService {
                 user.setActivated(true);
                 user.setActivationKey(null);
                 userRepository.save(user);
-                userSearchRepository.save(user);
+                searchIndexingService.afterSave(user);
                 this.clearUserCaches(user);
                 log.debug("Activated user: {}", user);
                 return user;
@@ -114,7 +125,7 @@ public class UserService {
         authorityRepository.findById(AuthoritiesConstants.USER).ifPresent(authorities::add);
         newUser.setAuthorities(authorities);
         userRepository.save(newUser);
-        userSearchRepository.save(newUser);
+        searchIndexingService.afterSave(newUser);
         this.clearUserCaches(newUser);
         log.debug("Created Information for User: {}", newUser);
         return newUser;
@@ -146,7 +157,7 @@ public class UserService {
         user.setResetDate(Instant.now());
         user.setActivated(true);
         userRepository.save(user);
-        userSearchRepository.save(user);
+        searchIndexingService.afterSave(user);
         this.clearUserCaches(user);
         log.debug("Created Information for User: {}", user);
         return user;
@@ -171,7 +182,7 @@ public class UserService {
                 user.setLangKey(langKey);
                 user.setImageUrl(imageUrl);
                 userRepository.save(user);
-                userSearchRepository.save(user);
+                searchIndexingService.afterSave(user);
                 this.clearUserCaches(user);
                 log.debug("Changed Information for User: {}", user);
             });
@@ -205,7 +216,7 @@ public class UserService {
                     .map(Optional::get)
                     .forEach(managedAuthorities::add);
                 userRepository.save(user);
-                userSearchRepository.save(user);
+                searchIndexingService.afterSave(user);
                 this.clearUserCaches(user);
                 log.debug("Changed Information for User: {}", user);
                 return user;
@@ -216,7 +227,7 @@ public class UserService {
     public void deleteUser(String login) {
         userRepository.findOneByLogin(login).ifPresent(user -> {
             userRepository.delete(user);
-            userSearchRepository.delete(user);
+            searchIndexingService.afterDelete(User.class, user.getId());
             this.clearUserCaches(user);
             log.debug("Deleted User: {}", user);
         });
@@ -242,6 +253,11 @@ public class UserService {
         return userRepository.findAllByLoginNot(pageable, Constants.ANONYMOUS_USER).map(UserDTO::new);
     }
 
+    public CursorPage<UserDTO> getAllManagedUsersAfter(Cursor after, Pageable pageable) {
+        return cursorPaginationRepository.findAll(User.class, Criteria.where("login").ne(Constants.ANONYMOUS_USER), after, pageable)
+            .map(UserDTO::new);
+    }
+
     public Optional<User> getUserWithAuthoritiesByLogin(String login) {
         return userRepository.findOneByLogin(login);
     }
@@ -265,7 +281,7 @@ public class UserService {
         for (User user : users) {
             log.debug("Deleting not activated user {}", user.getLogin());
             userRepository.delete(user);
-            userSearchRepository.delete(user);
+            searchIndexingService.afterDelete(User.class, user.getId());
             this.clearUserCaches(user);
         }
     }
@@ -278,7 +294,7 @@ public class UserService {
     }
 
     private void clearUserCaches(User user) {
-        Objects.requireNonNull(cacheManager.getCache(UserRepository.USERS_BY_LOGIN_CACHE)).evict(user.getLogin());
-        Objects.requireNonNull(cacheManager.getCache(UserRepository.USERS_BY_EMAIL_CACHE)).evict(user.getEmail());
+        cacheInvalidationService.evict(UserRepository.USERS_BY_LOGIN_CACHE, user.getLogin());
+        cacheInvalidationService.evict(UserRepository.USERS_BY_EMAIL_CACHE, user.getEmail());
     }
 }
@@ -14,6 +14,8 @@ public class BrandDTO implements Serializable {
 
     private String country;
 
+    private Long version;
+
     public String getId() {
         return id;
     }
@@ -38,6 +40,18 @@ public class BrandDTO implements Serializable {
         this.country = country;
     }
 
+    /**
+     * @return the version of the entity, which changes on every write; sent back on an update, the update fails
+     * if the entity has been written since
+     */
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -65,6 +79,7 @@ public class BrandDTO implements Serializable {
             "id=" + getId() +
             ", name='" + getName() + "'" +
             ", country='" + getCountry() + "'" +
+            ", version=" + getVersion() +
             "}";
     }
 }
@@ -0,0 +1,70 @@
+package com.geardao.phoneapp.service.dto;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+/**
+ * The phone count and the prices of the phones of a brand.
+ */
+public class BrandStatsDTO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String brand;
+
+    private final long count;
+
+    private final BigDecimal minPrice;
+
+    private final BigDecimal maxPrice;
+
+    private final BigDecimal averagePrice;
+
+    public BrandStatsDTO(String brand, long count, BigDecimal minPrice, BigDecimal maxPrice, BigDecimal averagePrice) {
+        this.brand = brand;
+        this.count = count;
+        this.minPrice = minPrice;
+        this.maxPrice = maxPrice;
+        this.averagePrice = averagePrice;
+    }
+
+    public String getBrand() {
+        return brand;
+    }
+
+    /**
+     * @return the number of phones of the brand, with or without a price
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the lowest price, or null if no phone of the brand has a price
+     */
+    public BigDecimal getMinPrice() {
+        return minPrice;
+    }
+
+    public BigDecimal getMaxPrice() {
+        return maxPrice;
+    }
+
+    /**
+     * @return the average price of the phones with a price
+     */
+    public BigDecimal getAveragePrice() {
+        return averagePrice;
+    }
+
+    @Override
+    public String toString() {
+        return "BrandStatsDTO{" +
+            "brand='" + brand + "'" +
+            ", count=" + count +
+            ", minPrice=" + minPrice +
+            ", maxPrice=" + maxPrice +
+            ", averagePrice=" + averagePrice +
+            "}";
+    }
+}
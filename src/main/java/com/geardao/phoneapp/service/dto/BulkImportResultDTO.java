@@ -0,0 +1,66 @@
+package com.geardao.phoneapp.service.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * A DTO representing the outcome of the import of one row.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BulkImportResultDTO {
+
+    public enum Status {
+        CREATED, UPDATED, FAILED
+    }
+
+    private final long row;
+
+    private final String id;
+
+    private final Status status;
+
+    private final String error;
+
+    private BulkImportResultDTO(long row, String id, Status status, String error) {
+        this.row = row;
+        this.id = id;
+        this.status = status;
+        this.error = error;
+    }
+
+    public static BulkImportResultDTO success(long row, String id, boolean created) {
+        return new BulkImportResultDTO(row, id, created ? Status.CREATED : Status.UPDATED, null);
+    }
+
+    public static BulkImportResultDTO failure(long row, String id, String error) {
+        return new BulkImportResultDTO(row, id, Status.FAILED, error);
+    }
+
+    /**
+     * @return the number of the row in the input, starting at 1 and not counting the CSV header
+     */
+    public long getRow() {
+        return row;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkImportResultDTO{" +
+            "row=" + row +
+            ", id='" + id + "'" +
+            ", status=" + status +
+            ", error='" + error + "'" +
+            "}";
+    }
+}
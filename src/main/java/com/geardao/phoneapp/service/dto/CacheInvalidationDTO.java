@@ -0,0 +1,54 @@
+package com.geardao.phoneapp.service.dto;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A DTO representing a batch of cache evictions sent to the other application nodes.
+ */
+public class CacheInvalidationDTO {
+
+    private String origin;
+
+    private Map<String, Set<String>> keys = new HashMap<>();
+
+    public CacheInvalidationDTO() {
+        // Empty constructor needed for Jackson.
+    }
+
+    public CacheInvalidationDTO(String origin, Map<String, Set<String>> keys) {
+        this.origin = origin;
+        this.keys = keys;
+    }
+
+    /**
+     * @return the identifier of the node that evicted the keys
+     */
+    public String getOrigin() {
+        return origin;
+    }
+
+    public void setOrigin(String origin) {
+        this.origin = origin;
+    }
+
+    /**
+     * @return the evicted keys, by cache name
+     */
+    public Map<String, Set<String>> getKeys() {
+        return keys;
+    }
+
+    public void setKeys(Map<String, Set<String>> keys) {
+        this.keys = keys;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheInvalidationDTO{" +
+            "origin='" + origin + "'" +
+            ", keys=" + keys +
+            "}";
+    }
+}
@@ -0,0 +1,116 @@
+package com.geardao.phoneapp.service.dto;
+
+import com.geardao.phoneapp.domain.CatalogEvent;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * A DTO representing a published change of a phone or a brand.
+ */
+public class CatalogEventDTO {
+
+    private String id;
+
+    private CatalogEvent.Type type;
+
+    private String entityType;
+
+    private String entityId;
+
+    private Map<String, Object> changes;
+
+    private Long version;
+
+    private Instant timestamp;
+
+    public CatalogEventDTO() {
+        // Empty constructor needed for Jackson.
+    }
+
+    public CatalogEventDTO(CatalogEvent event) {
+        this.id = event.getId();
+        this.type = event.getType();
+        this.entityType = event.getEntityType();
+        this.entityId = event.getEntityId();
+        this.changes = event.getChanges();
+        this.version = event.getVersion();
+        this.timestamp = event.getCreatedDate();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public CatalogEvent.Type getType() {
+        return type;
+    }
+
+    public void setType(CatalogEvent.Type type) {
+        this.type = type;
+    }
+
+    /**
+     * @return "phone" or "brand"
+     */
+    public String getEntityType() {
+        return entityType;
+    }
+
+    public void setEntityType(String entityType) {
+        this.entityType = entityType;
+    }
+
+    public String getEntityId() {
+        return entityId;
+    }
+
+    public void setEntityId(String entityId) {
+        this.entityId = entityId;
+    }
+
+    /**
+     * @return the new values of the changed fields, all of them for a creation, none for a deletion
+     */
+    public Map<String, Object> getChanges() {
+        return changes;
+    }
+
+    public void setChanges(Map<String, Object> changes) {
+        this.changes = changes;
+    }
+
+    /**
+     * @return the position of the event in the stream; the events of an entity have increasing versions
+     */
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    public Instant getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(Instant timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "CatalogEventDTO{" +
+            "type=" + type +
+            ", entityType='" + entityType + "'" +
+            ", entityId='" + entityId + "'" +
+            ", changes=" + changes +
+            ", version=" + version +
+            "}";
+    }
+}
@@ -0,0 +1,64 @@
+package com.geardao.phoneapp.service.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.io.Serializable;
+
+/**
+ * A DTO representing a bucket of a facet: either a value, or a range from a lower bound (inclusive) to an upper
+ * bound (exclusive), with the number of matching entities.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class FacetDTO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String value;
+
+    private final Double from;
+
+    private final Double to;
+
+    private final long count;
+
+    private FacetDTO(String value, Double from, Double to, long count) {
+        this.value = value;
+        this.from = from;
+        this.to = to;
+        this.count = count;
+    }
+
+    public static FacetDTO ofValue(String value, long count) {
+        return new FacetDTO(value, null, null, count);
+    }
+
+    public static FacetDTO ofRange(double from, double to, long count) {
+        return new FacetDTO(null, from, to, count);
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public Double getFrom() {
+        return from;
+    }
+
+    public Double getTo() {
+        return to;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "FacetDTO{" +
+            "value='" + value + "'" +
+            ", from=" + from +
+            ", to=" + to +
+            ", count=" + count +
+            "}";
+    }
+}
@@ -0,0 +1,44 @@
+package com.geardao.phoneapp.service.dto;
+
+import com.geardao.phoneapp.repository.CursorPage;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A DTO representing a page of search results, with the facets of all the results.
+ *
+ * @param <D> the type of the results
+ */
+public class FacetedPageDTO<D> {
+
+    private final CursorPage<D> page;
+
+    private final Map<String, List<FacetDTO>> facets;
+
+    public FacetedPageDTO(CursorPage<D> page, Map<String, List<FacetDTO>> facets) {
+        this.page = page;
+        this.facets = facets;
+    }
+
+    /**
+     * @return the page, whose cursor is sent in the headers of the response
+     */
+    @JsonIgnore
+    public CursorPage<D> getPage() {
+        return page;
+    }
+
+    public List<D> getItems() {
+        return page.getContent();
+    }
+
+    /**
+     * @return the buckets of each facet, by facet name
+     */
+    public Map<String, List<FacetDTO>> getFacets() {
+        return facets;
+    }
+}
@@ -0,0 +1,74 @@
+package com.geardao.phoneapp.service.dto;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A DTO representing the outcome of a lookup of several entities by id.
+ *
+ * @param <D> the type of the entities
+ */
+public class MultiGetResultDTO<D> {
+
+    private final List<D> items;
+
+    private final List<String> missing;
+
+    public MultiGetResultDTO(List<D> items, List<String> missing) {
+        this.items = items;
+        this.missing = missing;
+    }
+
+    /**
+     * Order the entities found like the requested ids, and list the ids that were not found.
+     *
+     * @param ids the requested ids, without duplicates
+     * @param found the entities found, in any order
+     * @param idOf the id of an entity
+     * @param <D> the type of the entities
+     * @return the outcome of the lookup
+     */
+    public static <D> MultiGetResultDTO<D> of(Collection<String> ids, Collection<D> found, Function<D, String> idOf) {
+        Map<String, D> byId = new HashMap<>(found.size() * 2);
+        for (D item : found) {
+            byId.put(idOf.apply(item), item);
+        }
+        List<D> items = new ArrayList<>(found.size());
+        List<String> missing = new ArrayList<>(ids.size() - byId.size());
+        for (String id : ids) {
+            D item = byId.get(id);
+            if (item != null) {
+                items.add(item);
+            } else {
+                missing.add(id);
+            }
+        }
+        return new MultiGetResultDTO<>(items, missing);
+    }
+
+    /**
+     * @return the entities found, in the order of the requested ids
+     */
+    public List<D> getItems() {
+        return items;
+    }
+
+    /**
+     * @return the requested ids that match no entity
+     */
+    public List<String> getMissing() {
+        return missing;
+    }
+
+    @Override
+    public String toString() {
+        return "MultiGetResultDTO{" +
+            "items=" + items.size() +
+            ", missing=" + missing +
+            "}";
+    }
+}
@@ -1,5 +1,6 @@
 package com.geardao.phoneapp.service.dto;
 
+import javax.validation.constraints.Digits;
 import java.io.Serializable;
 import java.math.BigDecimal;
 import java.util.Objects;
@@ -15,8 +16,14 @@ public class PhoneDTO implements Serializable {
 
     private String brand;
 
+    /**
+     * At most the 34 digits of a Decimal128, as the price is stored, see DecimalConverters.
+     */
+    @Digits(integer = 24, fraction = 10)
     private BigDecimal price;
 
+    private Long version;
+
     public String getId() {
         return id;
     }
@@ -49,6 +56,18 @@ public class PhoneDTO implements Serializable {
         this.price = price;
     }
 
+    /**
+     * @return the version of the entity, which changes on every write; sent back on an update, the update fails
+     * if the entity has been written since
+     */
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -77,6 +96,7 @@ public class PhoneDTO implements Serializable {
             ", name='" + getName() + "'" +
             ", brand='" + getBrand() + "'" +
             ", price=" + getPrice() +
+            ", version=" + getVersion() +
             "}";
     }
 }
@@ -0,0 +1,74 @@
+package com.geardao.phoneapp.service.dto;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Criteria of a structured phone search. Unset criteria match every phone.
+ */
+public class PhoneSearchCriteria implements Serializable {
+
+    private String name;
+
+    private List<String> brand = new ArrayList<>();
+
+    private BigDecimal minPrice;
+
+    private BigDecimal maxPrice;
+
+    /**
+     * @return the text to look for in the name, ranked by relevance
+     */
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the brands the phone must have one of, or an empty list for any brand
+     */
+    public List<String> getBrand() {
+        return brand;
+    }
+
+    public void setBrand(List<String> brand) {
+        this.brand = brand;
+    }
+
+    /**
+     * @return the lowest price, inclusive
+     */
+    public BigDecimal getMinPrice() {
+        return minPrice;
+    }
+
+    public void setMinPrice(BigDecimal minPrice) {
+        this.minPrice = minPrice;
+    }
+
+    /**
+     * @return the highest price, inclusive
+     */
+    public BigDecimal getMaxPrice() {
+        return maxPrice;
+    }
+
+    public void setMaxPrice(BigDecimal maxPrice) {
+        this.maxPrice = maxPrice;
+    }
+
+    @Override
+    public String toString() {
+        return "PhoneSearchCriteria{" +
+            "name='" + name + "'" +
+            ", brand=" + brand +
+            ", minPrice=" + minPrice +
+            ", maxPrice=" + maxPrice +
+            "}";
+    }
+}
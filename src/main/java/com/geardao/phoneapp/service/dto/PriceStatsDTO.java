@@ -0,0 +1,64 @@
+package com.geardao.phoneapp.service.dto;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.Map;
+
+/**
+ * The number of phones in a price range, with their lowest, highest and percentile prices.
+ */
+public class PriceStatsDTO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long count;
+
+    private final BigDecimal minPrice;
+
+    private final BigDecimal maxPrice;
+
+    private final Map<String, BigDecimal> percentiles;
+
+    public PriceStatsDTO(long count, BigDecimal minPrice, BigDecimal maxPrice, Map<String, BigDecimal> percentiles) {
+        this.count = count;
+        this.minPrice = minPrice;
+        this.maxPrice = maxPrice;
+        this.percentiles = percentiles;
+    }
+
+    /**
+     * @return the number of phones with a price in the range
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the lowest price, or null if no phone has a price in the range
+     */
+    public BigDecimal getMinPrice() {
+        return minPrice;
+    }
+
+    public BigDecimal getMaxPrice() {
+        return maxPrice;
+    }
+
+    /**
+     * @return the requested percentiles by percentage, such as "50" for the median, with null values if no phone
+     * has a price in the range
+     */
+    public Map<String, BigDecimal> getPercentiles() {
+        return percentiles;
+    }
+
+    @Override
+    public String toString() {
+        return "PriceStatsDTO{" +
+            "count=" + count +
+            ", minPrice=" + minPrice +
+            ", maxPrice=" + maxPrice +
+            ", percentiles=" + percentiles +
+            "}";
+    }
+}
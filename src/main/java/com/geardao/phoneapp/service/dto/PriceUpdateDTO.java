@@ -0,0 +1,63 @@
+package com.geardao.phoneapp.service.dto;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+/**
+ * A DTO representing a price update pushed by a supplier.
+ */
+public class PriceUpdateDTO {
+
+    private String phoneId;
+
+    private BigDecimal price;
+
+    private Instant timestamp;
+
+    public PriceUpdateDTO() {
+        // Empty constructor needed for Jackson.
+    }
+
+    public PriceUpdateDTO(String phoneId, BigDecimal price, Instant timestamp) {
+        this.phoneId = phoneId;
+        this.price = price;
+        this.timestamp = timestamp;
+    }
+
+    public String getPhoneId() {
+        return phoneId;
+    }
+
+    public void setPhoneId(String phoneId) {
+        this.phoneId = phoneId;
+    }
+
+    public BigDecimal getPrice() {
+        return price;
+    }
+
+    public void setPrice(BigDecimal price) {
+        this.price = price;
+    }
+
+    /**
+     * @return when the supplier set the price, or null; an update older than the one already received for the
+     * same phone is ignored
+     */
+    public Instant getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(Instant timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "PriceUpdateDTO{" +
+            "phoneId='" + phoneId + "'" +
+            ", price=" + price +
+            ", timestamp=" + timestamp +
+            "}";
+    }
+}
@@ -0,0 +1,118 @@
+package com.geardao.phoneapp.service.dto;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A DTO representing the progress of the rebuild of an Elasticsearch index.
+ */
+public class ReindexStatusDTO {
+
+    public enum State {
+        PENDING, RUNNING, COMPLETED, FAILED
+    }
+
+    private final String index;
+
+    private final AtomicLong indexed = new AtomicLong();
+
+    private volatile State state = State.PENDING;
+
+    private volatile String targetIndex;
+
+    private volatile long total;
+
+    private volatile Instant startDate;
+
+    private volatile Instant endDate;
+
+    private volatile String error;
+
+    public ReindexStatusDTO(String index) {
+        this.index = index;
+    }
+
+    /**
+     * @return the alias searches are served from
+     */
+    public String getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the versioned index being built, which the alias points to once it is complete
+     */
+    public String getTargetIndex() {
+        return targetIndex;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getIndexed() {
+        return indexed.get();
+    }
+
+    public Instant getStartDate() {
+        return startDate;
+    }
+
+    public Instant getEndDate() {
+        return endDate;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public double getDocumentsPerSecond() {
+        if (startDate == null) {
+            return 0;
+        }
+        long millis = Duration.between(startDate, endDate == null ? Instant.now() : endDate).toMillis();
+        return millis == 0 ? 0 : indexed.get() * 1000d / millis;
+    }
+
+    public void start(String targetIndex, long total) {
+        this.targetIndex = targetIndex;
+        this.total = total;
+        this.startDate = Instant.now();
+        this.state = State.RUNNING;
+    }
+
+    public void addIndexed(long count) {
+        indexed.addAndGet(count);
+    }
+
+    public void complete() {
+        this.endDate = Instant.now();
+        this.state = State.COMPLETED;
+    }
+
+    public void fail(String error) {
+        this.endDate = Instant.now();
+        this.error = error;
+        this.state = State.FAILED;
+    }
+
+    public boolean isDone() {
+        return state == State.COMPLETED || state == State.FAILED;
+    }
+
+    @Override
+    public String toString() {
+        return "ReindexStatusDTO{" +
+            "index='" + index + "'" +
+            ", targetIndex='" + targetIndex + "'" +
+            ", state=" + state +
+            ", indexed=" + indexed +
+            ", total=" + total +
+            "}";
+    }
+}
@@ -0,0 +1,69 @@
+package com.geardao.phoneapp.service.dto;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * A DTO representing a typeahead suggestion: a phone or a brand, by name.
+ */
+public class SuggestionDTO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String PHONE = "phone";
+
+    public static final String BRAND = "brand";
+
+    private final String type;
+
+    private final String id;
+
+    private final String name;
+
+    public SuggestionDTO(String type, String id, String name) {
+        this.type = type;
+        this.id = id;
+        this.name = name;
+    }
+
+    /**
+     * @return the type of the suggested entity, {@value #PHONE} or {@value #BRAND}
+     */
+    public String getType() {
+        return type;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        SuggestionDTO suggestion = (SuggestionDTO) o;
+        return Objects.equals(type, suggestion.type) && Objects.equals(id, suggestion.id) && Objects.equals(name, suggestion.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, id, name);
+    }
+
+    @Override
+    public String toString() {
+        return "SuggestionDTO{" +
+            "type='" + type + "'" +
+            ", id='" + id + "'" +
+            ", name='" + name + "'" +
+            "}";
+    }
+}
@@ -1,20 +1,47 @@
 package com.geardao.phoneapp.service.impl;
 
+import com.geardao.phoneapp.config.ApplicationProperties;
+import com.geardao.phoneapp.service.CacheInvalidationService;
+import com.geardao.phoneapp.service.CatalogEventService;
 import com.geardao.phoneapp.service.BrandService;
+import com.geardao.phoneapp.service.SearchIndexingService;
+import com.geardao.phoneapp.service.SearchResultCache;
+import com.geardao.phoneapp.service.SuggestService;
 import com.geardao.phoneapp.domain.Brand;
+import com.geardao.phoneapp.repository.Cursor;
+import com.geardao.phoneapp.repository.CursorPage;
+import com.geardao.phoneapp.repository.CursorPaginationRepository;
+import com.geardao.phoneapp.repository.CollectionVersionRepository;
+import com.geardao.phoneapp.repository.VersionedRepository;
+import com.geardao.phoneapp.repository.WriteResult;
 import com.geardao.phoneapp.repository.BrandRepository;
 import com.geardao.phoneapp.repository.search.BrandSearchRepository;
 import com.geardao.phoneapp.service.dto.BrandDTO;
+import com.geardao.phoneapp.service.dto.MultiGetResultDTO;
 import com.geardao.phoneapp.service.mapper.BrandMapper;
+import com.geardao.phoneapp.service.util.MergePatch;
+import com.geardao.phoneapp.service.util.ReadThroughCache;
+import com.geardao.phoneapp.web.rest.errors.BadRequestAlertException;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.springframework.cache.CacheManager;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 
-
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.elasticsearch.index.query.QueryBuilders.*;
 
@@ -26,16 +53,56 @@ public class BrandServiceImpl implements BrandService {
 
     private final Logger log = LoggerFactory.getLogger(BrandServiceImpl.class);
 
+    private static final String ENTITY_NAME = "brand";
+
     private final BrandRepository brandRepository;
 
     private final BrandMapper brandMapper;
 
     private final BrandSearchRepository brandSearchRepository;
 
-    public BrandServiceImpl(BrandRepository brandRepository, BrandMapper brandMapper, BrandSearchRepository brandSearchRepository) {
+    private final SearchIndexingService searchIndexingService;
+
+    private final CursorPaginationRepository cursorPaginationRepository;
+
+    private final ApplicationProperties.MultiGet multiGetProperties;
+
+    private final ReadThroughCache<BrandDTO> brandsById;
+
+    private final CacheInvalidationService cacheInvalidationService;
+
+    private final SuggestService suggestService;
+
+    private final SearchResultCache searchResultCache;
+
+    private final CatalogEventService catalogEventService;
+
+    private final VersionedRepository versionedRepository;
+
+    private final ObjectMapper objectMapper;
+
+    private final CollectionVersionRepository collectionVersionRepository;
+
+    public BrandServiceImpl(BrandRepository brandRepository, BrandMapper brandMapper, BrandSearchRepository brandSearchRepository,
+            SearchIndexingService searchIndexingService, CursorPaginationRepository cursorPaginationRepository,
+            ApplicationProperties applicationProperties, CacheManager cacheManager, MetricRegistry metricRegistry,
+            CacheInvalidationService cacheInvalidationService, SuggestService suggestService, SearchResultCache searchResultCache,
+            CatalogEventService catalogEventService, VersionedRepository versionedRepository, ObjectMapper objectMapper,
+            CollectionVersionRepository collectionVersionRepository) {
         this.brandRepository = brandRepository;
         this.brandMapper = brandMapper;
         this.brandSearchRepository = brandSearchRepository;
+        this.searchIndexingService = searchIndexingService;
+        this.cursorPaginationRepository = cursorPaginationRepository;
+        this.multiGetProperties = applicationProperties.getMultiGet();
+        this.brandsById = new ReadThroughCache<>(cacheManager, BRANDS_BY_ID_CACHE, metricRegistry);
+        this.cacheInvalidationService = cacheInvalidationService;
+        this.suggestService = suggestService;
+        this.searchResultCache = searchResultCache;
+        this.catalogEventService = catalogEventService;
+        this.versionedRepository = versionedRepository;
+        this.objectMapper = objectMapper;
+        this.collectionVersionRepository = collectionVersionRepository;
     }
 
     /**
@@ -48,12 +115,80 @@ public class BrandServiceImpl implements BrandService {
     public BrandDTO save(BrandDTO brandDTO) {
         log.debug("Request to save Brand : {}", brandDTO);
         Brand brand = brandMapper.toEntity(brandDTO);
-        brand = brandRepository.save(brand);
+        Brand before = null;
+        if (brand.getId() == null) {
+            brand.setVersion(0L);
+            brand.setLastModifiedDate(Instant.now());
+            brand.setSequence(versionedRepository.nextSequence());
+            brand = brandRepository.save(brand);
+        } else {
+            WriteResult<Brand> written = versionedRepository.replace(brand, brandDTO.getVersion());
+            before = written.getBefore();
+            brand = written.getAfter();
+        }
+        catalogEventService.recordSave(CatalogEventService.BRAND, brand.getId(), brand.getSequence(), before, brand);
         BrandDTO result = brandMapper.toDto(brand);
-        brandSearchRepository.save(brand);
+        afterWrite(Collections.singletonList(brand), null);
         return result;
     }
 
+    /**
+     * Update some fields of a brand, and only these fields in the search index.
+     *
+     * @param id the id of the entity
+     * @param members the JSON Merge Patch of the entity
+     * @param expectedVersion the version the entity must have, or null to update any version
+     * @return the updated entity, or empty if there is no entity with this id
+     */
+    @Override
+    public Optional<BrandDTO> patch(String id, Map<String, Object> members, Long expectedVersion) {
+        log.debug("Request to patch Brand {} : {}", id, members);
+        MergePatch patch = MergePatch.read(objectMapper, members, BrandDTO.class, ENTITY_NAME);
+        BrandDTO values = patch.getValues();
+        values.setId(id);
+        WriteResult<Brand> written = versionedRepository.patch(brandMapper.toEntity(values), patch.getProperties(), expectedVersion);
+        if (written == null) {
+            return Optional.empty();
+        }
+        Brand brand = written.getAfter();
+        Map<String, Object> fields = patch.getFields(objectMapper, brand);
+        catalogEventService.recordUpdates(CatalogEventService.BRAND, Collections.singletonMap(id, fields),
+            Collections.singletonMap(id, brand.getSequence()));
+        afterWrite(Collections.singletonList(brand), Collections.singletonMap(id, fields));
+        return Optional.of(brandMapper.toDto(brand));
+    }
+
+    /**
+     * Propagate written brands to the caches, the suggestions and the search index, which comes last.
+     *
+     * @param brands the brands as they were written
+     * @param fields the written fields of each brand, by id, or null if the brands were written whole
+     */
+    @Override
+    public void afterWrite(List<Brand> brands, Map<String, Map<String, Object>> fields) {
+        if (brands.isEmpty()) {
+            return;
+        }
+        for (Brand brand : brands) {
+            cacheInvalidationService.evict(BRANDS_BY_ID_CACHE, brand.getId());
+        }
+        collectionVersionRepository.increment(Brand.class);
+        searchResultCache.invalidate();
+        suggestService.putAll(brands);
+        if (fields == null && brands.size() == 1) {
+            // a single document goes through the indexing queue, a batch is written in bulk right away
+            searchIndexingService.afterSave(brands.get(0));
+        } else if (fields == null) {
+            searchIndexingService.afterSaveAll(Brand.class, brands);
+        } else {
+            for (Brand brand : brands) {
+                Map<String, Object> indexedFields = new LinkedHashMap<>(fields.get(brand.getId()));
+                indexedFields.put(VersionedRepository.VERSION_FIELD, brand.getVersion());
+                searchIndexingService.afterUpdate(brand, indexedFields);
+            }
+        }
+    }
+
     /**
      * Get all the brands.
      *
@@ -67,6 +202,30 @@ public class BrandServiceImpl implements BrandService {
             .map(brandMapper::toDto);
     }
 
+    /**
+     * Get the change counter of the brands.
+     *
+     * @return the change counter
+     */
+    @Override
+    public long getChangeCounter() {
+        return collectionVersionRepository.get(Brand.class);
+    }
+
+    /**
+     * Get a page of brands located after a cursor, without counting them.
+     *
+     * @param after the cursor of the previous page, or null for the first page
+     * @param pageable the page size and sort
+     * @return the list of entities
+     */
+    @Override
+    public CursorPage<BrandDTO> findAllAfter(Cursor after, Pageable pageable) {
+        log.debug("Request to get Brands after {}", after);
+        return cursorPaginationRepository.findAll(Brand.class, null, after, pageable)
+            .map(brandMapper::toDto);
+    }
+
 
     /**
      * Get one brand by id.
@@ -77,20 +236,55 @@ public class BrandServiceImpl implements BrandService {
     @Override
     public Optional<BrandDTO> findOne(String id) {
         log.debug("Request to get Brand : {}", id);
-        return brandRepository.findById(id)
-            .map(brandMapper::toDto);
+        return brandsById.get(id, key -> brandRepository.findById(key)
+            .map(brandMapper::toDto)
+            .orElse(null));
+    }
+
+    /**
+     * Get the brands with the given ids, in a single query for those that are not cached.
+     *
+     * @param ids the ids of the entities
+     * @return the entities found, in the order of the ids, and the ids not found
+     */
+    @Override
+    public MultiGetResultDTO<BrandDTO> findAllById(List<String> ids) {
+        Set<String> uniqueIds = new LinkedHashSet<>(ids);
+        log.debug("Request to get Brands : {}", uniqueIds);
+        if (uniqueIds.size() > multiGetProperties.getMaxIds()) {
+            throw new BadRequestAlertException("At most " + multiGetProperties.getMaxIds() + " ids can be requested at once",
+                ENTITY_NAME, "toomanyids");
+        }
+        return findAllInOrder(uniqueIds);
+    }
+
+    private MultiGetResultDTO<BrandDTO> findAllInOrder(Collection<String> ids) {
+        List<BrandDTO> found = brandsById.getAll(ids, misses -> {
+            List<Brand> brands = new ArrayList<>(misses.size());
+            brandRepository.findAllById(misses).forEach(brands::add);
+            return brandMapper.toDto(brands);
+        }, BrandDTO::getId);
+        return MultiGetResultDTO.of(ids, found, BrandDTO::getId);
     }
 
     /**
-     * Delete the brand by id.
+     * Delete the brand by id, or do nothing if there is no brand with this id.
      *
      * @param id the id of the entity
      */
     @Override
     public void delete(String id) {
         log.debug("Request to delete Brand : {}", id);
-        brandRepository.deleteById(id);
-        brandSearchRepository.deleteById(id);
+        Brand deleted = versionedRepository.delete(Brand.class, id);
+        if (deleted == null) {
+            return;
+        }
+        catalogEventService.recordDelete(CatalogEventService.BRAND, id, deleted.getSequence());
+        cacheInvalidationService.evict(BRANDS_BY_ID_CACHE, id);
+        searchIndexingService.afterDelete(Brand.class, id);
+        collectionVersionRepository.increment(Brand.class);
+        searchResultCache.invalidate();
+        suggestService.remove(Brand.class, id);
     }
 
     /**
@@ -103,7 +297,8 @@ public class BrandServiceImpl implements BrandService {
     @Override
     public Page<BrandDTO> search(String query, Pageable pageable) {
         log.debug("Request to search for a page of Brands for query {}", query);
-        return brandSearchRepository.search(queryStringQuery(query), pageable)
-            .map(brandMapper::toDto);
+        return searchResultCache.search(ENTITY_NAME, query, pageable,
+            () -> brandSearchRepository.search(queryStringQuery(query), pageable).map(brandMapper::toDto),
+            BrandDTO::getId, ids -> findAllInOrder(ids).getItems());
     }
 }
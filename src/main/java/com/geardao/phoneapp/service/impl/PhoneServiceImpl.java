@@ -1,22 +1,77 @@
 package com.geardao.phoneapp.service.impl;
 
+import com.geardao.phoneapp.config.ApplicationProperties;
+import com.geardao.phoneapp.service.CacheInvalidationService;
+import com.geardao.phoneapp.service.BrandStatsService;
+import com.geardao.phoneapp.service.CatalogEventService;
 import com.geardao.phoneapp.service.PhoneService;
+import com.geardao.phoneapp.service.SearchIndexingService;
+import com.geardao.phoneapp.service.SearchResultCache;
+import com.geardao.phoneapp.service.PriceIndexService;
+import com.geardao.phoneapp.service.SuggestService;
 import com.geardao.phoneapp.domain.Phone;
+import com.geardao.phoneapp.repository.Cursor;
+import com.geardao.phoneapp.repository.CursorPage;
+import com.geardao.phoneapp.repository.CursorPaginationRepository;
+import com.geardao.phoneapp.repository.CollectionVersionRepository;
+import com.geardao.phoneapp.repository.VersionedRepository;
+import com.geardao.phoneapp.repository.WriteResult;
 import com.geardao.phoneapp.repository.PhoneRepository;
+import com.geardao.phoneapp.repository.search.AggregatedCursorPage;
 import com.geardao.phoneapp.repository.search.PhoneSearchRepository;
+import com.geardao.phoneapp.repository.search.SearchAfterRepository;
+import com.geardao.phoneapp.service.dto.FacetDTO;
+import com.geardao.phoneapp.service.dto.FacetedPageDTO;
 import com.geardao.phoneapp.service.dto.PhoneDTO;
+import com.geardao.phoneapp.service.dto.PhoneSearchCriteria;
+import com.geardao.phoneapp.service.dto.MultiGetResultDTO;
+import com.geardao.phoneapp.service.dto.PriceStatsDTO;
 import com.geardao.phoneapp.service.mapper.PhoneMapper;
+import com.geardao.phoneapp.service.util.MergePatch;
+import com.geardao.phoneapp.service.util.ReadThroughCache;
+import com.geardao.phoneapp.service.util.SortedPriceIndex;
+import com.geardao.phoneapp.web.rest.errors.BadRequestAlertException;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.Operator;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.bucket.filter.Filter;
+import org.elasticsearch.search.aggregations.bucket.histogram.Histogram;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
 
-
+import javax.validation.Validator;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
 
 import static org.elasticsearch.index.query.QueryBuilders.*;
+import static org.elasticsearch.search.aggregations.AggregationBuilders.*;
 
 /**
  * Service Implementation for managing Phone.
@@ -26,16 +81,85 @@ public class PhoneServiceImpl implements PhoneService {
 
     private final Logger log = LoggerFactory.getLogger(PhoneServiceImpl.class);
 
+    private static final String ENTITY_NAME = "phone";
+
+    /**
+     * The brand, which is a keyword in the managed mapping of config/elasticsearch/phone-mapping.json.
+     */
+    private static final String BRAND_FIELD = "brand";
+
+    private static final String BRAND_FACET = "brand";
+
+    private static final String PRICE_FACET = "price";
+
     private final PhoneRepository phoneRepository;
 
     private final PhoneMapper phoneMapper;
 
     private final PhoneSearchRepository phoneSearchRepository;
 
-    public PhoneServiceImpl(PhoneRepository phoneRepository, PhoneMapper phoneMapper, PhoneSearchRepository phoneSearchRepository) {
+    private final SearchIndexingService searchIndexingService;
+
+    private final CursorPaginationRepository cursorPaginationRepository;
+
+    private final ApplicationProperties.MultiGet multiGetProperties;
+
+    private final ReadThroughCache<PhoneDTO> phonesById;
+
+    private final CacheInvalidationService cacheInvalidationService;
+
+    private final SearchAfterRepository searchAfterRepository;
+
+    private final CacheManager cacheManager;
+
+    private final ApplicationProperties.SearchFacets facetProperties;
+
+    private final SuggestService suggestService;
+
+    private final SearchResultCache searchResultCache;
+
+    private final CatalogEventService catalogEventService;
+
+    private final VersionedRepository versionedRepository;
+
+    private final ObjectMapper objectMapper;
+
+    private final CollectionVersionRepository collectionVersionRepository;
+
+    private final BrandStatsService brandStatsService;
+
+    private final PriceIndexService priceIndexService;
+
+    private final Validator validator;
+
+    public PhoneServiceImpl(PhoneRepository phoneRepository, PhoneMapper phoneMapper, PhoneSearchRepository phoneSearchRepository,
+            SearchIndexingService searchIndexingService, CursorPaginationRepository cursorPaginationRepository,
+            ApplicationProperties applicationProperties, CacheManager cacheManager, MetricRegistry metricRegistry,
+            CacheInvalidationService cacheInvalidationService, SearchAfterRepository searchAfterRepository,
+            SuggestService suggestService, SearchResultCache searchResultCache,
+            CatalogEventService catalogEventService, VersionedRepository versionedRepository, ObjectMapper objectMapper,
+            CollectionVersionRepository collectionVersionRepository, BrandStatsService brandStatsService,
+            PriceIndexService priceIndexService, Validator validator) {
         this.phoneRepository = phoneRepository;
         this.phoneMapper = phoneMapper;
         this.phoneSearchRepository = phoneSearchRepository;
+        this.searchIndexingService = searchIndexingService;
+        this.cursorPaginationRepository = cursorPaginationRepository;
+        this.multiGetProperties = applicationProperties.getMultiGet();
+        this.phonesById = new ReadThroughCache<>(cacheManager, PHONES_BY_ID_CACHE, metricRegistry);
+        this.cacheInvalidationService = cacheInvalidationService;
+        this.searchAfterRepository = searchAfterRepository;
+        this.cacheManager = cacheManager;
+        this.facetProperties = applicationProperties.getSearchFacets();
+        this.suggestService = suggestService;
+        this.searchResultCache = searchResultCache;
+        this.catalogEventService = catalogEventService;
+        this.versionedRepository = versionedRepository;
+        this.objectMapper = objectMapper;
+        this.collectionVersionRepository = collectionVersionRepository;
+        this.brandStatsService = brandStatsService;
+        this.priceIndexService = priceIndexService;
+        this.validator = validator;
     }
 
     /**
@@ -48,12 +172,99 @@ public class PhoneServiceImpl implements PhoneService {
     public PhoneDTO save(PhoneDTO phoneDTO) {
         log.debug("Request to save Phone : {}", phoneDTO);
         Phone phone = phoneMapper.toEntity(phoneDTO);
-        phone = phoneRepository.save(phone);
+        Phone before = null;
+        if (phone.getId() == null) {
+            phone.setVersion(0L);
+            phone.setLastModifiedDate(Instant.now());
+            phone.setSequence(versionedRepository.nextSequence());
+            phone = phoneRepository.save(phone);
+        } else {
+            WriteResult<Phone> written = versionedRepository.replace(phone, phoneDTO.getVersion());
+            before = written.getBefore();
+            phone = written.getAfter();
+        }
+        catalogEventService.recordSave(CatalogEventService.PHONE, phone.getId(), phone.getSequence(), before, phone);
+        brandStatsService.onChange(before, phone);
         PhoneDTO result = phoneMapper.toDto(phone);
-        phoneSearchRepository.save(phone);
+        afterWrite(Collections.singletonList(phone), null);
         return result;
     }
 
+    /**
+     * Update some fields of a phone, and only these fields in the search index.
+     *
+     * @param id the id of the entity
+     * @param members the JSON Merge Patch of the entity
+     * @param expectedVersion the version the entity must have, or null to update any version
+     * @return the updated entity, or empty if there is no entity with this id
+     */
+    @Override
+    public Optional<PhoneDTO> patch(String id, Map<String, Object> members, Long expectedVersion) {
+        log.debug("Request to patch Phone {} : {}", id, members);
+        MergePatch patch = MergePatch.read(objectMapper, members, PhoneDTO.class, ENTITY_NAME);
+        PhoneDTO values = patch.getValues();
+        String violations = patch.getProperties().stream()
+            .flatMap(property -> validator.validateProperty(values, property).stream())
+            .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+            .collect(Collectors.joining(", "));
+        if (!violations.isEmpty()) {
+            throw new BadRequestAlertException("Invalid patch: " + violations, ENTITY_NAME, "invalidpatch");
+        }
+        values.setId(id);
+        WriteResult<Phone> written = versionedRepository.patch(phoneMapper.toEntity(values), patch.getProperties(), expectedVersion);
+        if (written == null) {
+            return Optional.empty();
+        }
+        Phone phone = written.getAfter();
+        if (patch.getProperties().contains("brand") || patch.getProperties().contains("price")) {
+            brandStatsService.onChange(written.getBefore(), phone);
+        }
+        Map<String, Object> fields = patch.getFields(objectMapper, phone);
+        catalogEventService.recordUpdates(CatalogEventService.PHONE, Collections.singletonMap(id, fields),
+            Collections.singletonMap(id, phone.getSequence()));
+        afterWrite(Collections.singletonList(phone), Collections.singletonMap(id, fields));
+        return Optional.of(phoneMapper.toDto(phone));
+    }
+
+    /**
+     * Propagate written phones to the price index, the caches, the suggestions and the search index. The search
+     * index comes last, so that a failure to index does not leave the other ones stale.
+     *
+     * @param phones the phones as they were written
+     * @param fields the written fields of each phone, by id, or null if the phones were written whole
+     */
+    @Override
+    public void afterWrite(List<Phone> phones, Map<String, Map<String, Object>> fields) {
+        if (phones.isEmpty()) {
+            return;
+        }
+        if (fields == null) {
+            priceIndexService.putAll(phones);
+        } else {
+            priceIndexService.putAll(phones.stream()
+                .filter(phone -> fields.get(phone.getId()).containsKey("price"))
+                .collect(Collectors.toList()));
+        }
+        for (Phone phone : phones) {
+            cacheInvalidationService.evict(PHONES_BY_ID_CACHE, phone.getId());
+        }
+        collectionVersionRepository.increment(Phone.class);
+        searchResultCache.invalidate();
+        suggestService.putAll(phones);
+        if (fields == null && phones.size() == 1) {
+            // a single document goes through the indexing queue, a batch is written in bulk right away
+            searchIndexingService.afterSave(phones.get(0));
+        } else if (fields == null) {
+            searchIndexingService.afterSaveAll(Phone.class, phones);
+        } else {
+            for (Phone phone : phones) {
+                Map<String, Object> indexedFields = new LinkedHashMap<>(fields.get(phone.getId()));
+                indexedFields.put(VersionedRepository.VERSION_FIELD, phone.getVersion());
+                searchIndexingService.afterUpdate(phone, indexedFields);
+            }
+        }
+    }
+
     /**
      * Get all the phones.
      *
@@ -67,6 +278,30 @@ public class PhoneServiceImpl implements PhoneService {
             .map(phoneMapper::toDto);
     }
 
+    /**
+     * Get the change counter of the phones.
+     *
+     * @return the change counter
+     */
+    @Override
+    public long getChangeCounter() {
+        return collectionVersionRepository.get(Phone.class);
+    }
+
+    /**
+     * Get a page of phones located after a cursor, without counting them.
+     *
+     * @param after the cursor of the previous page, or null for the first page
+     * @param pageable the page size and sort
+     * @return the list of entities
+     */
+    @Override
+    public CursorPage<PhoneDTO> findAllAfter(Cursor after, Pageable pageable) {
+        log.debug("Request to get Phones after {}", after);
+        return cursorPaginationRepository.findAll(Phone.class, null, after, pageable)
+            .map(phoneMapper::toDto);
+    }
+
 
     /**
      * Get one phone by id.
@@ -77,20 +312,122 @@ public class PhoneServiceImpl implements PhoneService {
     @Override
     public Optional<PhoneDTO> findOne(String id) {
         log.debug("Request to get Phone : {}", id);
-        return phoneRepository.findById(id)
-            .map(phoneMapper::toDto);
+        return phonesById.get(id, key -> phoneRepository.findById(key)
+            .map(phoneMapper::toDto)
+            .orElse(null));
+    }
+
+    /**
+     * Get the phones with the given ids, in a single query for those that are not cached.
+     *
+     * @param ids the ids of the entities
+     * @return the entities found, in the order of the ids, and the ids not found
+     */
+    @Override
+    public MultiGetResultDTO<PhoneDTO> findAllById(List<String> ids) {
+        Set<String> uniqueIds = new LinkedHashSet<>(ids);
+        log.debug("Request to get Phones : {}", uniqueIds);
+        if (uniqueIds.size() > multiGetProperties.getMaxIds()) {
+            throw new BadRequestAlertException("At most " + multiGetProperties.getMaxIds() + " ids can be requested at once",
+                ENTITY_NAME, "toomanyids");
+        }
+        return findAllInOrder(uniqueIds);
+    }
+
+    /**
+     * Get a page of the phones with a price in a range, sorted by price and then by id.
+     * <p>
+     * The ids are read from the in-memory price index, which also gives the total count, and the phones from
+     * the cache, so MongoDB is only read for the phones that are not cached.
+     *
+     * @param minPrice the lowest price, or null for no lower bound
+     * @param maxPrice the highest price, or null for no upper bound
+     * @param pageable the pagination information, with no sort or a sort on the price
+     * @return the list of entities
+     */
+    @Override
+    public Page<PhoneDTO> findAllByPriceRange(BigDecimal minPrice, BigDecimal maxPrice, Pageable pageable) {
+        log.debug("Request to get a page of Phones with a price from {} to {}", minPrice, maxPrice);
+        boolean descending = false;
+        for (Sort.Order order : pageable.getSort()) {
+            if (!"price".equals(order.getProperty())) {
+                throw new BadRequestAlertException("Phones in a price range can only be sorted by price", ENTITY_NAME, "pricesort");
+            }
+            descending = order.isDescending();
+        }
+        long min = PriceIndexService.lowerBound(minPrice);
+        long max = PriceIndexService.upperBound(maxPrice);
+        SortedPriceIndex index = priceIndexService.snapshot();
+        List<String> ids = index.page(min, max, pageable.getOffset(), pageable.getPageSize(), descending);
+        MultiGetResultDTO<PhoneDTO> result = findAllInOrder(ids);
+        if (!result.getMissing().isEmpty()) {
+            // deleted by another node before its eviction was received: the page is short this time, and the
+            // phones are removed from the index for the next one
+            priceIndexService.refresh(result.getMissing());
+        }
+        return new PageImpl<>(result.getItems(), pageable, index.count(min, max) - result.getMissing().size());
     }
 
     /**
-     * Delete the phone by id.
+     * Get the number of phones with a price in a range, and percentiles of their prices, from the in-memory
+     * price index.
+     *
+     * @param minPrice the lowest price, or null for no lower bound
+     * @param maxPrice the highest price, or null for no upper bound
+     * @param percentages the percentages of the percentiles, from 0 to 100
+     * @return the statistics
+     */
+    @Override
+    public PriceStatsDTO getPriceStats(BigDecimal minPrice, BigDecimal maxPrice, List<Double> percentages) {
+        log.debug("Request to get the statistics of the Phones with a price from {} to {}", minPrice, maxPrice);
+        long min = PriceIndexService.lowerBound(minPrice);
+        long max = PriceIndexService.upperBound(maxPrice);
+        SortedPriceIndex index = priceIndexService.snapshot();
+        Map<String, BigDecimal> percentiles = new LinkedHashMap<>();
+        for (Double percentage : percentages) {
+            if (percentage == null || percentage < 0 || percentage > 100) {
+                throw new BadRequestAlertException("Percentiles are between 0 and 100", ENTITY_NAME, "percentile");
+            }
+            percentiles.put(BigDecimal.valueOf(percentage).stripTrailingZeros().toPlainString(),
+                toPrice(index.percentile(percentage, min, max)));
+        }
+        return new PriceStatsDTO(index.count(min, max), toPrice(index.percentile(0, min, max)),
+            toPrice(index.percentile(100, min, max)), percentiles);
+    }
+
+    private static BigDecimal toPrice(Long minorUnits) {
+        return minorUnits == null ? null : PriceIndexService.fromMinorUnits(minorUnits);
+    }
+
+    private MultiGetResultDTO<PhoneDTO> findAllInOrder(Collection<String> ids) {
+        List<PhoneDTO> found = phonesById.getAll(ids, misses -> {
+            List<Phone> phones = new ArrayList<>(misses.size());
+            phoneRepository.findAllById(misses).forEach(phones::add);
+            return phoneMapper.toDto(phones);
+        }, PhoneDTO::getId);
+        return MultiGetResultDTO.of(ids, found, PhoneDTO::getId);
+    }
+
+    /**
+     * Delete the phone by id, or do nothing if there is no phone with this id.
      *
      * @param id the id of the entity
      */
     @Override
     public void delete(String id) {
         log.debug("Request to delete Phone : {}", id);
-        phoneRepository.deleteById(id);
-        phoneSearchRepository.deleteById(id);
+        Phone deleted = versionedRepository.delete(Phone.class, id);
+        if (deleted == null) {
+            return;
+        }
+        brandStatsService.onChange(deleted, null);
+        priceIndexService.remove(id);
+        catalogEventService.recordDelete(CatalogEventService.PHONE, id, deleted.getSequence());
+        cacheInvalidationService.evict(PHONES_BY_ID_CACHE, id);
+        searchIndexingService.afterDelete(Phone.class, id);
+        collectionVersionRepository.increment(Phone.class);
+        searchResultCache.invalidate();
+        suggestService.remove(Phone.class, id);
     }
 
     /**
@@ -103,7 +440,152 @@ public class PhoneServiceImpl implements PhoneService {
     @Override
     public Page<PhoneDTO> search(String query, Pageable pageable) {
         log.debug("Request to search for a page of Phones for query {}", query);
-        return phoneSearchRepository.search(queryStringQuery(query), pageable)
+        return searchResultCache.search(ENTITY_NAME, query, pageable,
+            () -> phoneSearchRepository.search(queryStringQuery(query), pageable).map(phoneMapper::toDto),
+            PhoneDTO::getId, ids -> findAllInOrder(ids).getItems());
+    }
+
+    /**
+     * Search for the phones matching structured criteria, a page at a time.
+     * <p>
+     * Only the name is scored; the brand and price constraints are filters, which Elasticsearch caches and
+     * reuses across queries.
+     *
+     * @param criteria the criteria of the search
+     * @param after the cursor of the previous page, or null for the first page
+     * @param pageable the page size and sort
+     * @return the list of entities
+     */
+    @Override
+    public CursorPage<PhoneDTO> search(PhoneSearchCriteria criteria, Cursor after, Pageable pageable) {
+        log.debug("Request to search for Phones matching {} after {}", criteria, after);
+        return searchAfterRepository.search(Phone.class, buildQuery(criteria), after, pageable)
             .map(phoneMapper::toDto);
     }
+
+    /**
+     * Search for the phones matching structured criteria, a page at a time, with the brand and price facets
+     * of all the matching phones.
+     * <p>
+     * The results and the facets are computed by a single request. Each facet ignores its own filter, so that
+     * it lists the other brands or prices the user can switch to: the constraints are applied to the results
+     * with a post filter, and to the facet of the other constraint with a filter aggregation.
+     *
+     * @param criteria the criteria of the search
+     * @param after the cursor of the previous page, or null for the first page
+     * @param pageable the page size and sort
+     * @return the list of entities, with the facets
+     */
+    @Override
+    public FacetedPageDTO<PhoneDTO> searchWithFacets(PhoneSearchCriteria criteria, Cursor after, Pageable pageable) {
+        log.debug("Request to search for Phones matching {} after {}, with facets", criteria, after);
+        QueryBuilder brandFilter = brandFilter(criteria);
+        QueryBuilder priceFilter = priceFilter(criteria);
+        Cache facetCache = facetProperties.isCacheEnabled() ? cacheManager.getCache(PHONE_FACETS_CACHE) : null;
+        Object facetKey = facetCacheKey(criteria);
+        @SuppressWarnings("unchecked")
+        Map<String, List<FacetDTO>> facets = facetCache != null ? facetCache.get(facetKey, Map.class) : null;
+
+        List<AggregationBuilder> aggregations = new ArrayList<>();
+        if (facets == null) {
+            aggregations.add(filter(BRAND_FACET, priceFilter != null ? priceFilter : matchAllQuery())
+                .subAggregation(terms(BRAND_FACET).field(BRAND_FIELD).size(facetProperties.getBrandCount())));
+            aggregations.add(filter(PRICE_FACET, brandFilter != null ? brandFilter : matchAllQuery())
+                .subAggregation(histogram(PRICE_FACET).field("price").interval(facetProperties.getPriceInterval()).minDocCount(1)));
+        }
+        BoolQueryBuilder postFilter = null;
+        if (brandFilter != null || priceFilter != null) {
+            postFilter = boolQuery();
+            if (brandFilter != null) {
+                postFilter.filter(brandFilter);
+            }
+            if (priceFilter != null) {
+                postFilter.filter(priceFilter);
+            }
+        }
+        QueryBuilder query = StringUtils.hasText(criteria.getName()) ? nameQuery(criteria) : matchAllQuery();
+        AggregatedCursorPage<Phone> result = searchAfterRepository.search(Phone.class, query, postFilter, aggregations, after, pageable);
+
+        if (facets == null) {
+            facets = toFacets(result.getAggregations());
+            if (facetCache != null) {
+                facetCache.put(facetKey, facets);
+            }
+        }
+        return new FacetedPageDTO<>(result.getPage().map(phoneMapper::toDto), facets);
+    }
+
+    private static QueryBuilder buildQuery(PhoneSearchCriteria criteria) {
+        BoolQueryBuilder query = boolQuery();
+        if (StringUtils.hasText(criteria.getName())) {
+            query.must(nameQuery(criteria));
+        }
+        QueryBuilder brandFilter = brandFilter(criteria);
+        if (brandFilter != null) {
+            query.filter(brandFilter);
+        }
+        QueryBuilder priceFilter = priceFilter(criteria);
+        if (priceFilter != null) {
+            query.filter(priceFilter);
+        }
+        return query;
+    }
+
+    private static QueryBuilder nameQuery(PhoneSearchCriteria criteria) {
+        return matchQuery("name", criteria.getName()).operator(Operator.AND);
+    }
+
+    /**
+     * @return the brand constraint, or null if there is none
+     */
+    private static QueryBuilder brandFilter(PhoneSearchCriteria criteria) {
+        List<String> brands = criteria.getBrand();
+        if (brands.isEmpty()) {
+            return null;
+        }
+        return brands.size() == 1 ? termQuery(BRAND_FIELD, brands.get(0)) : termsQuery(BRAND_FIELD, brands);
+    }
+
+    /**
+     * @return the price constraint, or null if there is none
+     */
+    private static QueryBuilder priceFilter(PhoneSearchCriteria criteria) {
+        if (criteria.getMinPrice() == null && criteria.getMaxPrice() == null) {
+            return null;
+        }
+        // the transport client cannot serialize BigDecimal values
+        return rangeQuery("price")
+            .gte(criteria.getMinPrice() != null ? criteria.getMinPrice().doubleValue() : null)
+            .lte(criteria.getMaxPrice() != null ? criteria.getMaxPrice().doubleValue() : null);
+    }
+
+    /**
+     * The criteria of a search, normalized so that the searches that match the same phones share their facets:
+     * the name as the analyzer sees it, the brands in order and without duplicates, and the prices without
+     * trailing zeros.
+     */
+    private static Object facetCacheKey(PhoneSearchCriteria criteria) {
+        String name = StringUtils.hasText(criteria.getName())
+            ? criteria.getName().trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT) : null;
+        return Arrays.asList(name, new ArrayList<>(new TreeSet<>(criteria.getBrand())),
+            criteria.getMinPrice() != null ? criteria.getMinPrice().stripTrailingZeros().toPlainString() : null,
+            criteria.getMaxPrice() != null ? criteria.getMaxPrice().stripTrailingZeros().toPlainString() : null);
+    }
+
+    private Map<String, List<FacetDTO>> toFacets(Aggregations aggregations) {
+        Map<String, List<FacetDTO>> facets = new LinkedHashMap<>();
+        Terms brands = aggregations.<Filter>get(BRAND_FACET).getAggregations().get(BRAND_FACET);
+        facets.put(BRAND_FACET, brands.getBuckets().stream()
+            .map(bucket -> FacetDTO.ofValue(bucket.getKeyAsString(), bucket.getDocCount()))
+            .collect(Collectors.toList()));
+        Histogram prices = aggregations.<Filter>get(PRICE_FACET).getAggregations().get(PRICE_FACET);
+        double interval = facetProperties.getPriceInterval();
+        facets.put(PRICE_FACET, prices.getBuckets().stream()
+            .map(bucket -> {
+                double from = ((Number) bucket.getKey()).doubleValue();
+                return FacetDTO.ofRange(from, from + interval, bucket.getDocCount());
+            })
+            .collect(Collectors.toList()));
+        return facets;
+    }
 }
@@ -11,5 +11,7 @@ import org.mapstruct.*;
 @Mapper(componentModel = "spring", uses = {})
 public interface BrandMapper extends EntityMapper<BrandDTO, Brand> {
 
-
+    @Mapping(target = "lastModifiedDate", ignore = true)
+    @Mapping(target = "sequence", ignore = true)
+    Brand toEntity(BrandDTO brandDTO);
 }
@@ -11,5 +11,7 @@ import org.mapstruct.*;
 @Mapper(componentModel = "spring", uses = {})
 public interface PhoneMapper extends EntityMapper<PhoneDTO, Phone> {
 
-
+    @Mapping(target = "lastModifiedDate", ignore = true)
+    @Mapping(target = "sequence", ignore = true)
+    Phone toEntity(PhoneDTO phoneDTO);
 }
@@ -0,0 +1,102 @@
+package com.geardao.phoneapp.service.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads comma-separated values one record at a time, as described by RFC 4180: fields may be enclosed in double
+ * quotes, in which case they can contain commas, line breaks and escaped ("") double quotes.
+ */
+public class CsvRecordReader {
+
+    private final Reader reader;
+
+    private int next;
+
+    private boolean ended;
+
+    /**
+     * @param reader the reader to read from; it should be buffered, as it is read one character at a time
+     */
+    public CsvRecordReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Read the next record.
+     *
+     * @return the fields of the record, or null at the end of the input
+     * @throws IOException if the input could not be read, or if a quoted field is not closed
+     */
+    public List<String> readRecord() throws IOException {
+        if (ended) {
+            return null;
+        }
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean fieldStarted = false;
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                ended = true;
+                if (quoted) {
+                    throw new IOException("Unclosed quoted field at the end of the input");
+                }
+                if (!fieldStarted && fields.isEmpty()) {
+                    return null;
+                }
+                fields.add(field.toString());
+                return fields;
+            }
+            if (quoted) {
+                if (c != '"') {
+                    field.append((char) c);
+                } else if (peek() == '"') {
+                    read();
+                    field.append('"');
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+                fieldStarted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+                fieldStarted = true;
+            } else if (c == '\r' || c == '\n') {
+                if (c == '\r' && peek() == '\n') {
+                    read();
+                }
+                if (!fieldStarted && fields.isEmpty()) {
+                    // blank line
+                    continue;
+                }
+                fields.add(field.toString());
+                return fields;
+            } else {
+                field.append((char) c);
+                fieldStarted = true;
+            }
+        }
+    }
+
+    private int read() throws IOException {
+        if (next != 0) {
+            int c = next;
+            next = 0;
+            return c;
+        }
+        return reader.read();
+    }
+
+    private int peek() throws IOException {
+        if (next == 0) {
+            next = reader.read();
+        }
+        return next;
+    }
+}
@@ -0,0 +1,109 @@
+package com.geardao.phoneapp.service.util;
+
+import com.geardao.phoneapp.web.rest.errors.BadRequestAlertException;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * A JSON Merge Patch (RFC 7396) of a DTO with scalar properties: each member of the patch replaces a property,
+ * and a null member removes it.
+ */
+public final class MergePatch {
+
+    public static final String MEDIA_TYPE = "application/merge-patch+json";
+
+    /**
+     * The properties that a patch cannot change.
+     */
+    private static final List<String> READ_ONLY_PROPERTIES = Arrays.asList("id", "version");
+
+    private static final TypeReference<Map<String, Object>> JSON_OBJECT_TYPE = new TypeReference<Map<String, Object>>() {
+    };
+
+    private final Map<String, Object> members;
+
+    private final Object values;
+
+    private MergePatch(Map<String, Object> members, Object values) {
+        this.members = members;
+        this.values = values;
+    }
+
+    /**
+     * Read a patch.
+     *
+     * @param objectMapper the mapper of the DTO
+     * @param members the members of the patch
+     * @param dtoType the type of the DTO
+     * @param entityName the name of the entity, for the errors
+     * @return the patch
+     * @throws BadRequestAlertException if a member is not a writable property of the DTO, or has an invalid value
+     */
+    public static MergePatch read(ObjectMapper objectMapper, Map<String, Object> members, Class<?> dtoType, String entityName) {
+        JavaType type = objectMapper.constructType(dtoType);
+        Set<String> properties = objectMapper.getDeserializationConfig().introspect(type).findProperties().stream()
+            .map(BeanPropertyDefinition::getName)
+            .collect(Collectors.toSet());
+        for (String member : members.keySet()) {
+            if (!properties.contains(member)) {
+                throw new BadRequestAlertException("Unknown field " + member, entityName, "unknownfield");
+            }
+            if (READ_ONLY_PROPERTIES.contains(member)) {
+                throw new BadRequestAlertException("The field " + member + " cannot be patched", entityName, "readonlyfield");
+            }
+        }
+        try {
+            return new MergePatch(Collections.unmodifiableMap(new LinkedHashMap<>(members)), objectMapper.convertValue(members, type));
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestAlertException("Invalid patch: " + e.getMessage(), entityName, "invalidpatch");
+        }
+    }
+
+    /**
+     * @return the names of the patched properties
+     */
+    public Set<String> getProperties() {
+        return members.keySet();
+    }
+
+    /**
+     * @return the members of the patch, by property name
+     */
+    public Map<String, Object> getMembers() {
+        return members;
+    }
+
+    /**
+     * @param <D> the type of the DTO
+     * @return a DTO holding the new values of the patched properties, the other properties being null
+     */
+    @SuppressWarnings("unchecked")
+    public <D> D getValues() {
+        return (D) values;
+    }
+
+    /**
+     * Get the patched fields of an entity, as they are serialized to JSON.
+     *
+     * @param objectMapper the mapper of the entity
+     * @param entity the patched entity
+     * @return the values of the patched fields, by property name
+     */
+    public Map<String, Object> getFields(ObjectMapper objectMapper, Object entity) {
+        Map<String, Object> json = objectMapper.convertValue(entity, JSON_OBJECT_TYPE);
+        Map<String, Object> fields = new LinkedHashMap<>();
+        members.keySet().forEach(property -> fields.put(property, json.get(property)));
+        return fields;
+    }
+}
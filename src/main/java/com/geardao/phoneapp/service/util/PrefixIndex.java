@@ -0,0 +1,238 @@
+package com.geardao.phoneapp.service.util;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * An immutable index of weighted values by the prefixes of their names, for typeahead suggestions.
+ * <p>
+ * Names are normalized (case, accents and punctuation are ignored), and each value is indexed under every
+ * word of its name, so {@code "gal"} finds {@code "Samsung Galaxy S9"}. The keys are kept in a sorted array,
+ * so the keys starting with a prefix form a range found by binary search, and a max tree over the weights
+ * yields the heaviest values of that range one at a time: getting the top k values costs
+ * O(log n + k log n), whatever the number of matches.
+ *
+ * @param <V> the type of the values
+ */
+public final class PrefixIndex<V> {
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private static final PrefixIndex<?> EMPTY = new Builder<>().build();
+
+    private final String[] keys;
+
+    private final int[] valueIndexes;
+
+    private final List<V> values;
+
+    private final long[] weights;
+
+    /**
+     * The position of the heaviest key under each node of a complete binary tree over the keys, -1 for empty
+     * nodes; the children of node i are 2i and 2i + 1, and the leaves start at {@code leafOffset}.
+     */
+    private final int[] maxTree;
+
+    private final int leafOffset;
+
+    private PrefixIndex(String[] keys, int[] valueIndexes, List<V> values, long[] weights) {
+        this.keys = keys;
+        this.valueIndexes = valueIndexes;
+        this.values = values;
+        this.weights = weights;
+        int leaves = 1;
+        while (leaves < keys.length) {
+            leaves <<= 1;
+        }
+        this.leafOffset = leaves;
+        this.maxTree = new int[leaves * 2];
+        Arrays.fill(maxTree, -1);
+        for (int i = 0; i < keys.length; i++) {
+            maxTree[leaves + i] = i;
+        }
+        for (int node = leaves - 1; node > 0; node--) {
+            maxTree[node] = heaviest(maxTree[node * 2], maxTree[node * 2 + 1]);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> PrefixIndex<V> empty() {
+        return (PrefixIndex<V>) EMPTY;
+    }
+
+    /**
+     * Normalize a name or a prefix: lower case, without accents, with words separated by single spaces.
+     *
+     * @param text the text to normalize
+     * @return the normalized text
+     */
+    public static String normalize(String text) {
+        String stripped = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        return SEPARATORS.matcher(stripped.toLowerCase(Locale.ROOT)).replaceAll(" ").trim();
+    }
+
+    /**
+     * Find the heaviest values with a word of their name starting with a prefix.
+     *
+     * @param prefix the prefix, which is normalized like the names
+     * @param limit the largest number of values to return
+     * @return the values, the heaviest first, and in the order of their names for the same weight
+     */
+    public List<V> top(String prefix, int limit) {
+        String normalized = normalize(prefix);
+        if (normalized.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        int from = lowerBound(normalized);
+        int to = lowerBound(normalized + Character.MAX_VALUE);
+        if (from >= to) {
+            return Collections.emptyList();
+        }
+        // the nodes to explore, by the heaviest key under them
+        PriorityQueue<Integer> nodes = new PriorityQueue<>((a, b) -> compareKeys(maxTree[a], maxTree[b]));
+        // the nodes covering [from, to) exactly
+        for (int left = from + leafOffset, right = to + leafOffset; left < right; left >>= 1, right >>= 1) {
+            if ((left & 1) == 1) {
+                nodes.add(left++);
+            }
+            if ((right & 1) == 1) {
+                nodes.add(--right);
+            }
+        }
+        List<V> result = new ArrayList<>(limit);
+        Set<Integer> seen = new HashSet<>();
+        while (!nodes.isEmpty() && result.size() < limit) {
+            int node = nodes.poll();
+            if (node >= leafOffset) {
+                int valueIndex = valueIndexes[node - leafOffset];
+                // a value is indexed under each word of its name
+                if (seen.add(valueIndex)) {
+                    result.add(values.get(valueIndex));
+                }
+            } else {
+                for (int child = node * 2; child <= node * 2 + 1; child++) {
+                    if (maxTree[child] >= 0) {
+                        nodes.add(child);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of indexed values
+     */
+    public int size() {
+        return values.size();
+    }
+
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle].compareTo(key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int heaviest(int a, int b) {
+        if (a < 0) {
+            return b;
+        }
+        if (b < 0) {
+            return a;
+        }
+        return compareKeys(a, b) <= 0 ? a : b;
+    }
+
+    /**
+     * Order key positions by decreasing weight, then by position.
+     */
+    private int compareKeys(int a, int b) {
+        int byWeight = Long.compare(weights[b], weights[a]);
+        return byWeight != 0 ? byWeight : Integer.compare(a, b);
+    }
+
+    /**
+     * Collects the values of a new index.
+     *
+     * @param <V> the type of the values
+     */
+    public static final class Builder<V> {
+
+        private final List<V> values = new ArrayList<>();
+
+        private final List<Long> valueWeights = new ArrayList<>();
+
+        private final List<String[]> names = new ArrayList<>();
+
+        private int keyCount;
+
+        /**
+         * Add a value. Values with an empty name are ignored.
+         *
+         * @param name the name of the value
+         * @param value the value
+         * @param weight the weight of the value, the heaviest values are suggested first
+         * @return this builder
+         */
+        public Builder<V> add(String name, V value, long weight) {
+            String normalized = name == null ? "" : normalize(name);
+            if (!normalized.isEmpty()) {
+                String[] words = normalized.split(" ");
+                values.add(value);
+                valueWeights.add(weight);
+                names.add(words);
+                keyCount += words.length;
+            }
+            return this;
+        }
+
+        public PrefixIndex<V> build() {
+            Integer[] order = new Integer[keyCount];
+            String[] unsortedKeys = new String[keyCount];
+            int[] unsortedValueIndexes = new int[keyCount];
+            int position = 0;
+            for (int valueIndex = 0; valueIndex < names.size(); valueIndex++) {
+                String[] words = names.get(valueIndex);
+                String key = String.join(" ", words);
+                for (String word : words) {
+                    // the key of a word is the name from that word on, so that "galaxy s" still matches
+                    unsortedKeys[position] = key;
+                    unsortedValueIndexes[position] = valueIndex;
+                    order[position] = position;
+                    position++;
+                    key = key.substring(Math.min(key.length(), word.length() + 1));
+                }
+            }
+            Arrays.sort(order, Comparator.comparing((Integer i) -> unsortedKeys[i]));
+            String[] keys = new String[keyCount];
+            int[] valueIndexes = new int[keyCount];
+            long[] weights = new long[keyCount];
+            for (int i = 0; i < keyCount; i++) {
+                keys[i] = unsortedKeys[order[i]];
+                valueIndexes[i] = unsortedValueIndexes[order[i]];
+                weights[i] = valueWeights.get(valueIndexes[i]);
+            }
+            return new PrefixIndex<>(keys, valueIndexes, new ArrayList<>(values), weights);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.geardao.phoneapp.service.util;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Looks values up in a cache, and loads the missing ones.
+ * <p>
+ * Concurrent misses on the same key are coalesced into a single load by the cache. The time spent loading is
+ * recorded next to the JCache statistics of the cache, under {@code jcache.statistics.<cache name>.loads}.
+ * <p>
+ * The misses of {@link #getAll} are loaded together, outside of the cache, so a value could be evicted by a write
+ * while it is loaded and then cached from the stale read. Each miss is therefore reserved with a token before it
+ * is loaded, and the loaded value only replaces the token that is still there: an eviction removes the token,
+ * and the value is then returned without being cached.
+ *
+ * @param <V> the type of the values
+ */
+public class ReadThroughCache<V> {
+
+    private final Cache cache;
+
+    private final Timer loads;
+
+    public ReadThroughCache(CacheManager cacheManager, String cacheName, MetricRegistry metricRegistry) {
+        this.cache = cacheManager.getCache(cacheName);
+        if (cache == null) {
+            throw new IllegalStateException("The " + cacheName + " cache does not exist");
+        }
+        this.loads = metricRegistry.timer(MetricRegistry.name("jcache.statistics", cacheName, "loads"));
+    }
+
+    /**
+     * Get a value, loading it on a miss. Values that could not be found are cached too.
+     *
+     * @param key the key of the value
+     * @param loader loads the value of a key, or returns null if there is none
+     * @return the value, if any
+     */
+    @SuppressWarnings("unchecked")
+    public Optional<V> get(String key, Function<String, V> loader) {
+        Object value = cache.get(key, () -> load(key, loader));
+        if (value instanceof Loading) {
+            // being loaded by getAll, which caches its own value
+            return Optional.ofNullable(load(key, loader));
+        }
+        return Optional.ofNullable((V) value);
+    }
+
+    /**
+     * Get several values, loading all the misses at once.
+     *
+     * @param keys the keys of the values
+     * @param loader loads the values of some keys, leaving out those that have none
+     * @param keyOf the key of a value
+     * @return the values found, in any order
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> getAll(Collection<String> keys, Function<Collection<String>, Collection<V>> loader, Function<V, String> keyOf) {
+        List<V> values = new ArrayList<>(keys.size());
+        List<String> misses = new ArrayList<>();
+        for (String key : keys) {
+            Cache.ValueWrapper cached = cache.get(key);
+            if (cached == null || cached.get() instanceof Loading) {
+                misses.add(key);
+            } else if (cached.get() != null) {
+                values.add((V) cached.get());
+            }
+        }
+        if (misses.isEmpty()) {
+            return values;
+        }
+        Loading token = new Loading();
+        Set<String> reserved = new HashSet<>();
+        for (String key : misses) {
+            if (cache.putIfAbsent(key, token) == null) {
+                reserved.add(key);
+            }
+        }
+        try {
+            Collection<V> loaded;
+            try (Timer.Context ignored = loads.time()) {
+                loaded = loader.apply(misses);
+            }
+            for (V value : loaded) {
+                String key = keyOf.apply(value);
+                if (reserved.remove(key)) {
+                    replace(key, token, value);
+                }
+                values.add(value);
+            }
+        } finally {
+            for (String key : reserved) {
+                remove(key, token);
+            }
+        }
+        return values;
+    }
+
+    private V load(String key, Function<String, V> loader) {
+        try (Timer.Context ignored = loads.time()) {
+            return loader.apply(key);
+        }
+    }
+
+    /**
+     * Replace a value only if the cache still holds the expected one; Spring's cache abstraction has no such
+     * operation, so it goes to the JCache or concurrent map behind the cache. Other caches are not filled.
+     */
+    @SuppressWarnings("unchecked")
+    private void replace(String key, Object expected, Object value) {
+        Object nativeCache = cache.getNativeCache();
+        if (nativeCache instanceof javax.cache.Cache) {
+            ((javax.cache.Cache<Object, Object>) nativeCache).replace(key, expected, value);
+        } else if (nativeCache instanceof ConcurrentMap) {
+            ((ConcurrentMap<Object, Object>) nativeCache).replace(key, expected, value);
+        } else {
+            cache.evict(key);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void remove(String key, Object expected) {
+        Object nativeCache = cache.getNativeCache();
+        if (nativeCache instanceof javax.cache.Cache) {
+            ((javax.cache.Cache<Object, Object>) nativeCache).remove(key, expected);
+        } else if (nativeCache instanceof ConcurrentMap) {
+            ((ConcurrentMap<Object, Object>) nativeCache).remove(key, expected);
+        } else {
+            cache.evict(key);
+        }
+    }
+
+    /**
+     * The token reserving a key while its value is loaded. Serializable and compared by value, as the caches may
+     * store copies of their entries.
+     */
+    private static final class Loading implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String id = UUID.randomUUID().toString();
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Loading && id.equals(((Loading) o).id);
+        }
+
+        @Override
+        public int hashCode() {
+            return id.hashCode();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.geardao.phoneapp.service.util;
+
+import org.springframework.http.MediaType;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Formats in which the catalog is imported and exported, with one row per line.
+ */
+public enum RowFormat {
+
+    NDJSON("application/x-ndjson", "ndjson"),
+
+    CSV("text/csv", "csv");
+
+    public static final String NDJSON_VALUE = "application/x-ndjson";
+
+    public static final String CSV_VALUE = "text/csv";
+
+    private final String contentType;
+
+    private final String extension;
+
+    RowFormat(String contentType, String extension) {
+        this.contentType = contentType;
+        this.extension = extension;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * @param contentType a content type, with or without parameters
+     * @return CSV for text/csv, NDJSON otherwise
+     */
+    public static RowFormat fromContentType(String contentType) {
+        return contentType != null && MediaType.parseMediaType(contentType).isCompatibleWith(MediaType.parseMediaType(CSV_VALUE))
+            ? CSV : NDJSON;
+    }
+
+    /**
+     * @param extension a file extension, such as "csv"
+     * @return the format with this extension, if any
+     */
+    public static Optional<RowFormat> fromExtension(String extension) {
+        return Arrays.stream(values()).filter(format -> format.extension.equalsIgnoreCase(extension)).findFirst();
+    }
+}
@@ -0,0 +1,218 @@
+package com.geardao.phoneapp.service.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable index of ids sorted by an integer price, for price range counts, percentiles and pages.
+ * <p>
+ * The prices are kept in a primitive array sorted in ascending order, ties broken by id, with the ids in a
+ * parallel array. The entries within a price range form a slice of the arrays found by binary search, so
+ * counting them, getting a percentile or an entry at any offset costs O(log n), and a page of k ids costs
+ * O(log n + k). Changes are applied by {@link #apply(Map, Map)}, which returns a new index and leaves this one
+ * untouched, so the index can be read by any number of threads without locking.
+ */
+public final class SortedPriceIndex {
+
+    private static final SortedPriceIndex EMPTY = new SortedPriceIndex(new long[0], new String[0]);
+
+    private final long[] prices;
+
+    private final String[] ids;
+
+    private SortedPriceIndex(long[] prices, String[] ids) {
+        this.prices = prices;
+        this.ids = ids;
+    }
+
+    public static SortedPriceIndex empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Build an index.
+     *
+     * @param prices the price of each id
+     * @return the index of the ids
+     */
+    public static SortedPriceIndex of(Map<String, Long> prices) {
+        return EMPTY.apply(Collections.emptyMap(), prices);
+    }
+
+    /**
+     * @return the number of ids in the index
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Count the ids with a price in a range.
+     *
+     * @param min the lowest price, inclusive
+     * @param max the highest price, inclusive
+     * @return the number of ids
+     */
+    public int count(long min, long max) {
+        return min > max ? 0 : upperBound(max) - lowerBound(min);
+    }
+
+    /**
+     * Get a percentile of the prices in a range, by the nearest-rank method: the lowest price such that at least
+     * the given percentage of the prices in the range are lower or equal. The percentile 0 is the lowest price.
+     *
+     * @param percentage the percentage, from 0 to 100
+     * @param min the lowest price, inclusive
+     * @param max the highest price, inclusive
+     * @return the percentile, or null if there is no price in the range
+     */
+    public Long percentile(double percentage, long min, long max) {
+        int count = count(min, max);
+        if (count == 0) {
+            return null;
+        }
+        int rank = (int) Math.ceil(percentage / 100 * count);
+        rank = Math.max(1, Math.min(count, rank));
+        return prices[lowerBound(min) + rank - 1];
+    }
+
+    /**
+     * Get a page of the ids with a price in a range.
+     *
+     * @param min the lowest price, inclusive
+     * @param max the highest price, inclusive
+     * @param offset the number of ids to skip
+     * @param size the largest number of ids
+     * @param descending true for the highest prices first, false for the lowest first
+     * @return the ids, sorted by price and then by id, reversed when descending
+     */
+    public List<String> page(long min, long max, long offset, int size, boolean descending) {
+        if (min > max) {
+            return Collections.emptyList();
+        }
+        int from = lowerBound(min);
+        int to = upperBound(max);
+        if (offset >= to - from) {
+            return Collections.emptyList();
+        }
+        int length = (int) Math.min(size, to - from - offset);
+        List<String> page = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+            page.add(descending ? ids[to - 1 - (int) offset - i] : ids[from + (int) offset + i]);
+        }
+        return page;
+    }
+
+    /**
+     * Return an index with some entries removed and others added; this index is not modified.
+     * <p>
+     * This costs O(n + k log k) for k changes, so changes should be applied in batches. An id both removed and
+     * added has its price changed.
+     *
+     * @param removed the price of each id to remove, which must be the one in this index
+     * @param added the price of each id to add, which must not be in this index unless it is also removed
+     * @return the new index
+     */
+    public SortedPriceIndex apply(Map<String, Long> removed, Map<String, Long> added) {
+        if (removed.isEmpty() && added.isEmpty()) {
+            return this;
+        }
+        boolean[] skipped = new boolean[ids.length];
+        int removedCount = 0;
+        for (Map.Entry<String, Long> entry : removed.entrySet()) {
+            int position = find(entry.getValue(), entry.getKey());
+            if (position >= 0 && !skipped[position]) {
+                skipped[position] = true;
+                removedCount++;
+            }
+        }
+
+        int addedCount = added.size();
+        long[] addedPrices = new long[addedCount];
+        String[] addedIds = new String[addedCount];
+        Integer[] order = new Integer[addedCount];
+        int i = 0;
+        for (Map.Entry<String, Long> entry : added.entrySet()) {
+            addedPrices[i] = entry.getValue();
+            addedIds[i] = entry.getKey();
+            order[i] = i;
+            i++;
+        }
+        Arrays.sort(order, (a, b) -> compare(addedPrices[a], addedIds[a], addedPrices[b], addedIds[b]));
+
+        // merge the kept entries with the sorted additions
+        int length = ids.length - removedCount + addedCount;
+        long[] mergedPrices = new long[length];
+        String[] mergedIds = new String[length];
+        int kept = 0;
+        int next = 0;
+        for (int merged = 0; merged < length; merged++) {
+            while (kept < ids.length && skipped[kept]) {
+                kept++;
+            }
+            if (next < addedCount && (kept == ids.length
+                    || compare(addedPrices[order[next]], addedIds[order[next]], prices[kept], ids[kept]) < 0)) {
+                mergedPrices[merged] = addedPrices[order[next]];
+                mergedIds[merged] = addedIds[order[next]];
+                next++;
+            } else {
+                mergedPrices[merged] = prices[kept];
+                mergedIds[merged] = ids[kept];
+                kept++;
+            }
+        }
+        return new SortedPriceIndex(mergedPrices, mergedIds);
+    }
+
+    /**
+     * @return the position of the first price at least {@code price}
+     */
+    private int lowerBound(long price) {
+        int low = 0;
+        int high = prices.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (prices[middle] < price) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the position of the first price above {@code price}
+     */
+    private int upperBound(long price) {
+        return price == Long.MAX_VALUE ? prices.length : lowerBound(price + 1);
+    }
+
+    /**
+     * @return the position of an entry, or -1 if it is not in the index
+     */
+    private int find(long price, String id) {
+        int low = lowerBound(price);
+        int high = upperBound(price);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int comparison = ids[middle].compareTo(id);
+            if (comparison == 0) {
+                return middle;
+            } else if (comparison < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return -1;
+    }
+
+    private static int compare(long price, String id, long otherPrice, String otherId) {
+        int result = Long.compare(price, otherPrice);
+        return result != 0 ? result : id.compareTo(otherId);
+    }
+}
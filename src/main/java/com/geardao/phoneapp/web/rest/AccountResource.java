@@ -9,6 +9,7 @@ import com.geardao.phoneapp.service.MailService;
 import com.geardao.phoneapp.service.UserService;
 import com.geardao.phoneapp.service.dto.UserDTO;
 import com.geardao.phoneapp.web.rest.errors.*;
+import com.geardao.phoneapp.web.rest.util.ETagUtil;
 import com.geardao.phoneapp.web.rest.vm.KeyAndPasswordVM;
 import com.geardao.phoneapp.web.rest.vm.ManagedUserVM;
 
@@ -16,7 +17,9 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
@@ -96,16 +99,24 @@ public class AccountResource {
 
     /**
      * GET  /account : get the current user.
+     * <p>
+     * The user is tagged with its id and version, so a request whose If-None-Match header holds the current tag
+     * is answered with status 304 (Not Modified), without building nor serializing the user.
      *
-     * @return the current user
+     * @param webRequest the request, for its If-None-Match header
+     * @return the current user, or null when the response is 304 (Not Modified)
      * @throws RuntimeException 500 (Internal Server Error) if the user couldn't be returned
      */
     @GetMapping("/account")
     @Timed
-    public UserDTO getAccount() {
-        return userService.getUserWithAuthorities()
-            .map(UserDTO::new)
+    public ResponseEntity<UserDTO> getAccount(WebRequest webRequest) {
+        User user = userService.getUserWithAuthorities()
             .orElseThrow(() -> new InternalServerErrorException("User could not be found"));
+        String eTag = ETagUtil.of(user.getId(), user.getVersion());
+        if (webRequest.checkNotModified(eTag)) {
+            return null;
+        }
+        return ResponseEntity.ok().eTag(eTag).body(new UserDTO(user));
     }
 
     /**
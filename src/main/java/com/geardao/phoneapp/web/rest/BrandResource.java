@@ -1,25 +1,46 @@
 package com.geardao.phoneapp.web.rest;
 
 import com.codahale.metrics.annotation.Timed;
+import com.geardao.phoneapp.repository.Cursor;
+import com.geardao.phoneapp.repository.CursorPage;
 import com.geardao.phoneapp.service.BrandService;
+import com.geardao.phoneapp.service.BrandStatsService;
+import com.geardao.phoneapp.service.BulkImportService;
+import com.geardao.phoneapp.service.ExportService;
 import com.geardao.phoneapp.web.rest.errors.BadRequestAlertException;
+import com.geardao.phoneapp.web.rest.errors.PreconditionFailedException;
+import com.geardao.phoneapp.web.rest.util.ETagUtil;
+import com.geardao.phoneapp.web.rest.util.ExportUtil;
 import com.geardao.phoneapp.web.rest.util.HeaderUtil;
 import com.geardao.phoneapp.web.rest.util.PaginationUtil;
+import com.geardao.phoneapp.service.util.MergePatch;
+import com.geardao.phoneapp.service.util.RowFormat;
 import com.geardao.phoneapp.service.dto.BrandDTO;
+import com.geardao.phoneapp.service.dto.BrandStatsDTO;
+import com.geardao.phoneapp.service.dto.MultiGetResultDTO;
 import io.github.jhipster.web.util.ResponseUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.time.Instant;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.StreamSupport;
 
@@ -38,8 +59,18 @@ public class BrandResource {
 
     private final BrandService brandService;
 
-    public BrandResource(BrandService brandService) {
+    private final BulkImportService bulkImportService;
+
+    private final ExportService exportService;
+
+    private final BrandStatsService brandStatsService;
+
+    public BrandResource(BrandService brandService, BulkImportService bulkImportService, ExportService exportService,
+            BrandStatsService brandStatsService) {
         this.brandService = brandService;
+        this.bulkImportService = bulkImportService;
+        this.exportService = exportService;
+        this.brandStatsService = brandStatsService;
     }
 
     /**
@@ -64,53 +95,234 @@ public class BrandResource {
 
     /**
      * PUT  /brands : Updates an existing brand.
+     * <p>
+     * The update only applies to the version of the If-Match header, or else of the body, when there is one.
      *
      * @param brandDTO the brandDTO to update
+     * @param ifMatch the entity tag of the version the brand must have, if any
      * @return the ResponseEntity with status 200 (OK) and with body the updated brandDTO,
      * or with status 400 (Bad Request) if the brandDTO is not valid,
+     * or with status 409 (Conflict) if the brand is no longer at the version of the body,
+     * or with status 412 (Precondition Failed) if the brand is no longer at the version of the If-Match header,
      * or with status 500 (Internal Server Error) if the brandDTO couldn't be updated
      * @throws URISyntaxException if the Location URI syntax is incorrect
      */
     @PutMapping("/brands")
     @Timed
-    public ResponseEntity<BrandDTO> updateBrand(@RequestBody BrandDTO brandDTO) throws URISyntaxException {
+    public ResponseEntity<BrandDTO> updateBrand(@RequestBody BrandDTO brandDTO,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) throws URISyntaxException {
         log.debug("REST request to update Brand : {}", brandDTO);
         if (brandDTO.getId() == null) {
             throw new BadRequestAlertException("Invalid id", ENTITY_NAME, "idnull");
         }
-        BrandDTO result = brandService.save(brandDTO);
+        if (ifMatch != null) {
+            brandDTO.setVersion(ETagUtil.parseIfMatch(ifMatch));
+        }
+        BrandDTO result;
+        try {
+            result = brandService.save(brandDTO);
+        } catch (OptimisticLockingFailureException e) {
+            if (ifMatch == null) {
+                throw e;
+            }
+            throw new PreconditionFailedException(e.getMessage());
+        }
         return ResponseEntity.ok()
             .headers(HeaderUtil.createEntityUpdateAlert(ENTITY_NAME, brandDTO.getId().toString()))
+            .eTag(ETagUtil.of(result.getVersion()))
             .body(result);
     }
 
+    /**
+     * PATCH  /brands/:id : Updates some fields of an existing brand.
+     * <p>
+     * The body is a JSON Merge Patch: each field replaces the field of the brand, and a null field removes it.
+     *
+     * @param id the id of the brand to update
+     * @param patch the fields to update
+     * @param ifMatch the entity tag of the version the brand must have, if any
+     * @return the ResponseEntity with status 200 (OK) and with body the updated brandDTO,
+     * or with status 400 (Bad Request) if the patch is not valid,
+     * or with status 404 (Not Found) if the brand does not exist,
+     * or with status 412 (Precondition Failed) if the brand is no longer at the version of the If-Match header
+     */
+    @PatchMapping(value = "/brands/{id}", consumes = { MergePatch.MEDIA_TYPE, MediaType.APPLICATION_JSON_VALUE })
+    @Timed
+    public ResponseEntity<BrandDTO> patchBrand(@PathVariable String id, @RequestBody Map<String, Object> patch,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        log.debug("REST request to patch Brand {} : {}", id, patch);
+        Optional<BrandDTO> result;
+        try {
+            result = brandService.patch(id, patch, ETagUtil.parseIfMatch(ifMatch));
+        } catch (OptimisticLockingFailureException e) {
+            throw new PreconditionFailedException(e.getMessage());
+        }
+        return result.map(brandDTO -> ResponseEntity.ok()
+                .headers(HeaderUtil.createEntityUpdateAlert(ENTITY_NAME, id))
+                .eTag(ETagUtil.of(brandDTO.getVersion()))
+                .body(brandDTO))
+            .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    /**
+     * POST  /brands/_bulk : Create or update brands in bulk.
+     * <p>
+     * The body holds one brand per line, either as JSON (application/x-ndjson) or as CSV (text/csv) with a header
+     * naming the fields. Rows with an id replace the brand with that id. The response is streamed while the rows
+     * are written, with the outcome of each row on its own line.
+     *
+     * @param request the request, whose body is read incrementally
+     * @param response the response, with status 200 (OK) and the outcome of each row in body,
+     * or with status 400 (Bad Request) if a CSV column is unknown
+     * @throws IOException if the body could not be read or the response could not be written
+     */
+    @PostMapping(value = "/brands/_bulk", consumes = { RowFormat.NDJSON_VALUE, RowFormat.CSV_VALUE })
+    @Timed
+    public void bulkImportBrands(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        log.debug("REST request to import Brands in bulk");
+        RowFormat format = RowFormat.fromContentType(request.getContentType());
+        response.setContentType(RowFormat.NDJSON_VALUE);
+        bulkImportService.importBrands(request.getInputStream(), format, response.getOutputStream());
+    }
+
+    /**
+     * GET  /brands/_export : export all the brands.
+     * <p>
+     * The brands are streamed from the database as they are read, and compressed with gzip if the client accepts it.
+     *
+     * @param format the format of the export, "ndjson" or "csv"
+     * @param cutoff whether to leave out the brands created after the start of the export, whose time is then
+     * returned in the X-Created-Before header; this is not a point-in-time snapshot, as the brands updated or
+     * deleted during the export are exported as they are when read
+     * @param request the request
+     * @param response the response, with status 200 (OK) and the brands in body,
+     * or with status 400 (Bad Request) if the format is unknown
+     * @throws IOException if the response could not be written
+     */
+    @GetMapping("/brands/_export")
+    @Timed
+    public void exportBrands(@RequestParam(defaultValue = "ndjson") String format, @RequestParam(defaultValue = "false") boolean cutoff,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        log.debug("REST request to export Brands as {}", format);
+        RowFormat rowFormat = RowFormat.fromExtension(format)
+            .orElseThrow(() -> new BadRequestAlertException("Unknown export format " + format, ENTITY_NAME, "exportformat"));
+        Instant createdBefore = cutoff ? Instant.now() : null;
+        try (OutputStream output = ExportUtil.startExport(request, response, rowFormat, "brands", createdBefore)) {
+            exportService.exportBrands(rowFormat, createdBefore, output);
+        }
+    }
+
     /**
      * GET  /brands : get all the brands.
+     * <p>
+     * The listing is tagged with the change counter of the brands, which is read before the page: a request whose
+     * If-None-Match header holds the current tag is answered with status 304 (Not Modified) without any query.
      *
      * @param pageable the pagination information
-     * @return the ResponseEntity with status 200 (OK) and the list of brands in body
+     * @param webRequest the request, for its If-None-Match header
+     * @return the ResponseEntity with status 200 (OK) and the list of brands in body, or null when the response
+     * is 304 (Not Modified)
      */
     @GetMapping("/brands")
     @Timed
-    public ResponseEntity<List<BrandDTO>> getAllBrands(Pageable pageable) {
+    public ResponseEntity<List<BrandDTO>> getAllBrands(Pageable pageable, WebRequest webRequest) {
         log.debug("REST request to get a page of Brands");
+        String eTag = ETagUtil.ofCollection(brandService.getChangeCounter());
+        if (webRequest.checkNotModified(eTag)) {
+            return null;
+        }
         Page<BrandDTO> page = brandService.findAll(pageable);
         HttpHeaders headers = PaginationUtil.generatePaginationHttpHeaders(page, "/api/brands");
+        headers.setETag(eTag);
+        return new ResponseEntity<>(page.getContent(), headers, HttpStatus.OK);
+    }
+
+    /**
+     * GET  /brands?after=:after : get a page of brands using keyset pagination.
+     * <p>
+     * The first page is requested with an empty "after" parameter, and the next pages with the cursor
+     * found in the "next" link of the previous response. No total count is returned.
+     *
+     * @param after the cursor of the previous page, empty for the first page
+     * @param pageable the page size, and a sort on at most one property
+     * @param webRequest the request, for its If-None-Match header, compared as in {@link #getAllBrands}
+     * @return the ResponseEntity with status 200 (OK) and the list of brands in body,
+     * or with status 400 (Bad Request) if the sort or the cursor is invalid, or null when the response is 304 (Not Modified)
+     */
+    @GetMapping(value = "/brands", params = "after")
+    @Timed
+    public ResponseEntity<List<BrandDTO>> getAllBrandsAfter(@RequestParam String after, Pageable pageable, WebRequest webRequest) {
+        log.debug("REST request to get a page of Brands after {}", after);
+        Cursor cursor = PaginationUtil.parseCursor(after, pageable, ENTITY_NAME, BrandService.CURSOR_SORT_PROPERTIES);
+        String eTag = ETagUtil.ofCollection(brandService.getChangeCounter());
+        if (webRequest.checkNotModified(eTag)) {
+            return null;
+        }
+        CursorPage<BrandDTO> page = brandService.findAllAfter(cursor, pageable);
+        HttpHeaders headers = PaginationUtil.generateCursorPaginationHttpHeaders(page, pageable, "/api/brands");
+        headers.setETag(eTag);
         return new ResponseEntity<>(page.getContent(), headers, HttpStatus.OK);
     }
 
+    /**
+     * GET  /brands/stats : get the phone count and the prices of each brand.
+     * <p>
+     * The statistics are served from memory, and are at most {@code application.brand-stats.refresh-interval-ms}
+     * old.
+     *
+     * @return the ResponseEntity with status 200 (OK) and the statistics of the brands with phones in body
+     */
+    @GetMapping("/brands/stats")
+    @Timed
+    public ResponseEntity<List<BrandStatsDTO>> getBrandStats() {
+        log.debug("REST request to get the statistics of the Brands");
+        return ResponseEntity.ok(brandStatsService.findAll());
+    }
+
     /**
      * GET  /brands/:id : get the "id" brand.
      *
      * @param id the id of the brandDTO to retrieve
-     * @return the ResponseEntity with status 200 (OK) and with body the brandDTO, or with status 404 (Not Found)
+     * @return the ResponseEntity with status 200 (OK) and with body the brandDTO, tagged with its version, or with
+     * status 304 (Not Modified) and no body if it matches the If-None-Match header, or with status 404 (Not Found)
      */
     @GetMapping("/brands/{id}")
     @Timed
     public ResponseEntity<BrandDTO> getBrand(@PathVariable String id) {
         log.debug("REST request to get Brand : {}", id);
         Optional<BrandDTO> brandDTO = brandService.findOne(id);
-        return ResponseUtil.wrapOrNotFound(brandDTO);
+        // the DTO comes from the cache, and a matching If-None-Match skips its serialization
+        HttpHeaders headers = new HttpHeaders();
+        brandDTO.map(BrandDTO::getVersion).ifPresent(version -> headers.setETag(ETagUtil.of(version)));
+        return ResponseUtil.wrapOrNotFound(brandDTO, headers);
+    }
+
+    /**
+     * GET  /brands?ids=:ids : get the brands with the given ids.
+     *
+     * @param ids the comma-separated ids of the brands to retrieve
+     * @return the ResponseEntity with status 200 (OK) and with body the brands found, in the order of the ids, and the ids not found,
+     * or with status 400 (Bad Request) if too many ids are requested
+     */
+    @GetMapping(value = "/brands", params = "ids")
+    @Timed
+    public ResponseEntity<MultiGetResultDTO<BrandDTO>> getBrandsById(@RequestParam List<String> ids) {
+        log.debug("REST request to get Brands : {}", ids);
+        return ResponseEntity.ok(brandService.findAllById(ids));
+    }
+
+    /**
+     * POST  /brands/_mget : get the brands with the given ids, for lists of ids too long for a query string.
+     *
+     * @param ids the ids of the brands to retrieve
+     * @return the ResponseEntity with status 200 (OK) and with body the brands found, in the order of the ids, and the ids not found,
+     * or with status 400 (Bad Request) if too many ids are requested
+     */
+    @PostMapping("/brands/_mget")
+    @Timed
+    public ResponseEntity<MultiGetResultDTO<BrandDTO>> getBrandsByIdInBody(@RequestBody List<String> ids) {
+        log.debug("REST request to get Brands : {}", ids);
+        return ResponseEntity.ok(brandService.findAllById(ids));
     }
 
     /**
@@ -1,25 +1,51 @@
 package com.geardao.phoneapp.web.rest;
 
 import com.codahale.metrics.annotation.Timed;
+import com.geardao.phoneapp.repository.Cursor;
+import com.geardao.phoneapp.repository.CursorPage;
 import com.geardao.phoneapp.service.PhoneService;
+import com.geardao.phoneapp.service.BulkImportService;
+import com.geardao.phoneapp.service.ExportService;
 import com.geardao.phoneapp.web.rest.errors.BadRequestAlertException;
+import com.geardao.phoneapp.web.rest.errors.PreconditionFailedException;
+import com.geardao.phoneapp.web.rest.util.ETagUtil;
+import com.geardao.phoneapp.web.rest.util.ExportUtil;
 import com.geardao.phoneapp.web.rest.util.HeaderUtil;
 import com.geardao.phoneapp.web.rest.util.PaginationUtil;
+import com.geardao.phoneapp.service.util.MergePatch;
+import com.geardao.phoneapp.service.util.RowFormat;
+import com.geardao.phoneapp.service.dto.FacetedPageDTO;
 import com.geardao.phoneapp.service.dto.PhoneDTO;
+import com.geardao.phoneapp.service.dto.PhoneSearchCriteria;
+import com.geardao.phoneapp.service.dto.MultiGetResultDTO;
+import com.geardao.phoneapp.service.dto.PriceStatsDTO;
 import io.github.jhipster.web.util.ResponseUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.util.UriComponentsBuilder;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.validation.Valid;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.time.Instant;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.StreamSupport;
 
@@ -38,20 +64,26 @@ public class PhoneResource {
 
     private final PhoneService phoneService;
 
-    public PhoneResource(PhoneService phoneService) {
+    private final BulkImportService bulkImportService;
+
+    private final ExportService exportService;
+
+    public PhoneResource(PhoneService phoneService, BulkImportService bulkImportService, ExportService exportService) {
         this.phoneService = phoneService;
+        this.bulkImportService = bulkImportService;
+        this.exportService = exportService;
     }
 
     /**
      * POST  /phones : Create a new phone.
      *
      * @param phoneDTO the phoneDTO to create
-     * @return the ResponseEntity with status 201 (Created) and with body the new phoneDTO, or with status 400 (Bad Request) if the phone has already an ID
+     * @return the ResponseEntity with status 201 (Created) and with body the new phoneDTO, or with status 400 (Bad Request) if the phone has already an ID or is not valid
      * @throws URISyntaxException if the Location URI syntax is incorrect
      */
     @PostMapping("/phones")
     @Timed
-    public ResponseEntity<PhoneDTO> createPhone(@RequestBody PhoneDTO phoneDTO) throws URISyntaxException {
+    public ResponseEntity<PhoneDTO> createPhone(@Valid @RequestBody PhoneDTO phoneDTO) throws URISyntaxException {
         log.debug("REST request to save Phone : {}", phoneDTO);
         if (phoneDTO.getId() != null) {
             throw new BadRequestAlertException("A new phone cannot already have an ID", ENTITY_NAME, "idexists");
@@ -64,38 +96,172 @@ public class PhoneResource {
 
     /**
      * PUT  /phones : Updates an existing phone.
+     * <p>
+     * The update only applies to the version of the If-Match header, or else of the body, when there is one.
      *
      * @param phoneDTO the phoneDTO to update
+     * @param ifMatch the entity tag of the version the phone must have, if any
      * @return the ResponseEntity with status 200 (OK) and with body the updated phoneDTO,
      * or with status 400 (Bad Request) if the phoneDTO is not valid,
+     * or with status 409 (Conflict) if the phone is no longer at the version of the body,
+     * or with status 412 (Precondition Failed) if the phone is no longer at the version of the If-Match header,
      * or with status 500 (Internal Server Error) if the phoneDTO couldn't be updated
      * @throws URISyntaxException if the Location URI syntax is incorrect
      */
     @PutMapping("/phones")
     @Timed
-    public ResponseEntity<PhoneDTO> updatePhone(@RequestBody PhoneDTO phoneDTO) throws URISyntaxException {
+    public ResponseEntity<PhoneDTO> updatePhone(@Valid @RequestBody PhoneDTO phoneDTO,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) throws URISyntaxException {
         log.debug("REST request to update Phone : {}", phoneDTO);
         if (phoneDTO.getId() == null) {
             throw new BadRequestAlertException("Invalid id", ENTITY_NAME, "idnull");
         }
-        PhoneDTO result = phoneService.save(phoneDTO);
+        if (ifMatch != null) {
+            phoneDTO.setVersion(ETagUtil.parseIfMatch(ifMatch));
+        }
+        PhoneDTO result;
+        try {
+            result = phoneService.save(phoneDTO);
+        } catch (OptimisticLockingFailureException e) {
+            if (ifMatch == null) {
+                throw e;
+            }
+            throw new PreconditionFailedException(e.getMessage());
+        }
         return ResponseEntity.ok()
             .headers(HeaderUtil.createEntityUpdateAlert(ENTITY_NAME, phoneDTO.getId().toString()))
+            .eTag(ETagUtil.of(result.getVersion()))
             .body(result);
     }
 
+    /**
+     * PATCH  /phones/:id : Updates some fields of an existing phone.
+     * <p>
+     * The body is a JSON Merge Patch: each field replaces the field of the phone, and a null field removes it.
+     *
+     * @param id the id of the phone to update
+     * @param patch the fields to update
+     * @param ifMatch the entity tag of the version the phone must have, if any
+     * @return the ResponseEntity with status 200 (OK) and with body the updated phoneDTO,
+     * or with status 400 (Bad Request) if the patch is not valid,
+     * or with status 404 (Not Found) if the phone does not exist,
+     * or with status 412 (Precondition Failed) if the phone is no longer at the version of the If-Match header
+     */
+    @PatchMapping(value = "/phones/{id}", consumes = { MergePatch.MEDIA_TYPE, MediaType.APPLICATION_JSON_VALUE })
+    @Timed
+    public ResponseEntity<PhoneDTO> patchPhone(@PathVariable String id, @RequestBody Map<String, Object> patch,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        log.debug("REST request to patch Phone {} : {}", id, patch);
+        Optional<PhoneDTO> result;
+        try {
+            result = phoneService.patch(id, patch, ETagUtil.parseIfMatch(ifMatch));
+        } catch (OptimisticLockingFailureException e) {
+            throw new PreconditionFailedException(e.getMessage());
+        }
+        return result.map(phoneDTO -> ResponseEntity.ok()
+                .headers(HeaderUtil.createEntityUpdateAlert(ENTITY_NAME, id))
+                .eTag(ETagUtil.of(phoneDTO.getVersion()))
+                .body(phoneDTO))
+            .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    /**
+     * POST  /phones/_bulk : Create or update phones in bulk.
+     * <p>
+     * The body holds one phone per line, either as JSON (application/x-ndjson) or as CSV (text/csv) with a header
+     * naming the fields. Rows with an id replace the phone with that id. The response is streamed while the rows
+     * are written, with the outcome of each row on its own line.
+     *
+     * @param request the request, whose body is read incrementally
+     * @param response the response, with status 200 (OK) and the outcome of each row in body,
+     * or with status 400 (Bad Request) if a CSV column is unknown
+     * @throws IOException if the body could not be read or the response could not be written
+     */
+    @PostMapping(value = "/phones/_bulk", consumes = { RowFormat.NDJSON_VALUE, RowFormat.CSV_VALUE })
+    @Timed
+    public void bulkImportPhones(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        log.debug("REST request to import Phones in bulk");
+        RowFormat format = RowFormat.fromContentType(request.getContentType());
+        response.setContentType(RowFormat.NDJSON_VALUE);
+        bulkImportService.importPhones(request.getInputStream(), format, response.getOutputStream());
+    }
+
+    /**
+     * GET  /phones/_export : export all the phones.
+     * <p>
+     * The phones are streamed from the database as they are read, and compressed with gzip if the client accepts it.
+     *
+     * @param format the format of the export, "ndjson" or "csv"
+     * @param cutoff whether to leave out the phones created after the start of the export, whose time is then
+     * returned in the X-Created-Before header; this is not a point-in-time snapshot, as the phones updated or
+     * deleted during the export are exported as they are when read
+     * @param request the request
+     * @param response the response, with status 200 (OK) and the phones in body,
+     * or with status 400 (Bad Request) if the format is unknown
+     * @throws IOException if the response could not be written
+     */
+    @GetMapping("/phones/_export")
+    @Timed
+    public void exportPhones(@RequestParam(defaultValue = "ndjson") String format, @RequestParam(defaultValue = "false") boolean cutoff,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        log.debug("REST request to export Phones as {}", format);
+        RowFormat rowFormat = RowFormat.fromExtension(format)
+            .orElseThrow(() -> new BadRequestAlertException("Unknown export format " + format, ENTITY_NAME, "exportformat"));
+        Instant createdBefore = cutoff ? Instant.now() : null;
+        try (OutputStream output = ExportUtil.startExport(request, response, rowFormat, "phones", createdBefore)) {
+            exportService.exportPhones(rowFormat, createdBefore, output);
+        }
+    }
+
     /**
      * GET  /phones : get all the phones.
+     * <p>
+     * The listing is tagged with the change counter of the phones, which is read before the page: a request whose
+     * If-None-Match header holds the current tag is answered with status 304 (Not Modified) without any query.
      *
      * @param pageable the pagination information
-     * @return the ResponseEntity with status 200 (OK) and the list of phones in body
+     * @param webRequest the request, for its If-None-Match header
+     * @return the ResponseEntity with status 200 (OK) and the list of phones in body, or null when the response
+     * is 304 (Not Modified)
      */
     @GetMapping("/phones")
     @Timed
-    public ResponseEntity<List<PhoneDTO>> getAllPhones(Pageable pageable) {
+    public ResponseEntity<List<PhoneDTO>> getAllPhones(Pageable pageable, WebRequest webRequest) {
         log.debug("REST request to get a page of Phones");
+        String eTag = ETagUtil.ofCollection(phoneService.getChangeCounter());
+        if (webRequest.checkNotModified(eTag)) {
+            return null;
+        }
         Page<PhoneDTO> page = phoneService.findAll(pageable);
         HttpHeaders headers = PaginationUtil.generatePaginationHttpHeaders(page, "/api/phones");
+        headers.setETag(eTag);
+        return new ResponseEntity<>(page.getContent(), headers, HttpStatus.OK);
+    }
+
+    /**
+     * GET  /phones?after=:after : get a page of phones using keyset pagination.
+     * <p>
+     * The first page is requested with an empty "after" parameter, and the next pages with the cursor
+     * found in the "next" link of the previous response. No total count is returned.
+     *
+     * @param after the cursor of the previous page, empty for the first page
+     * @param pageable the page size, and a sort on at most one property
+     * @param webRequest the request, for its If-None-Match header, compared as in {@link #getAllPhones}
+     * @return the ResponseEntity with status 200 (OK) and the list of phones in body,
+     * or with status 400 (Bad Request) if the sort or the cursor is invalid, or null when the response is 304 (Not Modified)
+     */
+    @GetMapping(value = "/phones", params = "after")
+    @Timed
+    public ResponseEntity<List<PhoneDTO>> getAllPhonesAfter(@RequestParam String after, Pageable pageable, WebRequest webRequest) {
+        log.debug("REST request to get a page of Phones after {}", after);
+        Cursor cursor = PaginationUtil.parseCursor(after, pageable, ENTITY_NAME, PhoneService.CURSOR_SORT_PROPERTIES);
+        String eTag = ETagUtil.ofCollection(phoneService.getChangeCounter());
+        if (webRequest.checkNotModified(eTag)) {
+            return null;
+        }
+        CursorPage<PhoneDTO> page = phoneService.findAllAfter(cursor, pageable);
+        HttpHeaders headers = PaginationUtil.generateCursorPaginationHttpHeaders(page, pageable, "/api/phones");
+        headers.setETag(eTag);
         return new ResponseEntity<>(page.getContent(), headers, HttpStatus.OK);
     }
 
@@ -103,14 +269,46 @@ public class PhoneResource {
      * GET  /phones/:id : get the "id" phone.
      *
      * @param id the id of the phoneDTO to retrieve
-     * @return the ResponseEntity with status 200 (OK) and with body the phoneDTO, or with status 404 (Not Found)
+     * @return the ResponseEntity with status 200 (OK) and with body the phoneDTO, tagged with its version, or with
+     * status 304 (Not Modified) and no body if it matches the If-None-Match header, or with status 404 (Not Found)
      */
     @GetMapping("/phones/{id}")
     @Timed
     public ResponseEntity<PhoneDTO> getPhone(@PathVariable String id) {
         log.debug("REST request to get Phone : {}", id);
         Optional<PhoneDTO> phoneDTO = phoneService.findOne(id);
-        return ResponseUtil.wrapOrNotFound(phoneDTO);
+        // the DTO comes from the cache, and a matching If-None-Match skips its serialization
+        HttpHeaders headers = new HttpHeaders();
+        phoneDTO.map(PhoneDTO::getVersion).ifPresent(version -> headers.setETag(ETagUtil.of(version)));
+        return ResponseUtil.wrapOrNotFound(phoneDTO, headers);
+    }
+
+    /**
+     * GET  /phones?ids=:ids : get the phones with the given ids.
+     *
+     * @param ids the comma-separated ids of the phones to retrieve
+     * @return the ResponseEntity with status 200 (OK) and with body the phones found, in the order of the ids, and the ids not found,
+     * or with status 400 (Bad Request) if too many ids are requested
+     */
+    @GetMapping(value = "/phones", params = "ids")
+    @Timed
+    public ResponseEntity<MultiGetResultDTO<PhoneDTO>> getPhonesById(@RequestParam List<String> ids) {
+        log.debug("REST request to get Phones : {}", ids);
+        return ResponseEntity.ok(phoneService.findAllById(ids));
+    }
+
+    /**
+     * POST  /phones/_mget : get the phones with the given ids, for lists of ids too long for a query string.
+     *
+     * @param ids the ids of the phones to retrieve
+     * @return the ResponseEntity with status 200 (OK) and with body the phones found, in the order of the ids, and the ids not found,
+     * or with status 400 (Bad Request) if too many ids are requested
+     */
+    @PostMapping("/phones/_mget")
+    @Timed
+    public ResponseEntity<MultiGetResultDTO<PhoneDTO>> getPhonesByIdInBody(@RequestBody List<String> ids) {
+        log.debug("REST request to get Phones : {}", ids);
+        return ResponseEntity.ok(phoneService.findAllById(ids));
     }
 
     /**
@@ -144,4 +342,140 @@ public class PhoneResource {
         return new ResponseEntity<>(page.getContent(), headers, HttpStatus.OK);
     }
 
+    /**
+     * GET  /phones/_search : search for the phones matching structured criteria, using keyset pagination.
+     * <p>
+     * The first page is requested without the "after" parameter, and the next pages with the cursor
+     * found in the "next" link of the previous response. No total count is returned.
+     *
+     * @param criteria the name text, one or more brands, and the price range of the phones
+     * @param after the cursor of the previous page, empty for the first page
+     * @param pageable the page size, and a sort on at most one property; the phones are sorted by relevance
+     * when there is none
+     * @return the ResponseEntity with status 200 (OK) and the list of phones in body,
+     * or with status 400 (Bad Request) if the price range, the sort or the cursor is invalid
+     */
+    @GetMapping("/phones/_search")
+    @Timed
+    public ResponseEntity<List<PhoneDTO>> searchPhonesByCriteria(PhoneSearchCriteria criteria, @RequestParam(required = false) String after,
+            Pageable pageable) {
+        log.debug("REST request to search for Phones matching {} after {}", criteria, after);
+        validatePriceRange(criteria.getMinPrice(), criteria.getMaxPrice());
+        Cursor cursor = PaginationUtil.parseCursor(after, pageable, ENTITY_NAME, PhoneService.SEARCH_SORT_PROPERTIES);
+        CursorPage<PhoneDTO> page = phoneService.search(criteria, cursor, pageable);
+        HttpHeaders headers = PaginationUtil.generateCursorPaginationHttpHeaders(page, pageable, searchUrl("/api/phones/_search", criteria));
+        return new ResponseEntity<>(page.getContent(), headers, HttpStatus.OK);
+    }
+
+    /**
+     * GET  /phones/_search/faceted : search for the phones matching structured criteria, using keyset pagination,
+     * with the brand and price facets of all the matching phones.
+     * <p>
+     * Each facet follows the other criteria but not its own, so that it lists the brands or price ranges
+     * the search can be switched to, with the number of phones in each.
+     *
+     * @param criteria the name text, one or more brands, and the price range of the phones
+     * @param after the cursor of the previous page, empty for the first page
+     * @param pageable the page size, and a sort on at most one property; the phones are sorted by relevance
+     * when there is none
+     * @return the ResponseEntity with status 200 (OK) and the list of phones and the facets in body,
+     * or with status 400 (Bad Request) if the price range, the sort or the cursor is invalid
+     */
+    @GetMapping("/phones/_search/faceted")
+    @Timed
+    public ResponseEntity<FacetedPageDTO<PhoneDTO>> searchPhonesWithFacets(PhoneSearchCriteria criteria,
+            @RequestParam(required = false) String after, Pageable pageable) {
+        log.debug("REST request to search for Phones matching {} after {}, with facets", criteria, after);
+        validatePriceRange(criteria.getMinPrice(), criteria.getMaxPrice());
+        Cursor cursor = PaginationUtil.parseCursor(after, pageable, ENTITY_NAME, PhoneService.SEARCH_SORT_PROPERTIES);
+        FacetedPageDTO<PhoneDTO> result = phoneService.searchWithFacets(criteria, cursor, pageable);
+        HttpHeaders headers = PaginationUtil.generateCursorPaginationHttpHeaders(result.getPage(), pageable,
+            searchUrl("/api/phones/_search/faceted", criteria));
+        return new ResponseEntity<>(result, headers, HttpStatus.OK);
+    }
+
+    /**
+     * GET  /phones/_price-range : get the phones with a price in a range, sorted by price.
+     * <p>
+     * The phones are found in the in-memory price index of this node, without querying MongoDB or Elasticsearch
+     * for the range; any page costs the same, whatever its offset. Phones without a price are left out.
+     *
+     * @param minPrice the lowest price, none for no lower bound
+     * @param maxPrice the highest price, none for no upper bound
+     * @param pageable the pagination information, with no sort or "price,asc" or "price,desc"
+     * @return the ResponseEntity with status 200 (OK) and the list of phones in body,
+     * or with status 400 (Bad Request) if the price range or the sort is invalid,
+     * or with status 503 (Service Unavailable) if the prices are not loaded yet
+     */
+    @GetMapping("/phones/_price-range")
+    @Timed
+    public ResponseEntity<List<PhoneDTO>> getPhonesByPriceRange(@RequestParam(required = false) BigDecimal minPrice,
+            @RequestParam(required = false) BigDecimal maxPrice, Pageable pageable) {
+        log.debug("REST request to get a page of Phones with a price from {} to {}", minPrice, maxPrice);
+        validatePriceRange(minPrice, maxPrice);
+        Page<PhoneDTO> page = phoneService.findAllByPriceRange(minPrice, maxPrice, pageable);
+        HttpHeaders headers = PaginationUtil.generatePaginationHttpHeaders(page, priceRangeUrl(minPrice, maxPrice, pageable.getSort()));
+        return new ResponseEntity<>(page.getContent(), headers, HttpStatus.OK);
+    }
+
+    /**
+     * GET  /phones/_price-stats : get the number of phones with a price in a range, and percentiles of their prices.
+     * <p>
+     * The statistics are computed from the in-memory price index of this node, with prices rounded to the cent.
+     *
+     * @param minPrice the lowest price, none for no lower bound
+     * @param maxPrice the highest price, none for no upper bound
+     * @param percentile the percentages of the percentiles, from 0 to 100
+     * @return the ResponseEntity with status 200 (OK) and the statistics in body,
+     * or with status 400 (Bad Request) if the price range or a percentile is invalid,
+     * or with status 503 (Service Unavailable) if the prices are not loaded yet
+     */
+    @GetMapping("/phones/_price-stats")
+    @Timed
+    public ResponseEntity<PriceStatsDTO> getPriceStats(@RequestParam(required = false) BigDecimal minPrice,
+            @RequestParam(required = false) BigDecimal maxPrice, @RequestParam(defaultValue = "25,50,75") List<Double> percentile) {
+        log.debug("REST request to get the price statistics of the Phones with a price from {} to {}", minPrice, maxPrice);
+        validatePriceRange(minPrice, maxPrice);
+        return ResponseEntity.ok(phoneService.getPriceStats(minPrice, maxPrice, percentile));
+    }
+
+    private void validatePriceRange(BigDecimal minPrice, BigDecimal maxPrice) {
+        if (minPrice != null && maxPrice != null && minPrice.compareTo(maxPrice) > 0) {
+            throw new BadRequestAlertException("The minimum price is above the maximum price", ENTITY_NAME, "pricerange");
+        }
+    }
+
+    /**
+     * @return the encoded URL of a search with the same criteria, to which the pagination parameters are added
+     */
+    private String searchUrl(String path, PhoneSearchCriteria criteria) {
+        UriComponentsBuilder url = UriComponentsBuilder.fromUriString(path);
+        if (criteria.getName() != null) {
+            url.queryParam("name", PaginationUtil.encodeQueryParam(criteria.getName()));
+        }
+        criteria.getBrand().forEach(brand -> url.queryParam("brand", PaginationUtil.encodeQueryParam(brand)));
+        if (criteria.getMinPrice() != null) {
+            url.queryParam("minPrice", PaginationUtil.encodeQueryParam(criteria.getMinPrice().toString()));
+        }
+        if (criteria.getMaxPrice() != null) {
+            url.queryParam("maxPrice", PaginationUtil.encodeQueryParam(criteria.getMaxPrice().toString()));
+        }
+        return url.build(true).toUriString();
+    }
+
+    /**
+     * @return the URL of the same price range, to which the pagination parameters are added, not encoded yet
+     */
+    private String priceRangeUrl(BigDecimal minPrice, BigDecimal maxPrice, Sort sort) {
+        UriComponentsBuilder url = UriComponentsBuilder.fromUriString("/api/phones/_price-range");
+        if (minPrice != null) {
+            url.queryParam("minPrice", minPrice);
+        }
+        if (maxPrice != null) {
+            url.queryParam("maxPrice", maxPrice);
+        }
+        sort.forEach(order -> url.queryParam("sort", order.getProperty() + (order.isDescending() ? ",desc" : ",asc")));
+        return url.build().toUriString();
+    }
+
 }
@@ -0,0 +1,77 @@
+package com.geardao.phoneapp.web.rest;
+
+import com.geardao.phoneapp.service.ReindexException;
+import com.geardao.phoneapp.service.ReindexService;
+import com.geardao.phoneapp.service.dto.ReindexStatusDTO;
+import com.geardao.phoneapp.web.rest.errors.BadRequestAlertException;
+
+import com.codahale.metrics.annotation.Timed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Controller for rebuilding the Elasticsearch indexes from MongoDB.
+ */
+@RestController
+@RequestMapping("/management")
+public class ReindexResource {
+
+    private static final String ENTITY_NAME = "reindex";
+
+    private final Logger log = LoggerFactory.getLogger(ReindexResource.class);
+
+    private final ReindexService reindexService;
+
+    public ReindexResource(ReindexService reindexService) {
+        this.reindexService = reindexService;
+    }
+
+    /**
+     * POST  /reindex : rebuild indexes in the background.
+     *
+     * @param indexes the names of the indexes to rebuild, all of them if none is given
+     * @return the ResponseEntity with status 202 (Accepted) and with body the status of each index,
+     * or with status 400 (Bad Request) if Elasticsearch is not configured, if an index is unknown or if a rebuild
+     * is already running
+     */
+    @PostMapping("/reindex")
+    @Timed
+    public ResponseEntity<List<ReindexStatusDTO>> reindex(@RequestParam(value = "index", required = false) List<String> indexes) {
+        log.debug("REST request to rebuild indexes : {}", indexes);
+        List<ReindexStatusDTO> statuses;
+        try {
+            statuses = reindexService.start(indexes == null ? Collections.emptyList() : indexes);
+        } catch (ReindexException e) {
+            throw new BadRequestAlertException(e.getMessage(), ENTITY_NAME, getErrorKey(e.getReason()));
+        }
+        return new ResponseEntity<>(statuses, HttpStatus.ACCEPTED);
+    }
+
+    /**
+     * GET  /reindex : get the progress of the current or last rebuild.
+     *
+     * @return the status of each index
+     */
+    @GetMapping("/reindex")
+    @Timed
+    public List<ReindexStatusDTO> getStatuses() {
+        return reindexService.getStatuses();
+    }
+
+    private static String getErrorKey(ReindexException.Reason reason) {
+        switch (reason) {
+            case ELASTICSEARCH_DISABLED:
+                return "elasticsearchdisabled";
+            case UNKNOWN_INDEX:
+                return "unknownindex";
+            default:
+                return "reindexrunning";
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.geardao.phoneapp.web.rest;
+
+import com.geardao.phoneapp.service.SuggestService;
+import com.geardao.phoneapp.service.dto.SuggestionDTO;
+
+import com.codahale.metrics.annotation.Timed;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * REST controller for the typeahead suggestions of phone and brand names.
+ */
+@RestController
+@RequestMapping("/api")
+public class SuggestResource {
+
+    private final SuggestService suggestService;
+
+    public SuggestResource(SuggestService suggestService) {
+        this.suggestService = suggestService;
+    }
+
+    /**
+     * GET  /_suggest?prefix= : suggest phones and brands by the beginning of a word of their name.
+     * This is meant to be called on each keystroke, and does not go to Elasticsearch.
+     *
+     * @param prefix the beginning of a word, case and accents are ignored
+     * @param size the largest number of suggestions
+     * @return the suggestions, the brands with the most phones first
+     */
+    @GetMapping("/_suggest")
+    @Timed
+    public List<SuggestionDTO> suggest(@RequestParam String prefix, @RequestParam(defaultValue = "10") int size) {
+        return suggestService.suggest(prefix, size);
+    }
+}
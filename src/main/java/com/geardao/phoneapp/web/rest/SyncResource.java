@@ -0,0 +1,56 @@
+package com.geardao.phoneapp.web.rest;
+
+import com.geardao.phoneapp.service.SyncService;
+import com.geardao.phoneapp.web.rest.util.ExportUtil;
+
+import com.codahale.metrics.annotation.Timed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * REST controller for the delta sync of the catalog.
+ */
+@RestController
+@RequestMapping("/api")
+public class SyncResource {
+
+    private final Logger log = LoggerFactory.getLogger(SyncResource.class);
+
+    private final SyncService syncService;
+
+    public SyncResource(SyncService syncService) {
+        this.syncService = syncService;
+    }
+
+    /**
+     * GET  /sync?since=:token : get the phones and brands created, updated or deleted since a token.
+     * <p>
+     * The changes are streamed from the database as they are read, and compressed with gzip if the client accepts
+     * it. The response ends with the token of the next sync; see {@link SyncService#sync} for its format.
+     *
+     * @param since the token returned by the last sync, none for a first sync
+     * @param request the request
+     * @param response the response, with status 200 (OK) and the changes in body,
+     * or with status 400 (Bad Request) if the token is invalid
+     * @throws IOException if the response could not be written
+     */
+    @GetMapping("/sync")
+    @Timed
+    public void sync(@RequestParam(required = false) String since, HttpServletRequest request, HttpServletResponse response)
+        throws IOException {
+
+        log.debug("REST request to sync the catalog since {}", since);
+        SyncService.Position position = syncService.parseToken(since);
+        response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+        try (OutputStream output = ExportUtil.openBody(request, response)) {
+            syncService.sync(position, output);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.geardao.phoneapp.web.rest;
 import com.geardao.phoneapp.config.Constants;
 import com.codahale.metrics.annotation.Timed;
 import com.geardao.phoneapp.domain.User;
+import com.geardao.phoneapp.repository.CursorPage;
 import com.geardao.phoneapp.repository.UserRepository;
 import com.geardao.phoneapp.repository.search.UserSearchRepository;
 import com.geardao.phoneapp.security.AuthoritiesConstants;
@@ -156,6 +157,22 @@ public class UserResource {
         return new ResponseEntity<>(page.getContent(), headers, HttpStatus.OK);
     }
 
+    /**
+     * GET /users?after=:after : get a page of users using keyset pagination.
+     *
+     * @param after the cursor of the previous page, empty for the first page
+     * @param pageable the page size, and a sort on at most one property
+     * @return the ResponseEntity with status 200 (OK) and with body the users, and a "next" link if there are more
+     */
+    @GetMapping(value = "/users", params = "after")
+    @Timed
+    public ResponseEntity<List<UserDTO>> getAllUsersAfter(@RequestParam String after, Pageable pageable) {
+        final CursorPage<UserDTO> page = userService.getAllManagedUsersAfter(PaginationUtil.parseCursor(after, pageable, "userManagement",
+            UserService.CURSOR_SORT_PROPERTIES), pageable);
+        HttpHeaders headers = PaginationUtil.generateCursorPaginationHttpHeaders(page, pageable, "/api/users");
+        return new ResponseEntity<>(page.getContent(), headers, HttpStatus.OK);
+    }
+
     /**
      * @return a string list of the all of the roles
      */
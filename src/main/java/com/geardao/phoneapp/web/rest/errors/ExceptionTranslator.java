@@ -1,5 +1,6 @@
 package com.geardao.phoneapp.web.rest.errors;
 
+import com.geardao.phoneapp.service.PriceIndexUnavailableException;
 import com.geardao.phoneapp.web.rest.util.HeaderUtil;
 
 import org.springframework.dao.ConcurrencyFailureException;
@@ -105,4 +106,13 @@ public class ExceptionTranslator implements ProblemHandling {
             .build();
         return create(ex, problem, request);
     }
+
+    @ExceptionHandler(PriceIndexUnavailableException.class)
+    public ResponseEntity<Problem> handlePriceIndexUnavailable(PriceIndexUnavailableException ex, NativeWebRequest request) {
+        Problem problem = Problem.builder()
+            .withStatus(Status.SERVICE_UNAVAILABLE)
+            .with("message", ErrorConstants.ERR_UNAVAILABLE)
+            .build();
+        return create(ex, problem, request);
+    }
 }
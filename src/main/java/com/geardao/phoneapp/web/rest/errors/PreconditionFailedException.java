@@ -0,0 +1,17 @@
+package com.geardao.phoneapp.web.rest.errors;
+
+import org.zalando.problem.AbstractThrowableProblem;
+import org.zalando.problem.Status;
+
+/**
+ * Simple exception with a message, that returns a Precondition Failed code, when the entity no longer matches the
+ * If-Match header of a request.
+ */
+public class PreconditionFailedException extends AbstractThrowableProblem {
+
+    private static final long serialVersionUID = 1L;
+
+    public PreconditionFailedException(String message) {
+        super(ErrorConstants.DEFAULT_TYPE, message, Status.PRECONDITION_FAILED);
+    }
+}
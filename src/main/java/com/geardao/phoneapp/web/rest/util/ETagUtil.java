@@ -0,0 +1,61 @@
+package com.geardao.phoneapp.web.rest.util;
+
+import com.geardao.phoneapp.web.rest.errors.PreconditionFailedException;
+
+/**
+ * Utility class for the entity tags of the versioned entities, which are their version between quotes, and of
+ * the listings of their collections, which are the change counter of the collection.
+ */
+public final class ETagUtil {
+
+    private ETagUtil() {
+    }
+
+    /**
+     * @param version the version of an entity
+     * @return the strong entity tag of this version
+     */
+    public static String of(long version) {
+        return "\"" + version + "\"";
+    }
+
+    /**
+     * @param id the id of an entity
+     * @param version the version of the entity
+     * @return the strong entity tag of this version, for a resource which can represent different entities
+     */
+    public static String of(String id, Long version) {
+        return "\"" + id + "-" + version + "\"";
+    }
+
+    /**
+     * @param changeCounter the change counter of a collection
+     * @return the strong entity tag of the listings of the collection at this counter
+     */
+    public static String ofCollection(long changeCounter) {
+        return "\"c" + changeCounter + "\"";
+    }
+
+    /**
+     * Get the version required by an If-Match header. Only a single strong entity tag is supported, as the
+     * versions of an entity are not kept.
+     *
+     * @param ifMatch the value of the header, or null
+     * @return the required version, or null if any version matches
+     * @throws PreconditionFailedException if the header cannot match any version
+     */
+    public static Long parseIfMatch(String ifMatch) {
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        String tag = ifMatch.trim();
+        if (tag.length() > 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+            try {
+                return Long.valueOf(tag.substring(1, tag.length() - 1));
+            } catch (NumberFormatException e) {
+                // not one of our tags
+            }
+        }
+        throw new PreconditionFailedException("The If-Match header " + ifMatch + " does not match the current version");
+    }
+}
@@ -0,0 +1,69 @@
+package com.geardao.phoneapp.web.rest.util;
+
+import com.geardao.phoneapp.service.util.RowFormat;
+
+import org.springframework.http.HttpHeaders;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Utility class for streaming exports, and the other responses written while they are read from the database.
+ */
+public final class ExportUtil {
+
+    public static final String CREATED_BEFORE_HEADER = "X-Created-Before";
+
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    private ExportUtil() {
+    }
+
+    /**
+     * Set the headers of an export, and open its body.
+     * <p>
+     * The body is compressed with gzip when the client accepts it. It must be closed once the export is written.
+     *
+     * @param request the export request
+     * @param response the export response
+     * @param format the format of the rows
+     * @param fileName the file name suggested to the client, without extension
+     * @param createdBefore the creation-time cut-off of the export, or null
+     * @return the stream to write the export to
+     * @throws IOException if the body could not be opened
+     */
+    public static OutputStream startExport(HttpServletRequest request, HttpServletResponse response, RowFormat format,
+            String fileName, Instant createdBefore) throws IOException {
+
+        response.setContentType(format.getContentType());
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "." + format.getExtension() + "\"");
+        if (createdBefore != null) {
+            response.setHeader(CREATED_BEFORE_HEADER, createdBefore.toString());
+        }
+        return openBody(request, response);
+    }
+
+    /**
+     * Open the body of a streamed response, compressed with gzip when the client accepts it. It must be closed
+     * once the response is written.
+     *
+     * @param request the request
+     * @param response the response, with its content type
+     * @return the stream to write the body to
+     * @throws IOException if the body could not be opened
+     */
+    public static OutputStream openBody(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+            return new GZIPOutputStream(response.getOutputStream(), GZIP_BUFFER_SIZE);
+        }
+        return response.getOutputStream();
+    }
+}
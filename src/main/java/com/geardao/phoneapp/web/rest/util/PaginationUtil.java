@@ -1,11 +1,19 @@
 package com.geardao.phoneapp.web.rest.util;
 
+import com.geardao.phoneapp.repository.Cursor;
+import com.geardao.phoneapp.repository.CursorPage;
+import com.geardao.phoneapp.web.rest.errors.BadRequestAlertException;
+
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpHeaders;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.Iterator;
+import java.util.Set;
 
 /**
  * Utility class for handling pagination.
@@ -73,4 +81,78 @@ public final class PaginationUtil {
         headers.add(HttpHeaders.LINK, link);
         return headers;
     }
+
+    /**
+     * Generate the headers of a keyset paginated response: only a "next" link is provided, as the total
+     * number of elements is not computed.
+     * <p>
+     * The base URL must already be encoded, with its query parameters encoded by {@link #encodeQueryParam(String)},
+     * as it is not encoded again.
+     */
+    public static <T> HttpHeaders generateCursorPaginationHttpHeaders(CursorPage<T> page, Pageable pageable, String baseUrl) {
+        HttpHeaders headers = new HttpHeaders();
+        if (page.hasNext()) {
+            UriComponentsBuilder builder = UriComponentsBuilder.fromUriString(baseUrl)
+                .queryParam("after", page.getNext().encode())
+                .queryParam("size", pageable.getPageSize());
+            for (Sort.Order order : pageable.getSort()) {
+                builder.queryParam("sort", encodeQueryParam(order.getProperty()) + "," + order.getDirection().name().toLowerCase());
+            }
+            headers.add(HttpHeaders.LINK, "<" + builder.build(true).toUriString() + ">; rel=\"next\"");
+        }
+        return headers;
+    }
+
+    /**
+     * Encode the value of a query parameter, so that it is decoded as it is by the server; unlike URI encoding,
+     * this also encodes the plus sign, which would otherwise be read as a space.
+     *
+     * @param value the value
+     * @return the encoded value
+     */
+    public static String encodeQueryParam(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Parse the "after" parameter of a keyset paginated request.
+     *
+     * @param after the cursor sent by the client, empty for the first page
+     * @param pageable the requested page size and sort
+     * @param entityName the name of the paginated entity, for error reporting
+     * @param sortProperties the properties the pages can be sorted by, besides the id
+     * @return the cursor, or null for the first page
+     * @throws BadRequestAlertException if the sort is not supported, or if the cursor is invalid or was issued for
+     * another sort
+     */
+    public static Cursor parseCursor(String after, Pageable pageable, String entityName, Set<String> sortProperties) {
+        Iterator<Sort.Order> orders = pageable.getSort().iterator();
+        String sortProperty = orders.hasNext() ? orders.next().getProperty() : null;
+        if (orders.hasNext()) {
+            throw new BadRequestAlertException("Cursor pagination supports sorting on a single property", entityName, "cursorsort");
+        }
+        if ("id".equals(sortProperty)) {
+            sortProperty = null;
+        }
+        if (sortProperty != null && !sortProperties.contains(sortProperty)) {
+            throw new BadRequestAlertException("Cursor pagination does not support sorting by " + sortProperty, entityName, "cursorsort");
+        }
+        if (after == null || after.isEmpty()) {
+            return null;
+        }
+        Cursor cursor;
+        try {
+            cursor = Cursor.decode(after);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestAlertException("Invalid cursor", entityName, "cursorinvalid");
+        }
+        if (sortProperty == null ? cursor.getProperty() != null : !sortProperty.equals(cursor.getProperty())) {
+            throw new BadRequestAlertException("The cursor was issued for another sort", entityName, "cursorsort");
+        }
+        return cursor;
+    }
 }
@@ -0,0 +1,172 @@
+package com.geardao.phoneapp.config;
+
+import com.geardao.phoneapp.repository.UserRepository;
+import com.geardao.phoneapp.service.BrandService;
+import com.geardao.phoneapp.service.PhoneService;
+import com.geardao.phoneapp.service.SearchResultCache;
+import com.geardao.phoneapp.service.dto.PhoneDTO;
+
+import io.github.jhipster.config.JHipsterProperties;
+import org.ehcache.config.CacheRuntimeConfiguration;
+import org.ehcache.config.ResourcePool;
+import org.ehcache.config.ResourceType;
+import org.ehcache.config.SizedResourcePool;
+import org.ehcache.config.units.EntryUnit;
+import org.ehcache.config.units.MemoryUnit;
+import org.ehcache.jsr107.Eh107Configuration;
+import org.ehcache.jsr107.EhcacheCachingProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.cache.jcache.JCacheCacheManager;
+import org.springframework.core.env.MutablePropertySources;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.FileSystemResource;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Test class for the CacheConfiguration, booting the real Ehcache JCache manager with the caches declared in the
+ * main configuration files, rather than the simple cache manager the other tests use.
+ *
+ * @see CacheConfiguration
+ */
+public class CacheConfigurationUnitTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private ApplicationProperties applicationProperties;
+
+    private CacheManager cacheManager;
+
+    @Before
+    public void setup() {
+        applicationProperties = new ApplicationProperties();
+        applicationProperties.getCache().setPersistenceDirectory(temporaryFolder.getRoot().getPath());
+    }
+
+    @After
+    public void destroy() {
+        if (cacheManager != null) {
+            cacheManager.close();
+        }
+    }
+
+    @Test
+    public void testCreateDeclaredCaches() throws IOException {
+        bind("application.yml");
+        cacheManager = createCacheManager();
+
+        JCacheCacheManager springCacheManager = new JCacheCacheManager(cacheManager);
+        springCacheManager.afterPropertiesSet();
+        assertThat(springCacheManager.getCacheNames()).containsExactlyInAnyOrder(
+            UserRepository.USERS_BY_LOGIN_CACHE,
+            UserRepository.USERS_BY_EMAIL_CACHE,
+            PhoneService.PHONES_BY_ID_CACHE,
+            BrandService.BRANDS_BY_ID_CACHE,
+            PhoneService.PHONE_FACETS_CACHE,
+            SearchResultCache.SEARCH_RESULTS_CACHE);
+
+        assertThat(timeToLive(PhoneService.PHONES_BY_ID_CACHE)).isEqualTo(Duration.ofHours(1));
+        assertThat(timeToLive(PhoneService.PHONE_FACETS_CACHE)).isEqualTo(Duration.ofSeconds(30));
+        assertThat(pool(PhoneService.PHONE_FACETS_CACHE, ResourceType.Core.HEAP).getSize()).isEqualTo(1000);
+        assertThat(pool(PhoneService.PHONE_FACETS_CACHE, ResourceType.Core.HEAP).getUnit()).isEqualTo(EntryUnit.ENTRIES);
+        assertThat(pool(SearchResultCache.SEARCH_RESULTS_CACHE, ResourceType.Core.HEAP).getSize()).isEqualTo(16);
+        assertThat(pool(SearchResultCache.SEARCH_RESULTS_CACHE, ResourceType.Core.HEAP).getUnit()).isEqualTo(MemoryUnit.MB);
+        // unset sizes default to jhipster.cache.ehcache
+        assertThat(pool(UserRepository.USERS_BY_LOGIN_CACHE, ResourceType.Core.HEAP).getSize())
+            .isEqualTo(new JHipsterProperties().getCache().getEhcache().getMaxEntries());
+        assertThat(pool(UserRepository.USERS_BY_LOGIN_CACHE, ResourceType.Core.OFFHEAP)).isNull();
+    }
+
+    @Test
+    public void testStoreByValue() throws IOException {
+        bind("application.yml");
+        cacheManager = createCacheManager();
+        Cache<Object, Object> phones = cacheManager.getCache(PhoneService.PHONES_BY_ID_CACHE);
+        PhoneDTO phone = new PhoneDTO();
+        phone.setId("1");
+        phone.setName("phone");
+
+        phones.put("1", phone);
+        phone.setName("modified");
+
+        PhoneDTO cached = (PhoneDTO) phones.get("1");
+        assertThat(cached).isNotSameAs(phone);
+        assertThat(cached.getName()).isEqualTo("phone");
+        assertThat(phones.get("1")).isNotSameAs(cached);
+    }
+
+    @Test
+    public void testCreateProdCaches() throws IOException {
+        bind("application.yml", "application-prod.yml");
+        cacheManager = createCacheManager();
+
+        assertThat(pool(UserRepository.USERS_BY_LOGIN_CACHE, ResourceType.Core.HEAP).getSize()).isEqualTo(1000);
+        assertThat(pool(UserRepository.USERS_BY_LOGIN_CACHE, ResourceType.Core.OFFHEAP).getSize()).isEqualTo(64);
+        assertThat(pool(UserRepository.USERS_BY_EMAIL_CACHE, ResourceType.Core.OFFHEAP).getSize()).isEqualTo(64);
+        Cache<Object, Object> users = cacheManager.getCache(UserRepository.USERS_BY_LOGIN_CACHE);
+        users.put("login", "user");
+        assertThat(users.get("login")).isEqualTo("user");
+    }
+
+    @Test
+    public void testFailOnUndeclaredCache() {
+        assertThatThrownBy(this::createCacheManager)
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessageContaining("application.cache.caches");
+    }
+
+    private void bind(String... files) throws IOException {
+        // the later files override the earlier ones, as profiles do
+        MutablePropertySources propertySources = new MutablePropertySources();
+        for (String file : files) {
+            List<PropertySource<?>> loaded = new YamlPropertySourceLoader()
+                .load(file, new FileSystemResource("src/main/resources/config/" + file));
+            loaded.forEach(propertySources::addFirst);
+        }
+        new Binder(ConfigurationPropertySources.from(propertySources))
+            .bind("application", Bindable.ofInstance(applicationProperties));
+    }
+
+    private CacheManager createCacheManager() {
+        CacheConfiguration cacheConfiguration = new CacheConfiguration(new JHipsterProperties(), applicationProperties);
+        try {
+            return cacheConfiguration.jCacheCacheManager();
+        } catch (RuntimeException e) {
+            // the manager is shared by the provider, and already holds the caches created before the failure
+            Caching.getCachingProvider(EhcacheCachingProvider.class.getName()).getCacheManager().close();
+            throw e;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private CacheRuntimeConfiguration<Object, Object> runtimeConfiguration(String cacheName) {
+        Eh107Configuration<Object, Object> configuration = cacheManager.getCache(cacheName).getConfiguration(Eh107Configuration.class);
+        return configuration.unwrap(CacheRuntimeConfiguration.class);
+    }
+
+    private Duration timeToLive(String cacheName) {
+        return runtimeConfiguration(cacheName).getExpiryPolicy().getExpiryForCreation("key", "value");
+    }
+
+    private SizedResourcePool pool(String cacheName, ResourceType<?> type) {
+        ResourcePool pool = runtimeConfiguration(cacheName).getResourcePools().getPoolForResource(type);
+        return (SizedResourcePool) pool;
+    }
+}
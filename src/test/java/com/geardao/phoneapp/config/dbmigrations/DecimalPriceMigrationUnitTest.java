@@ -0,0 +1,111 @@
+package com.geardao.phoneapp.config.dbmigrations;
+
+import com.geardao.phoneapp.domain.Phone;
+
+import com.mongodb.MongoClient;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.Decimal128;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test class for the DecimalPriceMigration, on mocks of MongoDB.
+ *
+ * @see DecimalPriceMigration
+ */
+public class DecimalPriceMigrationUnitTest {
+
+    private MongoTemplate mongoTemplate;
+
+    private MongoCollection<Document> collection;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        mongoTemplate = mock(MongoTemplate.class);
+        when(mongoTemplate.getCollectionName(Phone.class)).thenReturn("phone");
+        collection = mock(MongoCollection.class);
+        when(mongoTemplate.getCollection("phone")).thenReturn(collection);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testConvertPricesOnlyIfUnchanged() {
+        FindIterable<Document> phones = documents(new Document("_id", "1").append("price", "199.90"));
+        when(collection.find(any(Bson.class))).thenReturn(phones);
+
+        new DecimalPriceMigration().convertPrices(mongoTemplate);
+
+        ArgumentCaptor<List<WriteModel<Document>>> models = ArgumentCaptor.forClass(List.class);
+        verify(collection).bulkWrite(models.capture());
+        UpdateOneModel<Document> model = (UpdateOneModel<Document>) models.getValue().get(0);
+        assertThat(toJson(model.getFilter())).contains("\"price\" : \"199.90\"");
+        assertThat(toJson(model.getUpdate())).contains(new Decimal128(new BigDecimal("199.90")).toString());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testFailOnPricesThatCannotBeConverted() {
+        FindIterable<Document> phones = documents(new Document("_id", "1").append("price", "199.90"),
+            new Document("_id", "2").append("price", "free"),
+            new Document("_id", "3").append("price", "1234567890123456789012345678901234.5"));
+        when(collection.find(any(Bson.class))).thenReturn(phones);
+
+        assertThatThrownBy(() -> new DecimalPriceMigration().convertPrices(mongoTemplate))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessageContaining("2 phones")
+            .hasMessageContaining("[2, 3]");
+        // the other prices are converted before failing
+        ArgumentCaptor<List<WriteModel<Document>>> models = ArgumentCaptor.forClass(List.class);
+        verify(collection).bulkWrite(models.capture());
+        assertThat(models.getValue()).hasSize(1);
+    }
+
+    @Test
+    public void testNothingToConvert() {
+        FindIterable<Document> phones = documents();
+        when(collection.find(any(Bson.class))).thenReturn(phones);
+
+        new DecimalPriceMigration().convertPrices(mongoTemplate);
+
+        verify(collection, never()).bulkWrite(anyList());
+    }
+
+    private static String toJson(Bson bson) {
+        return bson.toBsonDocument(BsonDocument.class, MongoClient.getDefaultCodecRegistry()).toJson();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static FindIterable<Document> documents(Document... documents) {
+        List<Document> list = Arrays.asList(documents);
+        FindIterable<Document> iterable = mock(FindIterable.class, RETURNS_SELF);
+        when(iterable.iterator()).thenAnswer(invocation -> {
+            Iterator<Document> iterator = list.iterator();
+            MongoCursor<Document> cursor = mock(MongoCursor.class);
+            when(cursor.hasNext()).thenAnswer(hasNext -> iterator.hasNext());
+            when(cursor.next()).thenAnswer(next -> iterator.next());
+            return cursor;
+        });
+        return iterable;
+    }
+}
@@ -0,0 +1,58 @@
+package com.geardao.phoneapp.domain.util;
+
+import com.geardao.phoneapp.domain.Phone;
+
+import org.bson.Document;
+import org.bson.types.Decimal128;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.DbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Test class for the DecimalConverters utility class.
+ *
+ * @see DecimalConverters
+ */
+public class DecimalConvertersUnitTest {
+
+    private MappingMongoConverter converter;
+
+    @Before
+    public void setup() {
+        MongoCustomConversions conversions = new MongoCustomConversions(Arrays.asList(
+            DecimalConverters.BigDecimalToDecimal128Converter.INSTANCE,
+            DecimalConverters.Decimal128ToBigDecimalConverter.INSTANCE));
+        MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+        mappingContext.afterPropertiesSet();
+        converter = new MappingMongoConverter(mock(DbRefResolver.class), mappingContext);
+        converter.setCustomConversions(conversions);
+        converter.afterPropertiesSet();
+    }
+
+    @Test
+    public void testPricesAreStoredAsDecimal128() {
+        Document document = new Document();
+        converter.write(new Phone().price(new BigDecimal("199.90")), document);
+
+        assertThat(document.get("price")).isEqualTo(new Decimal128(new BigDecimal("199.90")));
+        assertThat(converter.read(Phone.class, document).getPrice()).isEqualTo(new BigDecimal("199.90"));
+        assertThat(converter.convertToMongoType(new BigDecimal("5"))).isEqualTo(new Decimal128(5));
+    }
+
+    @Test
+    public void testPricesStoredAsStringsAreRead() {
+        Document document = new Document("price", "199.90");
+
+        assertThat(converter.read(Phone.class, document).getPrice()).isEqualTo(new BigDecimal("199.90"));
+    }
+}
@@ -0,0 +1,217 @@
+package com.geardao.phoneapp.repository;
+
+import com.geardao.phoneapp.config.ApplicationProperties;
+import com.geardao.phoneapp.config.ApplicationProperties.AuditEvents.OverflowPolicy;
+import com.geardao.phoneapp.domain.PersistentAuditEvent;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test class for the AuditEventWriter.
+ *
+ * @see AuditEventWriter
+ */
+public class AuditEventWriterUnitTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private ApplicationProperties applicationProperties;
+
+    private MongoTemplate mongoTemplate;
+
+    private BulkOperations bulkOperations;
+
+    private File spillFile;
+
+    @Before
+    public void setup() {
+        applicationProperties = new ApplicationProperties();
+        applicationProperties.getAuditEvents().setBufferCapacity(2);
+        applicationProperties.getAuditEvents().setBatchSize(2);
+        spillFile = new File(temporaryFolder.getRoot(), "audit-events.spill");
+        applicationProperties.getAuditEvents().setSpillFile(spillFile.getPath());
+        mongoTemplate = mock(MongoTemplate.class);
+        bulkOperations = mock(BulkOperations.class);
+        when(mongoTemplate.bulkOps(BulkMode.UNORDERED, PersistentAuditEvent.class)).thenReturn(bulkOperations);
+        when(bulkOperations.insert(anyList())).thenReturn(bulkOperations);
+    }
+
+    private AuditEventWriter createWriter() {
+        // the background thread is not started, so flushes only happen when the test asks for them
+        return new AuditEventWriter(applicationProperties, new MetricRegistry(), mongoTemplate,
+            mock(PersistenceAuditEventRepository.class), new ObjectMapper().findAndRegisterModules());
+    }
+
+    @Test
+    public void testWriteBufferedEventsInBatches() {
+        applicationProperties.getAuditEvents().setBufferCapacity(10);
+        AuditEventWriter auditEventWriter = createWriter();
+        auditEventWriter.write(createEvent("1"));
+        auditEventWriter.write(createEvent("2"));
+        auditEventWriter.write(createEvent("3"));
+        assertThat(auditEventWriter.getPendingCount()).isEqualTo(3);
+        verifyZeroInteractions(mongoTemplate);
+
+        auditEventWriter.flush();
+
+        assertThat(insertedPrincipals()).containsExactly("1", "2", "3");
+        verify(bulkOperations, times(2)).execute();
+        assertThat(auditEventWriter.getPendingCount()).isZero();
+    }
+
+    @Test
+    public void testKeepFailedBatchInBuffer() {
+        applicationProperties.getAuditEvents().setOverflowPolicy(OverflowPolicy.BLOCK);
+        when(bulkOperations.execute()).thenThrow(new IllegalStateException("unavailable"));
+        AuditEventWriter auditEventWriter = createWriter();
+        auditEventWriter.write(createEvent("1"));
+
+        auditEventWriter.flush();
+
+        assertThat(auditEventWriter.getPendingCount()).isEqualTo(1);
+        assertThat(spillFile).doesNotExist();
+    }
+
+    @Test
+    public void testDropOldestEventWhenBufferIsFull() {
+        applicationProperties.getAuditEvents().setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+        AuditEventWriter auditEventWriter = createWriter();
+        auditEventWriter.write(createEvent("1"));
+        auditEventWriter.write(createEvent("2"));
+        auditEventWriter.write(createEvent("3"));
+        assertThat(auditEventWriter.getPendingCount()).isEqualTo(2);
+
+        auditEventWriter.flush();
+
+        assertThat(insertedPrincipals()).containsExactly("2", "3");
+    }
+
+    @Test
+    public void testDropOldestKeepsEventWhileBufferIsFlushed() throws Exception {
+        applicationProperties.getAuditEvents().setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+        applicationProperties.getAuditEvents().setFlushIntervalMs(10);
+        CountDownLatch flushing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(bulkOperations.execute()).thenAnswer(invocation -> {
+            flushing.countDown();
+            release.await();
+            return null;
+        }).thenReturn(null);
+        AuditEventWriter auditEventWriter = createWriter();
+        auditEventWriter.write(createEvent("1"));
+        auditEventWriter.write(createEvent("2"));
+        Thread flush = new Thread(auditEventWriter::flush);
+        flush.start();
+        flushing.await();
+
+        // the buffer is empty, but its two events are being written
+        Thread write = new Thread(() -> auditEventWriter.write(createEvent("3")));
+        write.start();
+        write.join(100);
+        assertThat(write.isAlive()).isTrue();
+        release.countDown();
+        flush.join();
+        write.join();
+        auditEventWriter.flush();
+
+        assertThat(insertedPrincipals()).containsExactly("1", "2", "3");
+    }
+
+    @Test
+    public void testSpillEventsWhenBufferIsFull() {
+        applicationProperties.getAuditEvents().setOverflowPolicy(OverflowPolicy.SPILL);
+        AuditEventWriter auditEventWriter = createWriter();
+        auditEventWriter.write(createEvent("1"));
+        auditEventWriter.write(createEvent("2"));
+        auditEventWriter.write(createEvent("3"));
+        assertThat(auditEventWriter.getPendingCount()).isEqualTo(2);
+        assertThat(spillFile).exists();
+
+        auditEventWriter.flush();
+
+        assertThat(insertedPrincipals()).containsExactly("1", "2", "3");
+        assertThat(spillFile).doesNotExist();
+        assertThat(temporaryFolder.getRoot().list()).isEmpty();
+    }
+
+    @Test
+    public void testReplaySpilledEventsInBatches() throws Exception {
+        writeSpillFile("1", "2", "3", "4", "5");
+        AuditEventWriter auditEventWriter = createWriter();
+
+        auditEventWriter.flush();
+
+        assertThat(insertedPrincipals()).containsExactly("1", "2", "3", "4", "5");
+        verify(bulkOperations, times(3)).execute();
+        assertThat(temporaryFolder.getRoot().list()).isEmpty();
+    }
+
+    @Test
+    public void testRespillEventsThatCouldNotBeReplayed() throws Exception {
+        writeSpillFile("1", "2", "3", "4", "5");
+        when(bulkOperations.execute()).thenReturn(null).thenThrow(new IllegalStateException("unavailable"));
+        AuditEventWriter auditEventWriter = createWriter();
+
+        auditEventWriter.flush();
+
+        verify(bulkOperations, times(2)).execute();
+        assertThat(temporaryFolder.getRoot().list()).containsExactly(spillFile.getName());
+        ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+        List<String> respilled = new ArrayList<>();
+        for (String line : Files.readAllLines(spillFile.toPath(), StandardCharsets.UTF_8)) {
+            respilled.add(objectMapper.readValue(line, PersistentAuditEvent.class).getPrincipal());
+        }
+        assertThat(respilled).containsExactly("3", "4", "5");
+    }
+
+    private void writeSpillFile(String... principals) throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+        List<String> lines = new ArrayList<>();
+        for (String principal : principals) {
+            lines.add(objectMapper.writeValueAsString(createEvent(principal)));
+        }
+        Files.write(spillFile.toPath(), lines, StandardCharsets.UTF_8);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> insertedPrincipals() {
+        ArgumentCaptor<List<PersistentAuditEvent>> captor = ArgumentCaptor.forClass(List.class);
+        verify(bulkOperations, atLeastOnce()).insert(captor.capture());
+        return captor.getAllValues().stream()
+            .flatMap(List::stream)
+            .map(PersistentAuditEvent::getPrincipal)
+            .collect(Collectors.toList());
+    }
+
+    private PersistentAuditEvent createEvent(String principal) {
+        PersistentAuditEvent event = new PersistentAuditEvent();
+        event.setPrincipal(principal);
+        event.setAuditEventType("test-type");
+        event.setAuditEventDate(Instant.now());
+        return event;
+    }
+}
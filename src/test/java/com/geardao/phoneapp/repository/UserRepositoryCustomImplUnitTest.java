@@ -0,0 +1,112 @@
+package com.geardao.phoneapp.repository;
+
+import com.geardao.phoneapp.domain.User;
+
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.DbRefResolver;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.data.mongodb.core.mapping.event.BeforeConvertEvent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.isA;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test class for the UserRepositoryCustomImpl, on a mock of MongoDB.
+ *
+ * @see UserRepositoryCustomImpl
+ */
+public class UserRepositoryCustomImplUnitTest {
+
+    private static final String ID = new ObjectId().toHexString();
+
+    private MongoTemplate mongoTemplate;
+
+    private MongoCollection<Document> collection;
+
+    private ApplicationEventPublisher eventPublisher;
+
+    private UserRepositoryCustomImpl userRepository;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.afterPropertiesSet();
+        MappingMongoConverter converter = new MappingMongoConverter(mock(DbRefResolver.class), mappingContext);
+        converter.afterPropertiesSet();
+        mongoTemplate = mock(MongoTemplate.class);
+        when(mongoTemplate.getConverter()).thenReturn(converter);
+        when(mongoTemplate.getCollectionName(User.class)).thenReturn("jhi_user");
+        collection = mock(MongoCollection.class);
+        when(mongoTemplate.getCollection("jhi_user")).thenReturn(collection);
+        eventPublisher = mock(ApplicationEventPublisher.class);
+        userRepository = new UserRepositoryCustomImpl(mongoTemplate, eventPublisher);
+    }
+
+    @Test
+    public void testInsertNewUserAtVersionZero() {
+        User user = createUser(null);
+
+        userRepository.save(user);
+
+        assertThat(user.getVersion()).isEqualTo(0L);
+        verify(mongoTemplate).insert(user);
+        verifyZeroInteractions(collection);
+    }
+
+    @Test
+    public void testReplaceOnlyTheVersionRead() {
+        when(collection.replaceOne(any(Bson.class), any(Document.class))).thenReturn(UpdateResult.acknowledged(1, 1L, null));
+        User user = createUser(3L);
+
+        userRepository.save(user);
+
+        ArgumentCaptor<Bson> filter = ArgumentCaptor.forClass(Bson.class);
+        ArgumentCaptor<Document> document = ArgumentCaptor.forClass(Document.class);
+        verify(collection).replaceOne(filter.capture(), document.capture());
+        BsonDocument filterDocument = filter.getValue().toBsonDocument(BsonDocument.class, MongoClient.getDefaultCodecRegistry());
+        assertThat(filterDocument.getObjectId("_id").getValue()).isEqualTo(new ObjectId(ID));
+        assertThat(filterDocument.getNumber(VersionedRepository.VERSION_FIELD).longValue()).isEqualTo(3L);
+        assertThat(document.getValue().get(VersionedRepository.VERSION_FIELD)).isEqualTo(4L);
+        assertThat(document.getValue().get("login")).isEqualTo("johndoe");
+        assertThat(user.getVersion()).isEqualTo(4L);
+        // the auditing listens to these events
+        verify(eventPublisher).publishEvent(isA(BeforeConvertEvent.class));
+        verify(eventPublisher).publishEvent(isA(AfterSaveEvent.class));
+    }
+
+    @Test
+    public void testRejectStaleVersion() {
+        when(collection.replaceOne(any(Bson.class), any(Document.class))).thenReturn(UpdateResult.acknowledged(0, 0L, null));
+        User user = createUser(3L);
+
+        assertThatThrownBy(() -> userRepository.save(user)).isInstanceOf(OptimisticLockingFailureException.class);
+        assertThat(user.getVersion()).isEqualTo(3L);
+        verify(eventPublisher, never()).publishEvent(isA(AfterSaveEvent.class));
+    }
+
+    private static User createUser(Long version) {
+        User user = new User();
+        user.setId(version == null ? null : ID);
+        user.setLogin("johndoe");
+        user.setVersion(version);
+        return user;
+    }
+}
@@ -0,0 +1,132 @@
+package com.geardao.phoneapp.repository;
+
+import com.geardao.phoneapp.domain.Phone;
+import com.geardao.phoneapp.domain.util.DecimalConverters;
+
+import org.bson.types.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.DbRefResolver;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test class for the VersionedRepository, on a mock of MongoDB.
+ *
+ * @see VersionedRepository
+ */
+public class VersionedRepositoryUnitTest {
+
+    private static final String ID = new ObjectId().toHexString();
+
+    private MongoTemplate mongoTemplate;
+
+    private VersionedRepository versionedRepository;
+
+    @Before
+    public void setup() {
+        MongoCustomConversions conversions = new MongoCustomConversions(Arrays.asList(
+            DecimalConverters.BigDecimalToDecimal128Converter.INSTANCE,
+            DecimalConverters.Decimal128ToBigDecimalConverter.INSTANCE));
+        MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+        mappingContext.afterPropertiesSet();
+        MappingMongoConverter converter = new MappingMongoConverter(mock(DbRefResolver.class), mappingContext);
+        converter.setCustomConversions(conversions);
+        converter.afterPropertiesSet();
+        mongoTemplate = mock(MongoTemplate.class);
+        when(mongoTemplate.getConverter()).thenReturn(converter);
+        SequenceRepository sequenceRepository = mock(SequenceRepository.class);
+        when(sequenceRepository.next(anyString())).thenReturn(42L);
+        versionedRepository = new VersionedRepository(mongoTemplate, sequenceRepository);
+    }
+
+    @Test
+    public void testReplaceReturnsBothStatesFromOneWrite() {
+        Phone before = createPhone("Galaxy", new BigDecimal("100"), 3L);
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(Phone.class)))
+            .thenReturn(before);
+
+        WriteResult<Phone> result = versionedRepository.replace(createPhone("Galaxy S9", null, null), 3L);
+
+        ArgumentCaptor<FindAndModifyOptions> options = ArgumentCaptor.forClass(FindAndModifyOptions.class);
+        verify(mongoTemplate).findAndModify(any(Query.class), any(Update.class), options.capture(), eq(Phone.class));
+        assertThat(options.getValue().isReturnNew()).isFalse();
+        verify(mongoTemplate, never()).findById(any(), any());
+        assertThat(result.getBefore()).isSameAs(before);
+        Phone after = result.getAfter();
+        assertThat(after.getId()).isEqualTo(ID);
+        assertThat(after.getName()).isEqualTo("Galaxy S9");
+        assertThat(after.getBrand()).isEqualTo("Samsung");
+        assertThat(after.getPrice()).isNull();
+        assertThat(after.getVersion()).isEqualTo(4L);
+        assertThat(after.getSequence()).isEqualTo(42L);
+        assertThat(after.getLastModifiedDate()).isNotNull();
+    }
+
+    @Test
+    public void testReplaceCreatesWithoutExpectedVersion() {
+        WriteResult<Phone> result = versionedRepository.replace(createPhone("Galaxy", new BigDecimal("100"), null), null);
+
+        assertThat(result.getBefore()).isNull();
+        assertThat(result.getAfter().getName()).isEqualTo("Galaxy");
+        assertThat(result.getAfter().getPrice()).isEqualByComparingTo("100");
+        assertThat(result.getAfter().getVersion()).isEqualTo(1L);
+    }
+
+    @Test
+    public void testPatchKeepsTheOtherFields() {
+        Phone before = createPhone("Galaxy", new BigDecimal("100"), 3L);
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(Phone.class)))
+            .thenReturn(before);
+
+        WriteResult<Phone> result = versionedRepository.patch(createPhone(null, new BigDecimal("80"), null),
+            Collections.singletonList("price"), null);
+
+        assertThat(result.getBefore().getPrice()).isEqualByComparingTo("100");
+        assertThat(result.getAfter().getName()).isEqualTo("Galaxy");
+        assertThat(result.getAfter().getPrice()).isEqualByComparingTo("80");
+        assertThat(result.getAfter().getVersion()).isEqualTo(4L);
+    }
+
+    @Test
+    public void testPatchMissingEntity() {
+        assertThat(versionedRepository.patch(createPhone(null, null, null), Collections.singletonList("name"), null)).isNull();
+    }
+
+    @Test
+    public void testPatchAnotherVersion() {
+        when(mongoTemplate.exists(any(Query.class), eq(Phone.class))).thenReturn(true);
+
+        assertThatThrownBy(() -> versionedRepository.patch(createPhone(null, null, null), Collections.singletonList("name"), 2L))
+            .isInstanceOf(OptimisticLockingFailureException.class);
+    }
+
+    private static Phone createPhone(String name, BigDecimal price, Long version) {
+        Phone phone = new Phone().name(name).brand("Samsung").price(price);
+        phone.setId(ID);
+        phone.setVersion(version);
+        phone.setLastModifiedDate(version == null ? null : Instant.now());
+        phone.setSequence(version);
+        return phone;
+    }
+}
@@ -0,0 +1,16 @@
+package com.geardao.phoneapp.repository.search;
+
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configure a Mock version of SearchAfterRepository to test the
+ * application without starting Elasticsearch.
+ */
+@Configuration
+public class SearchAfterRepositoryMockConfiguration {
+
+    @MockBean
+    private SearchAfterRepository mockSearchAfterRepository;
+
+}
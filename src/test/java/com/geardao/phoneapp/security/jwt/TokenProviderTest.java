@@ -1,5 +1,6 @@
 package com.geardao.phoneapp.security.jwt;
 
+import com.geardao.phoneapp.config.ApplicationProperties;
 import com.geardao.phoneapp.security.AuthoritiesConstants;
 import io.github.jhipster.config.JHipsterProperties;
 import io.jsonwebtoken.Jwts;
@@ -7,6 +8,7 @@ import io.jsonwebtoken.SignatureAlgorithm;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.springframework.security.authentication.AbstractAuthenticationToken;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
@@ -29,7 +31,7 @@ public class TokenProviderTest {
     @Before
     public void setup() {
         jHipsterProperties = Mockito.mock(JHipsterProperties.class);
-        tokenProvider = new TokenProvider(jHipsterProperties);
+        tokenProvider = new TokenProvider(jHipsterProperties, new ApplicationProperties());
         secretKey = encoder.encodeToString("e5c9ee274ae87bc031adda32e27fa98b9290da83".getBytes(StandardCharsets.UTF_8));
         ReflectionTestUtils.setField(tokenProvider, "secretKey", secretKey);
         ReflectionTestUtils.setField(tokenProvider, "tokenValidityInMilliseconds", ONE_MINUTE);
@@ -80,6 +82,53 @@ public class TokenProviderTest {
         assertThat(isTokenValid).isEqualTo(false);
     }
 
+    @Test
+    public void testServeVerifiedTokenFromCache() {
+        String token = tokenProvider.createToken(createAuthentication(), false);
+
+        Optional<Authentication> authentication = tokenProvider.getValidAuthentication(token);
+        assertThat(authentication).isPresent();
+        assertThat(authentication.get().getName()).isEqualTo("anonymous");
+        assertThat(authentication.get().getCredentials()).isEqualTo(token);
+
+        // the signature is not checked again
+        ReflectionTestUtils.setField(tokenProvider, "secretKey", "another secret");
+        Optional<Authentication> cached = tokenProvider.getValidAuthentication(token);
+        assertThat(cached).isPresent();
+        assertThat(cached.get().getName()).isEqualTo("anonymous");
+        assertThat(cached.get().getCredentials()).isEqualTo(token);
+        assertThat(cached.get().getAuthorities()).isEqualTo(authentication.get().getAuthorities());
+    }
+
+    @Test
+    public void testCachedTokenReturnsNewAuthentication() {
+        String token = tokenProvider.createToken(createAuthentication(), false);
+
+        AbstractAuthenticationToken first = (AbstractAuthenticationToken) tokenProvider.getValidAuthentication(token).get();
+        first.setDetails("modified by a filter");
+        Authentication second = tokenProvider.getValidAuthentication(token).get();
+
+        assertThat(second).isNotSameAs(first);
+        assertThat(second.getDetails()).isNull();
+    }
+
+    @Test
+    public void testShareAuthoritiesBetweenTokens() {
+        Authentication first = tokenProvider.getValidAuthentication(tokenProvider.createToken(createAuthentication(), false)).get();
+        Authentication other = new UsernamePasswordAuthenticationToken("other", "other",
+            Collections.singletonList(new SimpleGrantedAuthority(AuthoritiesConstants.ANONYMOUS)));
+        Authentication second = tokenProvider.getValidAuthentication(tokenProvider.createToken(other, false)).get();
+
+        assertThat(first).isNotSameAs(second);
+        assertThat(first.getAuthorities().iterator().next()).isSameAs(second.getAuthorities().iterator().next());
+    }
+
+    @Test
+    public void testReturnEmptyWhenJWThasInvalidSignature() {
+        assertThat(tokenProvider.getValidAuthentication(createTokenWithDifferentSignature())).isEmpty();
+        assertThat(tokenProvider.getValidAuthentication("")).isEmpty();
+    }
+
     private Authentication createAuthentication() {
         Collection<GrantedAuthority> authorities = new ArrayList<>();
         authorities.add(new SimpleGrantedAuthority(AuthoritiesConstants.ANONYMOUS));
@@ -0,0 +1,143 @@
+package com.geardao.phoneapp.service;
+
+import com.geardao.phoneapp.config.ApplicationProperties;
+import com.geardao.phoneapp.domain.Phone;
+import com.geardao.phoneapp.repository.LeaseRepository;
+
+import com.codahale.metrics.MetricRegistry;
+import com.mongodb.MongoClient;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.Decimal128;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test class for the BrandStatsService, on mocks of MongoDB.
+ *
+ * @see BrandStatsService
+ */
+public class BrandStatsServiceUnitTest {
+
+    private MongoTemplate mongoTemplate;
+
+    private MongoCollection<Document> collection;
+
+    private BrandStatsService brandStatsService;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        mongoTemplate = mock(MongoTemplate.class);
+        collection = mock(MongoCollection.class);
+        when(mongoTemplate.getCollection(BrandStatsService.COLLECTION_NAME)).thenReturn(collection);
+        FindIterable<Document> all = documents();
+        when(collection.find()).thenReturn(all);
+        // the executor is not started, the test repairs directly
+        brandStatsService = new BrandStatsService(new ApplicationProperties(), mongoTemplate, mock(LeaseRepository.class),
+            new MetricRegistry());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRepairDoesNotOverwriteUpdatesMadeMeanwhile() {
+        FindIterable<Document> generations = documents(new Document("_id", "Samsung").append("generation", 4L),
+            new Document("_id", "Nokia").append("generation", 2L));
+        FindIterable<Document> changedGenerations = documents(new Document("_id", "Samsung").append("generation", 5L));
+        when(collection.find(any(Bson.class))).thenReturn(generations, changedGenerations);
+        CloseableIterator<Phone> phones = phones(createPhone("100"), createPhone("200"));
+        CloseableIterator<Phone> changedPhones = phones(createPhone("100"), createPhone("200"), createPhone("300"));
+        when(mongoTemplate.stream(any(Query.class), eq(Phone.class))).thenReturn(phones, changedPhones);
+        // a phone of the brand is saved while the phones are read, which increments the generation
+        when(collection.replaceOne(any(Bson.class), any(Document.class)))
+            .thenReturn(UpdateResult.acknowledged(0, 0L, null), UpdateResult.acknowledged(1, 1L, null));
+        when(collection.deleteOne(any(Bson.class))).thenReturn(DeleteResult.acknowledged(1));
+
+        brandStatsService.repair();
+
+        ArgumentCaptor<Bson> filters = ArgumentCaptor.forClass(Bson.class);
+        ArgumentCaptor<Document> replacements = ArgumentCaptor.forClass(Document.class);
+        verify(collection, times(2)).replaceOne(filters.capture(), replacements.capture());
+        assertThat(toJson(filters.getAllValues().get(0))).contains("\"generation\" : { \"$numberLong\" : \"4\" }");
+        assertThat(toJson(filters.getAllValues().get(1))).contains("\"generation\" : { \"$numberLong\" : \"5\" }");
+        // the brand is recomputed again on its own, with the saved phone
+        ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, times(2)).stream(queries.capture(), eq(Phone.class));
+        assertThat(queries.getAllValues().get(1).getQueryObject().toJson()).contains("Samsung");
+        Document replacement = replacements.getAllValues().get(1);
+        assertThat(replacement.get("count")).isEqualTo(3L);
+        assertThat(replacement.get("max_price")).isEqualTo(new Decimal128(new BigDecimal("300")));
+        assertThat(replacement.get("generation")).isEqualTo(6L);
+        // the brand without phones is only deleted if it was not updated either
+        ArgumentCaptor<Bson> deleted = ArgumentCaptor.forClass(Bson.class);
+        verify(collection).deleteOne(deleted.capture());
+        assertThat(toJson(deleted.getValue())).contains("Nokia").contains("\"generation\" : { \"$numberLong\" : \"2\" }");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRepairGivesUpOnBrandsAlwaysUpdated() {
+        FindIterable<Document> generations = documents(new Document("_id", "Samsung").append("generation", 4L));
+        when(collection.find(any(Bson.class))).thenReturn(generations);
+        when(mongoTemplate.stream(any(Query.class), eq(Phone.class)))
+            .thenAnswer(invocation -> phones(createPhone("100")));
+        when(collection.replaceOne(any(Bson.class), any(Document.class))).thenReturn(UpdateResult.acknowledged(0, 0L, null));
+
+        brandStatsService.repair();
+
+        verify(collection, times(3)).replaceOne(any(Bson.class), any(Document.class));
+        verify(collection, never()).deleteMany(any(Bson.class));
+    }
+
+    private static Phone createPhone(String price) {
+        return new Phone().name("Galaxy").brand("Samsung").price(new BigDecimal(price));
+    }
+
+    private static String toJson(Bson filter) {
+        return filter.toBsonDocument(BsonDocument.class, MongoClient.getDefaultCodecRegistry()).toJson();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static FindIterable<Document> documents(Document... documents) {
+        List<Document> list = Arrays.asList(documents);
+        FindIterable<Document> iterable = mock(FindIterable.class, RETURNS_SELF);
+        when(iterable.iterator()).thenAnswer(invocation -> {
+            Iterator<Document> iterator = list.iterator();
+            MongoCursor<Document> cursor = mock(MongoCursor.class);
+            when(cursor.hasNext()).thenAnswer(hasNext -> iterator.hasNext());
+            when(cursor.next()).thenAnswer(next -> iterator.next());
+            return cursor;
+        });
+        return iterable;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static CloseableIterator<Phone> phones(Phone... phones) {
+        Iterator<Phone> iterator = Collections.unmodifiableList(Arrays.asList(phones)).iterator();
+        CloseableIterator<Phone> closeableIterator = mock(CloseableIterator.class);
+        when(closeableIterator.hasNext()).thenAnswer(invocation -> iterator.hasNext());
+        when(closeableIterator.next()).thenAnswer(invocation -> iterator.next());
+        return closeableIterator;
+    }
+}
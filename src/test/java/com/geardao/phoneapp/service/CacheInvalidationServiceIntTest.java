@@ -0,0 +1,121 @@
+package com.geardao.phoneapp.service;
+
+import com.geardao.phoneapp.config.ApplicationProperties;
+import com.geardao.phoneapp.config.CacheInvalidationChannels;
+import com.geardao.phoneapp.repository.UserRepository;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.cloud.stream.annotation.EnableBinding;
+import org.springframework.cloud.stream.test.binder.MessageCollector;
+import org.springframework.cloud.stream.test.binder.MessageCollectorAutoConfiguration;
+import org.springframework.cloud.stream.test.binder.TestSupportBinderAutoConfiguration;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.Message;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the CacheInvalidationService, with two application contexts standing for two nodes.
+ * <p>
+ * Each node has its own bindings on the test binder, so the evictions go through the real message conversion
+ * and stream listener: the message sent by a node is taken from its output and delivered to the inputs of both
+ * nodes, as the topic would.
+ *
+ * @see CacheInvalidationService
+ */
+public class CacheInvalidationServiceIntTest {
+
+    private ConfigurableApplicationContext nodeA;
+
+    private ConfigurableApplicationContext nodeB;
+
+    @Before
+    public void setup() {
+        nodeA = startNode();
+        nodeB = startNode();
+    }
+
+    @After
+    public void destroy() {
+        nodeA.close();
+        nodeB.close();
+    }
+
+    @Test
+    public void testEvictOnOtherNode() throws Exception {
+        cache(nodeA).getCache(UserRepository.USERS_BY_LOGIN_CACHE).put("user", "a");
+        cache(nodeB).getCache(UserRepository.USERS_BY_LOGIN_CACHE).put("user", "b");
+        cache(nodeB).getCache(UserRepository.USERS_BY_LOGIN_CACHE).put("other", "b");
+
+        nodeA.getBean(CacheInvalidationService.class).evict(UserRepository.USERS_BY_LOGIN_CACHE, "user");
+        nodeA.getBean(CacheInvalidationService.class).flush();
+        Message<?> message = nodeA.getBean(MessageCollector.class)
+            .forChannel(nodeA.getBean(CacheInvalidationChannels.class).output())
+            .poll(10, TimeUnit.SECONDS);
+        assertThat(message).isNotNull();
+        assertThat(cache(nodeB).getCache(UserRepository.USERS_BY_LOGIN_CACHE).get("user")).isNotNull();
+
+        nodeA.getBean(CacheInvalidationChannels.class).input().send(message);
+        nodeB.getBean(CacheInvalidationChannels.class).input().send(message);
+
+        assertThat(cache(nodeA).getCache(UserRepository.USERS_BY_LOGIN_CACHE).get("user")).isNull();
+        assertThat(cache(nodeB).getCache(UserRepository.USERS_BY_LOGIN_CACHE).get("user")).isNull();
+        assertThat(cache(nodeB).getCache(UserRepository.USERS_BY_LOGIN_CACHE).get("other")).isNotNull();
+        assertThat(nodeA.getBean(MetricRegistry.class).meter("cache.invalidation.received").getCount()).isZero();
+        assertThat(nodeB.getBean(MetricRegistry.class).meter("cache.invalidation.received").getCount()).isEqualTo(1);
+    }
+
+    private ConfigurableApplicationContext startNode() {
+        return new SpringApplicationBuilder(NodeConfiguration.class)
+            .web(WebApplicationType.NONE)
+            .properties(
+                "spring.cloud.stream.bindings." + CacheInvalidationChannels.OUTPUT + ".content-type=application/json",
+                "spring.cloud.stream.bindings." + CacheInvalidationChannels.INPUT + ".content-type=application/json")
+            .run();
+    }
+
+    private CacheManager cache(ConfigurableApplicationContext node) {
+        return node.getBean(CacheManager.class);
+    }
+
+    @Configuration
+    @EnableBinding(CacheInvalidationChannels.class)
+    @ImportAutoConfiguration({ JacksonAutoConfiguration.class, TestSupportBinderAutoConfiguration.class,
+        MessageCollectorAutoConfiguration.class })
+    static class NodeConfiguration {
+
+        @Bean
+        public ApplicationProperties applicationProperties() {
+            return new ApplicationProperties();
+        }
+
+        @Bean
+        public MetricRegistry metricRegistry() {
+            return new MetricRegistry();
+        }
+
+        @Bean
+        public CacheManager cacheManager() {
+            return new ConcurrentMapCacheManager(UserRepository.USERS_BY_LOGIN_CACHE, UserRepository.USERS_BY_EMAIL_CACHE);
+        }
+
+        @Bean
+        public CacheInvalidationService cacheInvalidationService(ApplicationProperties applicationProperties,
+                MetricRegistry metricRegistry, CacheManager cacheManager, CacheInvalidationChannels channels) {
+            return new CacheInvalidationService(applicationProperties, metricRegistry, cacheManager, channels);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.geardao.phoneapp.service;
+
+import com.geardao.phoneapp.config.ApplicationProperties;
+import com.geardao.phoneapp.config.CacheInvalidationChannels;
+import com.geardao.phoneapp.repository.UserRepository;
+import com.geardao.phoneapp.service.dto.CacheInvalidationDTO;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.messaging.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test class for the CacheInvalidationService, with two nodes sharing a topic.
+ *
+ * @see CacheInvalidationService
+ */
+public class CacheInvalidationServiceUnitTest {
+
+    private final List<CacheInvalidationDTO> sentMessages = new ArrayList<>();
+
+    private CacheManager cacheManagerA;
+
+    private CacheManager cacheManagerB;
+
+    private CacheInvalidationService nodeA;
+
+    private CacheInvalidationService nodeB;
+
+    @Before
+    public void setup() {
+        DirectChannel topic = new DirectChannel();
+        CacheInvalidationChannels channels = mock(CacheInvalidationChannels.class);
+        when(channels.output()).thenReturn(topic);
+
+        cacheManagerA = createCacheManager();
+        cacheManagerB = createCacheManager();
+        // the background threads are not started, so messages are only sent when the test asks for them
+        nodeA = new CacheInvalidationService(new ApplicationProperties(), new MetricRegistry(), cacheManagerA, channels);
+        nodeB = new CacheInvalidationService(new ApplicationProperties(), new MetricRegistry(), cacheManagerB, channels);
+
+        topic.subscribe((Message<?> message) -> {
+            CacheInvalidationDTO invalidation = (CacheInvalidationDTO) message.getPayload();
+            sentMessages.add(invalidation);
+            nodeA.onInvalidation(invalidation);
+            nodeB.onInvalidation(invalidation);
+        });
+    }
+
+    @Test
+    public void testEvictOnAllNodes() {
+        cacheManagerA.getCache(UserRepository.USERS_BY_LOGIN_CACHE).put("user", "a");
+        cacheManagerB.getCache(UserRepository.USERS_BY_LOGIN_CACHE).put("user", "b");
+
+        nodeA.evict(UserRepository.USERS_BY_LOGIN_CACHE, "user");
+        assertThat(cacheManagerA.getCache(UserRepository.USERS_BY_LOGIN_CACHE).get("user")).isNull();
+        assertThat(cacheManagerB.getCache(UserRepository.USERS_BY_LOGIN_CACHE).get("user")).isNotNull();
+
+        nodeA.flush();
+
+        assertThat(cacheManagerB.getCache(UserRepository.USERS_BY_LOGIN_CACHE).get("user")).isNull();
+    }
+
+    @Test
+    public void testBatchAndDeduplicateEvictions() {
+        nodeA.evict(UserRepository.USERS_BY_LOGIN_CACHE, "user");
+        nodeA.evict(UserRepository.USERS_BY_LOGIN_CACHE, "user");
+        nodeA.evict(UserRepository.USERS_BY_EMAIL_CACHE, "user@localhost");
+        nodeA.evict(UserRepository.USERS_BY_EMAIL_CACHE, null);
+
+        nodeA.flush();
+        nodeA.flush();
+
+        assertThat(sentMessages).hasSize(1);
+        assertThat(sentMessages.get(0).getKeys().get(UserRepository.USERS_BY_LOGIN_CACHE)).containsExactly("user");
+        assertThat(sentMessages.get(0).getKeys().get(UserRepository.USERS_BY_EMAIL_CACHE)).containsExactly("user@localhost");
+    }
+
+    @Test
+    public void testNotifyListenersOfOtherNodesEvictions() {
+        List<String> evictedOnA = new ArrayList<>();
+        List<String> evictedOnB = new ArrayList<>();
+        nodeA.addListener(UserRepository.USERS_BY_LOGIN_CACHE, evictedOnA::addAll);
+        nodeB.addListener(UserRepository.USERS_BY_LOGIN_CACHE, evictedOnB::addAll);
+
+        nodeA.evict(UserRepository.USERS_BY_LOGIN_CACHE, "user");
+        nodeA.flush();
+
+        assertThat(evictedOnA).isEmpty();
+        assertThat(evictedOnB).containsExactly("user");
+    }
+
+    @Test
+    public void testEvictLocallyOnlyWhenDisabled() {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getCacheInvalidation().setEnabled(false);
+        CacheInvalidationService localNode = new CacheInvalidationService(applicationProperties, new MetricRegistry(),
+            cacheManagerA, mock(CacheInvalidationChannels.class));
+        cacheManagerA.getCache(UserRepository.USERS_BY_LOGIN_CACHE).put("user", "a");
+
+        localNode.evict(UserRepository.USERS_BY_LOGIN_CACHE, "user");
+        localNode.flush();
+
+        assertThat(cacheManagerA.getCache(UserRepository.USERS_BY_LOGIN_CACHE).get("user")).isNull();
+        assertThat(sentMessages).isEmpty();
+    }
+
+    private CacheManager createCacheManager() {
+        return new ConcurrentMapCacheManager(UserRepository.USERS_BY_LOGIN_CACHE, UserRepository.USERS_BY_EMAIL_CACHE);
+    }
+}
@@ -0,0 +1,131 @@
+package com.geardao.phoneapp.service;
+
+import com.geardao.phoneapp.PhoneappApp;
+import com.geardao.phoneapp.config.CatalogEventChannels;
+import com.geardao.phoneapp.domain.CatalogEvent;
+import com.geardao.phoneapp.service.dto.BrandDTO;
+import com.geardao.phoneapp.service.dto.CatalogEventDTO;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.stream.test.binder.MessageCollector;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the CatalogEventService, publishing through the test binder.
+ *
+ * @see CatalogEventService
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = PhoneappApp.class)
+public class CatalogEventServiceIntTest {
+
+    @Autowired
+    private CatalogEventService catalogEventService;
+
+    @Autowired
+    private BrandService brandService;
+
+    @Autowired
+    private CatalogEventChannels channels;
+
+    @Autowired
+    private MessageCollector messageCollector;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private BlockingQueue<Message<?>> messages;
+
+    @Before
+    public void setup() {
+        catalogEventService.relay();
+        messages = messageCollector.forChannel(channels.output());
+        messages.clear();
+    }
+
+    @Test
+    public void testPublishesTheChangesOfABrandInOrder() throws Exception {
+        BrandDTO brand = new BrandDTO();
+        brand.setName("AAAAAAAAAA");
+        brand = brandService.save(brand);
+        brand.setName("BBBBBBBBBB");
+        brandService.save(brand);
+        brandService.save(brand);
+        brandService.delete(brand.getId());
+
+        catalogEventService.relay();
+
+        List<CatalogEventDTO> events = new ArrayList<>();
+        Message<?> message;
+        while (events.size() < 3 && (message = messages.poll(5, TimeUnit.SECONDS)) != null) {
+            assertThat(message.getHeaders().get(KafkaHeaders.MESSAGE_KEY)).isEqualTo(brand.getId().getBytes(StandardCharsets.UTF_8));
+            Object payload = message.getPayload();
+            String json = payload instanceof byte[] ? new String((byte[]) payload, StandardCharsets.UTF_8) : payload.toString();
+            events.add(objectMapper.readValue(json, CatalogEventDTO.class));
+        }
+
+        // saving without any change publishes nothing
+        assertThat(events).extracting(CatalogEventDTO::getType)
+            .containsExactly(CatalogEvent.Type.CREATE, CatalogEvent.Type.UPDATE, CatalogEvent.Type.DELETE);
+        assertThat(events).extracting(CatalogEventDTO::getEntityType).containsOnly(CatalogEventService.BRAND);
+        assertThat(events.get(0).getChanges()).containsEntry("name", "AAAAAAAAAA");
+        assertThat(events.get(1).getChanges()).containsOnlyKeys("name").containsEntry("name", "BBBBBBBBBB");
+        assertThat(events.get(2).getChanges()).isEmpty();
+        assertThat(events.get(0).getVersion()).isLessThan(events.get(1).getVersion());
+        assertThat(events.get(1).getVersion()).isLessThan(events.get(2).getVersion());
+        assertThat(mongoTemplate.count(new Query(), CatalogEvent.class)).isZero();
+    }
+
+    @Test
+    public void testPublishesTheEventsInTheOrderOfTheWrites() throws Exception {
+        // recorded in the reverse order of their writes, as by two concurrent saves
+        mongoTemplate.insert(new CatalogEvent().type(CatalogEvent.Type.UPDATE).entityType(CatalogEventService.BRAND)
+            .entityId("1").sequence(2L).changes(Collections.singletonMap("name", "BBBBBBBBBB")));
+        mongoTemplate.insert(new CatalogEvent().type(CatalogEvent.Type.UPDATE).entityType(CatalogEventService.BRAND)
+            .entityId("1").sequence(1L).changes(Collections.singletonMap("name", "AAAAAAAAAA")));
+
+        catalogEventService.relay();
+
+        List<CatalogEventDTO> events = new ArrayList<>();
+        Message<?> message;
+        while (events.size() < 2 && (message = messages.poll(5, TimeUnit.SECONDS)) != null) {
+            Object payload = message.getPayload();
+            String json = payload instanceof byte[] ? new String((byte[]) payload, StandardCharsets.UTF_8) : payload.toString();
+            events.add(objectMapper.readValue(json, CatalogEventDTO.class));
+        }
+
+        assertThat(events).extracting(CatalogEventDTO::getVersion).containsExactly(1L, 2L);
+        assertThat(events.get(1).getChanges()).containsEntry("name", "BBBBBBBBBB");
+    }
+
+    @Test
+    public void testDeletingAnUnknownBrandPublishesNothing() throws Exception {
+        brandService.delete("unknown");
+
+        catalogEventService.relay();
+
+        assertThat(messages.poll(1, TimeUnit.SECONDS)).isNull();
+        assertThat(mongoTemplate.count(new Query(), CatalogEvent.class)).isZero();
+    }
+}
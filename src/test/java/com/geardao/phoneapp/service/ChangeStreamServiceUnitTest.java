@@ -0,0 +1,151 @@
+package com.geardao.phoneapp.service;
+
+import com.geardao.phoneapp.config.ApplicationProperties;
+import com.geardao.phoneapp.domain.Brand;
+import com.geardao.phoneapp.domain.Phone;
+import com.geardao.phoneapp.domain.User;
+import com.geardao.phoneapp.repository.CollectionVersionRepository;
+import com.geardao.phoneapp.repository.LeaseRepository;
+
+import com.codahale.metrics.MetricRegistry;
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import org.bson.BsonDocument;
+import org.bson.BsonInt64;
+import org.bson.BsonObjectId;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test class for the ChangeStreamService, on mocks of the change stream.
+ *
+ * @see ChangeStreamService
+ */
+public class ChangeStreamServiceUnitTest {
+
+    private MongoTemplate mongoTemplate;
+
+    private MongoCollection<Document> collection;
+
+    private SearchIndexingService searchIndexingService;
+
+    private LeaseRepository leaseRepository;
+
+    private CacheInvalidationService cacheInvalidationService;
+
+    private SuggestService suggestService;
+
+    private ChangeStreamService changeStreamService;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getChangeStream().setMaxAwaitMs(100);
+        applicationProperties.getChangeStream().setRetryDelayMs(10);
+        mongoTemplate = mock(MongoTemplate.class);
+        when(mongoTemplate.getCollectionName(Phone.class)).thenReturn("phone");
+        when(mongoTemplate.getCollectionName(Brand.class)).thenReturn("brand");
+        when(mongoTemplate.getCollectionName(User.class)).thenReturn("jhi_user");
+        MongoDatabase database = mock(MongoDatabase.class);
+        when(mongoTemplate.getDb()).thenReturn(database);
+        when(database.runCommand(any(Bson.class))).thenReturn(new Document("setName", "rs0"));
+        collection = mock(MongoCollection.class);
+        when(mongoTemplate.getCollection("phone")).thenReturn(collection);
+        searchIndexingService = mock(SearchIndexingService.class);
+        leaseRepository = mock(LeaseRepository.class);
+        // only the lease of the phones is granted, the other streams are not followed
+        when(leaseRepository.acquire(eq(ChangeStreamService.STATE_COLLECTION), eq("phone"), anyString(), anyLong()))
+            .thenReturn(new Document("_id", "phone"));
+        when(leaseRepository.renew(anyString(), anyString(), anyString(), anyLong(), any())).thenReturn(true);
+        cacheInvalidationService = mock(CacheInvalidationService.class);
+        suggestService = mock(SuggestService.class);
+        changeStreamService = new ChangeStreamService(applicationProperties, mongoTemplate, searchIndexingService,
+            mock(ReindexService.class), leaseRepository, cacheInvalidationService, suggestService,
+            mock(SearchResultCache.class), mock(CollectionVersionRepository.class), mock(PriceIndexService.class),
+            new MetricRegistry());
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        changeStreamService.stop();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testStoreResumeTokenOnlyOnceIndexed() throws Exception {
+        String savedId = new ObjectId().toHexString();
+        String deletedId = new ObjectId().toHexString();
+        Document saved = new Document("_id", new ObjectId(savedId)).append("name", "Galaxy");
+        Phone phone = new Phone().name("Galaxy");
+        phone.setId(savedId);
+        MongoConverter converter = mock(MongoConverter.class);
+        when(mongoTemplate.getConverter()).thenReturn(converter);
+        when(converter.read(Phone.class, saved)).thenReturn(phone);
+        ChangeStreamIterable<Document> stream = mock(ChangeStreamIterable.class, RETURNS_SELF);
+        when(collection.watch()).thenReturn(stream);
+        // the first cursor is closed by the failed write, and the stream is reopened from the same changes
+        MongoCursor<ChangeStreamDocument<Document>> failedCursor = mock(MongoCursor.class);
+        MongoCursor<ChangeStreamDocument<Document>> cursor = mock(MongoCursor.class);
+        ChangeStreamDocument<Document> update = change(1, savedId, OperationType.UPDATE, saved);
+        ChangeStreamDocument<Document> delete = change(2, deletedId, OperationType.DELETE, null);
+        when(failedCursor.tryNext()).thenReturn(update, delete).thenAnswer(invocation -> awaitChange());
+        when(cursor.tryNext()).thenReturn(update, delete).thenAnswer(invocation -> awaitChange());
+        when(stream.iterator()).thenReturn(failedCursor, cursor);
+        doThrow(new IllegalStateException("unavailable")).doNothing()
+            .when(searchIndexingService).writeAll(eq(Phone.class), anyList(), anyCollection());
+        CountDownLatch stored = new CountDownLatch(1);
+        when(leaseRepository.renew(eq(ChangeStreamService.STATE_COLLECTION), eq("phone"), anyString(), anyLong(), notNull()))
+            .thenAnswer(invocation -> {
+                stored.countDown();
+                return true;
+            });
+
+        changeStreamService.start();
+
+        assertThat(stored.await(10, TimeUnit.SECONDS)).isTrue();
+        InOrder inOrder = inOrder(searchIndexingService, leaseRepository);
+        inOrder.verify(searchIndexingService, times(2))
+            .writeAll(Phone.class, Collections.singletonList(phone), Collections.singletonList(deletedId));
+        inOrder.verify(leaseRepository)
+            .renew(eq(ChangeStreamService.STATE_COLLECTION), eq("phone"), anyString(), anyLong(), notNull());
+        verify(failedCursor).close();
+        // the caches only see the changes once they are indexed
+        verify(cacheInvalidationService).evict(PhoneService.PHONES_BY_ID_CACHE, savedId);
+        verify(suggestService).put(phone);
+        verify(suggestService).remove(Phone.class, deletedId);
+    }
+
+    /**
+     * No more changes, after the time the server would wait for one.
+     */
+    private static ChangeStreamDocument<Document> awaitChange() throws InterruptedException {
+        Thread.sleep(10);
+        return null;
+    }
+
+    private static ChangeStreamDocument<Document> change(long token, String id, OperationType operationType, Document document) {
+        return new ChangeStreamDocument<>(new BsonDocument("_data", new BsonInt64(token)), new MongoNamespace("phoneapp.phone"),
+            document, new BsonDocument("_id", new BsonObjectId(new ObjectId(id))), operationType, null);
+    }
+}
@@ -0,0 +1,77 @@
+package com.geardao.phoneapp.service;
+
+import com.geardao.phoneapp.PhoneappApp;
+import com.geardao.phoneapp.config.PriceFeedChannels;
+import com.geardao.phoneapp.domain.Phone;
+import com.geardao.phoneapp.repository.PhoneRepository;
+import com.geardao.phoneapp.service.dto.PriceUpdateDTO;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the PriceFeedService, receiving through the test binder.
+ *
+ * @see PriceFeedService
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = PhoneappApp.class)
+public class PriceFeedServiceIntTest {
+
+    @Autowired
+    private PriceFeedService priceFeedService;
+
+    @Autowired
+    private PriceFeedChannels channels;
+
+    @Autowired
+    private PhoneRepository phoneRepository;
+
+    private Phone phone;
+
+    @Before
+    public void setup() {
+        phoneRepository.deleteAll();
+        phone = phoneRepository.save(new Phone().name("AAAAAAAAAA").brand("BBBBBBBBBB").price(new BigDecimal("100.00")));
+    }
+
+    @Test
+    public void testAppliesTheLastUpdateOfEachPhone() {
+        Instant now = Instant.now();
+        send(new PriceUpdateDTO(phone.getId(), new BigDecimal("90.00"), now));
+        send(new PriceUpdateDTO(phone.getId(), new BigDecimal("80.00"), now.plusSeconds(2)));
+        send(new PriceUpdateDTO(phone.getId(), new BigDecimal("85.00"), now.plusSeconds(1)));
+        send(new PriceUpdateDTO("unknown", new BigDecimal("1.00"), now));
+
+        priceFeedService.flush();
+
+        Phone updated = phoneRepository.findById(phone.getId()).get();
+        assertThat(updated.getPrice()).isEqualByComparingTo("80.00");
+        assertThat(updated.getName()).isEqualTo("AAAAAAAAAA");
+        assertThat(phoneRepository.count()).isEqualTo(1);
+    }
+
+    @Test
+    public void testIgnoresInvalidUpdates() {
+        send(new PriceUpdateDTO(phone.getId(), new BigDecimal("-1"), null));
+        send(new PriceUpdateDTO(null, new BigDecimal("1"), null));
+
+        priceFeedService.flush();
+
+        assertThat(phoneRepository.findById(phone.getId()).get().getPrice()).isEqualByComparingTo("100.00");
+    }
+
+    private void send(PriceUpdateDTO update) {
+        channels.input().send(MessageBuilder.withPayload(update).build());
+    }
+}
@@ -0,0 +1,144 @@
+package com.geardao.phoneapp.service;
+
+import com.geardao.phoneapp.config.ApplicationProperties;
+import com.geardao.phoneapp.domain.Phone;
+import com.geardao.phoneapp.domain.util.DecimalConverters;
+import com.geardao.phoneapp.repository.VersionedRepository;
+import com.geardao.phoneapp.service.dto.PriceUpdateDTO;
+
+import com.codahale.metrics.MetricRegistry;
+import com.mongodb.MongoClient;
+import com.mongodb.WriteConcern;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.DbRefResolver;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test class for the PriceFeedService, on a mock of MongoDB.
+ *
+ * @see PriceFeedService
+ */
+public class PriceFeedServiceUnitTest {
+
+    private static final String ID = new ObjectId().toHexString();
+
+    private MongoTemplate mongoTemplate;
+
+    private MongoCollection<Document> collection;
+
+    private PhoneService phoneService;
+
+    private BrandStatsService brandStatsService;
+
+    private PriceFeedService priceFeedService;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        MongoCustomConversions conversions = new MongoCustomConversions(Arrays.asList(
+            DecimalConverters.BigDecimalToDecimal128Converter.INSTANCE,
+            DecimalConverters.Decimal128ToBigDecimalConverter.INSTANCE));
+        MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+        mappingContext.afterPropertiesSet();
+        MappingMongoConverter converter = new MappingMongoConverter(mock(DbRefResolver.class), mappingContext);
+        converter.setCustomConversions(conversions);
+        converter.afterPropertiesSet();
+        mongoTemplate = mock(MongoTemplate.class);
+        when(mongoTemplate.getConverter()).thenReturn(converter);
+        when(mongoTemplate.getCollectionName(Phone.class)).thenReturn("phone");
+        collection = mock(MongoCollection.class);
+        when(mongoTemplate.getCollection("phone")).thenReturn(collection);
+        when(collection.withWriteConcern(WriteConcern.MAJORITY)).thenReturn(collection);
+        VersionedRepository versionedRepository = mock(VersionedRepository.class);
+        when(versionedRepository.reserveSequences(anyInt())).thenReturn(10L, 20L);
+        when(versionedRepository.stamp(any(Update.class), anyLong())).thenAnswer(invocation -> invocation.getArgument(0));
+        phoneService = mock(PhoneService.class);
+        brandStatsService = mock(BrandStatsService.class);
+        // the executor is not started, the updates are only written when the test flushes them
+        priceFeedService = new PriceFeedService(new ApplicationProperties(), mongoTemplate, phoneService,
+            mock(CatalogEventService.class), versionedRepository, brandStatsService, new MetricRegistry());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testApplyAgainWhenThePhoneWasWrittenMeanwhile() throws Exception {
+        // the phone is written between the first read and the update, which then matches nothing
+        when(mongoTemplate.find(any(Query.class), eq(Phone.class)))
+            .thenReturn(Collections.singletonList(createPhone(new BigDecimal("100"), 1L)))
+            .thenReturn(Collections.emptyList())
+            .thenReturn(Collections.singletonList(createPhone(new BigDecimal("90"), 2L)));
+        when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class)))
+            .thenReturn(BulkWriteResult.acknowledged(0, 0, 0, 0, Collections.emptyList()))
+            .thenReturn(BulkWriteResult.acknowledged(0, 1, 0, 1, Collections.emptyList()));
+
+        priceFeedService.onPriceUpdate(MessageBuilder.withPayload(new PriceUpdateDTO(ID, new BigDecimal("80"), Instant.now())).build());
+        priceFeedService.flush();
+
+        ArgumentCaptor<List<WriteModel<Document>>> models = ArgumentCaptor.forClass(List.class);
+        verify(collection, times(2)).bulkWrite(models.capture(), any(BulkWriteOptions.class));
+        assertThat(versionFilter(models.getAllValues().get(0))).isEqualTo(1L);
+        assertThat(versionFilter(models.getAllValues().get(1))).isEqualTo(2L);
+        ArgumentCaptor<Phone> before = ArgumentCaptor.forClass(Phone.class);
+        verify(brandStatsService).onChange(before.capture(), any(Phone.class));
+        assertThat(before.getValue().getPrice()).isEqualByComparingTo("90");
+        ArgumentCaptor<List<Phone>> saved = ArgumentCaptor.forClass(List.class);
+        verify(phoneService).afterWrite(saved.capture(),
+            eq(Collections.singletonMap(ID, Collections.singletonMap("price", 80.0))));
+        assertThat(saved.getValue()).hasSize(1);
+        assertThat(saved.getValue().get(0).getPrice()).isEqualByComparingTo("80");
+        assertThat(saved.getValue().get(0).getVersion()).isEqualTo(3L);
+    }
+
+    @Test
+    public void testSkipUnchangedPrices() throws Exception {
+        when(mongoTemplate.find(any(Query.class), eq(Phone.class)))
+            .thenReturn(Collections.singletonList(createPhone(new BigDecimal("80.00"), 1L)));
+
+        priceFeedService.onPriceUpdate(MessageBuilder.withPayload(new PriceUpdateDTO(ID, new BigDecimal("80"), Instant.now())).build());
+        priceFeedService.flush();
+
+        verify(collection, never()).bulkWrite(anyList(), any(BulkWriteOptions.class));
+        verifyZeroInteractions(phoneService, brandStatsService);
+    }
+
+    private static long versionFilter(List<WriteModel<Document>> models) {
+        assertThat(models).hasSize(1);
+        BsonDocument filter = ((UpdateOneModel<Document>) models.get(0)).getFilter()
+            .toBsonDocument(BsonDocument.class, MongoClient.getDefaultCodecRegistry());
+        return filter.getNumber(VersionedRepository.VERSION_FIELD).longValue();
+    }
+
+    private static Phone createPhone(BigDecimal price, Long version) {
+        Phone phone = new Phone().name("Galaxy").brand("Samsung").price(price);
+        phone.setId(ID);
+        phone.setVersion(version);
+        return phone;
+    }
+}
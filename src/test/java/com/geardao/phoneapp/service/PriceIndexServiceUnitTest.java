@@ -0,0 +1,143 @@
+package com.geardao.phoneapp.service;
+
+import com.geardao.phoneapp.config.ApplicationProperties;
+import com.geardao.phoneapp.domain.Phone;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test class for the PriceIndexService, on mocks of MongoDB.
+ *
+ * @see PriceIndexService
+ */
+public class PriceIndexServiceUnitTest {
+
+    private MongoTemplate mongoTemplate;
+
+    private CacheInvalidationService cacheInvalidationService;
+
+    private PriceIndexService priceIndexService;
+
+    @Before
+    public void setup() {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getPriceIndex().setLoadTimeoutMs(100);
+        mongoTemplate = mock(MongoTemplate.class);
+        cacheInvalidationService = mock(CacheInvalidationService.class);
+        priceIndexService = new PriceIndexService(applicationProperties, mongoTemplate, cacheInvalidationService,
+            new MetricRegistry());
+    }
+
+    @Test
+    public void testWaitForTheFirstLoad() {
+        CloseableIterator<Phone> phones = phones(createPhone("1", "100", 1L));
+        when(mongoTemplate.stream(any(Query.class), eq(Phone.class))).thenReturn(phones);
+
+        assertThatThrownBy(() -> priceIndexService.snapshot()).isInstanceOf(PriceIndexUnavailableException.class);
+
+        priceIndexService.reload();
+        assertThat(priceIndexService.snapshot().size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testIgnoreWritesOlderThanTheIndexedOnes() {
+        CloseableIterator<Phone> phones = phones(createPhone("1", "100", 3L));
+        when(mongoTemplate.stream(any(Query.class), eq(Phone.class))).thenReturn(phones);
+        priceIndexService.reload();
+
+        // a concurrent save applied after the newer one
+        priceIndexService.put(createPhone("1", "50", 2L));
+        assertThat(priceIndexService.snapshot().percentile(100, Long.MIN_VALUE, Long.MAX_VALUE)).isEqualTo(10000L);
+
+        priceIndexService.put(createPhone("1", "80", 4L));
+        assertThat(priceIndexService.snapshot().percentile(100, Long.MIN_VALUE, Long.MAX_VALUE)).isEqualTo(8000L);
+
+        // a save applied after the deletion
+        priceIndexService.remove("1");
+        priceIndexService.put(createPhone("1", "80", 5L));
+        assertThat(priceIndexService.snapshot().size()).isZero();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testReadBackThePhonesWrittenByOtherNodes() {
+        when(mongoTemplate.stream(any(Query.class), eq(Phone.class)))
+            .thenAnswer(invocation -> phones(createPhone("1", "100", 1L), createPhone("2", "200", 1L)));
+        when(mongoTemplate.find(any(Query.class), eq(Phone.class))).thenReturn(Collections.singletonList(createPhone("1", "150", 2L)));
+        priceIndexService.start();
+        try {
+            ArgumentCaptor<Consumer<Set<String>>> listener = ArgumentCaptor.forClass(Consumer.class);
+            verify(cacheInvalidationService).addListener(eq(PhoneService.PHONES_BY_ID_CACHE), listener.capture());
+            assertThat(priceIndexService.snapshot().size()).isEqualTo(2);
+
+            // the phone 1 was updated and the phone 2 deleted by another node
+            listener.getValue().accept(new HashSet<>(Arrays.asList("1", "2")));
+
+            verify(mongoTemplate, timeout(1000)).find(any(Query.class), eq(Phone.class));
+            long deadline = System.currentTimeMillis() + 1000;
+            while (priceIndexService.snapshot().size() > 1 && System.currentTimeMillis() < deadline) {
+                Thread.yield();
+            }
+            assertThat(priceIndexService.snapshot().page(Long.MIN_VALUE, Long.MAX_VALUE, 0, 10, false)).containsExactly("1");
+            assertThat(priceIndexService.snapshot().percentile(100, Long.MIN_VALUE, Long.MAX_VALUE)).isEqualTo(15000L);
+        } finally {
+            priceIndexService.stop();
+        }
+    }
+
+    @Test
+    public void testReadBackThePhonesWithoutVersion() {
+        CloseableIterator<Phone> phones = phones();
+        when(mongoTemplate.stream(any(Query.class), eq(Phone.class))).thenReturn(phones);
+        when(mongoTemplate.find(any(Query.class), eq(Phone.class))).thenReturn(Collections.singletonList(createPhone("1", "100", 7L)));
+        priceIndexService.reload();
+
+        priceIndexService.put(createPhone("1", "100", null));
+        priceIndexService.put(createPhone("1", "90", 6L));
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(query.capture(), eq(Phone.class));
+        assertThat(query.getValue().getQueryObject().toJson()).contains("\"$in\" : [\"1\"]");
+        assertThat(priceIndexService.snapshot().percentile(100, Long.MIN_VALUE, Long.MAX_VALUE)).isEqualTo(10000L);
+    }
+
+    private static Phone createPhone(String id, String price, Long version) {
+        Phone phone = new Phone().name("Galaxy").price(new BigDecimal(price));
+        phone.setId(id);
+        phone.setVersion(version);
+        return phone;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static CloseableIterator<Phone> phones(Phone... phones) {
+        Iterator<Phone> iterator = Arrays.asList(phones).iterator();
+        CloseableIterator<Phone> closeableIterator = mock(CloseableIterator.class);
+        when(closeableIterator.hasNext()).thenAnswer(invocation -> iterator.hasNext());
+        when(closeableIterator.next()).thenAnswer(invocation -> iterator.next());
+        doAnswer(invocation -> {
+            iterator.forEachRemaining(invocation.getArgument(0));
+            return null;
+        }).when(closeableIterator).forEachRemaining(any());
+        return closeableIterator;
+    }
+}
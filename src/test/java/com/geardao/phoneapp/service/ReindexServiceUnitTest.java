@@ -0,0 +1,86 @@
+package com.geardao.phoneapp.service;
+
+import com.geardao.phoneapp.config.ApplicationProperties;
+import com.geardao.phoneapp.service.dto.ReindexStatusDTO;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowableOfType;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test class for the ReindexService.
+ *
+ * @see ReindexService
+ */
+public class ReindexServiceUnitTest {
+
+    private ObjectProvider<ElasticsearchOperations> elasticsearchOperations;
+
+    private ReindexService reindexService;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        elasticsearchOperations = mock(ObjectProvider.class);
+        reindexService = new ReindexService(new ApplicationProperties(), mock(MongoTemplate.class), elasticsearchOperations,
+            mock(SearchIndexingService.class));
+    }
+
+    @Test
+    public void testStartWithoutElasticsearch() {
+        ReindexException exception = catchThrowableOfType(() -> reindexService.start(Collections.emptyList()), ReindexException.class);
+
+        assertThat(exception.getReason()).isEqualTo(ReindexException.Reason.ELASTICSEARCH_DISABLED);
+        assertThat(reindexService.getStatuses()).isEmpty();
+    }
+
+    @Test
+    public void testStartWithUnknownIndex() {
+        when(elasticsearchOperations.getIfAvailable()).thenReturn(mock(ElasticsearchOperations.class));
+
+        ReindexException exception = catchThrowableOfType(() -> reindexService.start(Arrays.asList("phone", "unknown")),
+            ReindexException.class);
+
+        assertThat(exception.getReason()).isEqualTo(ReindexException.Reason.UNKNOWN_INDEX);
+        assertThat(reindexService.getStatuses()).isEmpty();
+    }
+
+    @Test
+    public void testStartWhileRunning() throws Exception {
+        ElasticsearchOperations operations = mock(ElasticsearchOperations.class);
+        when(elasticsearchOperations.getIfAvailable()).thenReturn(operations);
+        CountDownLatch release = new CountDownLatch(1);
+        // the rebuild blocks until the test releases it, then fails as the mock has no persistent entity
+        when(operations.getPersistentEntityFor(any())).thenAnswer(invocation -> {
+            release.await();
+            return null;
+        });
+
+        List<ReindexStatusDTO> started = reindexService.start(Collections.singletonList("phone"));
+        assertThat(started).extracting(ReindexStatusDTO::getIndex).containsExactly("phone");
+        try {
+            ReindexException exception = catchThrowableOfType(() -> reindexService.start(Collections.emptyList()),
+                ReindexException.class);
+            assertThat(exception.getReason()).isEqualTo(ReindexException.Reason.ALREADY_RUNNING);
+            assertThat(reindexService.getStatuses()).extracting(ReindexStatusDTO::getIndex).containsExactly("phone");
+        } finally {
+            release.countDown();
+        }
+        for (int i = 0; i < 100 && !started.get(0).isDone(); i++) {
+            Thread.sleep(50);
+        }
+        assertThat(started.get(0).getState()).isEqualTo(ReindexStatusDTO.State.FAILED);
+    }
+}
@@ -0,0 +1,209 @@
+package com.geardao.phoneapp.service;
+
+import com.geardao.phoneapp.config.ApplicationProperties;
+import com.geardao.phoneapp.domain.Phone;
+import com.geardao.phoneapp.repository.search.BrandSearchRepository;
+import com.geardao.phoneapp.repository.search.PhoneSearchRepository;
+import com.geardao.phoneapp.repository.search.UserSearchRepository;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test class for the SearchIndexingService.
+ *
+ * @see SearchIndexingService
+ */
+public class SearchIndexingServiceUnitTest {
+
+    private ApplicationProperties applicationProperties;
+
+    private PhoneSearchRepository phoneSearchRepository;
+
+    private SearchIndexingService searchIndexingService;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        applicationProperties = new ApplicationProperties();
+        applicationProperties.getSearchIndexing().setBatchSize(100);
+        applicationProperties.getSearchIndexing().setQueueCapacity(2);
+        applicationProperties.getSearchIndexing().setMaxAttempts(2);
+        phoneSearchRepository = mock(PhoneSearchRepository.class);
+        // the background thread is not started, so flushes only happen when the test asks for them
+        searchIndexingService = new SearchIndexingService(applicationProperties, new MetricRegistry(),
+            mock(ObjectProvider.class), phoneSearchRepository, mock(BrandSearchRepository.class), mock(UserSearchRepository.class));
+    }
+
+    @Test
+    public void testCoalesceUpdatesOfTheSameDocument() {
+        searchIndexingService.index(createPhone("1", 100));
+        Phone latest = createPhone("1", 200);
+        searchIndexingService.index(latest);
+        assertThat(searchIndexingService.getPendingCount()).isEqualTo(1);
+        verifyZeroInteractions(phoneSearchRepository);
+
+        searchIndexingService.flush();
+
+        verify(phoneSearchRepository).saveAll(Collections.singletonList(latest));
+        assertThat(searchIndexingService.getPendingCount()).isZero();
+    }
+
+    @Test
+    public void testDeleteSupersedesPendingIndex() {
+        searchIndexingService.index(createPhone("1", 100));
+        searchIndexingService.delete(Phone.class, "1");
+
+        searchIndexingService.flush();
+
+        verify(phoneSearchRepository, never()).saveAll(anyIterable());
+        verify(phoneSearchRepository).deleteById("1");
+    }
+
+    @Test
+    public void testRetryFailedBatchUntilMaxAttempts() {
+        when(phoneSearchRepository.saveAll(anyIterable())).thenThrow(new IllegalStateException("unavailable"));
+        searchIndexingService.index(createPhone("1", 100));
+
+        searchIndexingService.flush();
+        assertThat(searchIndexingService.getPendingCount()).isEqualTo(1);
+
+        searchIndexingService.flush();
+        assertThat(searchIndexingService.getPendingCount()).isZero();
+        verify(phoneSearchRepository, times(2)).saveAll(anyIterable());
+    }
+
+    @Test
+    public void testFailedBatchDoesNotOverwriteNewerWrite() {
+        Phone newer = createPhone("1", 200);
+        AtomicInteger calls = new AtomicInteger();
+        when(phoneSearchRepository.saveAll(anyIterable())).thenAnswer(invocation -> {
+            if (calls.incrementAndGet() == 1) {
+                // a bulk write of a newer state lands while the queued batch is being sent, which then fails
+                searchIndexingService.indexAll(Phone.class, Collections.singletonList(newer));
+                throw new IllegalStateException("unavailable");
+            }
+            return invocation.getArgument(0);
+        });
+        searchIndexingService.index(createPhone("1", 100));
+
+        searchIndexingService.flush();
+        searchIndexingService.flush();
+
+        // the failed batch of the old state, then the newer state, and nothing after
+        assertThat(searchIndexingService.getPendingCount()).isZero();
+        assertThat(savedPrices()).containsExactly(100L, 200L);
+    }
+
+    @Test
+    public void testFailedBatchTurnsNewerPartialUpdateIntoIndex() {
+        Phone newer = createPhone("1", 200);
+        AtomicInteger calls = new AtomicInteger();
+        when(phoneSearchRepository.saveAll(anyIterable())).thenAnswer(invocation -> {
+            if (calls.incrementAndGet() == 1) {
+                searchIndexingService.update(newer, Collections.singletonMap("price", 200));
+                throw new IllegalStateException("unavailable");
+            }
+            return invocation.getArgument(0);
+        });
+        searchIndexingService.index(createPhone("1", 100).name("old name"));
+
+        searchIndexingService.flush();
+        assertThat(searchIndexingService.getPendingCount()).isEqualTo(1);
+        searchIndexingService.flush();
+
+        // the whole newer document is indexed, as the failed index of the old name was never written
+        assertThat(savedPrices()).containsExactly(100L, 200L);
+        assertThat(searchIndexingService.getPendingCount()).isZero();
+    }
+
+    @Test
+    public void testWriteAllSupersedesPendingOperations() {
+        searchIndexingService.index(createPhone("1", 100));
+        searchIndexingService.index(createPhone("2", 100));
+        Phone latest = createPhone("1", 200);
+
+        searchIndexingService.writeAll(Phone.class, Collections.singletonList(latest), Collections.singletonList("2"));
+
+        verify(phoneSearchRepository).saveAll(Collections.singletonList(latest));
+        verify(phoneSearchRepository).deleteById("2");
+        assertThat(searchIndexingService.getPendingCount()).isZero();
+    }
+
+    @Test
+    public void testWriteAllThrowsWithoutQueueing() {
+        when(phoneSearchRepository.saveAll(anyIterable())).thenThrow(new IllegalStateException("unavailable"));
+
+        assertThatThrownBy(() -> searchIndexingService.writeAll(Phone.class, Collections.singletonList(createPhone("1", 100)),
+            Collections.emptyList())).isInstanceOf(IllegalStateException.class);
+
+        assertThat(searchIndexingService.getPendingCount()).isZero();
+    }
+
+    @Test
+    public void testWriteOnCallingThreadWhenQueueIsFull() {
+        searchIndexingService.index(createPhone("1", 100));
+        searchIndexingService.index(createPhone("2", 100));
+        Phone overflow = createPhone("3", 100);
+        searchIndexingService.index(overflow);
+
+        verify(phoneSearchRepository).save(overflow);
+        assertThat(searchIndexingService.getPendingCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testWriteOnCallingThreadWhenNotAsync() {
+        applicationProperties.getSearchIndexing().setAsync(false);
+        Phone phone = createPhone("1", 100);
+        searchIndexingService.index(phone);
+        searchIndexingService.delete(Phone.class, "2");
+
+        verify(phoneSearchRepository).save(phone);
+        verify(phoneSearchRepository).deleteById("2");
+        assertThat(searchIndexingService.getPendingCount()).isZero();
+    }
+
+    @Test
+    public void testTrackWrittenIds() {
+        searchIndexingService.index(createPhone("1", 100));
+        searchIndexingService.startTracking(Phone.class);
+        searchIndexingService.index(createPhone("2", 100));
+        searchIndexingService.delete(Phone.class, "3");
+
+        assertThat(searchIndexingService.stopTracking(Phone.class)).containsOnly("2", "3");
+        searchIndexingService.index(createPhone("4", 100));
+        assertThat(searchIndexingService.stopTracking(Phone.class)).isEmpty();
+    }
+
+    /**
+     * @return the price of each phone sent to the repository in bulk, in order
+     */
+    @SuppressWarnings("unchecked")
+    private List<Long> savedPrices() {
+        ArgumentCaptor<Iterable<Phone>> captor = ArgumentCaptor.forClass(Iterable.class);
+        verify(phoneSearchRepository, atLeastOnce()).saveAll(captor.capture());
+        List<Long> prices = new ArrayList<>();
+        captor.getAllValues().forEach(phones -> phones.forEach(phone -> prices.add(phone.getPrice().longValue())));
+        return prices;
+    }
+
+    private Phone createPhone(String id, long price) {
+        Phone phone = new Phone().name("phone-" + id).brand("brand").price(BigDecimal.valueOf(price));
+        phone.setId(id);
+        return phone;
+    }
+}
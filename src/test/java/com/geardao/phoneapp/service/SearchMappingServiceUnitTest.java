@@ -0,0 +1,61 @@
+package com.geardao.phoneapp.service;
+
+import com.geardao.phoneapp.domain.Phone;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the mapping comparison of SearchMappingService.
+ *
+ * @see SearchMappingService
+ */
+public class SearchMappingServiceUnitTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void testMappingWithDefaultsContainsManagedMapping() throws Exception {
+        Map<String, Object> expected = readPhoneMapping();
+        Map<String, Object> actual = readPhoneMapping();
+        // Elasticsearch returns the mapping with its defaults, and booleans and numbers as strings
+        actual.put("dynamic", "false");
+        properties(actual).put("created", Collections.singletonMap("type", "date"));
+        Map<String, Object> price = new HashMap<>();
+        price.put("type", "scaled_float");
+        price.put("scaling_factor", "100.0");
+        properties(actual).put("price", price);
+
+        assertThat(SearchMappingService.contains(actual, expected)).isTrue();
+    }
+
+    @Test
+    public void testDynamicMappingDoesNotContainManagedMapping() throws Exception {
+        Map<String, Object> expected = readPhoneMapping();
+        Map<String, Object> actual = readPhoneMapping();
+        Map<String, Object> brand = new HashMap<>();
+        brand.put("type", "text");
+        brand.put("fields", Collections.singletonMap("keyword", Collections.singletonMap("type", "keyword")));
+        properties(actual).put("brand", brand);
+
+        assertThat(SearchMappingService.contains(actual, expected)).isFalse();
+        assertThat(SearchMappingService.contains(Arrays.asList("a", "b"), Arrays.asList("a"))).isFalse();
+    }
+
+    private Map<String, Object> readPhoneMapping() throws Exception {
+        return objectMapper.readValue(SearchMappingService.getMapping(Phone.class), new TypeReference<Map<String, Object>>() { });
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> properties(Map<String, Object> mapping) {
+        return (Map<String, Object>) mapping.get("properties");
+    }
+}
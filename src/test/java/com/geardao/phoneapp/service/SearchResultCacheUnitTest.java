@@ -0,0 +1,120 @@
+package com.geardao.phoneapp.service;
+
+import com.geardao.phoneapp.config.ApplicationProperties;
+import com.geardao.phoneapp.config.CacheInvalidationChannels;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Test class for the SearchResultCache.
+ *
+ * @see SearchResultCache
+ */
+public class SearchResultCacheUnitTest {
+
+    private MetricRegistry metricRegistry;
+
+    private ApplicationProperties applicationProperties;
+
+    private ConcurrentMapCacheManager cacheManager;
+
+    private CacheInvalidationService cacheInvalidationService;
+
+    private SearchResultCache searchResultCache;
+
+    private int searches;
+
+    private List<List<String>> loadedIds;
+
+    @Before
+    public void setup() {
+        metricRegistry = new MetricRegistry();
+        cacheManager = new ConcurrentMapCacheManager(SearchResultCache.SEARCH_RESULTS_CACHE);
+        applicationProperties = new ApplicationProperties();
+        applicationProperties.getCacheInvalidation().setEnabled(false);
+        applicationProperties.getSearchResults().setSettleMs(0);
+        cacheInvalidationService = new CacheInvalidationService(applicationProperties, metricRegistry,
+            cacheManager, mock(CacheInvalidationChannels.class));
+        searchResultCache = new SearchResultCache(applicationProperties, cacheManager, cacheInvalidationService, metricRegistry);
+        searches = 0;
+        loadedIds = new ArrayList<>();
+    }
+
+    @Test
+    public void testCacheIdsByNormalizedQueryAndPage() {
+        PageRequest firstPage = PageRequest.of(0, 2, Sort.by("name"));
+        Page<String> page = search("samsung  galaxy", firstPage, () -> new PageImpl<>(Arrays.asList("s9", "note9"), firstPage, 5));
+        Page<String> cached = search(" samsung galaxy ", firstPage, () -> new PageImpl<>(Arrays.asList("other"), firstPage, 1));
+
+        assertThat(page.getContent()).containsExactly("s9", "note9");
+        assertThat(cached.getContent()).containsExactly("s9", "note9");
+        assertThat(cached.getTotalElements()).isEqualTo(5);
+        assertThat(searches).isEqualTo(1);
+        assertThat(loadedIds).containsExactly(Arrays.asList("s9", "note9"));
+
+        search("samsung galaxy", PageRequest.of(1, 2, Sort.by("name")), () -> new PageImpl<>(Arrays.asList("s8")));
+        search("Samsung galaxy", firstPage, () -> new PageImpl<>(Arrays.asList("s8")));
+        assertThat(searches).isEqualTo(3);
+        assertThat(metricRegistry.meter("search.result-cache.hits").getCount()).isEqualTo(1);
+        assertThat(metricRegistry.meter("search.result-cache.misses").getCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void testInvalidateOnWrite() {
+        PageRequest pageable = PageRequest.of(0, 20);
+        search("iphone", pageable, () -> new PageImpl<>(Arrays.asList("x")));
+
+        searchResultCache.invalidate();
+        Page<String> page = search("iphone", pageable, () -> new PageImpl<>(Arrays.asList("x", "xs")));
+        Page<String> cached = search("iphone", pageable, () -> new PageImpl<>(Arrays.asList("other")));
+
+        assertThat(page.getContent()).containsExactly("x", "xs");
+        assertThat(cached.getContent()).containsExactly("x", "xs");
+        assertThat(searches).isEqualTo(2);
+    }
+
+    @Test
+    public void testDoNotCacheBeforeTheWriteIsSearchable() throws Exception {
+        applicationProperties.getSearchResults().setSettleMs(200);
+        searchResultCache = new SearchResultCache(applicationProperties, cacheManager, cacheInvalidationService,
+            new MetricRegistry());
+        PageRequest pageable = PageRequest.of(0, 20);
+
+        // the index may not be refreshed yet
+        search("iphone", pageable, () -> new PageImpl<>(Arrays.asList("x")));
+        Page<String> page = search("iphone", pageable, () -> new PageImpl<>(Arrays.asList("x", "xs")));
+        assertThat(page.getContent()).containsExactly("x", "xs");
+        assertThat(searches).isEqualTo(2);
+
+        Thread.sleep(300);
+        search("iphone", pageable, () -> new PageImpl<>(Arrays.asList("x", "xs")));
+        Page<String> cached = search("iphone", pageable, () -> new PageImpl<>(Arrays.asList("other")));
+        assertThat(cached.getContent()).containsExactly("x", "xs");
+        assertThat(searches).isEqualTo(3);
+    }
+
+    private Page<String> search(String query, PageRequest pageable, Supplier<Page<String>> search) {
+        return searchResultCache.search("phone", query, pageable, () -> {
+            searches++;
+            return search.get();
+        }, id -> id, ids -> {
+            loadedIds.add(ids);
+            return ids;
+        });
+    }
+}
@@ -0,0 +1,115 @@
+package com.geardao.phoneapp.service;
+
+import com.geardao.phoneapp.config.ApplicationProperties;
+import com.geardao.phoneapp.domain.Brand;
+import com.geardao.phoneapp.domain.Phone;
+import com.geardao.phoneapp.service.dto.SuggestionDTO;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test class for the SuggestService, on mocks of MongoDB.
+ *
+ * @see SuggestService
+ */
+public class SuggestServiceUnitTest {
+
+    private MongoTemplate mongoTemplate;
+
+    private CacheInvalidationService cacheInvalidationService;
+
+    private SuggestService suggestService;
+
+    @Before
+    public void setup() {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getSuggest().setRebuildDelayMs(0);
+        mongoTemplate = mock(MongoTemplate.class);
+        cacheInvalidationService = mock(CacheInvalidationService.class);
+        suggestService = new SuggestService(applicationProperties, mongoTemplate, cacheInvalidationService,
+            new MetricRegistry());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testReadBackThePhonesAndBrandsWrittenByOtherNodes() {
+        when(mongoTemplate.stream(any(Query.class), eq(Phone.class)))
+            .thenAnswer(invocation -> entities(createPhone("1", "Galaxy S9"), createPhone("2", "Galaxy Note")));
+        when(mongoTemplate.stream(any(Query.class), eq(Brand.class)))
+            .thenAnswer(invocation -> entities(createBrand("3", "Samsung")));
+        when(mongoTemplate.find(any(Query.class), eq(Phone.class))).thenReturn(Collections.singletonList(createPhone("1", "Galaxy S10")));
+        when(mongoTemplate.find(any(Query.class), eq(Brand.class))).thenReturn(Collections.emptyList());
+        suggestService.start();
+        try {
+            ArgumentCaptor<Consumer<Set<String>>> phoneListener = ArgumentCaptor.forClass(Consumer.class);
+            ArgumentCaptor<Consumer<Set<String>>> brandListener = ArgumentCaptor.forClass(Consumer.class);
+            verify(cacheInvalidationService).addListener(eq(PhoneService.PHONES_BY_ID_CACHE), phoneListener.capture());
+            verify(cacheInvalidationService).addListener(eq(BrandService.BRANDS_BY_ID_CACHE), brandListener.capture());
+            waitFor("galaxy", 2);
+
+            // the phone 1 was renamed, and the phone 2 and the brand 3 deleted, by another node
+            phoneListener.getValue().accept(new HashSet<>(Arrays.asList("1", "2")));
+            brandListener.getValue().accept(Collections.singleton("3"));
+
+            assertThat(waitFor("galaxy", 1)).containsExactly(new SuggestionDTO(SuggestionDTO.PHONE, "1", "Galaxy S10"));
+            assertThat(waitFor("samsung", 0)).isEmpty();
+        } finally {
+            suggestService.stop();
+        }
+    }
+
+    private List<SuggestionDTO> waitFor(String prefix, int size) {
+        long deadline = System.currentTimeMillis() + 1000;
+        List<SuggestionDTO> suggestions = suggestService.suggest(prefix, 10);
+        while (suggestions.size() != size && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+            suggestions = suggestService.suggest(prefix, 10);
+        }
+        return suggestions;
+    }
+
+    private static Phone createPhone(String id, String name) {
+        Phone phone = new Phone().name(name).brand("Samsung");
+        phone.setId(id);
+        return phone;
+    }
+
+    private static Brand createBrand(String id, String name) {
+        Brand brand = new Brand().name(name);
+        brand.setId(id);
+        return brand;
+    }
+
+    @SafeVarargs
+    @SuppressWarnings("unchecked")
+    private static <T> CloseableIterator<T> entities(T... entities) {
+        Iterator<T> iterator = Arrays.asList(entities).iterator();
+        CloseableIterator<T> closeableIterator = mock(CloseableIterator.class);
+        when(closeableIterator.hasNext()).thenAnswer(invocation -> iterator.hasNext());
+        when(closeableIterator.next()).thenAnswer(invocation -> iterator.next());
+        doAnswer(invocation -> {
+            iterator.forEachRemaining(invocation.getArgument(0));
+            return null;
+        }).when(closeableIterator).forEachRemaining(any());
+        return closeableIterator;
+    }
+}
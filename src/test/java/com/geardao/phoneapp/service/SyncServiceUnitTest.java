@@ -0,0 +1,149 @@
+package com.geardao.phoneapp.service;
+
+import com.geardao.phoneapp.config.ApplicationProperties;
+import com.geardao.phoneapp.domain.Phone;
+import com.geardao.phoneapp.repository.SequenceRepository;
+import com.geardao.phoneapp.repository.VersionedRepository;
+import com.geardao.phoneapp.service.dto.PhoneDTO;
+import com.geardao.phoneapp.service.mapper.BrandMapper;
+import com.geardao.phoneapp.service.mapper.PhoneMapper;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test class for the SyncService, on mocks of MongoDB.
+ *
+ * @see SyncService
+ */
+public class SyncServiceUnitTest {
+
+    private static final long SETTLE_MS = 300;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private ApplicationProperties applicationProperties;
+
+    private MongoTemplate mongoTemplate;
+
+    private SequenceRepository sequenceRepository;
+
+    private SyncService syncService;
+
+    @Before
+    public void setup() {
+        applicationProperties = new ApplicationProperties();
+        applicationProperties.getSync().setSettleMs(SETTLE_MS);
+        mongoTemplate = mock(MongoTemplate.class);
+        // no change to return, only the bounds of the queries matter
+        when(mongoTemplate.stream(any(Query.class), any())).thenAnswer(invocation -> mock(CloseableIterator.class));
+        sequenceRepository = mock(SequenceRepository.class);
+        PhoneMapper phoneMapper = mock(PhoneMapper.class);
+        when(phoneMapper.toDto(any(Phone.class))).thenAnswer(invocation -> new PhoneDTO());
+        syncService = new SyncService(applicationProperties, mongoTemplate, sequenceRepository, objectMapper,
+            phoneMapper, mock(BrandMapper.class));
+    }
+
+    @Test
+    public void testReadOnlyUpToTheSettledSequence() throws Exception {
+        when(sequenceRepository.current(VersionedRepository.SEQUENCE_NAME)).thenReturn(5L);
+
+        // without a sample yet, the first sync waits for one to settle
+        long start = System.nanoTime();
+        JsonNode first = sync(null);
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(SETTLE_MS * 1_000_000);
+        assertThat(first.get("reset").asBoolean()).isTrue();
+        assertThat(first.get("token").asText()).startsWith("5-");
+
+        // a number handed out since is not returned before it settles, even though the writes are visible
+        when(sequenceRepository.current(VersionedRepository.SEQUENCE_NAME)).thenReturn(9L);
+        syncService.sampleSequence();
+        JsonNode second = sync(first.get("token").asText());
+        assertThat(second.get("reset").asBoolean()).isFalse();
+        assertThat(second.get("token").asText()).startsWith("5-");
+
+        Thread.sleep(SETTLE_MS);
+        JsonNode third = sync(second.get("token").asText());
+        assertThat(third.get("token").asText()).startsWith("9-");
+        ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, atLeastOnce()).stream(queries.capture(), any());
+        assertThat(queries.getValue().getQueryObject().toJson()).contains("\"$gt\" : { \"$numberLong\" : \"5\" }")
+            .contains("\"$lte\" : { \"$numberLong\" : \"9\" }");
+    }
+
+    @Test
+    public void testNeverMoveTheTokenBack() throws Exception {
+        when(sequenceRepository.current(VersionedRepository.SEQUENCE_NAME)).thenReturn(5L);
+
+        // a token returned by a node whose sample is newer
+        JsonNode result = sync("12-" + System.currentTimeMillis());
+
+        assertThat(result.get("token").asText()).startsWith("12-");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testResetAcrossPagesOfOldDocuments() throws Exception {
+        applicationProperties.getSync().setMaxChanges(1);
+        when(sequenceRepository.current(VersionedRepository.SEQUENCE_NAME)).thenReturn(5L);
+        syncService.sampleSequence();
+        Thread.sleep(SETTLE_MS);
+        // unchanged for longer than the tombstones are kept, as the migration stamped them
+        Instant stamped = Instant.now().minus(applicationProperties.getSync().getTombstoneRetentionDays() + 10, ChronoUnit.DAYS);
+        CloseableIterator<Phone> firstPage = phones(createPhone("1", 1L, stamped), createPhone("2", 2L, stamped));
+        CloseableIterator<Phone> secondPage = phones(createPhone("2", 2L, stamped));
+        when(mongoTemplate.stream(any(Query.class), eq(Phone.class))).thenReturn(firstPage, secondPage);
+
+        JsonNode first = sync(null);
+        assertThat(first.get("reset").asBoolean()).isTrue();
+        assertThat(first.get("more").asBoolean()).isTrue();
+        assertThat(first.get("changes").get(0).get("id").asText()).isEqualTo("1");
+
+        JsonNode second = sync(first.get("token").asText());
+        assertThat(second.get("reset").asBoolean()).isFalse();
+        assertThat(second.get("more").asBoolean()).isFalse();
+        assertThat(second.get("changes").get(0).get("id").asText()).isEqualTo("2");
+        assertThat(second.get("token").asText()).startsWith("5-");
+    }
+
+    private static Phone createPhone(String id, long sequence, Instant lastModifiedDate) {
+        Phone phone = new Phone().name("Galaxy");
+        phone.setId(id);
+        phone.setSequence(sequence);
+        phone.setLastModifiedDate(lastModifiedDate);
+        return phone;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static CloseableIterator<Phone> phones(Phone... phones) {
+        Iterator<Phone> iterator = Arrays.asList(phones).iterator();
+        CloseableIterator<Phone> closeableIterator = mock(CloseableIterator.class);
+        when(closeableIterator.hasNext()).thenAnswer(invocation -> iterator.hasNext());
+        when(closeableIterator.next()).thenAnswer(invocation -> iterator.next());
+        return closeableIterator;
+    }
+
+    private JsonNode sync(String token) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        syncService.sync(syncService.parseToken(token), output);
+        return objectMapper.readTree(output.toByteArray());
+    }
+}
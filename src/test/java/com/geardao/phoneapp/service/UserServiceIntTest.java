@@ -14,6 +14,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.test.context.junit4.SpringRunner;
@@ -24,6 +25,7 @@ import java.util.List;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -182,4 +184,23 @@ public class UserServiceIntTest {
         verify(mockUserSearchRepository, times(1)).delete(user);
     }
 
+    @Test
+    public void assertThatConcurrentSavesGetDistinctVersions() {
+        userRepository.save(user);
+        assertThat(user.getVersion()).isEqualTo(0L);
+        User first = userRepository.findById(user.getId()).get();
+        User second = userRepository.findById(user.getId()).get();
+
+        first.setFirstName("jane");
+        userRepository.save(first);
+        assertThat(first.getVersion()).isEqualTo(1L);
+
+        // the second copy was read before the first save, so it cannot write the same version
+        second.setLastName("roe");
+        assertThatThrownBy(() -> userRepository.save(second)).isInstanceOf(OptimisticLockingFailureException.class);
+        User saved = userRepository.findById(user.getId()).get();
+        assertThat(saved.getVersion()).isEqualTo(1L);
+        assertThat(saved.getFirstName()).isEqualTo("jane");
+        assertThat(saved.getLastName()).isEqualTo("doe");
+    }
 }
@@ -0,0 +1,43 @@
+package com.geardao.phoneapp.service.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Test class for the CsvRecordReader utility class.
+ *
+ * @see CsvRecordReader
+ */
+public class CsvRecordReaderUnitTest {
+
+    @Test
+    public void testReadRecords() throws IOException {
+        CsvRecordReader reader = new CsvRecordReader(new StringReader("name,price\r\nphone,1.5\n\n,2\n"));
+
+        assertThat(reader.readRecord()).containsExactly("name", "price");
+        assertThat(reader.readRecord()).containsExactly("phone", "1.5");
+        assertThat(reader.readRecord()).containsExactly("", "2");
+        assertThat(reader.readRecord()).isNull();
+    }
+
+    @Test
+    public void testReadQuotedFields() throws IOException {
+        CsvRecordReader reader = new CsvRecordReader(new StringReader("\"a, \"\"b\"\"\",\"multi\nline\"\nlast,"));
+
+        assertThat(reader.readRecord()).containsExactly("a, \"b\"", "multi\nline");
+        assertThat(reader.readRecord()).containsExactly("last", "");
+        assertThat(reader.readRecord()).isNull();
+    }
+
+    @Test
+    public void testFailOnUnclosedQuote() {
+        CsvRecordReader reader = new CsvRecordReader(new StringReader("\"unclosed,field\n"));
+
+        assertThatThrownBy(reader::readRecord).isInstanceOf(IOException.class);
+    }
+}
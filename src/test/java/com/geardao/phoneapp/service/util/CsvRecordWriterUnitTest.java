@@ -0,0 +1,41 @@
+package com.geardao.phoneapp.service.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the CsvRecordWriter utility class.
+ *
+ * @see CsvRecordWriter
+ */
+public class CsvRecordWriterUnitTest {
+
+    @Test
+    public void testWriteRecords() throws IOException {
+        StringWriter output = new StringWriter();
+        CsvRecordWriter writer = new CsvRecordWriter(output);
+
+        writer.writeRecord(Arrays.asList("name", "price"));
+        writer.writeRecord(Arrays.asList("phone", null));
+        writer.flush();
+
+        assertThat(output.toString()).isEqualTo("name,price\r\nphone,\r\n");
+    }
+
+    @Test
+    public void testQuoteFieldsThatNeedIt() throws IOException {
+        StringWriter output = new StringWriter();
+        CsvRecordWriter writer = new CsvRecordWriter(output);
+
+        writer.writeRecord(Arrays.asList("a, \"b\"", "multi\nline"));
+
+        assertThat(output.toString()).isEqualTo("\"a, \"\"b\"\"\",\"multi\nline\"\r\n");
+        assertThat(new CsvRecordReader(new StringReader(output.toString())).readRecord()).containsExactly("a, \"b\"", "multi\nline");
+    }
+}
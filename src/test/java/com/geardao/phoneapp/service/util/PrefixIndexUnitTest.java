@@ -0,0 +1,46 @@
+package com.geardao.phoneapp.service.util;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the PrefixIndex utility class.
+ *
+ * @see PrefixIndex
+ */
+public class PrefixIndexUnitTest {
+
+    @Test
+    public void testMatchEveryWordIgnoringCaseAndAccents() {
+        PrefixIndex<String> index = new PrefixIndex.Builder<String>()
+            .add("Samsung Galaxy S9", "s9", 1)
+            .add("Galaxy-Note 9", "note9", 1)
+            .add("Honor Play", "play", 1)
+            .add("Nokia 7.1", "nokia", 1)
+            .build();
+
+        assertThat(index.top("gal", 10)).containsExactly("note9", "s9");
+        assertThat(index.top("GALAXY s", 10)).containsExactly("s9");
+        assertThat(index.top("galaxy note", 10)).containsExactly("note9");
+        assertThat(index.top("hônor", 10)).containsExactly("play");
+        assertThat(index.top("7.1", 10)).containsExactly("nokia");
+        assertThat(index.top("x", 10)).isEmpty();
+        assertThat(index.top(" ", 10)).isEmpty();
+        assertThat(PrefixIndex.<String>empty().top("a", 10)).isEmpty();
+    }
+
+    @Test
+    public void testTopByWeightWithoutDuplicates() {
+        PrefixIndex.Builder<String> builder = new PrefixIndex.Builder<>();
+        for (int i = 0; i < 1000; i++) {
+            builder.add("phone " + i + " pro phone", "phone-" + i, i % 100);
+        }
+        PrefixIndex<String> index = builder.add("Phoenix", "phoenix", 500).build();
+
+        assertThat(index.size()).isEqualTo(1001);
+        assertThat(index.top("pho", 4)).containsExactly("phoenix", "phone-99", "phone-199", "phone-299");
+        assertThat(index.top("phone", 2)).containsExactly("phone-99", "phone-199");
+        assertThat(index.top("pro", 1000)).hasSize(1000).doesNotHaveDuplicates();
+    }
+}
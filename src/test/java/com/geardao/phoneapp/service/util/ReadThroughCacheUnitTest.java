@@ -0,0 +1,153 @@
+package com.geardao.phoneapp.service.util;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the ReadThroughCache utility class.
+ *
+ * @see ReadThroughCache
+ */
+public class ReadThroughCacheUnitTest {
+
+    private MetricRegistry metricRegistry;
+
+    private CacheManager cacheManager;
+
+    private ReadThroughCache<String> cache;
+
+    private List<Collection<String>> loadedKeys;
+
+    @Before
+    public void setup() {
+        metricRegistry = new MetricRegistry();
+        cacheManager = new ConcurrentMapCacheManager("values");
+        cache = new ReadThroughCache<>(cacheManager, "values", metricRegistry);
+        loadedKeys = new ArrayList<>();
+    }
+
+    @Test
+    public void testLoadOnMissOnly() {
+        assertThat(cache.get("a", this::load)).contains("value-a");
+        assertThat(cache.get("a", this::load)).contains("value-a");
+        assertThat(cache.get("missing", this::load)).isEmpty();
+        assertThat(cache.get("missing", this::load)).isEmpty();
+
+        assertThat(loadedKeys).hasSize(2);
+        assertThat(metricRegistry.timer("jcache.statistics.values.loads").getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testLoadAllMissesAtOnce() {
+        cache.get("a", this::load);
+
+        List<String> values = cache.getAll(Arrays.asList("a", "b", "c", "missing"), this::loadAll, this::keyOf);
+
+        assertThat(values).containsExactlyInAnyOrder("value-a", "value-b", "value-c");
+        assertThat(loadedKeys).hasSize(2);
+        assertThat(loadedKeys.get(1)).containsExactly("b", "c", "missing");
+        assertThat(cache.getAll(Arrays.asList("b", "c"), this::loadAll, this::keyOf)).containsExactly("value-b", "value-c");
+        assertThat(loadedKeys).hasSize(2);
+    }
+
+    @Test
+    public void testDoNotCacheValueEvictedWhileLoaded() {
+        List<String> values = cache.getAll(Arrays.asList("a", "b"), keys -> {
+            // a write evicts the value after it was read
+            cacheManager.getCache("values").evict("a");
+            return loadAll(keys);
+        }, this::keyOf);
+
+        assertThat(values).containsExactlyInAnyOrder("value-a", "value-b");
+        assertThat(cache.getAll(Arrays.asList("a", "b"), this::loadAll, this::keyOf)).containsExactlyInAnyOrder("value-a", "value-b");
+        assertThat(loadedKeys).hasSize(2);
+        assertThat(loadedKeys.get(1)).containsExactly("a");
+    }
+
+    @Test
+    public void testGetWhileLoadedByGetAll() {
+        List<String> values = cache.getAll(Arrays.asList("a"), keys -> {
+            assertThat(cache.get("a", this::load)).contains("value-a");
+            return loadAll(keys);
+        }, this::keyOf);
+
+        assertThat(values).containsExactly("value-a");
+        assertThat(cache.get("a", this::load)).contains("value-a");
+        assertThat(loadedKeys).hasSize(2);
+    }
+
+    @Test
+    public void testReleaseReservedKeysNotFound() {
+        assertThat(cache.getAll(Arrays.asList("missing"), this::loadAll, this::keyOf)).isEmpty();
+
+        assertThat(cacheManager.getCache("values").get("missing")).isNull();
+    }
+
+    @Test
+    public void testCoalesceConcurrentMisses() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> readers = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                readers.add(executor.submit(() -> cache.get("a", key -> {
+                    loads.incrementAndGet();
+                    loading.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return "value-a";
+                })));
+            }
+            assertThat(loading.await(10, TimeUnit.SECONDS)).isTrue();
+            // give the other readers the time to wait on the load
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<?> reader : readers) {
+                reader.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(loads.get()).isEqualTo(1);
+    }
+
+    private String load(String key) {
+        loadedKeys.add(Arrays.asList(key));
+        return key.equals("missing") ? null : "value-" + key;
+    }
+
+    private Collection<String> loadAll(Collection<String> keys) {
+        loadedKeys.add(new ArrayList<>(keys));
+        return keys.stream()
+            .filter(key -> !key.equals("missing"))
+            .map(key -> "value-" + key)
+            .collect(Collectors.toList());
+    }
+
+    private String keyOf(String value) {
+        return value.substring("value-".length());
+    }
+}
@@ -0,0 +1,70 @@
+package com.geardao.phoneapp.service.util;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the SortedPriceIndex utility class.
+ *
+ * @see SortedPriceIndex
+ */
+public class SortedPriceIndexUnitTest {
+
+    @Test
+    public void testCountAndPageRanges() {
+        Map<String, Long> prices = new HashMap<>();
+        prices.put("d", 300L);
+        prices.put("a", 100L);
+        prices.put("c", 200L);
+        prices.put("b", 200L);
+        SortedPriceIndex index = SortedPriceIndex.of(prices);
+
+        assertThat(index.size()).isEqualTo(4);
+        assertThat(index.count(Long.MIN_VALUE, Long.MAX_VALUE)).isEqualTo(4);
+        assertThat(index.count(150, 200)).isEqualTo(2);
+        assertThat(index.count(201, 299)).isZero();
+        assertThat(index.count(300, 100)).isZero();
+        assertThat(index.page(Long.MIN_VALUE, Long.MAX_VALUE, 0, 10, false)).containsExactly("a", "b", "c", "d");
+        assertThat(index.page(Long.MIN_VALUE, Long.MAX_VALUE, 1, 2, true)).containsExactly("c", "b");
+        assertThat(index.page(200, 300, 2, 10, false)).containsExactly("d");
+        assertThat(index.page(200, 300, 3, 10, false)).isEmpty();
+        assertThat(SortedPriceIndex.empty().page(0, 10, 0, 10, false)).isEmpty();
+    }
+
+    @Test
+    public void testPercentiles() {
+        Map<String, Long> prices = new HashMap<>();
+        for (int i = 1; i <= 100; i++) {
+            prices.put("phone-" + i, i * 10L);
+        }
+        SortedPriceIndex index = SortedPriceIndex.of(prices);
+
+        assertThat(index.percentile(0, Long.MIN_VALUE, Long.MAX_VALUE)).isEqualTo(10L);
+        assertThat(index.percentile(50, Long.MIN_VALUE, Long.MAX_VALUE)).isEqualTo(500L);
+        assertThat(index.percentile(99.5, Long.MIN_VALUE, Long.MAX_VALUE)).isEqualTo(1000L);
+        assertThat(index.percentile(100, Long.MIN_VALUE, Long.MAX_VALUE)).isEqualTo(1000L);
+        assertThat(index.percentile(50, 510, 600)).isEqualTo(550L);
+        assertThat(index.percentile(50, 2000, 3000)).isNull();
+    }
+
+    @Test
+    public void testApplyLeavesTheIndexUnchanged() {
+        SortedPriceIndex index = SortedPriceIndex.of(Collections.singletonMap("a", 100L))
+            .apply(Collections.emptyMap(), Collections.singletonMap("b", 50L));
+        Map<String, Long> added = new HashMap<>();
+        added.put("a", 300L);
+        added.put("c", 75L);
+
+        SortedPriceIndex changed = index.apply(Collections.singletonMap("a", 100L), added);
+
+        assertThat(index.page(Long.MIN_VALUE, Long.MAX_VALUE, 0, 10, false)).containsExactly("b", "a");
+        assertThat(changed.page(Long.MIN_VALUE, Long.MAX_VALUE, 0, 10, false)).containsExactly("b", "c", "a");
+        assertThat(changed.apply(Collections.singletonMap("c", 75L), Collections.emptyMap())
+            .page(Long.MIN_VALUE, Long.MAX_VALUE, 0, 10, false)).containsExactly("b", "a");
+    }
+}
@@ -23,6 +23,7 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.security.crypto.password.PasswordEncoder;
@@ -147,6 +148,30 @@ public class AccountResourceIntTest {
             .andExpect(jsonPath("$.authorities").value(AuthoritiesConstants.ADMIN));
     }
 
+    @Test
+    public void testGetAccountNotModified() throws Exception {
+        User user = new User();
+        user.setId("user-1");
+        user.setLogin("test");
+        user.setVersion(2L);
+        when(mockUserService.getUserWithAuthorities()).thenReturn(Optional.of(user));
+
+        restUserMockMvc.perform(get("/api/account")
+            .accept(MediaType.APPLICATION_JSON)
+            .header(HttpHeaders.IF_NONE_MATCH, "\"user-1-2\""))
+            .andExpect(status().isNotModified())
+            .andExpect(content().string(""));
+
+        // the same version of another user does not match
+        user.setId("user-2");
+        restUserMockMvc.perform(get("/api/account")
+            .accept(MediaType.APPLICATION_JSON)
+            .header(HttpHeaders.IF_NONE_MATCH, "\"user-1-2\""))
+            .andExpect(status().isOk())
+            .andExpect(header().string(HttpHeaders.ETAG, "\"user-2-2\""))
+            .andExpect(jsonPath("$.login").value("test"));
+    }
+
     @Test
     public void testGetUnknownAccount() throws Exception {
         when(mockUserService.getUserWithAuthorities()).thenReturn(Optional.empty());
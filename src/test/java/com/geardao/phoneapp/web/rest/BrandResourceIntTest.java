@@ -6,8 +6,14 @@ import com.geardao.phoneapp.domain.Brand;
 import com.geardao.phoneapp.repository.BrandRepository;
 import com.geardao.phoneapp.repository.search.BrandSearchRepository;
 import com.geardao.phoneapp.service.BrandService;
+import com.geardao.phoneapp.service.BulkImportService;
+import com.geardao.phoneapp.service.ExportService;
+import com.geardao.phoneapp.service.BrandStatsService;
+import com.geardao.phoneapp.service.PhoneService;
 import com.geardao.phoneapp.service.dto.BrandDTO;
+import com.geardao.phoneapp.service.dto.PhoneDTO;
 import com.geardao.phoneapp.service.mapper.BrandMapper;
+import com.geardao.phoneapp.service.mapper.PhoneMapper;
 import com.geardao.phoneapp.web.rest.errors.ExceptionTranslator;
 
 import org.junit.Before;
@@ -19,12 +25,14 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.web.PageableHandlerMethodArgumentResolver;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
+import java.math.BigDecimal;
 import java.util.Collections;
 import java.util.List;
 
@@ -63,6 +71,21 @@ public class BrandResourceIntTest {
     @Autowired
     private BrandService brandService;
 
+    @Autowired
+    private BulkImportService bulkImportService;
+
+    @Autowired
+    private ExportService exportService;
+
+    @Autowired
+    private BrandStatsService brandStatsService;
+
+    @Autowired
+    private PhoneService phoneService;
+
+    @Autowired
+    private PhoneMapper phoneMapper;
+
     /**
      * This repository is mocked in the com.geardao.phoneapp.repository.search test package.
      *
@@ -87,7 +110,7 @@ public class BrandResourceIntTest {
     @Before
     public void setup() {
         MockitoAnnotations.initMocks(this);
-        final BrandResource brandResource = new BrandResource(brandService);
+        final BrandResource brandResource = new BrandResource(brandService, bulkImportService, exportService, brandStatsService);
         this.restBrandMockMvc = MockMvcBuilders.standaloneSetup(brandResource)
             .setCustomArgumentResolvers(pageableArgumentResolver)
             .setControllerAdvice(exceptionTranslator)
@@ -173,6 +196,38 @@ public class BrandResourceIntTest {
     }
     
 
+    @Test
+    public void getBrandStats() throws Exception {
+        brandStatsService.repair();
+        PhoneDTO cheap = phoneService.save(phoneMapper.toDto(PhoneResourceIntTest.createEntity().brand("STATS").price(new BigDecimal("10.50"))));
+        PhoneDTO expensive = phoneService.save(phoneMapper.toDto(PhoneResourceIntTest.createEntity().brand("STATS").price(new BigDecimal("30"))));
+        brandStatsService.refresh();
+
+        restBrandMockMvc.perform(get("/api/brands/stats"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[?(@.brand == 'STATS')].count").value(hasItem(2)))
+            .andExpect(jsonPath("$.[?(@.brand == 'STATS')].minPrice").value(hasItem(10.5)))
+            .andExpect(jsonPath("$.[?(@.brand == 'STATS')].maxPrice").value(hasItem(30)))
+            .andExpect(jsonPath("$.[?(@.brand == 'STATS')].averagePrice").value(hasItem(20.25)));
+
+        // the price at the upper bound is lowered, and the phone at the lower bound is deleted
+        expensive.setPrice(new BigDecimal("20"));
+        phoneService.save(expensive);
+        phoneService.delete(cheap.getId());
+        brandStatsService.refresh();
+
+        restBrandMockMvc.perform(get("/api/brands/stats"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[?(@.brand == 'STATS')].count").value(hasItem(1)))
+            .andExpect(jsonPath("$.[?(@.brand == 'STATS')].minPrice").value(hasItem(20)))
+            .andExpect(jsonPath("$.[?(@.brand == 'STATS')].maxPrice").value(hasItem(20)))
+            .andExpect(jsonPath("$.[?(@.brand == 'STATS')].averagePrice").value(hasItem(20.0)));
+
+        phoneService.delete(expensive.getId());
+        brandStatsService.refresh();
+        assertThat(brandStatsService.findAll()).noneMatch(stats -> stats.getBrand().equals("STATS"));
+    }
+
     @Test
     public void getBrand() throws Exception {
         // Initialize the database
@@ -244,6 +299,64 @@ public class BrandResourceIntTest {
         verify(mockBrandSearchRepository, times(0)).save(brand);
     }
 
+    @Test
+    public void patchBrand() throws Exception {
+        // Initialize the database
+        brandService.save(brandMapper.toDto(brand));
+        Brand savedBrand = brandRepository.findAll().get(0);
+
+        restBrandMockMvc.perform(patch("/api/brands/{id}", savedBrand.getId())
+            .contentType("application/merge-patch+json")
+            .header(HttpHeaders.IF_MATCH, "\"" + savedBrand.getVersion() + "\"")
+            .content("{\"name\": \"" + UPDATED_NAME + "\", \"country\": null}"))
+            .andExpect(status().isOk())
+            .andExpect(header().string(HttpHeaders.ETAG, "\"" + (savedBrand.getVersion() + 1) + "\""))
+            .andExpect(jsonPath("$.name").value(UPDATED_NAME));
+
+        // Validate the Brand in the database
+        Brand testBrand = brandRepository.findById(savedBrand.getId()).get();
+        assertThat(testBrand.getName()).isEqualTo(UPDATED_NAME);
+        assertThat(testBrand.getCountry()).isNull();
+        assertThat(testBrand.getVersion()).isEqualTo(savedBrand.getVersion() + 1);
+    }
+
+    @Test
+    public void patchBrandWithStaleVersion() throws Exception {
+        // Initialize the database
+        brandService.save(brandMapper.toDto(brand));
+        Brand savedBrand = brandRepository.findAll().get(0);
+
+        restBrandMockMvc.perform(patch("/api/brands/{id}", savedBrand.getId())
+            .contentType("application/merge-patch+json")
+            .header(HttpHeaders.IF_MATCH, "\"" + (savedBrand.getVersion() + 1) + "\"")
+            .content("{\"name\": \"" + UPDATED_NAME + "\"}"))
+            .andExpect(status().isPreconditionFailed());
+
+        assertThat(brandRepository.findById(savedBrand.getId()).get().getName()).isEqualTo(DEFAULT_NAME);
+    }
+
+    @Test
+    public void patchBrandWithUnknownField() throws Exception {
+        brandRepository.save(brand);
+
+        restBrandMockMvc.perform(patch("/api/brands/{id}", brand.getId())
+            .contentType("application/merge-patch+json")
+            .content("{\"colour\": \"red\"}"))
+            .andExpect(status().isBadRequest());
+
+        assertThat(brandRepository.findById(brand.getId()).get().getName()).isEqualTo(DEFAULT_NAME);
+    }
+
+    @Test
+    public void patchNonExistingBrand() throws Exception {
+        restBrandMockMvc.perform(patch("/api/brands/{id}", "unknown")
+            .contentType("application/merge-patch+json")
+            .content("{\"name\": \"" + UPDATED_NAME + "\"}"))
+            .andExpect(status().isNotFound());
+
+        assertThat(brandRepository.findAll()).isEmpty();
+    }
+
     @Test
     public void deleteBrand() throws Exception {
         // Initialize the database
@@ -3,37 +3,71 @@ package com.geardao.phoneapp.web.rest;
 import com.geardao.phoneapp.PhoneappApp;
 
 import com.geardao.phoneapp.domain.Phone;
+import com.geardao.phoneapp.repository.Cursor;
+import com.geardao.phoneapp.repository.CursorPage;
 import com.geardao.phoneapp.repository.PhoneRepository;
+import com.geardao.phoneapp.repository.search.AggregatedCursorPage;
 import com.geardao.phoneapp.repository.search.PhoneSearchRepository;
+import com.geardao.phoneapp.repository.search.SearchAfterRepository;
 import com.geardao.phoneapp.service.PhoneService;
+import com.geardao.phoneapp.service.BulkImportService;
+import com.geardao.phoneapp.service.ExportService;
+import com.geardao.phoneapp.service.PriceIndexService;
 import com.geardao.phoneapp.service.dto.PhoneDTO;
 import com.geardao.phoneapp.service.mapper.PhoneMapper;
+import com.geardao.phoneapp.service.util.RowFormat;
 import com.geardao.phoneapp.web.rest.errors.ExceptionTranslator;
-
+import com.geardao.phoneapp.web.rest.util.ExportUtil;
+
+import org.bson.types.ObjectId;
+import org.elasticsearch.index.query.Operator;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.aggregations.Aggregation;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.bucket.filter.Filter;
+import org.elasticsearch.search.aggregations.bucket.histogram.Histogram;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.MockitoAnnotations;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.web.PageableHandlerMethodArgumentResolver;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.util.StreamUtils;
 
+import java.io.ByteArrayInputStream;
 import java.math.BigDecimal;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 
 import static com.geardao.phoneapp.web.rest.TestUtil.createFormattingConversionService;
 import static org.assertj.core.api.Assertions.assertThat;
-import static org.elasticsearch.index.query.QueryBuilders.queryStringQuery;
+import static org.elasticsearch.index.query.QueryBuilders.*;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.not;
+import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -67,6 +101,15 @@ public class PhoneResourceIntTest {
     @Autowired
     private PhoneService phoneService;
 
+    @Autowired
+    private BulkImportService bulkImportService;
+
+    @Autowired
+    private ExportService exportService;
+
+    @Autowired
+    private PriceIndexService priceIndexService;
+
     /**
      * This repository is mocked in the com.geardao.phoneapp.repository.search test package.
      *
@@ -75,6 +118,14 @@ public class PhoneResourceIntTest {
     @Autowired
     private PhoneSearchRepository mockPhoneSearchRepository;
 
+    /**
+     * This repository is mocked in the com.geardao.phoneapp.repository.search test package.
+     *
+     * @see com.geardao.phoneapp.repository.search.SearchAfterRepositoryMockConfiguration
+     */
+    @Autowired
+    private SearchAfterRepository mockSearchAfterRepository;
+
     @Autowired
     private MappingJackson2HttpMessageConverter jacksonMessageConverter;
 
@@ -91,7 +142,7 @@ public class PhoneResourceIntTest {
     @Before
     public void setup() {
         MockitoAnnotations.initMocks(this);
-        final PhoneResource phoneResource = new PhoneResource(phoneService);
+        final PhoneResource phoneResource = new PhoneResource(phoneService, bulkImportService, exportService);
         this.restPhoneMockMvc = MockMvcBuilders.standaloneSetup(phoneResource)
             .setCustomArgumentResolvers(pageableArgumentResolver)
             .setControllerAdvice(exceptionTranslator)
@@ -178,6 +229,137 @@ public class PhoneResourceIntTest {
             .andExpect(jsonPath("$.[*].brand").value(hasItem(DEFAULT_BRAND.toString())))
             .andExpect(jsonPath("$.[*].price").value(hasItem(DEFAULT_PRICE.intValue())));
     }
+
+    @Test
+    public void getAllPhonesWithCursor() throws Exception {
+        // Initialize the database
+        phoneRepository.save(phone);
+        Phone otherPhone = createEntity().name(UPDATED_NAME);
+        phoneRepository.save(otherPhone);
+
+        // Get the first page, which links to the next one
+        String next = restPhoneMockMvc.perform(get("/api/phones?after=&size=1&sort=name,asc"))
+            .andExpect(status().isOk())
+            .andExpect(header().doesNotExist("X-Total-Count"))
+            .andExpect(jsonPath("$.[*].id").value(contains(phone.getId())))
+            .andReturn().getResponse().getHeader(HttpHeaders.LINK);
+        assertThat(next).endsWith("; rel=\"next\"");
+
+        // Get the last page, which has no next link
+        restPhoneMockMvc.perform(get(next.substring(1, next.indexOf('>'))))
+            .andExpect(status().isOk())
+            .andExpect(header().doesNotExist(HttpHeaders.LINK))
+            .andExpect(jsonPath("$.[*].id").value(contains(otherPhone.getId())));
+    }
+
+    @Test
+    public void getAllPhonesWithInvalidCursor() throws Exception {
+        restPhoneMockMvc.perform(get("/api/phones?after=invalid&sort=name,asc"))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void getAllPhonesWithUnsupportedCursorSort() throws Exception {
+        restPhoneMockMvc.perform(get("/api/phones?after=&sort=version,asc"))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void bulkImportPhonesFromNdjson() throws Exception {
+        phoneRepository.save(phone);
+
+        String body = "{\"name\":\"" + UPDATED_NAME + "\",\"brand\":\"" + UPDATED_BRAND + "\",\"price\":2}\n" +
+            "not json\n" +
+            "{\"id\":\"" + phone.getId() + "\",\"name\":\"" + UPDATED_NAME + "\",\"price\":2}\n";
+        String report = restPhoneMockMvc.perform(post("/api/phones/_bulk")
+            .contentType(RowFormat.NDJSON_VALUE)
+            .content(body))
+            .andExpect(status().isOk())
+            .andReturn().getResponse().getContentAsString();
+
+        String[] results = report.split("\n");
+        assertThat(results).hasSize(3);
+        assertThat(results[0]).contains("\"row\":1", "\"status\":\"CREATED\"");
+        assertThat(results[1]).contains("\"row\":2", "\"status\":\"FAILED\"");
+        assertThat(results[2]).contains("\"row\":3", "\"status\":\"UPDATED\"");
+        assertThat(phoneRepository.findAll()).hasSize(2).allMatch(testPhone -> UPDATED_NAME.equals(testPhone.getName()));
+        assertThat(phoneRepository.findById(phone.getId()).get().getPrice()).isEqualByComparingTo(UPDATED_PRICE);
+    }
+
+    @Test
+    public void bulkImportPhonesFromCsv() throws Exception {
+        String body = "name,brand,price\n" +
+            "\"" + DEFAULT_NAME + ", 64GB\"," + DEFAULT_BRAND + ",1.5\n" +
+            UPDATED_NAME + "," + UPDATED_BRAND + ",not a price\n";
+        String report = restPhoneMockMvc.perform(post("/api/phones/_bulk")
+            .contentType(RowFormat.CSV_VALUE)
+            .content(body))
+            .andExpect(status().isOk())
+            .andReturn().getResponse().getContentAsString();
+
+        assertThat(report.split("\n")).hasSize(2);
+        List<Phone> phoneList = phoneRepository.findAll();
+        assertThat(phoneList).hasSize(1);
+        assertThat(phoneList.get(0).getName()).isEqualTo(DEFAULT_NAME + ", 64GB");
+        assertThat(phoneList.get(0).getPrice()).isEqualByComparingTo(new BigDecimal("1.5"));
+        verify(mockPhoneSearchRepository, times(1)).saveAll(anyList());
+    }
+
+    @Test
+    public void exportPhones() throws Exception {
+        phoneRepository.save(phone);
+
+        restPhoneMockMvc.perform(get("/api/phones/_export"))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(RowFormat.NDJSON_VALUE))
+            .andExpect(header().doesNotExist(ExportUtil.CREATED_BEFORE_HEADER))
+            .andExpect(content().string(
+                "{\"id\":\"" + phone.getId() + "\",\"name\":\"" + DEFAULT_NAME + "\",\"brand\":\"" + DEFAULT_BRAND + "\",\"price\":1}\n"));
+    }
+
+    @Test
+    public void exportPhonesAsGzippedCsvWithCutoff() throws Exception {
+        phoneRepository.save(phone);
+
+        byte[] body = restPhoneMockMvc.perform(get("/api/phones/_export?format=csv&cutoff=true")
+            .header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+            .andExpect(status().isOk())
+            .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+            .andExpect(header().exists(ExportUtil.CREATED_BEFORE_HEADER))
+            .andReturn().getResponse().getContentAsByteArray();
+
+        String csv = StreamUtils.copyToString(new GZIPInputStream(new ByteArrayInputStream(body)), StandardCharsets.UTF_8);
+        assertThat(csv).isEqualTo("id,name,brand,price\r\n" +
+            phone.getId() + "," + DEFAULT_NAME + "," + DEFAULT_BRAND + ",1\r\n");
+    }
+
+    @Test
+    public void exportPhonesWithCutoffLeavesOutLaterPhones() throws Exception {
+        phoneRepository.save(phone);
+        // an ObjectId generated an hour from now, as if the phone was created during the export
+        Phone laterPhone = createEntity().name(UPDATED_NAME);
+        laterPhone.setId(new ObjectId(Date.from(Instant.now().plus(1, ChronoUnit.HOURS))).toHexString());
+        phoneRepository.save(laterPhone);
+
+        restPhoneMockMvc.perform(get("/api/phones/_export?cutoff=true"))
+            .andExpect(status().isOk())
+            .andExpect(content().string(
+                "{\"id\":\"" + phone.getId() + "\",\"name\":\"" + DEFAULT_NAME + "\",\"brand\":\"" + DEFAULT_BRAND + "\",\"price\":1}\n"));
+    }
+
+    @Test
+    public void exportPhonesWithUnknownFormat() throws Exception {
+        restPhoneMockMvc.perform(get("/api/phones/_export?format=xml"))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void bulkImportPhonesWithUnknownCsvColumn() throws Exception {
+        restPhoneMockMvc.perform(post("/api/phones/_bulk")
+            .contentType(RowFormat.CSV_VALUE)
+            .content("name,color\nphone,red\n"))
+            .andExpect(status().isBadRequest());
+    }
     
 
     @Test
@@ -194,6 +376,140 @@ public class PhoneResourceIntTest {
             .andExpect(jsonPath("$.brand").value(DEFAULT_BRAND.toString()))
             .andExpect(jsonPath("$.price").value(DEFAULT_PRICE.intValue()));
     }
+
+    @Test
+    public void getPhoneNotModified() throws Exception {
+        // Initialize the database
+        phone.setVersion(3L);
+        phoneRepository.save(phone);
+
+        // The current version is not sent again
+        restPhoneMockMvc.perform(get("/api/phones/{id}", phone.getId())
+            .header(HttpHeaders.IF_NONE_MATCH, "\"3\""))
+            .andExpect(status().isNotModified())
+            .andExpect(header().string(HttpHeaders.ETAG, "\"3\""))
+            .andExpect(content().string(""));
+
+        // An older version is replaced
+        restPhoneMockMvc.perform(get("/api/phones/{id}", phone.getId())
+            .header(HttpHeaders.IF_NONE_MATCH, "\"2\""))
+            .andExpect(status().isOk())
+            .andExpect(header().string(HttpHeaders.ETAG, "\"3\""))
+            .andExpect(jsonPath("$.id").value(phone.getId()));
+    }
+
+    @Test
+    public void getAllPhonesNotModifiedUntilChanged() throws Exception {
+        // Initialize the database
+        phoneService.save(phoneMapper.toDto(phone));
+
+        String eTag = restPhoneMockMvc.perform(get("/api/phones?sort=id,desc"))
+            .andExpect(status().isOk())
+            .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertThat(eTag).isNotNull();
+
+        restPhoneMockMvc.perform(get("/api/phones?sort=id,desc")
+            .header(HttpHeaders.IF_NONE_MATCH, eTag))
+            .andExpect(status().isNotModified());
+
+        // Any write changes the tag of the listings
+        phoneService.delete(phoneRepository.findAll().get(0).getId());
+
+        restPhoneMockMvc.perform(get("/api/phones?sort=id,desc")
+            .header(HttpHeaders.IF_NONE_MATCH, eTag))
+            .andExpect(status().isOk())
+            .andExpect(header().string(HttpHeaders.ETAG, not(eTag)));
+    }
+
+    @Test
+    public void getPhonesByPriceRange() throws Exception {
+        // Initialize the database, and the price index with it
+        priceIndexService.reload();
+        PhoneDTO cheap = phoneService.save(phoneMapper.toDto(createEntity().price(new BigDecimal("1.00"))));
+        PhoneDTO middle = phoneService.save(phoneMapper.toDto(createEntity().price(new BigDecimal("2.50"))));
+        PhoneDTO expensive = phoneService.save(phoneMapper.toDto(createEntity().price(new BigDecimal("4.00"))));
+        phoneService.save(phoneMapper.toDto(createEntity().price(null)));
+
+        restPhoneMockMvc.perform(get("/api/phones/_price-range?minPrice=2&sort=price,desc"))
+            .andExpect(status().isOk())
+            .andExpect(header().string("X-Total-Count", "2"))
+            .andExpect(jsonPath("$.[*].id").value(contains(expensive.getId(), middle.getId())));
+
+        restPhoneMockMvc.perform(get("/api/phones/_price-range?maxPrice=3&page=1&size=1"))
+            .andExpect(status().isOk())
+            .andExpect(header().string("X-Total-Count", "2"))
+            .andExpect(jsonPath("$.[*].id").value(contains(middle.getId())));
+
+        // The index follows the writes
+        phoneService.delete(expensive.getId());
+        cheap.setPrice(new BigDecimal("3.00"));
+        phoneService.save(cheap);
+
+        restPhoneMockMvc.perform(get("/api/phones/_price-range"))
+            .andExpect(status().isOk())
+            .andExpect(header().string("X-Total-Count", "2"))
+            .andExpect(jsonPath("$.[*].id").value(contains(middle.getId(), cheap.getId())));
+
+        restPhoneMockMvc.perform(get("/api/phones/_price-stats?percentile=50,100"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.count").value(2))
+            .andExpect(jsonPath("$.minPrice").value(2.5))
+            .andExpect(jsonPath("$.maxPrice").value(3.0))
+            .andExpect(jsonPath("$.percentiles.50").value(2.5))
+            .andExpect(jsonPath("$.percentiles.100").value(3.0));
+    }
+
+    @Test
+    public void getPhonesByPriceRangeWithInvalidRange() throws Exception {
+        restPhoneMockMvc.perform(get("/api/phones/_price-range?minPrice=3&maxPrice=2"))
+            .andExpect(status().isBadRequest());
+        restPhoneMockMvc.perform(get("/api/phones/_price-range?sort=name,asc"))
+            .andExpect(status().isBadRequest());
+        restPhoneMockMvc.perform(get("/api/phones/_price-stats?percentile=101"))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void getPhonesById() throws Exception {
+        // Initialize the database
+        phoneRepository.save(phone);
+        Phone otherPhone = phoneRepository.save(createEntity().name(UPDATED_NAME));
+
+        // Get the phones in the requested order, reporting the missing one
+        restPhoneMockMvc.perform(get("/api/phones?ids={ids}", otherPhone.getId() + ",missing," + phone.getId() + "," + otherPhone.getId()))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8_VALUE))
+            .andExpect(jsonPath("$.items[*].id").value(contains(otherPhone.getId(), phone.getId())))
+            .andExpect(jsonPath("$.items[*].name").value(contains(UPDATED_NAME, DEFAULT_NAME)))
+            .andExpect(jsonPath("$.missing").value(contains("missing")));
+    }
+
+    @Test
+    public void getPhonesByIdInBody() throws Exception {
+        // Initialize the database
+        phoneRepository.save(phone);
+
+        restPhoneMockMvc.perform(post("/api/phones/_mget")
+            .contentType(TestUtil.APPLICATION_JSON_UTF8)
+            .content(TestUtil.convertObjectToJsonBytes(Arrays.asList("missing", phone.getId()))))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.items[*].id").value(contains(phone.getId())))
+            .andExpect(jsonPath("$.missing").value(contains("missing")));
+    }
+
+    @Test
+    public void getTooManyPhonesById() throws Exception {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i <= 1000; i++) {
+            ids.add(Integer.toString(i));
+        }
+
+        restPhoneMockMvc.perform(post("/api/phones/_mget")
+            .contentType(TestUtil.APPLICATION_JSON_UTF8)
+            .content(TestUtil.convertObjectToJsonBytes(ids)))
+            .andExpect(status().isBadRequest());
+    }
+
     @Test
     public void getNonExistingPhone() throws Exception {
         // Get the phone
@@ -254,6 +570,92 @@ public class PhoneResourceIntTest {
         verify(mockPhoneSearchRepository, times(0)).save(phone);
     }
 
+    @Test
+    public void updatePhoneWithTooPrecisePrice() throws Exception {
+        phoneRepository.save(phone);
+
+        // more digits than a Decimal128 can store
+        PhoneDTO phoneDTO = phoneMapper.toDto(phone);
+        phoneDTO.setPrice(new BigDecimal("1234567890123456789012345678901234.5"));
+
+        restPhoneMockMvc.perform(put("/api/phones")
+            .contentType(TestUtil.APPLICATION_JSON_UTF8)
+            .content(TestUtil.convertObjectToJsonBytes(phoneDTO)))
+            .andExpect(status().isBadRequest());
+
+        assertThat(phoneRepository.findById(phone.getId()).get().getPrice()).isEqualByComparingTo(DEFAULT_PRICE);
+    }
+
+    @Test
+    public void patchPhone() throws Exception {
+        // Initialize the database
+        phoneService.save(phoneMapper.toDto(phone));
+        Phone savedPhone = phoneRepository.findAll().get(0);
+
+        restPhoneMockMvc.perform(patch("/api/phones/{id}", savedPhone.getId())
+            .contentType("application/merge-patch+json")
+            .header(HttpHeaders.IF_MATCH, "\"" + savedPhone.getVersion() + "\"")
+            .content("{\"price\": " + UPDATED_PRICE + ", \"brand\": null}"))
+            .andExpect(status().isOk())
+            .andExpect(header().string(HttpHeaders.ETAG, "\"" + (savedPhone.getVersion() + 1) + "\""))
+            .andExpect(jsonPath("$.name").value(DEFAULT_NAME))
+            .andExpect(jsonPath("$.price").value(UPDATED_PRICE.intValue()));
+
+        // Validate the Phone in the database
+        Phone testPhone = phoneRepository.findById(savedPhone.getId()).get();
+        assertThat(testPhone.getName()).isEqualTo(DEFAULT_NAME);
+        assertThat(testPhone.getBrand()).isNull();
+        assertThat(testPhone.getPrice()).isEqualByComparingTo(UPDATED_PRICE);
+        assertThat(testPhone.getVersion()).isEqualTo(savedPhone.getVersion() + 1);
+    }
+
+    @Test
+    public void patchPhoneWithStaleVersion() throws Exception {
+        // Initialize the database
+        phoneService.save(phoneMapper.toDto(phone));
+        Phone savedPhone = phoneRepository.findAll().get(0);
+
+        restPhoneMockMvc.perform(patch("/api/phones/{id}", savedPhone.getId())
+            .contentType("application/merge-patch+json")
+            .header(HttpHeaders.IF_MATCH, "\"" + (savedPhone.getVersion() + 1) + "\"")
+            .content("{\"price\": " + UPDATED_PRICE + "}"))
+            .andExpect(status().isPreconditionFailed());
+
+        assertThat(phoneRepository.findById(savedPhone.getId()).get().getPrice()).isEqualByComparingTo(DEFAULT_PRICE);
+    }
+
+    @Test
+    public void patchPhoneWithUnknownField() throws Exception {
+        phoneRepository.save(phone);
+
+        restPhoneMockMvc.perform(patch("/api/phones/{id}", phone.getId())
+            .contentType("application/merge-patch+json")
+            .content("{\"colour\": \"red\"}"))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void patchPhoneWithTooPrecisePrice() throws Exception {
+        phoneRepository.save(phone);
+
+        restPhoneMockMvc.perform(patch("/api/phones/{id}", phone.getId())
+            .contentType("application/merge-patch+json")
+            .content("{\"price\": 1234567890123456789012345678901234.5}"))
+            .andExpect(status().isBadRequest());
+
+        assertThat(phoneRepository.findById(phone.getId()).get().getPrice()).isEqualByComparingTo(DEFAULT_PRICE);
+    }
+
+    @Test
+    public void patchNonExistingPhone() throws Exception {
+        restPhoneMockMvc.perform(patch("/api/phones/{id}", "unknown")
+            .contentType("application/merge-patch+json")
+            .content("{\"price\": " + UPDATED_PRICE + "}"))
+            .andExpect(status().isNotFound());
+
+        assertThat(phoneRepository.findAll()).isEmpty();
+    }
+
     @Test
     public void deletePhone() throws Exception {
         // Initialize the database
@@ -274,6 +676,16 @@ public class PhoneResourceIntTest {
         verify(mockPhoneSearchRepository, times(1)).deleteById(phone.getId());
     }
 
+    @Test
+    public void deleteNonExistingPhone() throws Exception {
+        restPhoneMockMvc.perform(delete("/api/phones/{id}", "unknown")
+            .accept(TestUtil.APPLICATION_JSON_UTF8))
+            .andExpect(status().isOk());
+
+        // Nothing was deleted, so nothing is propagated
+        verify(mockPhoneSearchRepository, never()).deleteById("unknown");
+    }
+
     @Test
     public void searchPhone() throws Exception {
         // Initialize the database
@@ -290,6 +702,113 @@ public class PhoneResourceIntTest {
             .andExpect(jsonPath("$.[*].price").value(hasItem(DEFAULT_PRICE.intValue())));
     }
 
+    @Test
+    public void searchPhoneByCriteria() throws Exception {
+        // Initialize the database
+        phoneRepository.save(phone);
+        QueryBuilder query = boolQuery()
+            .must(matchQuery("name", DEFAULT_NAME).operator(Operator.AND))
+            .filter(termsQuery("brand", DEFAULT_BRAND, UPDATED_BRAND))
+            .filter(rangeQuery("price").gte(null).lte(2.0));
+        when(mockSearchAfterRepository.search(Phone.class, query, null, PageRequest.of(0, 1)))
+            .thenReturn(new CursorPage<>(Collections.singletonList(phone), new Cursor(null, 1.5, phone.getId())));
+        // Search the phone
+        restPhoneMockMvc.perform(get("/api/phones/_search?name={name}&brand={brand}&brand={other}&maxPrice=2&size=1",
+                DEFAULT_NAME, DEFAULT_BRAND, UPDATED_BRAND))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8_VALUE))
+            .andExpect(jsonPath("$.[*].id").value(contains(phone.getId())))
+            .andExpect(header().string(HttpHeaders.LINK, "</api/phones/_search?name=" + DEFAULT_NAME + "&brand=" + DEFAULT_BRAND
+                + "&brand=" + UPDATED_BRAND + "&maxPrice=2&after=" + new Cursor(null, 1.5, phone.getId()).encode()
+                + "&size=1>; rel=\"next\""));
+    }
+
+    @Test
+    public void searchPhonesFollowingNextLink() throws Exception {
+        // Initialize the database
+        phoneRepository.save(phone);
+        // sorted by relevance, the cursor holds the score of the last phone
+        when(mockSearchAfterRepository.search(eq(Phone.class), any(QueryBuilder.class), isNull(), any()))
+            .thenReturn(new CursorPage<>(Collections.singletonList(phone), new Cursor(null, 1.5f, phone.getId())));
+        when(mockSearchAfterRepository.search(eq(Phone.class), any(QueryBuilder.class), notNull(), any()))
+            .thenReturn(new CursorPage<>(Collections.emptyList(), null));
+
+        String link = restPhoneMockMvc.perform(get("/api/phones/_search?name={name}&size=1", "Galaxy S9+ 100%"))
+            .andExpect(status().isOk())
+            .andReturn().getResponse().getHeader(HttpHeaders.LINK);
+        assertThat(link).startsWith("</api/phones/_search?name=Galaxy+S9%2B+100%25&after=");
+        restPhoneMockMvc.perform(get(URI.create(link.substring(1, link.indexOf('>')))))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$").isEmpty())
+            .andExpect(header().doesNotExist(HttpHeaders.LINK));
+
+        ArgumentCaptor<QueryBuilder> queries = ArgumentCaptor.forClass(QueryBuilder.class);
+        ArgumentCaptor<Cursor> cursors = ArgumentCaptor.forClass(Cursor.class);
+        verify(mockSearchAfterRepository, times(2)).search(eq(Phone.class), queries.capture(), cursors.capture(), any());
+        assertThat(queries.getAllValues().get(1)).isEqualTo(queries.getAllValues().get(0));
+        Cursor after = cursors.getAllValues().get(1);
+        assertThat(after.getProperty()).isNull();
+        assertThat(((Number) after.getValue()).doubleValue()).isEqualTo(1.5);
+        assertThat(after.getId()).isEqualTo(phone.getId());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void searchPhoneWithFacets() throws Exception {
+        // Initialize the database
+        phoneRepository.save(phone);
+        Terms.Bucket brandBucket = mock(Terms.Bucket.class);
+        when(brandBucket.getKeyAsString()).thenReturn(DEFAULT_BRAND);
+        when(brandBucket.getDocCount()).thenReturn(3L);
+        Terms brands = mock(Terms.class);
+        when(brands.getName()).thenReturn("brand");
+        doReturn(Collections.singletonList(brandBucket)).when(brands).getBuckets();
+        Histogram.Bucket priceBucket = mock(Histogram.Bucket.class);
+        when(priceBucket.getKey()).thenReturn(100.0);
+        when(priceBucket.getDocCount()).thenReturn(2L);
+        Histogram prices = mock(Histogram.class);
+        when(prices.getName()).thenReturn("price");
+        doReturn(Collections.singletonList(priceBucket)).when(prices).getBuckets();
+        Aggregations aggregations = new Aggregations(Arrays.asList(
+            filterAggregation("brand", brands), filterAggregation("price", prices)));
+        when(mockSearchAfterRepository.search(eq(Phone.class), any(), any(), anyCollection(), isNull(), any()))
+            .thenReturn(new AggregatedCursorPage<>(new CursorPage<>(Collections.singletonList(phone), null), aggregations));
+
+        // Search the phone, then search again with the same normalized criteria
+        restPhoneMockMvc.perform(get("/api/phones/_search/faceted?name={name}&brand={brand}", DEFAULT_NAME, DEFAULT_BRAND))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8_VALUE))
+            .andExpect(jsonPath("$.items[*].id").value(contains(phone.getId())))
+            .andExpect(jsonPath("$.facets.brand[0].value").value(DEFAULT_BRAND))
+            .andExpect(jsonPath("$.facets.brand[0].count").value(3))
+            .andExpect(jsonPath("$.facets.price[0].from").value(100.0))
+            .andExpect(jsonPath("$.facets.price[0].to").value(200.0))
+            .andExpect(jsonPath("$.facets.price[0].count").value(2));
+        restPhoneMockMvc.perform(get("/api/phones/_search/faceted?name={name}&brand={brand}", " " + DEFAULT_NAME.toLowerCase(), DEFAULT_BRAND))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.facets.brand[0].count").value(3));
+
+        // Only the first search computed the facets
+        ArgumentCaptor<Collection<AggregationBuilder>> requested = ArgumentCaptor.forClass(Collection.class);
+        verify(mockSearchAfterRepository, times(2)).search(eq(Phone.class), any(), eq(boolQuery().filter(termQuery("brand", DEFAULT_BRAND))),
+            requested.capture(), isNull(), any());
+        assertThat(requested.getAllValues().get(0)).hasSize(2);
+        assertThat(requested.getAllValues().get(1)).isEmpty();
+    }
+
+    private Filter filterAggregation(String name, Aggregation aggregation) {
+        Filter filter = mock(Filter.class);
+        when(filter.getName()).thenReturn(name);
+        when(filter.getAggregations()).thenReturn(new Aggregations(Collections.singletonList(aggregation)));
+        return filter;
+    }
+
+    @Test
+    public void searchPhoneByInvalidPriceRange() throws Exception {
+        restPhoneMockMvc.perform(get("/api/phones/_search?minPrice=2&maxPrice=1"))
+            .andExpect(status().isBadRequest());
+    }
+
     @Test
     public void equalsVerifier() throws Exception {
         TestUtil.equalsVerifier(Phone.class);
@@ -0,0 +1,81 @@
+package com.geardao.phoneapp.web.rest;
+
+import com.geardao.phoneapp.service.ReindexException;
+import com.geardao.phoneapp.service.ReindexService;
+import com.geardao.phoneapp.service.dto.ReindexStatusDTO;
+import com.geardao.phoneapp.web.rest.errors.ExceptionTranslator;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.contains;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * Test class for the ReindexResource REST controller.
+ *
+ * @see ReindexResource
+ */
+public class ReindexResourceUnitTest {
+
+    private ReindexService reindexService;
+
+    private MockMvc restReindexMockMvc;
+
+    @Before
+    public void setup() {
+        reindexService = mock(ReindexService.class);
+        restReindexMockMvc = MockMvcBuilders.standaloneSetup(new ReindexResource(reindexService))
+            .setControllerAdvice(new ExceptionTranslator())
+            .build();
+    }
+
+    @Test
+    public void reindex() throws Exception {
+        when(reindexService.start(Arrays.asList("phone", "brand")))
+            .thenReturn(Arrays.asList(new ReindexStatusDTO("phone"), new ReindexStatusDTO("brand")));
+
+        restReindexMockMvc.perform(post("/management/reindex?index=phone&index=brand"))
+            .andExpect(status().isAccepted())
+            .andExpect(jsonPath("$.[*].index").value(contains("phone", "brand")));
+    }
+
+    @Test
+    public void reindexAll() throws Exception {
+        when(reindexService.start(Collections.emptyList())).thenReturn(Collections.emptyList());
+
+        restReindexMockMvc.perform(post("/management/reindex"))
+            .andExpect(status().isAccepted());
+        verify(reindexService).start(Collections.emptyList());
+    }
+
+    @Test
+    public void reindexUnknownIndex() throws Exception {
+        when(reindexService.start(anyCollection()))
+            .thenThrow(new ReindexException(ReindexException.Reason.UNKNOWN_INDEX, "Unknown index unknown"));
+
+        restReindexMockMvc.perform(post("/management/reindex?index=unknown"))
+            .andExpect(status().isBadRequest())
+            .andExpect(header().string("X-phoneappApp-error", "Unknown index unknown"))
+            .andExpect(header().string("X-phoneappApp-params", "reindex"));
+    }
+
+    @Test
+    public void reindexWhileRunning() throws Exception {
+        when(reindexService.start(anyCollection()))
+            .thenThrow(new ReindexException(ReindexException.Reason.ALREADY_RUNNING, "A reindex is already running"));
+
+        restReindexMockMvc.perform(post("/management/reindex"))
+            .andExpect(status().isBadRequest())
+            .andExpect(header().string("X-phoneappApp-error", "A reindex is already running"))
+            .andExpect(header().string("X-phoneappApp-params", "reindex"));
+    }
+}
@@ -0,0 +1,100 @@
+package com.geardao.phoneapp.web.rest;
+
+import com.geardao.phoneapp.PhoneappApp;
+
+import com.geardao.phoneapp.domain.Brand;
+import com.geardao.phoneapp.domain.Phone;
+import com.geardao.phoneapp.repository.BrandRepository;
+import com.geardao.phoneapp.repository.PhoneRepository;
+import com.geardao.phoneapp.service.SuggestService;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.math.BigDecimal;
+
+import static org.hamcrest.Matchers.hasSize;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * Test class for the SuggestResource REST controller.
+ *
+ * @see SuggestResource
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = PhoneappApp.class)
+public class SuggestResourceIntTest {
+
+    @Autowired
+    private PhoneRepository phoneRepository;
+
+    @Autowired
+    private BrandRepository brandRepository;
+
+    @Autowired
+    private SuggestService suggestService;
+
+    private MockMvc restSuggestMockMvc;
+
+    @Before
+    public void setup() {
+        SuggestResource suggestResource = new SuggestResource(suggestService);
+        this.restSuggestMockMvc = MockMvcBuilders.standaloneSetup(suggestResource).build();
+    }
+
+    @Before
+    public void initTest() {
+        phoneRepository.deleteAll();
+        brandRepository.deleteAll();
+    }
+
+    @Test
+    public void suggestPhonesAndBrands() throws Exception {
+        Brand brand = brandRepository.save(new Brand().name("Samsung").country("KR"));
+        Phone galaxy = phoneRepository.save(new Phone().name("Samsung Galaxy S9").brand("Samsung").price(new BigDecimal("799")));
+        phoneRepository.save(new Phone().name("Sony Xperia XZ2").brand("Sony").price(new BigDecimal("699")));
+        suggestService.reload();
+
+        restSuggestMockMvc.perform(get("/api/_suggest?prefix=SAM"))
+            .andExpect(status().isOk())
+            .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+            .andExpect(jsonPath("$", hasSize(2)))
+            .andExpect(jsonPath("$.[0].type").value("brand"))
+            .andExpect(jsonPath("$.[0].id").value(brand.getId()))
+            .andExpect(jsonPath("$.[1].type").value("phone"))
+            .andExpect(jsonPath("$.[1].id").value(galaxy.getId()));
+
+        restSuggestMockMvc.perform(get("/api/_suggest?prefix=xper&size=1"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$", hasSize(1)))
+            .andExpect(jsonPath("$.[0].name").value("Sony Xperia XZ2"));
+    }
+
+    @Test
+    public void suggestAfterWrite() throws Exception {
+        suggestService.reload();
+        Phone phone = new Phone().name("Pixel 3").brand("Google").price(new BigDecimal("849"));
+        phone.setId("pixel-3");
+        suggestService.put(phone);
+        suggestService.rebuild();
+
+        restSuggestMockMvc.perform(get("/api/_suggest?prefix=pix"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[0].id").value("pixel-3"));
+
+        suggestService.remove(Phone.class, "pixel-3");
+        suggestService.rebuild();
+
+        restSuggestMockMvc.perform(get("/api/_suggest?prefix=pix"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$", hasSize(0)));
+    }
+}
@@ -0,0 +1,165 @@
+package com.geardao.phoneapp.web.rest;
+
+import com.geardao.phoneapp.PhoneappApp;
+import com.geardao.phoneapp.domain.Phone;
+import com.geardao.phoneapp.domain.Tombstone;
+import com.geardao.phoneapp.repository.BrandRepository;
+import com.geardao.phoneapp.repository.PhoneRepository;
+import com.geardao.phoneapp.repository.VersionedRepository;
+import com.geardao.phoneapp.service.BrandService;
+import com.geardao.phoneapp.service.PhoneService;
+import com.geardao.phoneapp.service.SyncService;
+import com.geardao.phoneapp.service.dto.BrandDTO;
+import com.geardao.phoneapp.service.dto.PhoneDTO;
+import com.geardao.phoneapp.service.mapper.BrandMapper;
+import com.geardao.phoneapp.service.mapper.PhoneMapper;
+import com.geardao.phoneapp.web.rest.errors.ExceptionTranslator;
+
+import com.jayway.jsonpath.JsonPath;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * Test class for the SyncResource REST controller.
+ *
+ * @see SyncResource
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = PhoneappApp.class)
+public class SyncResourceIntTest {
+
+    @Autowired
+    private PhoneRepository phoneRepository;
+
+    @Autowired
+    private BrandRepository brandRepository;
+
+    @Autowired
+    private PhoneService phoneService;
+
+    @Autowired
+    private BrandService brandService;
+
+    @Autowired
+    private PhoneMapper phoneMapper;
+
+    @Autowired
+    private BrandMapper brandMapper;
+
+    @Autowired
+    private SyncService syncService;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private MappingJackson2HttpMessageConverter jacksonMessageConverter;
+
+    @Autowired
+    private ExceptionTranslator exceptionTranslator;
+
+    private MockMvc restSyncMockMvc;
+
+    @Before
+    public void setup() {
+        SyncResource syncResource = new SyncResource(syncService);
+        this.restSyncMockMvc = MockMvcBuilders.standaloneSetup(syncResource)
+            .setControllerAdvice(exceptionTranslator)
+            .setMessageConverters(jacksonMessageConverter).build();
+        phoneRepository.deleteAll();
+        brandRepository.deleteAll();
+        mongoTemplate.remove(new Query(), Tombstone.class);
+    }
+
+    @Test
+    public void syncReturnsOnlyTheChangesSinceTheToken() throws Exception {
+        PhoneDTO phone = phoneService.save(phoneMapper.toDto(PhoneResourceIntTest.createEntity()));
+        BrandDTO brand = brandService.save(brandMapper.toDto(BrandResourceIntTest.createEntity()));
+
+        // a first sync returns the whole catalog
+        String first = restSyncMockMvc.perform(get("/api/sync"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.reset").value(true))
+            .andExpect(jsonPath("$.more").value(false))
+            .andExpect(jsonPath("$.changes[*].id").value(contains(phone.getId(), brand.getId())))
+            .andExpect(jsonPath("$.changes[0].type").value("phone"))
+            .andExpect(jsonPath("$.changes[0].data.name").value(phone.getName()))
+            .andReturn().getResponse().getContentAsString();
+        String token = JsonPath.read(first, "$.token");
+
+        // nothing changed since
+        restSyncMockMvc.perform(get("/api/sync").param("since", token))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.reset").value(false))
+            .andExpect(jsonPath("$.changes").value(empty()));
+
+        // an update and a deletion
+        phone.setName("BBBBBBBBBB");
+        phoneService.save(phone);
+        brandService.delete(brand.getId());
+
+        restSyncMockMvc.perform(get("/api/sync").param("since", token))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.reset").value(false))
+            .andExpect(jsonPath("$.changes[*].id").value(contains(phone.getId(), brand.getId())))
+            .andExpect(jsonPath("$.changes[0].data.name").value("BBBBBBBBBB"))
+            .andExpect(jsonPath("$.changes[1].type").value("brand"))
+            .andExpect(jsonPath("$.changes[1].deleted").value(true));
+    }
+
+    @Test
+    public void syncReturnsChangesStampedByALaggingClock() throws Exception {
+        String first = restSyncMockMvc.perform(get("/api/sync"))
+            .andExpect(status().isOk())
+            .andReturn().getResponse().getContentAsString();
+        String token = JsonPath.read(first, "$.token");
+
+        // written after the token by a node whose clock is an hour behind
+        PhoneDTO phone = phoneService.save(phoneMapper.toDto(PhoneResourceIntTest.createEntity()));
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(phone.getId())),
+            Update.update(VersionedRepository.LAST_MODIFIED_DATE_FIELD, Date.from(Instant.now().minus(1, ChronoUnit.HOURS))),
+            Phone.class);
+
+        restSyncMockMvc.perform(get("/api/sync").param("since", token))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.reset").value(false))
+            .andExpect(jsonPath("$.changes[*].id").value(contains(phone.getId())));
+    }
+
+    @Test
+    public void syncWithTokenOrderedByTime() throws Exception {
+        PhoneDTO phone = phoneService.save(phoneMapper.toDto(PhoneResourceIntTest.createEntity()));
+
+        // the tokens returned before the changes were ordered by their sequence number start again
+        restSyncMockMvc.perform(get("/api/sync").param("since", Instant.now().toEpochMilli() + ".42"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.reset").value(true))
+            .andExpect(jsonPath("$.changes[*].id").value(contains(phone.getId())));
+    }
+
+    @Test
+    public void syncWithInvalidToken() throws Exception {
+        restSyncMockMvc.perform(get("/api/sync").param("since", "invalid"))
+            .andExpect(status().isBadRequest());
+    }
+}
@@ -2,15 +2,23 @@ package com.geardao.phoneapp.web.rest.util;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
+import com.geardao.phoneapp.repository.Cursor;
+import com.geardao.phoneapp.repository.CursorPage;
+import com.geardao.phoneapp.web.rest.errors.BadRequestAlertException;
 import org.junit.Test;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpHeaders;
 
 /**
@@ -20,6 +28,8 @@ import org.springframework.http.HttpHeaders;
  */
 public class PaginationUtilUnitTest {
 
+    private static final Set<String> SORT_PROPERTIES = new HashSet<>(Arrays.asList("name", "price"));
+
     @Test
     public void generatePaginationHttpHeadersTest() {
         String baseUrl = "/api/_search/example";
@@ -155,4 +165,67 @@ public class PaginationUtilUnitTest {
         assertTrue(xTotalCountHeaders.size() == 1);
         assertTrue(Long.valueOf(xTotalCountHeaders.get(0)).equals(0L));
     }
+
+    @Test
+    public void generateCursorPaginationHttpHeadersTest() {
+        Cursor next = new Cursor("name", "phone", "5b2f");
+        CursorPage<String> page = new CursorPage<>(new ArrayList<>(), next);
+        HttpHeaders headers = PaginationUtil.generateCursorPaginationHttpHeaders(page,
+            PageRequest.of(0, 20, Sort.by("name")), "/api/example");
+        List<String> strHeaders = headers.get(HttpHeaders.LINK);
+        assertNotNull(strHeaders);
+        assertEquals("</api/example?after=" + next.encode() + "&size=20&sort=name,asc>; rel=\"next\"", strHeaders.get(0));
+        assertNull(headers.get("X-Total-Count"));
+    }
+
+    @Test
+    public void generateCursorPaginationHttpHeadersWithEncodedBaseUrlTest() {
+        Cursor next = new Cursor(null, 1.5f, "5b2f");
+        CursorPage<String> page = new CursorPage<>(new ArrayList<>(), next);
+        HttpHeaders headers = PaginationUtil.generateCursorPaginationHttpHeaders(page, PageRequest.of(0, 20),
+            "/api/example?name=" + PaginationUtil.encodeQueryParam("Galaxy S9+ 100%"));
+        assertEquals("</api/example?name=Galaxy+S9%2B+100%25&after=" + next.encode() + "&size=20>; rel=\"next\"",
+            headers.get(HttpHeaders.LINK).get(0));
+    }
+
+    @Test
+    public void generateCursorPaginationHttpHeadersOnLastPageTest() {
+        CursorPage<String> page = new CursorPage<>(new ArrayList<>(), null);
+        HttpHeaders headers = PaginationUtil.generateCursorPaginationHttpHeaders(page, PageRequest.of(0, 20), "/api/example");
+        assertNull(headers.get(HttpHeaders.LINK));
+    }
+
+    @Test
+    public void parseCursorTest() {
+        Cursor cursor = PaginationUtil.parseCursor(new Cursor("name", "phone", "5b2f").encode(),
+            PageRequest.of(0, 20, Sort.by("name")), "example", SORT_PROPERTIES);
+        assertEquals("name", cursor.getProperty());
+        assertEquals("phone", cursor.getValue());
+        assertEquals("5b2f", cursor.getId());
+        assertNull(PaginationUtil.parseCursor("", PageRequest.of(0, 20), "example", SORT_PROPERTIES));
+    }
+
+    @Test
+    public void parseRelevanceCursorTest() {
+        Cursor cursor = PaginationUtil.parseCursor(new Cursor(null, 1.5f, "5b2f").encode(), PageRequest.of(0, 20),
+            "example", SORT_PROPERTIES);
+        assertNull(cursor.getProperty());
+        assertEquals(1.5, ((Number) cursor.getValue()).doubleValue(), 0);
+        assertEquals("5b2f", cursor.getId());
+    }
+
+    @Test(expected = BadRequestAlertException.class)
+    public void parseCursorWithAnotherSortTest() {
+        PaginationUtil.parseCursor(new Cursor("name", "phone", "5b2f").encode(), PageRequest.of(0, 20, Sort.by("price")), "example", SORT_PROPERTIES);
+    }
+
+    @Test(expected = BadRequestAlertException.class)
+    public void parseInvalidCursorTest() {
+        PaginationUtil.parseCursor("not-a-cursor", PageRequest.of(0, 20), "example", SORT_PROPERTIES);
+    }
+
+    @Test(expected = BadRequestAlertException.class)
+    public void parseCursorWithUnsupportedSortTest() {
+        PaginationUtil.parseCursor("", PageRequest.of(0, 20, Sort.by("password")), "example", SORT_PROPERTIES);
+    }
 }